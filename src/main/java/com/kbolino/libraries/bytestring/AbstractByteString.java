@@ -1,8 +1,15 @@
 package com.kbolino.libraries.bytestring;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.nio.ReadOnlyBufferException;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Abstract parent for {@link ByteString}s.
@@ -11,7 +18,13 @@ import java.nio.ReadOnlyBufferException;
  * <p>Subclasses need only implement {@link ByteString#length() length()}
  * and {@link ByteString#at(int) at(int)}, but it may be advantageous
  * to override other methods for improved performance.
- * Possible optimization targets include:
+ * The default algorithms process the string in chunks obtained from
+ * {@link #copyRange(int, byte[], int, int)}, so overriding that method
+ * alone speeds up all of them.  Strings in this package which hold
+ * their content in arrays also override the package-private
+ * {@code visitArrays} method, through which the default algorithms read
+ * those arrays in place rather than copying them.  Other possible
+ * optimization targets include:
  * <ul>
  *   <li>{@link #indexOf(int, int)},</li>
  *   <li>{@link #subString(int, int)},</li>
@@ -25,6 +38,8 @@ import java.nio.ReadOnlyBufferException;
  * properly.
  */
 public abstract class AbstractByteString implements ByteString {
+	/** Cached {@link #hashCode()}, or 0 if not yet computed. */
+	private int hash;
 	
 	/**
 	 * Checks parameters to {@link #checkAt(int)}.
@@ -118,6 +133,91 @@ public abstract class AbstractByteString implements ByteString {
 		checkIndexOf(fromIndex);
 	}
 	
+	/**
+	 * Copies a range of bytes from this string into an array, without
+	 * checking parameters.  This is the bulk primitive underlying the
+	 * default algorithms of this class.  Preconditions:
+	 * <ol>
+	 *   <li>{@code bytes != null}</li>
+	 *   <li>{@code beginIndex >= 0} and
+	 *     <code>beginIndex + length &lt;= {@link #length()}</code></li>
+	 *   <li>{@code offset >= 0} and
+	 *     {@code offset + length <= bytes.length}</li>
+	 * </ol>
+	 * The default implementation calls {@link #at(int)} for each byte.
+	 * @param beginIndex  The index of the first byte to copy.
+	 * @param bytes  The array to receive the bytes.
+	 * @param offset  The first index of the array to receive a byte.
+	 * @param length  The number of bytes to copy.
+	 */
+	protected void copyRange(final int beginIndex, final byte[] bytes, final int offset,
+			final int length) {
+		for (int i = 0; i < length; i++) {
+			bytes[offset + i] = at(beginIndex + i);
+		}
+	}
+	
+	/**
+	 * Visits the segments in a range of this string as ranges of arrays,
+	 * without checking parameters.  This is the zero-copy counterpart of
+	 * {@link #copyRange(int, byte[], int, int)}, used by the default
+	 * algorithms which read a string from start to end.  Preconditions:
+	 * <ol>
+	 *   <li>{@code visitor != null}</li>
+	 *   <li><code>0 &lt;= beginIndex &lt;= endIndex &lt;=
+	 *     {@link #length()}</code></li>
+	 * </ol>
+	 * The default implementation copies the range a chunk at a time into a
+	 * scratch array.
+	 * @param beginIndex  The index of the first byte to visit, inclusive.
+	 * @param endIndex  The index of the last byte to visit, exclusive.
+	 * @param visitor  The visitor to receive the segments.
+	 * @return  False if {@code visitor} stopped the traversal, or true
+	 *   otherwise.
+	 */
+	boolean visitArrays(final int beginIndex, final int endIndex, final ArraySegmentVisitor visitor) {
+		return Utils.visitChunks(this, beginIndex, endIndex, visitor);
+	}
+	
+	/**
+	 * Adds read-only buffers holding a range of this string to a list,
+	 * without checking parameters.  Unlike the arrays passed to an
+	 * {@link ArraySegmentVisitor}, the buffers remain valid indefinitely,
+	 * so they share this string's storage only where it actually holds its
+	 * content.  Preconditions:
+	 * <ol>
+	 *   <li>{@code buffers != null}</li>
+	 *   <li><code>0 &lt;= beginIndex &lt; endIndex &lt;=
+	 *     {@link #length()}</code></li>
+	 * </ol>
+	 * The default implementation copies the range into a new buffer.
+	 * @param beginIndex  The index of the first byte, inclusive.
+	 * @param endIndex  The index of the last byte, exclusive.
+	 * @param buffers  The list to receive the buffers, whose remaining
+	 *   bytes are, in order, the bytes of the range.
+	 */
+	void addBuffers(final int beginIndex, final int endIndex, final List<ByteBuffer> buffers) {
+		final byte[] bytes = new byte[endIndex - beginIndex];
+		copyRange(beginIndex, bytes, 0, bytes.length);
+		buffers.add(ByteBuffer.wrap(bytes).asReadOnlyBuffer());
+	}
+	
+	/**
+	 * Compares a region of this string to another string.  Preconditions:
+	 * <ol>
+	 *   <li>{@code string != null}</li>
+	 *   <li>{@code beginIndex >= 0} and
+	 *     <code>beginIndex + string.length() &lt;= {@link #length()}</code></li>
+	 * </ol>
+	 * @param beginIndex  The index of the first byte of the region.
+	 * @param string  The string to compare against.
+	 * @return  True if and only if the region starting at
+	 *   {@code beginIndex} is equal to {@code string}.
+	 */
+	private boolean regionEquals(final int beginIndex, final ByteString string) {
+		return Utils.mismatch(this, beginIndex, string, 0, string.length()) < 0;
+	}
+	
 	/** {@inheritDoc} */
 	public boolean isEmpty() {
 		return length() == 0;
@@ -146,6 +246,15 @@ public abstract class AbstractByteString implements ByteString {
 		}
 	}
 	
+	/**
+	 * {@inheritDoc}
+	 * <p>This implementation returns {@code this}; strings which may share
+	 * storage with another string must override it.
+	 */
+	public ByteString compact() {
+		return this;
+	}
+	
 	/** {@inheritDoc} */
 	public byte[] toByteArray() {
 		final byte[] array = new byte[length()];
@@ -181,9 +290,8 @@ public abstract class AbstractByteString implements ByteString {
 	public int copyTo(final byte[] bytes, final int offset, final int length)
 			throws NullPointerException, IllegalArgumentException, IndexOutOfBoundsException {
 		checkCopyTo(bytes, offset, length);
-		final ByteBuffer buffer = ByteBuffer.wrap(bytes);
-		buffer.position(offset);
-		return copyTo(buffer, length);
+		copyRange(0, bytes, offset, length);
+		return length;
 	}
 	
 	/** {@inheritDoc} */
@@ -192,13 +300,27 @@ public abstract class AbstractByteString implements ByteString {
 	}
 	
 	/** {@inheritDoc} */
-	public int copyTo(ByteBuffer buffer, int length)
+	public int copyTo(final ByteBuffer buffer, final int length)
 			throws NullPointerException, IllegalArgumentException,
 			IndexOutOfBoundsException, BufferOverflowException,
 			ReadOnlyBufferException {
 		checkCopyTo(buffer, length);
-		for (int i = 0; i < length; i++) {
-			buffer.put(at(i));
+		if (buffer.isReadOnly()) {
+			throw new ReadOnlyBufferException();
+		} else if (buffer.remaining() < length) {
+			throw new BufferOverflowException();
+		}
+		if (buffer.hasArray()) {
+			final int position = buffer.position();
+			copyRange(0, buffer.array(), buffer.arrayOffset() + position, length);
+			buffer.position(position + length);
+		} else {
+			visitArrays(0, length, new ArraySegmentVisitor() {
+				public boolean visit(final byte[] array, final int offset, final int length) {
+					buffer.put(array, offset, length);
+					return true;
+				}
+			});
 		}
 		return length;
 	}
@@ -209,32 +331,156 @@ public abstract class AbstractByteString implements ByteString {
 			throw new NullPointerException("string is null");
 		}
 		checkIndexOf(fromIndex);
-		final int strLen = string.length();
-		if (strLen == 0) {
-			return fromIndex;
+		if (string.length() < ByteStringPattern.MIN_HORSPOOL_LENGTH) {
+			// too short for compiling a pattern to pay off
+			return scanIndexOf(string, fromIndex);
 		}
+		return new ByteStringPattern(string).indexIn(this, fromIndex);
+	}
+
+	/** {@inheritDoc} */
+	public int indexOf(final ByteString string) {
+		return indexOf(string, 0);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * <p>This implementation searches a {@linkplain ByteStrings#reverse(ByteString)
+	 * reversed view} of this string for the reversed substring, with the
+	 * same algorithm as {@link #indexOf(ByteString, int)}.
+	 */
+	public int lastIndexOf(final ByteString string, final int fromIndex) {
+		if (string == null) {
+			throw new NullPointerException("string is null");
+		}
+		checkIndexOf(fromIndex);
 		final int length = length();
-		for (int i = fromIndex; i < length; i++) {
-			if (i + strLen > length) {
-				return -1;
+		final int m = string.length();
+		final int start = Math.min(fromIndex, length - m);
+		if (m == 0) {
+			return fromIndex;
+		} else if (start < 0) {
+			return -1;
+		} else if (m < ByteStringPattern.MIN_HORSPOOL_LENGTH) {
+			return scanLastIndexOf(string, start);
+		}
+		// an occurrence at i is one at length - i - m in the reversed view
+		final int index = new ByteStringPattern(ByteStrings.reverse(string))
+				.indexIn(new ReversedByteString(this), length - start - m);
+		return index < 0 ? -1 : length - index - m;
+	}
+	
+	/**
+	 * Finds a short string in a single pass over the segments of this
+	 * string.  Preconditions:
+	 * <ol>
+	 *   <li>{@code string != null} and
+	 *     <code>string.length() &lt; {@link ByteStringPattern#MIN_HORSPOOL_LENGTH}</code></li>
+	 *   <li>{@code fromIndex} is valid for {@link #indexOf(ByteString, int)}</li>
+	 * </ol>
+	 * @param string  The string to find.
+	 * @param fromIndex  The first index to check.
+	 * @return  The first index of {@code string} at or after
+	 *   {@code fromIndex}, or {@code -1}.
+	 */
+	private int scanIndexOf(final ByteString string, final int fromIndex) {
+		if (string.isEmpty()) {
+			return fromIndex;
+		}
+		final ShortScanner scanner = new ShortScanner(string, fromIndex, true);
+		visitArrays(fromIndex, length(), scanner);
+		return scanner.found;
+	}
+	
+	/**
+	 * Finds a short string by scanning windows of this string, from the
+	 * last towards the first.  Preconditions:
+	 * <ol>
+	 *   <li>{@code string != null} and {@code string} is not empty and
+	 *     <code>string.length() &lt; {@link ByteStringPattern#MIN_HORSPOOL_LENGTH}</code></li>
+	 *   <li><code>0 &lt;= start &lt;= {@link #length()} - string.length()</code></li>
+	 * </ol>
+	 * @param string  The string to find.
+	 * @param start  The last index to check.
+	 * @return  The last index of {@code string} at or before
+	 *   {@code start}, or {@code -1}.
+	 */
+	private int scanLastIndexOf(final ByteString string, final int start) {
+		final int m = string.length();
+		int endIndex = start + m;
+		while (true) {
+			final int beginIndex = Math.max(0, endIndex - Utils.CHUNK_SIZE);
+			final ShortScanner scanner = new ShortScanner(string, beginIndex, false);
+			visitArrays(beginIndex, endIndex, scanner);
+			if (scanner.found >= 0 || beginIndex == 0) {
+				return scanner.found;
 			}
-			boolean equal = true;
-			for (int j = 0; j < strLen; j++) {
-				if (string.at(j) != at(i + j)) {
-					equal = false;
-					break;
-				}
+			// the next window holds the occurrences which begin before this one
+			endIndex = beginIndex + m - 1;
+		}
+	}
+	
+	/**
+	 * Finds a short string in the segments it visits, keeping the last
+	 * few bytes in a window so that occurrences may straddle segments.
+	 */
+	private static final class ShortScanner implements ArraySegmentVisitor {
+		private final int length;
+		private final int pattern;
+		private final int mask;
+		private final int minPosition;
+		private final boolean stopAtFirst;
+		private int window;
+		private int position;
+		/** The index of the occurrence found, or {@code -1}. */
+		int found = -1;
+		
+		/**
+		 * Creates a new {@link ShortScanner}.
+		 * @param string  The string to find, which is one to three bytes
+		 *   long, so that it fits in an {@code int} window.
+		 * @param beginIndex  The index of the first byte to be visited.
+		 * @param stopAtFirst  True to stop at the first occurrence, or false
+		 *   to find the last.
+		 */
+		ShortScanner(final ByteString string, final int beginIndex, final boolean stopAtFirst) {
+			final int m = string.length();
+			int pattern = 0;
+			for (int k = 0; k < m; k++) {
+				pattern = pattern << 8 | string.at(k) & 0xFF;
 			}
-			if (equal) {
-				return i;
+			this.length = m;
+			this.pattern = pattern;
+			this.mask = (1 << 8 * m) - 1;
+			this.minPosition = beginIndex + m;
+			this.stopAtFirst = stopAtFirst;
+			this.position = beginIndex;
+		}
+		
+		/** {@inheritDoc} */
+		public boolean visit(final byte[] array, final int offset, final int n) {
+			for (int i = offset, end = offset + n; i < end; i++) {
+				window = window << 8 | array[i] & 0xFF;
+				position++;
+				if ((window & mask) == pattern && position >= minPosition) {
+					found = position - length;
+					if (stopAtFirst) {
+						return false;
+					}
+				}
 			}
+			return true;
 		}
-		return -1;
 	}
-
+	
 	/** {@inheritDoc} */
-	public int indexOf(final ByteString string) {
-		return indexOf(string, 0);
+	public int lastIndexOf(final ByteString string) {
+		if (string == null) {
+			throw new NullPointerException("string is null");
+		} else if (string.isEmpty()) {
+			return length();
+		}
+		return isEmpty() ? -1 : lastIndexOf(string, length() - 1);
 	}
 	
 	/** {@inheritDoc} */
@@ -242,18 +488,162 @@ public abstract class AbstractByteString implements ByteString {
 			throws IllegalArgumentException, IndexOutOfBoundsException {
 		checkIndexOf(fromIndex);
 		final byte byteVal = Utils.toByteValue(value);
-		final int length = length();
-		for (int i = fromIndex; i < length; i++) {
-			if (byteVal == at(i)) {
-				return i;
+		final IndexOfVisitor visitor = new IndexOfVisitor(byteVal, fromIndex);
+		visitArrays(fromIndex, length(), visitor);
+		return visitor.result;
+	}
+	
+	/** {@inheritDoc} */
+	public int indexOf(int value) {
+		return indexOf(value, 0);
+	}
+	
+	/** {@inheritDoc} */
+	public int lastIndexOf(int value, final int fromIndex)
+			throws IllegalArgumentException, IndexOutOfBoundsException {
+		checkIndexOf(fromIndex);
+		final byte byteVal = Utils.toByteValue(value);
+		if (isEmpty()) {
+			return -1;
+		}
+		final byte[] chunk = Utils.newChunk(fromIndex + 1);
+		for (int end = fromIndex + 1; end > 0; end -= chunk.length) {
+			final int n = Math.min(chunk.length, end);
+			copyRange(end - n, chunk, 0, n);
+			final int index = Utils.lastIndexOf(chunk, 0, n, byteVal);
+			if (index >= 0) {
+				return end - n + index;
 			}
 		}
 		return -1;
 	}
 	
 	/** {@inheritDoc} */
-	public int indexOf(int value) {
-		return indexOf(value, 0);
+	public int lastIndexOf(int value) {
+		Utils.checkByteValue(value);
+		return isEmpty() ? -1 : lastIndexOf(value, length() - 1);
+	}
+	
+	/** {@inheritDoc} */
+	public int count(int value) throws IllegalArgumentException {
+		final byte byteVal = Utils.toByteValue(value);
+		final int[] count = new int[1];
+		visitArrays(0, length(), new ArraySegmentVisitor() {
+			public boolean visit(final byte[] array, final int offset, final int length) {
+				count[0] += Utils.count(array, offset, offset + length, byteVal);
+				return true;
+			}
+		});
+		return count[0];
+	}
+	
+	/** {@inheritDoc} */
+	public boolean forEachSegment(final SegmentVisitor visitor) throws NullPointerException {
+		return forEachSegment(0, length(), visitor);
+	}
+	
+	/** {@inheritDoc} */
+	public boolean forEachSegment(final int beginIndex, final int endIndex,
+			final SegmentVisitor visitor)
+			throws NullPointerException, IllegalArgumentException, IndexOutOfBoundsException {
+		if (visitor == null) {
+			throw new NullPointerException("visitor is null");
+		}
+		checkSubString(beginIndex, endIndex);
+		return visitArrays(beginIndex, endIndex, new ArraySegmentVisitor() {
+			public boolean visit(final byte[] array, final int offset, final int length) {
+				return visitor.visitSegment(ByteBuffer.wrap(array, offset, length).asReadOnlyBuffer());
+			}
+		});
+	}
+	
+	/** {@inheritDoc} */
+	public ByteBuffer[] toReadOnlyByteBuffers() {
+		final List<ByteBuffer> buffers = new ArrayList<ByteBuffer>();
+		if (length() > 0) {
+			addBuffers(0, length(), buffers);
+		}
+		return buffers.toArray(new ByteBuffer[buffers.size()]);
+	}
+	
+	/** {@inheritDoc} */
+	public int writeTo(final WritableByteChannel channel) throws NullPointerException, IOException {
+		return writeTo(channel, 0);
+	}
+	
+	/** {@inheritDoc} */
+	public int writeTo(final WritableByteChannel channel, final int fromIndex)
+			throws NullPointerException, IllegalArgumentException, IndexOutOfBoundsException,
+			IOException {
+		if (channel == null) {
+			throw new NullPointerException("channel is null");
+		}
+		if (fromIndex < 0) {
+			throw new IllegalArgumentException(String.format("fromIndex (%d) < 0", fromIndex));
+		} else if (fromIndex > length()) {
+			throw new IndexOutOfBoundsException(
+					String.format("fromIndex (%d) > length (%d)", fromIndex, length()));
+		} else if (fromIndex == length()) {
+			return 0;
+		}
+		final List<ByteBuffer> list = new ArrayList<ByteBuffer>();
+		addBuffers(fromIndex, length(), list);
+		final ByteBuffer[] buffers = list.toArray(new ByteBuffer[list.size()]);
+		long written = 0;
+		int first = 0;
+		if (channel instanceof GatheringByteChannel) {
+			final GatheringByteChannel gathering = (GatheringByteChannel) channel;
+			while (first < buffers.length) {
+				final long n = gathering.write(buffers, first, buffers.length - first);
+				if (n == 0) {
+					break;
+				}
+				written += n;
+				while (first < buffers.length && !buffers[first].hasRemaining()) {
+					first++;
+				}
+			}
+		} else {
+			while (first < buffers.length) {
+				final int n = channel.write(buffers[first]);
+				if (n == 0 && buffers[first].hasRemaining()) {
+					break;
+				}
+				written += n;
+				if (!buffers[first].hasRemaining()) {
+					first++;
+				}
+			}
+		}
+		return (int) written;
+	}
+	
+	/** {@inheritDoc} */
+	public void writeTo(final OutputStream out) throws NullPointerException, IOException {
+		if (out == null) {
+			throw new NullPointerException("out is null");
+		}
+		// the visitor cannot throw IOException, so it stops and hands it back
+		final IOException[] failure = new IOException[1];
+		visitArrays(0, length(), new ArraySegmentVisitor() {
+			public boolean visit(final byte[] array, final int offset, final int length) {
+				try {
+					out.write(array, offset, length);
+					return true;
+				} catch (final IOException e) {
+					failure[0] = e;
+					return false;
+				}
+			}
+		});
+		if (failure[0] != null) {
+			throw failure[0];
+		}
+	}
+	
+	/** {@inheritDoc} */
+	public InputStream newInputStream() {
+		return new ByteStringInputStream(this);
 	}
 	
 	/** {@inheritDoc} */
@@ -273,8 +663,7 @@ public abstract class AbstractByteString implements ByteString {
 		} else if (string.length() > length()) {
 			return false;
 		} else {
-			final ByteString start = subString(0, string.length());
-			return string.equals(start);
+			return regionEquals(0, string);
 		}
 	}
 	
@@ -285,11 +674,32 @@ public abstract class AbstractByteString implements ByteString {
 		} else if (string.length() > length()) {
 			return false;
 		} else {
-			final ByteString end = subString(length() - string.length(), length());
-			return string.equals(end);
+			return regionEquals(length() - string.length(), string);
 		}
 	}
 	
+	/** {@inheritDoc} */
+	public int mismatch(final ByteString string) throws NullPointerException {
+		if (string == null) {
+			throw new NullPointerException("string is null");
+		}
+		return Utils.mismatch(this, string);
+	}
+	
+	/** {@inheritDoc} */
+	public int commonPrefixLength(final ByteString string) throws NullPointerException {
+		final int index = mismatch(string);
+		return index < 0 ? length() : index;
+	}
+	
+	/** {@inheritDoc} */
+	public int compareTo(final ByteString string) throws NullPointerException {
+		if (string == null) {
+			throw new NullPointerException("string is null");
+		}
+		return Utils.compare(this, string);
+	}
+	
 	/** {@inheritDoc} */
 	@Override
 	public boolean equals(final Object obj) {
@@ -297,27 +707,34 @@ public abstract class AbstractByteString implements ByteString {
 			return true;
 		} else if (obj instanceof ByteString) {
 			final ByteString other = (ByteString) obj;
-			final int length = length();
-			if (length != other.length()) { return false; }
-			for (int i = 0; i < length; i++) {
-				if (at(i) != other.at(i)) { return false; }
+			if (length() != other.length()) { return false; }
+			if (hash != 0 && other instanceof AbstractByteString) {
+				final int otherHash = ((AbstractByteString) other).hash;
+				if (otherHash != 0 && otherHash != hash) { return false; }
 			}
-			return true;
+			return Utils.mismatch(this, other) < 0;
 		} else {
 			return false;
 		}
 	}
 	
-	/** {@inheritDoc} */
+	/**
+	 * Returns a hash code for this string.
+	 * The hash is order-sensitive and depends only on the content of the
+	 * string, so equal strings of different implementations have equal
+	 * hash codes.  It is computed once and then cached.
+	 * @return  The hash code.
+	 * @see ByteStrings#hash64(ByteString, long)
+	 */
 	@Override
 	public int hashCode() {
-		final int PRIME = 92821;
-		int hash = PRIME;
-		final int length = length();
-		for (int i = 0; i < length; i++) {
-			hash += PRIME * at(i);
+		// racy single-check: recomputing the hash in a race is harmless
+		int h = hash;
+		if (h == 0) {
+			h = Hashing.hash32(this);
+			hash = h;
 		}
-		return hash;
+		return h;
 	}
 	
 	/** {@inheritDoc} */
@@ -335,4 +752,34 @@ public abstract class AbstractByteString implements ByteString {
 		builder.append('}');
 		return builder.toString();
 	}
+	
+	/**
+	 * Finds the first occurrence of a byte value among visited segments.
+	 */
+	private static final class IndexOfVisitor implements ArraySegmentVisitor {
+		private final byte value;
+		private int position;
+		/** The index of the first occurrence, or -1 if not found yet. */
+		int result = -1;
+		
+		/**
+		 * Creates a new {@link IndexOfVisitor}.
+		 * @param value  The value to find.
+		 * @param position  The index of the first byte to be visited.
+		 */
+		IndexOfVisitor(final byte value, final int position) {
+			this.value = value;
+			this.position = position;
+		}
+		
+		public boolean visit(final byte[] array, final int offset, final int length) {
+			final int index = Utils.indexOf(array, offset, offset + length, value);
+			if (index >= 0) {
+				result = position + index - offset;
+				return false;
+			}
+			position += length;
+			return true;
+		}
+	}
 }
@@ -0,0 +1,136 @@
+package com.kbolino.libraries.bytestring;
+
+/**
+ * A {@link BuilderStorage} holding its bytes in a single array, which is
+ * replaced by a larger copy as the storage grows.
+ */
+final class ArrayBuilderStorage extends BuilderStorage {
+	private final int initialCapacity;
+	private byte[] bytes;
+	private int length;
+
+	/**
+	 * Creates a new {@link ArrayBuilderStorage}.  Constructor
+	 * preconditions:
+	 * <ol>
+	 *   <li>{@code initialCapacity >= 0}</li>
+	 * </ol>
+	 * @param initialCapacity  The initial capacity.
+	 */
+	ArrayBuilderStorage(final int initialCapacity) {
+		super();
+		this.initialCapacity = initialCapacity;
+		bytes = new byte[initialCapacity];
+	}
+
+	/** {@inheritDoc} */
+	int length() {
+		return length;
+	}
+
+	/** {@inheritDoc} */
+	int capacity() {
+		return bytes.length;
+	}
+
+	/** {@inheritDoc} */
+	void ensureCapacity(final int capacity) {
+		if (capacity > bytes.length) {
+			// after detach(), the array regrows straight to the initial capacity
+			final int newSize = (int) Math.min(Integer.MAX_VALUE,
+					Math.max(2L * bytes.length + 1, Math.max(capacity, initialCapacity)));
+			final byte[] copy = new byte[newSize];
+			System.arraycopy(bytes, 0, copy, 0, length);
+			bytes = copy;
+		}
+	}
+
+	/** {@inheritDoc} */
+	byte get(final int index) {
+		return bytes[index];
+	}
+
+	/** {@inheritDoc} */
+	void get(final int index, final byte[] bytes, final int offset, final int length) {
+		System.arraycopy(this.bytes, index, bytes, offset, length);
+	}
+
+	/** {@inheritDoc} */
+	void set(final int index, final byte value) {
+		bytes[index] = value;
+	}
+
+	/** {@inheritDoc} */
+	void set(final int index, final byte[] bytes, final int offset, final int length) {
+		System.arraycopy(bytes, offset, this.bytes, index, length);
+	}
+
+	/** {@inheritDoc} */
+	void open(final int index, final int length) {
+		ensureCapacity(this.length + length);
+		shiftBytes(index, index + length);
+	}
+
+	/** {@inheritDoc} */
+	void remove(final int beginIndex, final int endIndex) {
+		shiftBytes(endIndex, beginIndex);
+	}
+
+	/** {@inheritDoc} */
+	void clear() {
+		length = 0;
+	}
+
+	/**
+	 * Shifts the bytes from an index to the end of the array.
+	 * Preconditions:
+	 * <ol>
+	 *   <li>{@code fromIndex >= 0}</li>
+	 *   <li>{@code toIndex >= 0}</li>
+	 *   <li>{@code fromIndex <= length}</li>
+	 *   <li>{@code length + toIndex - fromIndex <= bytes.length}</li>
+	 * </ol>
+	 * Adjusts {@link #length} appropriately.
+	 * @param fromIndex  The index of the first byte to shift.
+	 * @param toIndex  The new index to receive the first byte.
+	 */
+	private void shiftBytes(final int fromIndex, final int toIndex) {
+		// arraycopy handles overlapping ranges in either direction
+		System.arraycopy(bytes, fromIndex, bytes, toIndex, length - fromIndex);
+		length += toIndex - fromIndex;
+	}
+
+	/** {@inheritDoc} */
+	ByteString toByteString() {
+		if (length == 0) {
+			return Utils.EMPTY_STRING;
+		}
+		final byte[] copy = new byte[length];
+		System.arraycopy(bytes, 0, copy, 0, length);
+		return new ArrayByteString(copy);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>The array itself becomes the content of the string.  If it is
+	 * only partly used, it is shared through a view or trimmed to a copy
+	 * according to {@link ByteStrings#subStringPolicy()}, just as a
+	 * substring would be.  The storage then starts over empty, and
+	 * allocates an array of the initial capacity when it next grows.
+	 */
+	ByteString detach() {
+		final ByteString string;
+		if (length == 0) {
+			string = Utils.EMPTY_STRING;
+		} else if (length == bytes.length) {
+			string = new ArrayByteString(bytes);
+		} else if (ByteStrings.subStringPolicy().share(length, bytes.length)) {
+			string = new ArrayByteString(bytes, 0, length);
+		} else {
+			string = toByteString();
+		}
+		bytes = Utils.EMPTY_BYTE_ARRAY;
+		length = 0;
+		return string;
+	}
+}
@@ -3,12 +3,17 @@ package com.kbolino.libraries.bytestring;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.ReadOnlyBufferException;
+import java.util.List;
 
 /**
- * A {@link ByteString} backed by an array of bytes.
+ * A {@link ByteString} backed by a range of an array of bytes.
+ * Substrings share the array unless the {@link SubStringPolicy} in effect
+ * says to copy them.
  */
 final class ArrayByteString extends AbstractByteString {
 	private final byte[] bytes;
+	private final int offset;
+	private final int length;
 	
 	/**
 	 * Concatenate two strings into a new {@link ArrayByteString}.  Preconditions:
@@ -49,9 +54,7 @@ final class ArrayByteString extends AbstractByteString {
 	static ArrayByteString subString(final ByteString string, final int beginIndex, final int endIndex) {
 		final int length = endIndex - beginIndex;
 		final byte[] bytes = new byte[length];
-		for (int i = 0; i < length; i++) {
-			bytes[i] = string.at(i + beginIndex);
-		}
+		Utils.copyRange(string, beginIndex, bytes, 0, length);
 		return new ArrayByteString(bytes);
 	}
 	
@@ -64,26 +67,112 @@ final class ArrayByteString extends AbstractByteString {
 	 * @param bytes  The backing array of bytes.
 	 */
 	ArrayByteString(final byte[] bytes) {
+		this(bytes, 0, bytes.length);
+	}
+
+	/**
+	 * Creates a new {@link ArrayByteString} over part of an array.
+	 * Constructor preconditions:
+	 * <ol>
+	 *   <li>{@code bytes != null}</li>
+	 *   <li>{@code offset >= 0}</li>
+	 *   <li>{@code length >= 0}</li>
+	 *   <li>{@code offset + length <= bytes.length}</li>
+	 *   <li>{@code bytes} is not modified for as long as this object
+	 *     exists</li>
+	 * </ol>
+	 * @param bytes  The backing array of bytes.
+	 * @param offset  The index of the first byte of this string.
+	 * @param length  The number of bytes in this string.
+	 */
+	ArrayByteString(final byte[] bytes, final int offset, final int length) {
 		super();
 		this.bytes = bytes;
+		this.offset = offset;
+		this.length = length;
+	}
+
+	/**
+	 * The array backing this string.
+	 * The string occupies the range of the array starting at
+	 * {@link #arrayOffset()}.
+	 * @return  The array, which must not be modified.
+	 */
+	byte[] array() {
+		return bytes;
+	}
+
+	/**
+	 * The index in {@link #array()} of the first byte of this string.
+	 * @return  A nonnegative integer.
+	 */
+	int arrayOffset() {
+		return offset;
 	}
 
 	/** {@inheritDoc} */
 	public int length() {
-		return bytes.length;
+		return length;
 	}
 
 	/** {@inheritDoc} */
 	public byte at(final int index) throws IllegalArgumentException,
 			IndexOutOfBoundsException {
 		checkAt(index);
-		return bytes[index];
+		return bytes[offset + index];
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	protected void copyRange(final int beginIndex, final byte[] bytes, final int offset,
+			final int length) {
+		System.arraycopy(this.bytes, this.offset + beginIndex, bytes, offset, length);
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	boolean visitArrays(final int beginIndex, final int endIndex, final ArraySegmentVisitor visitor) {
+		return beginIndex == endIndex || visitor.visit(bytes, offset + beginIndex, endIndex - beginIndex);
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	void addBuffers(final int beginIndex, final int endIndex, final List<ByteBuffer> buffers) {
+		buffers.add(ByteBuffer.wrap(bytes, offset + beginIndex, endIndex - beginIndex)
+				.slice().asReadOnlyBuffer());
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	public int indexOf(int value, int fromIndex)
+			throws IllegalArgumentException, IndexOutOfBoundsException {
+		checkIndexOf(value, fromIndex);
+		final int index = Utils.indexOf(bytes, offset + fromIndex, offset + length, (byte)value);
+		return index < 0 ? index : index - offset;
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	public int lastIndexOf(int value, int fromIndex)
+			throws IllegalArgumentException, IndexOutOfBoundsException {
+		checkIndexOf(value, fromIndex);
+		if (length == 0) {
+			return -1;
+		}
+		final int index = Utils.lastIndexOf(bytes, offset, offset + fromIndex + 1, (byte)value);
+		return index < 0 ? index : index - offset;
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	public int count(int value) throws IllegalArgumentException {
+		return Utils.count(bytes, offset, offset + length, Utils.toByteValue(value));
 	}
 	
 	/** {@inheritDoc} */
 	@Override
 	public ByteBuffer toReadOnlyByteBuffer() {
-		return ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+		return ByteBuffer.wrap(bytes, offset, length).slice().asReadOnlyBuffer();
 	}
 
 	/** {@inheritDoc} */
@@ -91,7 +180,7 @@ final class ArrayByteString extends AbstractByteString {
 			throws NullPointerException, IllegalArgumentException,
 			IndexOutOfBoundsException {
 		checkCopyTo(bytes, offset, length);
-		System.arraycopy(this.bytes, 0, bytes, offset, length);
+		System.arraycopy(this.bytes, this.offset, bytes, offset, length);
 		return length;
 	}
 	
@@ -101,7 +190,7 @@ final class ArrayByteString extends AbstractByteString {
 			IndexOutOfBoundsException, BufferUnderflowException,
 			ReadOnlyBufferException {
 		checkCopyTo(buffer, length);
-		buffer.put(bytes, 0, length);
+		buffer.put(bytes, offset, length);
 		return length;
 	}
 
@@ -112,9 +201,25 @@ final class ArrayByteString extends AbstractByteString {
 		final int length = endIndex - beginIndex;
 		if (length == 0) {
 			return Utils.EMPTY_STRING;
+		} else if (length == this.length) {
+			return this;
+		} else if (ByteStrings.subStringPolicy().share(length, bytes.length)) {
+			return new ArrayByteString(bytes, offset + beginIndex, length);
+		} else {
+			final byte[] copy = new byte[length];
+			System.arraycopy(bytes, offset + beginIndex, copy, 0, length);
+			return new ArrayByteString(copy);
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public ByteString compact() {
+		if (length == bytes.length) {
+			return this;
 		} else {
 			final byte[] copy = new byte[length];
-			System.arraycopy(bytes, beginIndex, copy, 0, length);
+			System.arraycopy(bytes, offset, copy, 0, length);
 			return new ArrayByteString(copy);
 		}
 	}
@@ -0,0 +1,20 @@
+package com.kbolino.libraries.bytestring;
+
+/**
+ * Receives the segments of a {@link ByteString} as ranges of arrays.
+ * This is the internal counterpart of {@link SegmentVisitor}, used by
+ * bulk algorithms to read strings without copying them.
+ * @see AbstractByteString#visitArrays(int, int, ArraySegmentVisitor)
+ */
+interface ArraySegmentVisitor {
+	/**
+	 * Visits a segment.
+	 * @param array  The array holding the segment, which must not be
+	 *   modified.  It may be reused for the next segment, so it is only
+	 *   valid during this call.
+	 * @param offset  The index of the first byte of the segment.
+	 * @param length  The number of bytes in the segment.
+	 * @return  True to continue with the next segment, or false to stop.
+	 */
+	boolean visit(byte[] array, int offset, int length);
+}
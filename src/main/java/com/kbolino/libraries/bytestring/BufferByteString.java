@@ -0,0 +1,150 @@
+package com.kbolino.libraries.bytestring;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.util.List;
+
+/**
+ * A {@link ByteString} backed by a {@link ByteBuffer}, which may be direct.
+ * The content is read in place, so a string wrapping a direct buffer keeps
+ * its content off the heap.
+ */
+final class BufferByteString extends AbstractByteString {
+	/** A read-only buffer whose position is 0 and whose limit and capacity are the length. */
+	private final ByteBuffer buffer;
+	/** Whether {@link #buffer} is a view of a larger buffer. */
+	private final boolean view;
+
+	/**
+	 * Creates a new {@link BufferByteString}.  Constructor preconditions:
+	 * <ol>
+	 *   <li>{@code buffer != null}</li>
+	 *   <li>{@code buffer.isReadOnly()}</li>
+	 *   <li>{@code buffer.position() == 0} and
+	 *     {@code buffer.limit() == buffer.capacity()}</li>
+	 *   <li>The content of {@code buffer} is not modified for as long as
+	 *     this object exists</li>
+	 * </ol>
+	 * @param buffer  The backing buffer, which is not modified.
+	 * @param view  Whether {@code buffer} shares its storage with a larger
+	 *   buffer.
+	 */
+	BufferByteString(final ByteBuffer buffer, final boolean view) {
+		super();
+		this.buffer = buffer;
+		this.view = view;
+	}
+
+	/** {@inheritDoc} */
+	public int length() {
+		return buffer.capacity();
+	}
+
+	/** {@inheritDoc} */
+	public byte at(final int index) throws IllegalArgumentException,
+			IndexOutOfBoundsException {
+		checkAt(index);
+		return buffer.get(index);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	protected void copyRange(final int beginIndex, final byte[] bytes, final int offset,
+			final int length) {
+		// the position of the shared buffer must not change
+		final ByteBuffer source = buffer.duplicate();
+		source.position(beginIndex);
+		source.get(bytes, offset, length);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public boolean forEachSegment(final int beginIndex, final int endIndex,
+			final SegmentVisitor visitor)
+			throws NullPointerException, IllegalArgumentException, IndexOutOfBoundsException {
+		if (visitor == null) {
+			throw new NullPointerException("visitor is null");
+		}
+		checkSubString(beginIndex, endIndex);
+		return beginIndex == endIndex || visitor.visitSegment(range(beginIndex, endIndex));
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	void addBuffers(final int beginIndex, final int endIndex, final List<ByteBuffer> buffers) {
+		buffers.add(range(beginIndex, endIndex).slice());
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public ByteBuffer toReadOnlyByteBuffer() {
+		return buffer.duplicate();
+	}
+
+	/** {@inheritDoc} */
+	public int copyTo(final byte[] bytes, final int offset, final int length)
+			throws NullPointerException, IllegalArgumentException,
+			IndexOutOfBoundsException {
+		checkCopyTo(bytes, offset, length);
+		copyRange(0, bytes, offset, length);
+		return length;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int copyTo(final ByteBuffer buffer, final int length)
+			throws NullPointerException, IllegalArgumentException,
+			IndexOutOfBoundsException, BufferOverflowException,
+			ReadOnlyBufferException {
+		checkCopyTo(buffer, length);
+		buffer.put(range(0, length));
+		return length;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public ByteString subString(final int beginIndex, final int endIndex)
+			throws IllegalArgumentException, IndexOutOfBoundsException {
+		checkSubString(beginIndex, endIndex);
+		if (beginIndex == endIndex) {
+			return Utils.EMPTY_STRING;
+		} else if (endIndex - beginIndex == length()) {
+			return this;
+		} else {
+			return new BufferByteString(range(beginIndex, endIndex).slice(), true);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>A substring is compacted by copying its content into a new buffer,
+	 * which is direct if the original buffer is.
+	 */
+	@Override
+	public ByteString compact() {
+		if (!view) {
+			return this;
+		}
+		final ByteBuffer copy = buffer.isDirect()
+				? ByteBuffer.allocateDirect(length())
+				: ByteBuffer.allocate(length());
+		copy.put(buffer.duplicate());
+		copy.clear();
+		return new BufferByteString(copy.asReadOnlyBuffer(), false);
+	}
+
+	/**
+	 * Obtains a view of a range of the backing buffer.
+	 * @param beginIndex  The first index, inclusive.
+	 * @param endIndex  The last index, exclusive.
+	 * @return  A read-only buffer whose position is {@code beginIndex} and
+	 *   whose limit is {@code endIndex}.
+	 */
+	private ByteBuffer range(final int beginIndex, final int endIndex) {
+		final ByteBuffer range = buffer.duplicate();
+		range.limit(endIndex);
+		range.position(beginIndex);
+		return range;
+	}
+}
@@ -0,0 +1,170 @@
+package com.kbolino.libraries.bytestring;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The storage behind a {@link ByteStringBuilder}.
+ * A storage holds a mutable sequence of bytes and provides the few
+ * primitive operations which the builder composes into its public
+ * methods.  No method checks its parameters; the builder does so before
+ * calling them.
+ */
+abstract class BuilderStorage {
+	/**
+	 * The length of this storage.
+	 * @return  The number of bytes stored.
+	 */
+	abstract int length();
+
+	/**
+	 * The capacity of this storage.
+	 * @return  The maximum length this storage can reach without
+	 *   allocating.
+	 */
+	abstract int capacity();
+
+	/**
+	 * Allocates space, if necessary, so that the capacity is at least
+	 * {@code capacity}.  Preconditions:
+	 * <ol>
+	 *   <li>{@code capacity >= 0}</li>
+	 * </ol>
+	 * @param capacity  The minimum capacity.
+	 */
+	abstract void ensureCapacity(int capacity);
+
+	/**
+	 * Returns the value of a byte.  Preconditions:
+	 * <ol>
+	 *   <li>{@code index >= 0} and {@code index < length()}</li>
+	 * </ol>
+	 * @param index  The index of the byte.
+	 * @return  The value of the byte.
+	 */
+	abstract byte get(int index);
+
+	/**
+	 * Copies bytes into an array.  Preconditions:
+	 * <ol>
+	 *   <li>{@code index >= 0} and {@code index + length <= length()}</li>
+	 *   <li>{@code offset >= 0} and {@code offset + length <= bytes.length}</li>
+	 * </ol>
+	 * @param index  The index of the first byte to copy.
+	 * @param bytes  The array to receive the bytes.
+	 * @param offset  The first index of the array to receive a byte.
+	 * @param length  The number of bytes to copy.
+	 */
+	abstract void get(int index, byte[] bytes, int offset, int length);
+
+	/**
+	 * Sets the value of a byte.  Preconditions:
+	 * <ol>
+	 *   <li>{@code index >= 0} and {@code index < length()}</li>
+	 * </ol>
+	 * @param index  The index of the byte.
+	 * @param value  The new value of the byte.
+	 */
+	abstract void set(int index, byte value);
+
+	/**
+	 * Overwrites bytes with bytes from an array.  Preconditions:
+	 * <ol>
+	 *   <li>{@code index >= 0} and {@code index + length <= length()}</li>
+	 *   <li>{@code offset >= 0} and {@code offset + length <= bytes.length}</li>
+	 * </ol>
+	 * @param index  The index of the first byte to overwrite.
+	 * @param bytes  The array holding the new bytes.
+	 * @param offset  The index in the array of the first new byte.
+	 * @param length  The number of bytes to overwrite.
+	 */
+	abstract void set(int index, byte[] bytes, int offset, int length);
+
+	/**
+	 * Inserts bytes of unspecified value, moving the following bytes up.
+	 * Preconditions:
+	 * <ol>
+	 *   <li>{@code index >= 0} and {@code index <= length()}</li>
+	 *   <li>{@code length >= 0} and
+	 *     {@code length() + length <= Integer.MAX_VALUE}</li>
+	 * </ol>
+	 * @param index  The index of the first byte to insert.
+	 * @param length  The number of bytes to insert.
+	 */
+	abstract void open(int index, int length);
+
+	/**
+	 * Removes bytes, moving the following bytes down.  Preconditions:
+	 * <ol>
+	 *   <li>{@code beginIndex >= 0} and {@code beginIndex <= endIndex}</li>
+	 *   <li>{@code endIndex <= length()}</li>
+	 * </ol>
+	 * @param beginIndex  The index of the first byte to remove, inclusive.
+	 * @param endIndex  The index of the last byte to remove, exclusive.
+	 */
+	abstract void remove(int beginIndex, int endIndex);
+
+	/**
+	 * Removes all bytes, keeping the allocated capacity.
+	 */
+	abstract void clear();
+
+	/**
+	 * Creates a string of the stored bytes.  The string is not affected
+	 * by later changes to this storage.
+	 * @return  A {@link ByteString} equal to the stored bytes.
+	 */
+	abstract ByteString toByteString();
+
+	/**
+	 * Creates a string of the stored bytes and empties this storage.
+	 * The string takes ownership of the storage's memory wherever it can,
+	 * instead of copying it.
+	 * @return  A {@link ByteString} equal to the stored bytes.
+	 */
+	abstract ByteString detach();
+
+	/**
+	 * Overwrites bytes with bytes from a buffer, advancing the buffer's
+	 * position by {@code length}.  Preconditions:
+	 * <ol>
+	 *   <li>{@code index >= 0} and {@code index + length <= length()}</li>
+	 *   <li>{@code length >= 0} and {@code length <= buffer.remaining()}</li>
+	 * </ol>
+	 * @param index  The index of the first byte to overwrite.
+	 * @param buffer  The buffer holding the new bytes.
+	 * @param length  The number of bytes to overwrite.
+	 */
+	void set(final int index, final ByteBuffer buffer, final int length) {
+		if (buffer.hasArray()) {
+			set(index, buffer.array(), buffer.arrayOffset() + buffer.position(), length);
+			buffer.position(buffer.position() + length);
+			return;
+		}
+		final byte[] chunk = Utils.newChunk(length);
+		for (int i = 0; i < length; i += chunk.length) {
+			final int n = Math.min(chunk.length, length - i);
+			buffer.get(chunk, 0, n);
+			set(index + i, chunk, 0, n);
+		}
+	}
+
+	/**
+	 * Overwrites bytes with the bytes of a string.  Preconditions:
+	 * <ol>
+	 *   <li>{@code index >= 0} and
+	 *     {@code index + string.length() <= length()}</li>
+	 * </ol>
+	 * @param index  The index of the first byte to overwrite.
+	 * @param string  The string holding the new bytes.
+	 */
+	void set(final int index, final ByteString string) {
+		final int[] position = {index};
+		Utils.visitArrays(string, 0, string.length(), new ArraySegmentVisitor() {
+			public boolean visit(final byte[] array, final int offset, final int length) {
+				set(position[0], array, offset, length);
+				position[0] += length;
+				return true;
+			}
+		});
+	}
+}
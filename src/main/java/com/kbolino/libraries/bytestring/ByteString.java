@@ -1,8 +1,13 @@
 package com.kbolino.libraries.bytestring;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.nio.ReadOnlyBufferException;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
 
 /**
  * An immutable string of bytes.
@@ -18,9 +23,11 @@ import java.nio.ReadOnlyBufferException;
  *     methods ({@linkplain ByteStrings#rope(ByteString[]) array/varargs},
  *     {@linkplain ByteStrings#rope(java.util.Collection) collection}).</li>
  * </ol>
+ * <p>Strings are ordered lexicographically by the unsigned values of their
+ * bytes, with a proper prefix ordered before the longer string.
  * @see ByteStrings
  */
-public interface ByteString {
+public interface ByteString extends Comparable<ByteString> {
 	/**
 	 * Returns the length of this string.
 	 * @return  The number of bytes in this {@link ByteString}.
@@ -89,7 +96,19 @@ public interface ByteString {
 	 */
 	public ByteString subString(int beginIndex, int endIndex)
 			throws IllegalArgumentException, IndexOutOfBoundsException;
-	
+
+	/**
+	 * Obtains a string equal to this one which does not retain memory
+	 * beyond its own content.
+	 * A substring may share storage with the string it was taken from, which
+	 * keeps all of that storage reachable for as long as the substring is;
+	 * the compacted string holds only the bytes it contains.
+	 * @return  A {@link ByteString} equal to this string, which is this
+	 *   string itself if it is already compact.
+	 * @see SubStringPolicy
+	 */
+	public ByteString compact();
+
 	/**
 	 * Creates a buffer from this string.
 	 * The buffer's {@linkplain ByteBuffer#position() position} will be 0,
@@ -223,6 +242,103 @@ public interface ByteString {
 			IllegalArgumentException, IndexOutOfBoundsException, BufferOverflowException,
 			ReadOnlyBufferException;
 	
+	/**
+	 * Visits the segments of this string in order.
+	 * This gives access to the content of the string as it is stored,
+	 * without copying it.
+	 * @param visitor  The visitor to receive the segments.
+	 * @return  False if {@code visitor} stopped the traversal, or true
+	 *   otherwise.
+	 * @throws NullPointerException  If {@code visitor} is null.
+	 */
+	public boolean forEachSegment(SegmentVisitor visitor) throws NullPointerException;
+	
+	/**
+	 * Visits the segments of a range of this string in order.
+	 * The first and last segments are trimmed to the range.
+	 * @param beginIndex  The index of the first byte to visit, inclusive.
+	 * @param endIndex  The index of the last byte to visit, exclusive.
+	 * @param visitor  The visitor to receive the segments.
+	 * @return  False if {@code visitor} stopped the traversal, or true
+	 *   otherwise.
+	 * @throws NullPointerException  If {@code visitor} is null.
+	 * @throws IllegalArgumentException  If {@code beginIndex < 0},
+	 *   {@code endIndex < 0}, or {@code beginIndex > endIndex}.
+	 * @throws IndexOutOfBoundsException  If
+	 *   <code>beginIndex &gt;= {@link #length()}</code> or
+	 *   <code>endIndex &gt; length()</code>.
+	 */
+	public boolean forEachSegment(int beginIndex, int endIndex, SegmentVisitor visitor)
+			throws NullPointerException, IllegalArgumentException, IndexOutOfBoundsException;
+	
+	/**
+	 * Creates read-only buffers over the segments of this string.
+	 * Unlike {@link #toReadOnlyByteBuffer()}, this does not copy strings
+	 * made of several pieces, such as ropes, into a single buffer; the
+	 * buffers share the storage of the pieces wherever the string stores
+	 * its content, and remain valid indefinitely.  The result is suitable
+	 * for a {@linkplain GatheringByteChannel gathering write}.
+	 * @return  An array of buffers whose remaining bytes, taken in order,
+	 *   are the bytes of this string.  The array is empty if this string
+	 *   is empty.
+	 */
+	public ByteBuffer[] toReadOnlyByteBuffers();
+	
+	/**
+	 * Writes this string to a channel.
+	 * Equivalent to {@link #writeTo(WritableByteChannel, int) writeTo(channel, 0)}.
+	 * @param channel  The channel to write to.
+	 * @return  The number of bytes written.
+	 * @throws NullPointerException  If {@code channel} is null.
+	 * @throws IOException  If the channel fails to write.
+	 */
+	public int writeTo(WritableByteChannel channel) throws NullPointerException, IOException;
+	
+	/**
+	 * Writes the bytes of this string starting at an index to a channel.
+	 * If the channel is a {@link GatheringByteChannel}, the segments of
+	 * this string are written with {@linkplain
+	 * GatheringByteChannel#write(ByteBuffer[], int, int) gathering writes}
+	 * and without being copied into a single buffer.
+	 *
+	 * <p>A blocking channel writes every byte.  A non-blocking channel may
+	 * accept only some of the bytes, in which case this method returns
+	 * early; the write is resumed by calling this method again with
+	 * {@code fromIndex} advanced by the number of bytes written.
+	 * @param channel  The channel to write to.
+	 * @param fromIndex  The index of the first byte to write.
+	 * @return  The number of bytes written, which is less than
+	 *   <code>{@link #length()} - fromIndex</code> only if the channel
+	 *   stopped accepting bytes.
+	 * @throws NullPointerException  If {@code channel} is null.
+	 * @throws IllegalArgumentException  If {@code fromIndex < 0}.
+	 * @throws IndexOutOfBoundsException  If
+	 *   <code>fromIndex &gt; {@link #length()}</code>.
+	 * @throws IOException  If the channel fails to write.
+	 */
+	public int writeTo(WritableByteChannel channel, int fromIndex) throws NullPointerException,
+			IllegalArgumentException, IndexOutOfBoundsException, IOException;
+	
+	/**
+	 * Writes this string to an output stream.
+	 * The segments of this string are written one at a time, without first
+	 * being copied into a single array.
+	 * @param out  The stream to write to.
+	 * @throws NullPointerException  If {@code out} is null.
+	 * @throws IOException  If the stream fails to write.
+	 */
+	public void writeTo(OutputStream out) throws NullPointerException, IOException;
+	
+	/**
+	 * Creates an input stream which reads this string.
+	 * The stream reads directly from the storage of this string, supports
+	 * {@linkplain InputStream#mark(int) marking} with no read limit, and
+	 * need not be closed.
+	 * @return  An {@link InputStream} whose content is the bytes of this
+	 *   string.
+	 */
+	public InputStream newInputStream();
+	
 	/**
 	 * Finds a substring within this string.
 	 * @param string  The string to find.
@@ -234,6 +350,7 @@ public interface ByteString {
 	 * @throws IllegalArgumentException  If {@code fromIndex < 0}.
 	 * @throws IndexOutOfBoundsException  If <code>fromIndex &gt;=
 	 *   {@link #length()}</code>.
+	 * @see ByteStrings#compile(ByteString)
 	 */
 	public int indexOf(ByteString string, int fromIndex)
 			throws NullPointerException, IllegalArgumentException, IndexOutOfBoundsException;
@@ -248,6 +365,31 @@ public interface ByteString {
 	 */
 	public int indexOf(ByteString string) throws NullPointerException;
 	
+	/**
+	 * Finds the last occurrence of a substring within this string.
+	 * @param string  The string to find.
+	 * @param fromIndex  The last index at which the substring may start.
+	 * @return  The index of the last substring equal to {@code string}
+	 *   starting at or before {@code fromIndex}, or {@code -1} if this
+	 *   string does not contain such a substring.
+	 * @throws NullPointerException  If {@code string} is null.
+	 * @throws IllegalArgumentException  If {@code fromIndex < 0}.
+	 * @throws IndexOutOfBoundsException  If <code>fromIndex &gt;=
+	 *   {@link #length()}</code>.
+	 */
+	public int lastIndexOf(ByteString string, int fromIndex)
+			throws NullPointerException, IllegalArgumentException, IndexOutOfBoundsException;
+	
+	/**
+	 * Finds the last occurrence of a substring within this string.
+	 * @param string  The string to find.
+	 * @return  The index of the last substring equal to {@code string},
+	 *   or {@code -1} if this string does not contain a substring equal to
+	 *   {@code string}.  An empty string is found at {@link #length()}.
+	 * @throws NullPointerException  If {@code string} is null.
+	 */
+	public int lastIndexOf(ByteString string) throws NullPointerException;
+	
 	/**
 	 * Finds a byte value within this string.
 	 * @param value  The value to find.
@@ -274,6 +416,41 @@ public interface ByteString {
 	 */
 	public int indexOf(int value) throws IllegalArgumentException;
 	
+	/**
+	 * Finds the last occurrence of a byte value within this string.
+	 * @param value  The value to find.
+	 * @param fromIndex  The last index to check.
+	 * @return  The index of the last byte equal to {@code value} at or
+	 *   before {@code fromIndex}, or {@code -1} if this string does not
+	 *   contain such a byte.
+	 * @throws IllegalArgumentException  If {@code fromIndex < 0} or
+	 *   {@code value} is not in the range of a signed or unsigned 8-bit
+	 *   integer.
+	 * @throws IndexOutOfBoundsException  If <code>fromIndex &gt;=
+	 *   {@link #length()}</code>.
+	 */
+	public int lastIndexOf(int value, int fromIndex) throws IllegalArgumentException,
+			IndexOutOfBoundsException;
+	
+	/**
+	 * Finds the last occurrence of a byte value within this string.
+	 * @param value  The value to find.
+	 * @return  The index of the last byte equal to {@code value}, or
+	 *   {@code -1} if this string does not contain such a byte.
+	 * @throws IllegalArgumentException  If value is not in the range
+	 *   of a signed or unsigned 8-bit integer.
+	 */
+	public int lastIndexOf(int value) throws IllegalArgumentException;
+	
+	/**
+	 * Counts the occurrences of a byte value within this string.
+	 * @param value  The value to count.
+	 * @return  The number of bytes equal to {@code value}.
+	 * @throws IllegalArgumentException  If value is not in the range
+	 *   of a signed or unsigned 8-bit integer.
+	 */
+	public int count(int value) throws IllegalArgumentException;
+	
 	
 	/**
 	 * Does this string contain a certain string?
@@ -312,4 +489,36 @@ public interface ByteString {
 	 */
 	public boolean endsWith(ByteString string) throws NullPointerException;
 	
+	/**
+	 * Finds the first difference between this string and another string.
+	 * @param string  The string to compare against.
+	 * @return  The smallest index {@code i} such that
+	 *   <code>this.{@link #at(int) at}(i) != string.at(i)</code>, the length
+	 *   of the shorter string if one is a proper prefix of the other, or
+	 *   {@code -1} if the strings are equal.
+	 * @throws NullPointerException  If {@code string} is null.
+	 */
+	public int mismatch(ByteString string) throws NullPointerException;
+	
+	/**
+	 * Measures the common prefix of this string and another string.
+	 * @param string  The string to compare against.
+	 * @return  The length of the longest string which both this string and
+	 *   {@code string} {@linkplain #startsWith(ByteString) start with}.
+	 * @throws NullPointerException  If {@code string} is null.
+	 */
+	public int commonPrefixLength(ByteString string) throws NullPointerException;
+	
+	/**
+	 * Compares this string to another string.
+	 * Bytes are compared as unsigned values, so {@code 0x7F} is ordered
+	 * before {@code 0x80}.
+	 * @param string  The string to compare against.
+	 * @return  A negative number, zero, or a positive number if this string
+	 *   is ordered before, equal to, or after {@code string}.
+	 * @throws NullPointerException  If {@code string} is null.
+	 * @see ByteStrings#comparator()
+	 */
+	public int compareTo(ByteString string) throws NullPointerException;
+	
 }
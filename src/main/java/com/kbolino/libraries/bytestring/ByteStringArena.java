@@ -0,0 +1,350 @@
+package com.kbolino.libraries.bytestring;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An allocator of {@link PooledByteString}s, which carves strings out of
+ * large, reusable slabs of heap or direct memory instead of allocating an
+ * array for each one.
+ *
+ * <p>Strings are allocated consecutively from the current slab.  A slab
+ * which is full is retired, and once every string allocated from it has
+ * been {@linkplain PooledByteString#release() released}, it is kept for
+ * reuse, up to a limit, instead of becoming garbage.  Strings longer than
+ * a quarter of a slab are not pooled, and are allocated on their own.
+ *
+ * <p>A string which becomes unreachable without being released keeps its
+ * slab from being reused.  To find such strings, the arena can
+ * {@linkplain #detectLeaks(int, LeakListener) sample} its allocations
+ * and report any sampled string which is garbage-collected while still
+ * counted; the region of a reported string is reclaimed.
+ *
+ * <p>Arenas are safe for use by multiple threads.
+ * @see ByteStrings#arena()
+ */
+public final class ByteStringArena {
+	/**
+	 * Receives reports of leaked strings.
+	 * @see ByteStringArena#detectLeaks(int, LeakListener)
+	 */
+	public interface LeakListener {
+		/**
+		 * Reports a string which was garbage-collected without being
+		 * released.
+		 * @param length  The length of the string.
+		 * @param allocation  An exception whose stack trace is that of the
+		 *   allocation of the string.
+		 */
+		public void leaked(int length, Throwable allocation);
+	}
+
+	/**
+	 * A slab of memory from which strings are allocated.
+	 * The slab counts its live strings, plus one while it is the arena's
+	 * current slab; whoever brings the count to 0 recycles it.
+	 */
+	static final class Slab {
+		/** The memory of a heap slab, or null. */
+		final byte[] array;
+		/** The memory of a direct slab, or null. */
+		final ByteBuffer buffer;
+		final AtomicInteger live = new AtomicInteger(1);
+		/** The index of the first free byte, guarded by the arena. */
+		int position;
+
+		Slab(final byte[] array, final ByteBuffer buffer) {
+			this.array = array;
+			this.buffer = buffer;
+		}
+
+		int capacity() {
+			return array != null ? array.length : buffer.capacity();
+		}
+	}
+
+	/**
+	 * A reference to a sampled string, which is enqueued if the string is
+	 * garbage-collected before being released.
+	 */
+	static final class LeakReference extends WeakReference<SlabByteString> {
+		final Slab slab;
+		final int length;
+		final Throwable allocation;
+
+		LeakReference(final SlabByteString string, final ReferenceQueue<SlabByteString> queue,
+				final Slab slab, final Throwable allocation) {
+			super(string, queue);
+			this.slab = slab;
+			this.length = string.length();
+			this.allocation = allocation;
+		}
+	}
+
+	private final int slabSize;
+	private final boolean direct;
+	private final int maxFreeSlabs;
+	/** Slabs ready for reuse, guarded by {@code this}. */
+	private final List<Slab> freeSlabs = new ArrayList<Slab>();
+	/** The slab being allocated from, guarded by {@code this}. */
+	private Slab current;
+	private final AtomicLong slabsAllocated = new AtomicLong();
+
+	private volatile int sampleInterval;
+	private volatile LeakListener leakListener;
+	private final AtomicLong allocations = new AtomicLong();
+	private final ReferenceQueue<SlabByteString> leakQueue = new ReferenceQueue<SlabByteString>();
+	/** The references to sampled strings which have not been released. */
+	private final ConcurrentHashMap<LeakReference, Boolean> tracked =
+			new ConcurrentHashMap<LeakReference, Boolean>();
+	private final AtomicLong leaks = new AtomicLong();
+
+	/**
+	 * Creates a new {@link ByteStringArena}.  Constructor preconditions:
+	 * <ol>
+	 *   <li>{@code slabSize > 0}</li>
+	 *   <li>{@code maxFreeSlabs >= 0}</li>
+	 * </ol>
+	 * @param slabSize  The length of each slab.
+	 * @param direct  Whether slabs are direct buffers rather than arrays.
+	 * @param maxFreeSlabs  The maximum number of empty slabs kept for reuse.
+	 */
+	ByteStringArena(final int slabSize, final boolean direct, final int maxFreeSlabs) {
+		super();
+		this.slabSize = slabSize;
+		this.direct = direct;
+		this.maxFreeSlabs = maxFreeSlabs;
+	}
+
+	/**
+	 * Copies a string into pooled memory.
+	 * @param string  The string to copy.
+	 * @return  A {@link PooledByteString} equal to {@code string}, with a
+	 *   reference count of 1.
+	 * @throws NullPointerException  If {@code string} is null.
+	 */
+	public PooledByteString copyOf(final ByteString string) throws NullPointerException {
+		if (string == null) {
+			throw new NullPointerException("string is null");
+		}
+		final int length = string.length();
+		Slab slab = null;
+		int offset = 0;
+		if (length > 0 && length <= slabSize / 4) {
+			synchronized (this) {
+				slab = reserve(length);
+				// another reservation would move the position
+				offset = slab.position - length;
+			}
+		}
+		final ByteString content;
+		if (length == 0) {
+			content = Utils.EMPTY_STRING;
+		} else if (slab == null) {
+			content = direct
+					? ByteStrings.wrap(fill(ByteBuffer.allocateDirect(length), string))
+					: new ArrayByteString(string.toByteArray());
+		} else if (slab.array != null) {
+			Utils.copyRange(string, 0, slab.array, offset, length);
+			content = new ArrayByteString(slab.array, offset, length);
+		} else {
+			final ByteBuffer region = slab.buffer.duplicate();
+			region.limit(offset + length).position(offset);
+			content = new BufferByteString(fill(region.slice(), string).asReadOnlyBuffer(), true);
+		}
+		return track(new SlabByteString(this, slab, content), slab);
+	}
+
+	/**
+	 * Copies bytes from an array into pooled memory.
+	 * @param bytes  The array holding the bytes to copy.
+	 * @param offset  The index of the first byte to copy.
+	 * @param length  The number of bytes to copy.
+	 * @return  A {@link PooledByteString} of the bytes, with a reference
+	 *   count of 1.
+	 * @throws NullPointerException  If {@code bytes} is null.
+	 * @throws IllegalArgumentException  If {@code offset < 0} or
+	 *   {@code length < 0}.
+	 * @throws IndexOutOfBoundsException  If {@code offset >= bytes.length}
+	 *   or {@code length > bytes.length - offset}.
+	 */
+	public PooledByteString copyOf(final byte[] bytes, final int offset, final int length)
+			throws NullPointerException, IllegalArgumentException, IndexOutOfBoundsException {
+		Utils.checkCopyParams(bytes, offset, length);
+		// the view is only read while copying
+		return copyOf(length == 0 ? Utils.EMPTY_STRING : new ArrayByteString(bytes, offset, length));
+	}
+
+	/**
+	 * Copies the content of a string into a buffer.
+	 * @param buffer  A buffer whose remaining length is that of the string.
+	 * @param string  The string to copy.
+	 * @return  {@code buffer}, flipped so that its remaining bytes are
+	 *   those of the string.
+	 */
+	private static ByteBuffer fill(final ByteBuffer buffer, final ByteString string) {
+		string.copyTo(buffer);
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * Reserves a region of the current slab, replacing the slab if it is
+	 * full.  The region ends at the returned slab's new
+	 * {@linkplain Slab#position position}.  The caller must hold the lock
+	 * on this arena, and read the position before releasing it.
+	 * @param length  The length of the region, which is at most the slab
+	 *   size.
+	 * @return  The slab holding the region, which counts the region as a
+	 *   live string.
+	 */
+	private Slab reserve(final int length) {
+		if (current == null || current.capacity() - current.position < length) {
+			if (current != null) {
+				// the arena's own count on the retired slab
+				free(current);
+			}
+			current = freeSlabs.isEmpty() ? newSlab() : freeSlabs.remove(freeSlabs.size() - 1);
+		}
+		current.position += length;
+		current.live.incrementAndGet();
+		return current;
+	}
+
+	/**
+	 * Allocates a new slab.
+	 * @return  A new, empty {@link Slab}.
+	 */
+	private Slab newSlab() {
+		slabsAllocated.incrementAndGet();
+		return direct
+				? new Slab(null, ByteBuffer.allocateDirect(slabSize))
+				: new Slab(new byte[slabSize], null);
+	}
+
+	/**
+	 * Releases one count on a slab, recycling it if none remain.
+	 * @param slab  The slab.
+	 */
+	void free(final Slab slab) {
+		if (slab.live.decrementAndGet() == 0) {
+			synchronized (this) {
+				if (freeSlabs.size() < maxFreeSlabs) {
+					slab.position = 0;
+					slab.live.set(1);
+					freeSlabs.add(slab);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Enables or disables leak detection.
+	 * Once in every {@code sampleInterval} allocations, the arena records
+	 * the stack trace of the allocation and watches the string; if it is
+	 * garbage-collected before being released, the listener is notified,
+	 * {@link #leaks()} is incremented, and the string's region is
+	 * reclaimed.  Leaks are detected during later allocations, or by
+	 * calling {@link #checkLeaks()}.
+	 * @param sampleInterval  The number of allocations per sampled
+	 *   allocation, or 0 to disable leak detection.
+	 * @param listener  The listener to notify of leaks, or null to only
+	 *   count them.
+	 * @throws IllegalArgumentException  If {@code sampleInterval < 0}.
+	 */
+	public void detectLeaks(final int sampleInterval, final LeakListener listener)
+			throws IllegalArgumentException {
+		if (sampleInterval < 0) {
+			throw new IllegalArgumentException(String.format("sampleInterval (%d) < 0", sampleInterval));
+		}
+		this.leakListener = listener;
+		this.sampleInterval = sampleInterval;
+	}
+
+	/**
+	 * Samples a newly-allocated string for leak detection, and reports
+	 * earlier leaks.
+	 * @param string  The string.
+	 * @param slab  The slab holding the string, or null.
+	 * @return  {@code string}
+	 */
+	private PooledByteString track(final SlabByteString string, final Slab slab) {
+		final int interval = sampleInterval;
+		if (interval > 0) {
+			checkLeaks();
+			if (allocations.incrementAndGet() % interval == 0) {
+				final LeakReference leak = new LeakReference(string, leakQueue, slab,
+						new Throwable("allocation of leaked string"));
+				tracked.put(leak, Boolean.TRUE);
+				string.leak = leak;
+			}
+		}
+		return string;
+	}
+
+	/**
+	 * Stops watching a released string.
+	 * @param leak  The reference to the string.
+	 */
+	void untrack(final LeakReference leak) {
+		tracked.remove(leak);
+		leak.clear();
+	}
+
+	/**
+	 * Reports sampled strings which have been garbage-collected without
+	 * being released.
+	 * @return  The number of leaks found.
+	 */
+	public int checkLeaks() {
+		int found = 0;
+		LeakReference leak;
+		while ((leak = (LeakReference) leakQueue.poll()) != null) {
+			if (tracked.remove(leak) == null) {
+				// released after all, but collected before being untracked
+				continue;
+			}
+			found++;
+			leaks.incrementAndGet();
+			if (leak.slab != null) {
+				free(leak.slab);
+			}
+			final LeakListener listener = leakListener;
+			if (listener != null) {
+				listener.leaked(leak.length, leak.allocation);
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * The number of leaks found.
+	 * @return  The number of sampled strings which were garbage-collected
+	 *   without being released.
+	 */
+	public long leaks() {
+		return leaks.get();
+	}
+
+	/**
+	 * The number of slabs allocated.
+	 * @return  The number of slabs this arena has allocated, which grows
+	 *   only when no released slab is available for reuse.
+	 */
+	public long slabsAllocated() {
+		return slabsAllocated.get();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String toString() {
+		return String.format("ByteStringArena[slabSize=%d, direct=%b, slabsAllocated=%d, leaks=%d]",
+				slabSize, direct, slabsAllocated(), leaks());
+	}
+}
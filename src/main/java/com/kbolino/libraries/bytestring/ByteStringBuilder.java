@@ -2,6 +2,7 @@ package com.kbolino.libraries.bytestring;
 
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * A builder for {@link ByteString}s.
@@ -10,8 +11,14 @@ import java.nio.ByteBuffer;
  * calls can be chained easily.
  */
 public final class ByteStringBuilder {
-	private byte[] bytes;
-	private int length;
+	private final BuilderStorage storage;
+	/**
+	 * True once this builder has been released to a
+	 * {@link ByteStringBuilderPool}, until it is acquired again.  It is
+	 * set atomically, so that only one of several threads releasing the
+	 * builder at once succeeds.
+	 */
+	final AtomicBoolean released = new AtomicBoolean();
 	
 	/**
 	 * Creates a new {@link ByteStringBuilder}.  Constructor preconditions:
@@ -21,7 +28,19 @@ public final class ByteStringBuilder {
 	 * @param initialCapacity  The initial capacity.
 	 */
 	ByteStringBuilder(final int initialCapacity) {
-		bytes = new byte[initialCapacity];
+		this(new ArrayBuilderStorage(initialCapacity));
+	}
+	
+	/**
+	 * Creates a new {@link ByteStringBuilder}.  Constructor preconditions:
+	 * <ol>
+	 *   <li>{@code storage != null}</li>
+	 *   <li>{@code storage} is not used by any other builder</li>
+	 * </ol>
+	 * @param storage  The storage to hold the content of the builder.
+	 */
+	ByteStringBuilder(final BuilderStorage storage) {
+		this.storage = storage;
 	}
 	
 	/**
@@ -29,7 +48,7 @@ public final class ByteStringBuilder {
 	 * @return  The number of bytes that have been added to this builder.
 	 */
 	public int length() {
-		return length;
+		return storage.length();
 	}
 	
 	/**
@@ -41,21 +60,17 @@ public final class ByteStringBuilder {
 	 *   {@link #length()}</code>.
 	 */
 	public byte at(final int index) throws IllegalArgumentException, IndexOutOfBoundsException {
-		if (index < 0) {
-			throw new IllegalArgumentException(String.format("index (%d) < 0", index));
-		} else if (index >= length) {
-			throw new IndexOutOfBoundsException(String.format("index (%d) >= length (%d)", index, length));
-		}
-		return bytes[index];
+		Utils.checkIndex("index", storage.length(), index);
+		return storage.get(index);
 	}
 	
 	/**
 	 * The capacity of this builder.
 	 * @return  The maximum value of {@link #length()} for this builder
-	 *   before its internal array must be resized.
+	 *   before its storage must grow.
 	 */
 	public int capacity() {
-		return bytes.length;
+		return storage.capacity();
 	}
 	
 	/**
@@ -68,12 +83,7 @@ public final class ByteStringBuilder {
 		if (capacity < 0) {
 			throw new IllegalArgumentException(String.format("capacity (%d) < 0", capacity));
 		}
-		if (capacity > bytes.length) {
-			final int newSize = Math.max(2 * bytes.length + 1, capacity);
-			final byte[] copy = new byte[newSize];
-			System.arraycopy(bytes, 0, copy, 0, length);
-			bytes = copy;
-		}
+		storage.ensureCapacity(capacity);
 		return this;
 	}
 	
@@ -88,9 +98,9 @@ public final class ByteStringBuilder {
 	 */
 	public ByteStringBuilder append(final int value) throws IllegalArgumentException {
 		final byte b = Utils.toByteValue(value);
-		ensureCapacity(length + 1);
-		bytes[length] = b;
-		length += 1;
+		final int index = storage.length();
+		storage.open(index, 1);
+		storage.set(index, b);
 		return this;
 	}
 	
@@ -123,9 +133,9 @@ public final class ByteStringBuilder {
 			throws NullPointerException, IllegalArgumentException, IndexOutOfBoundsException {
 		Utils.checkCopyParams(bytes, offset, length);
 		if (length != 0) {
-			ensureCapacity(this.length + length);
-			System.arraycopy(bytes, offset, this.bytes, this.length, length);
-			this.length += length;
+			final int index = storage.length();
+			storage.open(index, length);
+			storage.set(index, bytes, offset, length);
 		}
 		return this;
 	}
@@ -159,10 +169,12 @@ public final class ByteStringBuilder {
 	public ByteStringBuilder append(final ByteBuffer buffer, final int length)
 			throws NullPointerException, IllegalArgumentException, BufferUnderflowException {
 		Utils.checkCopyParams(buffer, length);
-		if (length != 0) {
-			ensureCapacity(this.length + length);
-			buffer.get(bytes, this.length, length);
-			this.length += length;
+		if (length > buffer.remaining()) {
+			throw new BufferUnderflowException();
+		} else if (length != 0) {
+			final int index = storage.length();
+			storage.open(index, length);
+			storage.set(index, buffer, length);
 		}
 		return this;
 	}
@@ -177,40 +189,64 @@ public final class ByteStringBuilder {
 		if (string == null) {
 			throw new NullPointerException("string is null");
 		} else if (string.length() > 0) {
-			ensureCapacity(length + string.length());
-			string.copyTo(bytes, length);
-			length += string.length();
+			final int index = storage.length();
+			storage.open(index, string.length());
+			storage.set(index, string);
 		}
 		return this;
 	}
 	
 	/**
-	 * Shifts bytes downward in the internal array.  Preconditions:
-	 * <ol>
-	 *   <li>{@code fromIndex >= 0}</li>
-	 *   <li>{@code toIndex >= 0}</li>
-	 *   <li>{@code fromIndex < length}</li>
-	 * </ol>
-	 * Adjusts {@link length} appropriately.
-	 * @param fromIndex  The index of the first byte to shift.
-	 * @param toIndex  The new index to receive the first byte.
+	 * Checks an index at which bytes are to be inserted.
+	 * @param index  The index.
+	 * @throws IllegalArgumentException  If {@code index < 0}.
+	 * @throws IndexOutOfBoundsException  If {@code index > length()}.
 	 */
-	private void shiftBytes(final int fromIndex, final int toIndex) {
-		if (fromIndex == toIndex) {
-			return;
+	private void checkInsert(final int index) throws IllegalArgumentException, IndexOutOfBoundsException {
+		if (index < 0) {
+			throw new IllegalArgumentException(String.format("index (%d) < 0", index));
+		} else if (index > storage.length()) {
+			throw new IndexOutOfBoundsException(String.format("index (%d) > length (%d)",
+					index, storage.length()));
 		}
-		final int shift = toIndex - fromIndex;
-		ensureCapacity(length + shift);
-		if (shift < 0) {
-			for (int i = fromIndex; i < length; i++) {
-				bytes[i + shift] = bytes[i];
-			}
-		} else {
-			for (int i = length - 1; i >= fromIndex; i--) {
-				bytes[i + shift] = bytes[i];
-			}
+	}
+	
+	/**
+	 * Checks a range of bytes which are to be replaced.
+	 * @param index  The index of the first byte.
+	 * @param length  The number of bytes.
+	 * @throws IllegalArgumentException  If {@code index < 0}.
+	 * @throws IndexOutOfBoundsException  If
+	 *   {@code index + length > length()}.
+	 */
+	private void checkReplace(final int index, final int length)
+			throws IllegalArgumentException, IndexOutOfBoundsException {
+		if (index < 0) {
+			throw new IllegalArgumentException(String.format("index (%d) < 0", index));
+		} else if ((long) index + length > storage.length()) {
+			throw new IndexOutOfBoundsException(String.format("index (%d) + length (%d) > length (%d)",
+					index, length, storage.length()));
+		}
+	}
+	
+	/**
+	 * Checks the offset of the bytes to take from an array.
+	 * @param bytes  The array.
+	 * @param offset  The offset.
+	 * @throws NullPointerException  If {@code bytes == null}.
+	 * @throws IllegalArgumentException  If {@code offset < 0}.
+	 * @throws IndexOutOfBoundsException  If {@code offset > bytes.length}.
+	 */
+	private static void checkOffset(final byte[] bytes, final int offset)
+			throws NullPointerException, IllegalArgumentException, IndexOutOfBoundsException {
+		if (bytes == null) {
+			throw new NullPointerException("bytes is null");
+		} else if (offset < 0) {
+			throw new IllegalArgumentException(String.format("offset (%d) < 0", offset));
+		} else if (offset > bytes.length) {
+			throw new IndexOutOfBoundsException(String.format("offset (%d) > bytes.length (%d)",
+					offset, bytes.length));
 		}
-		length += shift;
 	}
 	
 	/**
@@ -228,16 +264,10 @@ public final class ByteStringBuilder {
 	 */
 	public ByteStringBuilder insert(final int index, final int value)
 			throws IllegalArgumentException, IndexOutOfBoundsException {
-		if (index < 0) {
-			throw new IllegalArgumentException(String.format("index (%d) < 0", index));
-		} else if (index > length) {
-			throw new IndexOutOfBoundsException(String.format("index (%d) > length (%d)", index, length));
-		} else if (index == length) {
-			return append(value);
-		}
+		checkInsert(index);
 		final byte b = Utils.toByteValue(value);
-		shiftBytes(index, index + 1);
-		bytes[index] = b;
+		storage.open(index, 1);
+		storage.set(index, b);
 		return this;
 	}
 	
@@ -256,15 +286,12 @@ public final class ByteStringBuilder {
 			throws NullPointerException, IllegalArgumentException, IndexOutOfBoundsException {
 		if (string == null) {
 			throw new NullPointerException("string == null");
-		} else if (index < 0) {
-			throw new IllegalArgumentException(String.format("index (%d) < 0", index));
-		} else if (index > length) {
-			throw new IndexOutOfBoundsException(String.format("index (%d) > length (%d)", index, length));
-		} else if (index == length) {
-			return append(string);
 		}
-		shiftBytes(index, index + string.length());
-		string.copyTo(bytes, index);
+		checkInsert(index);
+		if (string.length() > 0) {
+			storage.open(index, string.length());
+			storage.set(index, string);
+		}
 		return this;
 	}
 	
@@ -281,8 +308,10 @@ public final class ByteStringBuilder {
 	 */
 	public ByteStringBuilder insert(final int index, final byte[] bytes)
 			throws NullPointerException, IllegalArgumentException, IndexOutOfBoundsException {
-		// TODO check params
-		return insert(index, bytes, 0);
+		if (bytes == null) {
+			throw new NullPointerException("bytes is null");
+		}
+		return insert(index, bytes, 0, bytes.length);
 	}
 	
 	/**
@@ -301,7 +330,7 @@ public final class ByteStringBuilder {
 	 */
 	public ByteStringBuilder insert(final int index, final byte[] bytes, final int offset)
 			throws NullPointerException, IllegalArgumentException, IndexOutOfBoundsException {
-		// TODO check params
+		checkOffset(bytes, offset);
 		return insert(index, bytes, offset, bytes.length - offset);
 	}
 	
@@ -322,12 +351,12 @@ public final class ByteStringBuilder {
 	 */
 	public ByteStringBuilder insert(final int index, final byte[] bytes, final int offset, final int length)
 			throws NullPointerException, IllegalArgumentException, IndexOutOfBoundsException {
-		// TODO check params
-		if (index == length) {
-			append(bytes, offset, length);
+		Utils.checkCopyParams(bytes, offset, length);
+		checkInsert(index);
+		if (length != 0) {
+			storage.open(index, length);
+			storage.set(index, bytes, offset, length);
 		}
-		shiftBytes(index, index + length);
-		System.arraycopy(bytes, offset, this.bytes, index, length);
 		return this;
 	}
 	
@@ -343,7 +372,9 @@ public final class ByteStringBuilder {
 	 */
 	public ByteStringBuilder insert(final int index, final ByteBuffer buffer)
 			throws NullPointerException, IllegalArgumentException, IndexOutOfBoundsException {
-		// TODO check params
+		if (buffer == null) {
+			throw new NullPointerException("buffer is null");
+		}
 		return insert(index, buffer, buffer.remaining());
 	}
 	
@@ -364,9 +395,14 @@ public final class ByteStringBuilder {
 	public ByteStringBuilder insert(final int index, final ByteBuffer buffer, final int length)
 			throws NullPointerException, IllegalArgumentException, BufferUnderflowException,
 			IndexOutOfBoundsException {
-		// TODO check params
-		shiftBytes(index, index + length);
-		buffer.get(bytes, index, length);
+		Utils.checkCopyParams(buffer, length);
+		checkInsert(index);
+		if (length > buffer.remaining()) {
+			throw new BufferUnderflowException();
+		} else if (length != 0) {
+			storage.open(index, length);
+			storage.set(index, buffer, length);
+		}
 		return this;
 	}
 	
@@ -381,11 +417,8 @@ public final class ByteStringBuilder {
 	 */
 	public ByteStringBuilder deleteByte(final int index)
 			throws IllegalArgumentException, IndexOutOfBoundsException {
-		Utils.checkIndex("index", length, index);
-		if (index == length - 1) {
-			return truncate(length - 1);
-		}
-		shiftBytes(index, index - 1);
+		Utils.checkIndex("index", storage.length(), index);
+		storage.remove(index, index + 1);
 		return this;
 	}
 	
@@ -402,10 +435,11 @@ public final class ByteStringBuilder {
 			throws IllegalArgumentException, IndexOutOfBoundsException {
 		if (length < 0) {
 			throw new IllegalArgumentException(String.format("length (%d) < 0", length));
-		} else if (length > this.length) {
-			throw new IndexOutOfBoundsException(String.format("length (%d) > this.length (%d)", length, this.length));
+		} else if (length > storage.length()) {
+			throw new IndexOutOfBoundsException(String.format("length (%d) > this.length (%d)",
+					length, storage.length()));
 		}
-		this.length = length;
+		storage.remove(length, storage.length());
 		return this;
 	}
 	
@@ -423,11 +457,19 @@ public final class ByteStringBuilder {
 	 */
 	public ByteStringBuilder delete(final int beginIndex, final int endIndex)
 			throws IllegalArgumentException, IndexOutOfBoundsException {
-		Utils.checkSubString(length, beginIndex, endIndex);
-		if (endIndex == length) {
-			return truncate(beginIndex);
-		}
-		shiftBytes(endIndex, beginIndex);
+		Utils.checkSubString(storage.length(), beginIndex, endIndex);
+		storage.remove(beginIndex, endIndex);
+		return this;
+	}
+	
+	/**
+	 * Empties this builder, keeping its capacity, so that it can be
+	 * reused without allocating again.
+	 * Afterwards, <code>{@link #length()} == 0</code>.
+	 * @return  {@code this}
+	 */
+	public ByteStringBuilder reset() {
+		storage.clear();
 		return this;
 	}
 	
@@ -450,10 +492,11 @@ public final class ByteStringBuilder {
 			throw new IllegalArgumentException(String.format("index (%d) < 0", index));
 		}
 		final byte b = Utils.toByteValue(value);
-		if (index >= length) {
-			throw new IndexOutOfBoundsException(String.format("index (%d) >= length (%d)", index, length));
+		if (index >= storage.length()) {
+			throw new IndexOutOfBoundsException(String.format("index (%d) >= length (%d)",
+					index, storage.length()));
 		}
-		bytes[index] = b;
+		storage.set(index, b);
 		return this;
 	}
 	
@@ -477,13 +520,11 @@ public final class ByteStringBuilder {
 			throw new IllegalArgumentException(String.format("index (%d) < 0", index));
 		}
 		final int strLen = string.length();
-		if (index + strLen > length) {
+		if ((long) index + strLen > storage.length()) {
 			throw new IndexOutOfBoundsException(String.format("index (%d) + string.length (%d) > length (%d)",
-					index, string.length(), length));
-		}
-		for (int i = 0; i < strLen; i++) {
-			bytes[i + index] = string.at(i);
+					index, strLen, storage.length()));
 		}
+		storage.set(index, string);
 		return this;
 	}
 	
@@ -500,8 +541,10 @@ public final class ByteStringBuilder {
 	 */
 	public ByteStringBuilder replace(final int index, final byte[] bytes)
 			throws NullPointerException, IllegalArgumentException, IndexOutOfBoundsException {
-		// TODO check params
-		return replace(index, bytes, 0);
+		if (bytes == null) {
+			throw new NullPointerException("bytes is null");
+		}
+		return replace(index, bytes, 0, bytes.length);
 	}
 	
 	/**
@@ -519,7 +562,7 @@ public final class ByteStringBuilder {
 	 */
 	public ByteStringBuilder replace(final int index, final byte[] bytes, final int offset)
 			throws NullPointerException, IllegalArgumentException, IndexOutOfBoundsException {
-		// TODO check params
+		checkOffset(bytes, offset);
 		return replace(index, bytes, offset, bytes.length - offset);
 	}
 	
@@ -540,8 +583,9 @@ public final class ByteStringBuilder {
 	 */
 	public ByteStringBuilder replace(final int index, final byte[] bytes, final int offset, final int length)
 			throws NullPointerException, IllegalArgumentException, IndexOutOfBoundsException {
-		// TODO check params
-		System.arraycopy(bytes, offset, this.bytes, index, length);
+		Utils.checkCopyParams(bytes, offset, length);
+		checkReplace(index, length);
+		storage.set(index, bytes, offset, length);
 		return this;
 	}
 	
@@ -559,7 +603,9 @@ public final class ByteStringBuilder {
 	 */
 	public ByteStringBuilder replace(final int index, final ByteBuffer buffer)
 			throws NullPointerException, IllegalArgumentException, IndexOutOfBoundsException {
-		// TODO check params
+		if (buffer == null) {
+			throw new NullPointerException("buffer is null");
+		}
 		return replace(index, buffer, buffer.remaining());
 	}
 	
@@ -581,8 +627,12 @@ public final class ByteStringBuilder {
 	public ByteStringBuilder replace(final int index, final ByteBuffer buffer, final int length)
 			throws NullPointerException, IllegalArgumentException, BufferUnderflowException,
 			IndexOutOfBoundsException {
-		// TODO check params
-		buffer.get(bytes, index, length);
+		Utils.checkCopyParams(buffer, length);
+		checkReplace(index, length);
+		if (length > buffer.remaining()) {
+			throw new BufferUnderflowException();
+		}
+		storage.set(index, buffer, length);
 		return this;
 	}
 	
@@ -593,10 +643,8 @@ public final class ByteStringBuilder {
 	 *   from 0 to <code>this.{@link #length()} - 1</code>.
 	 */
 	public byte[] toByteArray() {
-		final byte[] copy = new byte[length];
-		if (length > 0) {
-			System.arraycopy(bytes, 0, copy, 0, length);
-		}
+		final byte[] copy = new byte[storage.length()];
+		storage.get(0, copy, 0, copy.length);
 		return copy;
 	}
 	
@@ -608,9 +656,21 @@ public final class ByteStringBuilder {
 	 *   #length()} - 1</code>.
 	 */
 	public ByteString toByteString() {
-		if (length == 0) {
-			return Utils.EMPTY_STRING;
-		}
-		return new ArrayByteString(toByteArray());
+		return storage.toByteString();
+	}
+	
+	/**
+	 * Creates a string from this builder and empties the builder.
+	 * Unlike {@link #toByteString()}, this does not copy the content of
+	 * the builder; the string takes over the builder's internal storage,
+	 * and the builder continues with new storage.  Storage which is only
+	 * partly used is shared or trimmed according to
+	 * {@link ByteStrings#subStringPolicy()}, so that a large, mostly empty
+	 * array is not kept alive by a short string.
+	 * @return  A {@link ByteString} equal to the content of this builder
+	 *   before the call.  Afterwards, <code>{@link #length()} == 0</code>.
+	 */
+	public ByteString toByteStringAndReset() {
+		return storage.detach();
 	}
 }
@@ -0,0 +1,172 @@
+package com.kbolino.libraries.bytestring;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of reusable {@link ByteStringBuilder}s.
+ * Builders which are acquired from a pool and released back to it keep
+ * the capacity they grew to, so code which repeatedly builds strings of
+ * similar size stops allocating and copying as its builders grow.
+ *
+ * <p>Each thread first uses a small stack of builders of its own, which
+ * needs no synchronization; builders which do not fit there go to a
+ * bounded queue shared by all threads, so that builders released by one
+ * thread can be acquired by another.  Builders whose capacity has grown
+ * beyond a limit are discarded on release, so that one unusually large
+ * string does not keep a large array alive in the pool.
+ *
+ * <p>A builder must not be used after it is released, nor released
+ * twice.  Strings obtained from a builder with
+ * {@link ByteStringBuilder#toByteString()} remain valid, since they do
+ * not share its storage.
+ * @see ByteStrings#builderPool()
+ */
+public final class ByteStringBuilderPool {
+	/** The capacity of the builders created when the pool is empty. */
+	private static final int MIN_CAPACITY = 256;
+
+	private final int threadLocalSize;
+	private final int maxRetainedCapacity;
+	private final ThreadLocal<ByteStringBuilder[]> local = new ThreadLocal<ByteStringBuilder[]>();
+	private final BlockingQueue<ByteStringBuilder> shared;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong discards = new AtomicLong();
+
+	/**
+	 * Creates a new {@link ByteStringBuilderPool}.  Constructor
+	 * preconditions:
+	 * <ol>
+	 *   <li>{@code threadLocalSize >= 0}</li>
+	 *   <li>{@code sharedSize > 0}</li>
+	 *   <li>{@code maxRetainedCapacity >= 0}</li>
+	 * </ol>
+	 * @param threadLocalSize  The maximum number of builders held for
+	 *   each thread.
+	 * @param sharedSize  The maximum number of builders held for all
+	 *   threads.
+	 * @param maxRetainedCapacity  The maximum capacity of a builder which
+	 *   is kept when released.
+	 */
+	ByteStringBuilderPool(final int threadLocalSize, final int sharedSize,
+			final int maxRetainedCapacity) {
+		super();
+		this.threadLocalSize = threadLocalSize;
+		this.shared = new ArrayBlockingQueue<ByteStringBuilder>(sharedSize);
+		this.maxRetainedCapacity = maxRetainedCapacity;
+	}
+
+	/**
+	 * Obtains an empty builder from this pool, or a new builder if the
+	 * pool is empty.
+	 * @param sizeHint  The expected length of the content to be built,
+	 *   which becomes the minimum capacity of the builder.
+	 * @return  An empty {@link ByteStringBuilder} with a capacity of at
+	 *   least {@code sizeHint}.
+	 * @throws IllegalArgumentException  If {@code sizeHint < 0}.
+	 */
+	public ByteStringBuilder acquire(final int sizeHint) throws IllegalArgumentException {
+		if (sizeHint < 0) {
+			throw new IllegalArgumentException(String.format("sizeHint (%d) < 0", sizeHint));
+		}
+		ByteStringBuilder builder = null;
+		final ByteStringBuilder[] stack = local.get();
+		if (stack != null) {
+			for (int i = stack.length - 1; i >= 0; i--) {
+				if (stack[i] != null) {
+					builder = stack[i];
+					stack[i] = null;
+					break;
+				}
+			}
+		}
+		if (builder == null) {
+			builder = shared.poll();
+		}
+		if (builder == null) {
+			misses.incrementAndGet();
+			return new ByteStringBuilder(Math.max(sizeHint, MIN_CAPACITY));
+		}
+		hits.incrementAndGet();
+		builder.released.set(false);
+		return builder.ensureCapacity(sizeHint);
+	}
+
+	/**
+	 * Returns a builder to this pool.  The builder is
+	 * {@linkplain ByteStringBuilder#reset() reset}, and is discarded
+	 * instead if its capacity is too large or the pool is full.
+	 * @param builder  The builder to return, which must not be used
+	 *   afterwards.
+	 * @throws NullPointerException  If {@code builder} is null.
+	 * @throws IllegalStateException  If {@code builder} has already been
+	 *   released and not acquired since.
+	 */
+	public void release(final ByteStringBuilder builder)
+			throws NullPointerException, IllegalStateException {
+		if (builder == null) {
+			throw new NullPointerException("builder is null");
+		} else if (!builder.released.compareAndSet(false, true)) {
+			// pooling it twice would hand it to two callers at once
+			throw new IllegalStateException("builder has already been released");
+		}
+		if (builder.capacity() > maxRetainedCapacity) {
+			discards.incrementAndGet();
+			return;
+		}
+		builder.reset();
+		if (threadLocalSize > 0) {
+			ByteStringBuilder[] stack = local.get();
+			if (stack == null) {
+				stack = new ByteStringBuilder[threadLocalSize];
+				local.set(stack);
+			}
+			for (int i = 0; i < stack.length; i++) {
+				if (stack[i] == null) {
+					stack[i] = builder;
+					return;
+				}
+			}
+		}
+		if (!shared.offer(builder)) {
+			discards.incrementAndGet();
+		}
+	}
+
+	/**
+	 * The number of acquisitions served from the pool.
+	 * @return  The number of calls to {@link #acquire(int)} which returned
+	 *   a pooled builder.
+	 */
+	public long hits() {
+		return hits.get();
+	}
+
+	/**
+	 * The number of acquisitions which created a new builder.
+	 * @return  The number of calls to {@link #acquire(int)} which found
+	 *   the pool empty.
+	 */
+	public long misses() {
+		return misses.get();
+	}
+
+	/**
+	 * The number of builders released but not kept.
+	 * @return  The number of calls to {@link #release(ByteStringBuilder)}
+	 *   which discarded the builder, because it was too large or the pool
+	 *   was full.
+	 */
+	public long discards() {
+		return discards.get();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String toString() {
+		return String.format("ByteStringBuilderPool[hits=%d, misses=%d, discards=%d]",
+				hits(), misses(), discards());
+	}
+}
@@ -0,0 +1,102 @@
+package com.kbolino.libraries.bytestring;
+
+import java.io.InputStream;
+
+/**
+ * An {@link InputStream} which reads a {@link ByteString}.
+ * Bulk reads copy directly from the storage of the string, and since the
+ * string is immutable, the stream can be marked and reset without
+ * buffering.
+ * @see ByteString#newInputStream()
+ */
+final class ByteStringInputStream extends InputStream {
+	private final ByteString string;
+	private int position;
+	private int mark;
+
+	/**
+	 * Creates a new {@link ByteStringInputStream}.  Constructor
+	 * preconditions:
+	 * <ol>
+	 *   <li>{@code string != null}</li>
+	 * </ol>
+	 * @param string  The string to read.
+	 */
+	ByteStringInputStream(final ByteString string) {
+		super();
+		this.string = string;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int read() {
+		if (position == string.length()) {
+			return -1;
+		}
+		return string.at(position++) & Utils.UNSIGNED_MAX;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int read(final byte[] bytes, final int offset, final int length)
+			throws NullPointerException, IndexOutOfBoundsException {
+		if (bytes == null) {
+			throw new NullPointerException("bytes is null");
+		} else if (offset < 0 || length < 0 || length > bytes.length - offset) {
+			throw new IndexOutOfBoundsException(String.format(
+					"offset (%d) and length (%d) do not fit bytes.length (%d)",
+					offset, length, bytes.length));
+		} else if (length == 0) {
+			return 0;
+		}
+		final int remaining = string.length() - position;
+		if (remaining == 0) {
+			return -1;
+		}
+		final int n = Math.min(length, remaining);
+		Utils.copyRange(string, position, bytes, offset, n);
+		position += n;
+		return n;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long skip(final long n) {
+		if (n <= 0) {
+			return 0;
+		}
+		final int skipped = (int) Math.min(n, string.length() - position);
+		position += skipped;
+		return skipped;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int available() {
+		return string.length() - position;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public boolean markSupported() {
+		return true;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>The read limit is ignored, since the mark never becomes invalid.
+	 */
+	@Override
+	public void mark(final int readLimit) {
+		mark = position;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>If the stream has not been marked, it is reset to the beginning.
+	 */
+	@Override
+	public void reset() {
+		position = mark;
+	}
+}
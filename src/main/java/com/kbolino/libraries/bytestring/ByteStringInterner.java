@@ -0,0 +1,199 @@
+package com.kbolino.libraries.bytestring;
+
+import java.lang.ref.WeakReference;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A table of canonical strings, which replaces equal strings with a single
+ * shared instance.  Code which holds many copies of the same keys can
+ * intern them so that only one copy of each is kept.
+ *
+ * <p>The canonical instance of some content is a compact array-backed
+ * copy of the first string interned with that content, so that it
+ * shares no storage with the string it was made from, and depends on
+ * neither its implementation nor its lifetime.  Strings of any implementation
+ * are looked up by their content, which is hashed and compared segment by
+ * segment without copying it.
+ *
+ * <p>The table is divided into stripes, each guarded by its own lock, so
+ * that threads interning different strings rarely contend.  A weak
+ * interner holds its canonical strings weakly, dropping each once nothing
+ * else refers to it; a bounded interner holds a limited number of them
+ * strongly, dropping the least recently interned when full.
+ *
+ * <p>Interners are safe for use by multiple threads.
+ * @see ByteStrings#intern(ByteString)
+ * @see ByteStrings#interner()
+ */
+public final class ByteStringInterner {
+	/** The stripes of the table, whose number is a power of two. */
+	private final Map<ByteString, Object>[] stripes;
+	/** Whether the values of {@link #stripes} are weak references. */
+	private final boolean weak;
+	private final AtomicLong lookups = new AtomicLong();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong bytesSaved = new AtomicLong();
+
+	/**
+	 * Creates a new {@link ByteStringInterner}.  Constructor
+	 * preconditions:
+	 * <ol>
+	 *   <li>{@code stripeCount > 0} and is a power of two</li>
+	 *   <li>{@code maxSize >= 0}</li>
+	 * </ol>
+	 * @param stripeCount  The number of stripes.
+	 * @param maxSize  The maximum number of strings held, or 0 to hold
+	 *   strings weakly without a limit.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	ByteStringInterner(final int stripeCount, final int maxSize) {
+		super();
+		stripes = new Map[stripeCount];
+		weak = maxSize == 0;
+		final int stripeSize = (maxSize + stripeCount - 1) / stripeCount;
+		for (int i = 0; i < stripeCount; i++) {
+			if (weak) {
+				stripes[i] = new WeakHashMap<ByteString, Object>();
+			} else {
+				stripes[i] = new LinkedHashMap<ByteString, Object>(16, 0.75f, true) {
+					private static final long serialVersionUID = 1L;
+
+					@Override
+					protected boolean removeEldestEntry(final Map.Entry<ByteString, Object> eldest) {
+						return size() > stripeSize;
+					}
+				};
+			}
+		}
+	}
+
+	/**
+	 * Obtains the canonical instance of a string's content.
+	 * @param string  The string to intern.
+	 * @return  A compact array-backed string equal to {@code string},
+	 *   which is the same instance for all equal strings interned while it
+	 *   is held by this interner.
+	 * @throws NullPointerException  If {@code string} is null.
+	 */
+	public ByteString intern(final ByteString string) throws NullPointerException {
+		if (string == null) {
+			throw new NullPointerException("string is null");
+		}
+		final int length = string.length();
+		if (length == 0) {
+			return Utils.EMPTY_STRING;
+		}
+		lookups.incrementAndGet();
+		final Map<ByteString, Object> stripe = stripe(string.hashCode());
+		ByteString canonical;
+		synchronized (stripe) {
+			canonical = get(stripe, string);
+		}
+		if (canonical == null) {
+			// copied outside the lock; a racing thread may win the insert
+			final ByteString copy = new ArrayByteString(string.toByteArray());
+			synchronized (stripe) {
+				canonical = get(stripe, string);
+				if (canonical == null) {
+					stripe.put(copy, weak ? new WeakReference<ByteString>(copy) : copy);
+					return copy;
+				}
+			}
+		}
+		hits.incrementAndGet();
+		if (canonical != string) {
+			bytesSaved.addAndGet(length);
+		}
+		return canonical;
+	}
+
+	/**
+	 * Finds the stripe holding strings with a hash code.
+	 * @param hash  The hash code.
+	 * @return  The stripe.
+	 */
+	private Map<ByteString, Object> stripe(final int hash) {
+		// the maps use the low bits of the hash, so select with the high bits
+		return stripes[(hash * 0x9E3779B9 >>> 16) & (stripes.length - 1)];
+	}
+
+	/**
+	 * Looks up the canonical instance of a string in a stripe, whose lock
+	 * must be held.
+	 * @param stripe  The stripe.
+	 * @param string  The string.
+	 * @return  The canonical instance, or null if there is none.
+	 */
+	private ByteString get(final Map<ByteString, Object> stripe, final ByteString string) {
+		final Object value = stripe.get(string);
+		if (value instanceof WeakReference<?>) {
+			return (ByteString) ((WeakReference<?>) value).get();
+		}
+		return (ByteString) value;
+	}
+
+	/**
+	 * The number of canonical strings held.  For a weak interner, this
+	 * includes strings which have become unreachable but have not yet been
+	 * removed.
+	 * @return  The number of strings held by this interner.
+	 */
+	public int size() {
+		int size = 0;
+		for (final Map<ByteString, Object> stripe : stripes) {
+			synchronized (stripe) {
+				size += stripe.size();
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * The number of strings interned.
+	 * @return  The number of calls to {@link #intern(ByteString)} with a
+	 *   non-empty string.
+	 */
+	public long lookups() {
+		return lookups.get();
+	}
+
+	/**
+	 * The number of strings interned which already had a canonical
+	 * instance.
+	 * @return  The number of calls to {@link #intern(ByteString)} which
+	 *   returned an existing string.
+	 */
+	public long hits() {
+		return hits.get();
+	}
+
+	/**
+	 * The fraction of strings interned which already had a canonical
+	 * instance.
+	 * @return  {@link #hits()} divided by {@link #lookups()}, or 0 if
+	 *   nothing has been interned.
+	 */
+	public double hitRate() {
+		final long lookups = lookups();
+		return lookups == 0 ? 0 : (double) hits() / lookups;
+	}
+
+	/**
+	 * The number of bytes which interning has made redundant.
+	 * @return  The total length of the strings interned which were
+	 *   replaced with a different, existing instance.
+	 */
+	public long bytesSaved() {
+		return bytesSaved.get();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String toString() {
+		return String.format("ByteStringInterner[size=%d, lookups=%d, hits=%d, bytesSaved=%d]",
+				size(), lookups(), hits(), bytesSaved());
+	}
+}
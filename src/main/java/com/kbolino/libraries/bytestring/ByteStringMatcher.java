@@ -0,0 +1,432 @@
+package com.kbolino.libraries.bytestring;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+
+/**
+ * A matcher which finds many patterns at once.
+ * The matcher compiles its patterns into an Aho-Corasick automaton, so a
+ * string is searched for all of them in a single pass, regardless of how
+ * many patterns there are.  Matchers are immutable and may be shared
+ * between threads.
+ * <p>The automaton is a deterministic transition table held in a single
+ * array.  Bytes that do not occur in any pattern share one column of the
+ * table, so its size is proportional to the total length of the patterns
+ * times the number of distinct bytes used in them.
+ * <p>Matches are reported either to a {@link Handler} or through a
+ * {@link Matches} cursor, which does not allocate while iterating.
+ * {@link #match(ByteString, Handler)} reads strings segment by segment,
+ * so ropes and slices are not flattened; a cursor, which must stop
+ * between matches, copies strings other than arrays into a scratch
+ * buffer a chunk at a time.
+ * @see ByteStrings#matcher(Collection)
+ */
+public final class ByteStringMatcher {
+	/** The root state of the automaton. */
+	private static final int ROOT = 0;
+
+	/** Marks a missing state or pattern. */
+	private static final int NONE = -1;
+
+	private final ByteString[] patterns;
+	/** Length of each pattern. */
+	private final int[] lengths;
+	/** Column of the transition table for each unsigned byte value. */
+	private final int[] columns;
+	/** Number of columns in the transition table. */
+	private final int width;
+	/** Transition table: next state is {@code table[state * width + column]}. */
+	private final int[] table;
+	/** A pattern ending at each state, or {@link #NONE}. */
+	private final int[] output;
+	/** The next pattern equal to each pattern, or {@link #NONE}. */
+	private final int[] duplicate;
+	/** The nearest state with an output along each state's suffix chain, including itself. */
+	private final int[] report;
+	/** The nearest state with an output along each state's suffix chain, excluding itself. */
+	private final int[] suffixReport;
+
+	/**
+	 * Creates a new {@link ByteStringMatcher}.  Constructor preconditions:
+	 * <ol>
+	 *   <li>{@code patterns != null}</li>
+	 *   <li>No element of {@code patterns} is null or empty</li>
+	 *   <li>{@code patterns} is not accessible to other classes</li>
+	 * </ol>
+	 * @param patterns  The patterns to match.
+	 */
+	ByteStringMatcher(final ByteString[] patterns) {
+		this.patterns = patterns;
+		final int count = patterns.length;
+		lengths = new int[count];
+		final byte[][] bytes = new byte[count][];
+		columns = new int[Utils.UNSIGNED_MAX + 1];
+		int totalLength = 0;
+		for (int p = 0; p < count; p++) {
+			bytes[p] = patterns[p].toByteArray();
+			lengths[p] = bytes[p].length;
+			totalLength += lengths[p];
+			for (final byte b : bytes[p]) {
+				columns[b & 0xFF] = 1;
+			}
+		}
+		// column 0 is shared by all bytes which occur in no pattern
+		int width = 1;
+		for (int c = 0; c < columns.length; c++) {
+			if (columns[c] != 0) {
+				columns[c] = width++;
+			}
+		}
+		this.width = width;
+
+		// build the trie
+		final int maxStates = totalLength + 1;
+		final int[] trie = new int[maxStates * width];
+		Arrays.fill(trie, NONE);
+		final int[] output = new int[maxStates];
+		Arrays.fill(output, NONE);
+		duplicate = new int[count];
+		Arrays.fill(duplicate, NONE);
+		int states = 1;
+		for (int p = 0; p < count; p++) {
+			int state = ROOT;
+			for (final byte b : bytes[p]) {
+				final int cell = state * width + columns[b & 0xFF];
+				if (trie[cell] == NONE) {
+					trie[cell] = states++;
+				}
+				state = trie[cell];
+			}
+			if (output[state] == NONE) {
+				output[state] = p;
+			} else {
+				int last = output[state];
+				while (duplicate[last] != NONE) {
+					last = duplicate[last];
+				}
+				duplicate[last] = p;
+			}
+		}
+
+		// complete the transitions in breadth-first order
+		table = new int[states * width];
+		this.output = new int[states];
+		System.arraycopy(output, 0, this.output, 0, states);
+		report = new int[states];
+		suffixReport = new int[states];
+		final int[] fail = new int[states];
+		final int[] queue = new int[states];
+		int head = 0;
+		int tail = 0;
+		report[ROOT] = NONE;
+		suffixReport[ROOT] = NONE;
+		for (int c = 0; c < width; c++) {
+			final int child = trie[c];
+			if (child == NONE) {
+				table[c] = ROOT;
+			} else {
+				table[c] = child;
+				fail[child] = ROOT;
+				queue[tail++] = child;
+			}
+		}
+		while (head < tail) {
+			final int state = queue[head++];
+			suffixReport[state] = report[fail[state]];
+			report[state] = output[state] != NONE ? state : suffixReport[state];
+			for (int c = 0; c < width; c++) {
+				final int child = trie[state * width + c];
+				final int fallback = table[fail[state] * width + c];
+				if (child == NONE) {
+					table[state * width + c] = fallback;
+				} else {
+					table[state * width + c] = child;
+					fail[child] = fallback;
+					queue[tail++] = child;
+				}
+			}
+		}
+	}
+
+	/**
+	 * The number of patterns of this matcher.
+	 * @return  The number of patterns, including duplicates.
+	 */
+	public int size() {
+		return patterns.length;
+	}
+
+	/**
+	 * Returns a pattern of this matcher.
+	 * @param index  The index of the pattern, in the order in which the
+	 *   patterns were given.
+	 * @return  The pattern.
+	 * @throws IllegalArgumentException  If {@code index < 0}.
+	 * @throws IndexOutOfBoundsException  If <code>index &gt;=
+	 *   {@link #size()}</code>.
+	 */
+	public ByteString pattern(final int index) throws IllegalArgumentException, IndexOutOfBoundsException {
+		Utils.checkIndex("index", patterns.length, index);
+		return patterns[index];
+	}
+
+	/**
+	 * Finds all occurrences of all patterns within a string.
+	 * Matches are reported in order of their end index; matches ending at
+	 * the same index are reported from longest to shortest.
+	 * @param text  The string to search.
+	 * @param handler  The handler to receive the matches.
+	 * @return  False if {@code handler} stopped the search, or true
+	 *   otherwise.
+	 * @throws NullPointerException  If {@code text} or {@code handler} is
+	 *   null.
+	 */
+	public boolean match(final ByteString text, final Handler handler) throws NullPointerException {
+		if (text == null) {
+			throw new NullPointerException("text is null");
+		} else if (handler == null) {
+			throw new NullPointerException("handler is null");
+		}
+		final MatchVisitor visitor = new MatchVisitor(handler);
+		return Utils.visitArrays(text, 0, text.length(), visitor);
+	}
+
+	/**
+	 * Runs the automaton over visited segments, carrying its state from one
+	 * segment to the next.
+	 */
+	private final class MatchVisitor implements ArraySegmentVisitor {
+		private final Handler handler;
+		private int state = ROOT;
+		private int position;
+
+		MatchVisitor(final Handler handler) {
+			this.handler = handler;
+		}
+
+		public boolean visit(final byte[] array, final int offset, final int length) {
+			int state = this.state;
+			final int end = offset + length;
+			for (int i = offset; i < end; i++) {
+				state = table[state * width + columns[array[i] & 0xFF]];
+				if (report[state] != NONE && !report(state, position + i - offset + 1, handler)) {
+					return false;
+				}
+			}
+			this.state = state;
+			position += length;
+			return true;
+		}
+	}
+
+	/**
+	 * Reports the matches ending at a state.
+	 * @param state  The state, which must have a report.
+	 * @param endIndex  The end index of the matches.
+	 * @param handler  The handler to receive the matches.
+	 * @return  False if {@code handler} stopped the search, or true
+	 *   otherwise.
+	 */
+	private boolean report(final int state, final int endIndex, final Handler handler) {
+		for (int s = report[state]; s != NONE; s = suffixReport[s]) {
+			for (int p = output[s]; p != NONE; p = duplicate[p]) {
+				if (!handler.onMatch(p, endIndex - lengths[p], endIndex)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Creates a cursor over the matches within a string.
+	 * @param text  The string to search.
+	 * @return  A {@link Matches} cursor positioned before the first match.
+	 * @throws NullPointerException  If {@code text} is null.
+	 */
+	public Matches matches(final ByteString text) throws NullPointerException {
+		final Matches matches = new Matches();
+		matches.reset(text);
+		return matches;
+	}
+
+	/**
+	 * Receives matches from {@link ByteStringMatcher#match(ByteString, Handler)}.
+	 */
+	public interface Handler {
+		/**
+		 * Receives a match.
+		 * @param pattern  The index of the matched pattern.
+		 * @param beginIndex  The index of the first byte of the match.
+		 * @param endIndex  The index after the last byte of the match.
+		 * @return  True to continue searching, or false to stop.
+		 */
+		boolean onMatch(int pattern, int beginIndex, int endIndex);
+	}
+
+	/**
+	 * A cursor over the matches of a {@link ByteStringMatcher} within a
+	 * string.  Matches are produced in the same order as by
+	 * {@link ByteStringMatcher#match(ByteString, Handler)}.  Advancing the
+	 * cursor does not allocate, and a cursor may be {@linkplain
+	 * #reset(ByteString) reset} to search another string.  Strings which
+	 * are not plain arrays are copied into a scratch buffer a chunk at a
+	 * time, so {@link ByteStringMatcher#match(ByteString, Handler)} is the
+	 * faster way to search ropes and slices.
+	 * <p>A cursor is not thread-safe.
+	 */
+	public final class Matches {
+		private ByteString text;
+		/** The array being scanned: either {@link #buffer} or the text's own array. */
+		private byte[] chunk;
+		/** Scratch space for texts which are not array-backed. */
+		private byte[] buffer;
+		/** The string index corresponding to index 0 of {@link #chunk}. */
+		private int chunkBase;
+		/** The end of the unscanned bytes in {@link #chunk}. */
+		private int chunkEnd;
+		/** The index in {@link #chunk} of the next byte to scan. */
+		private int position;
+		/** The string index of the first byte not yet placed in {@link #chunk}. */
+		private int filled;
+		private int state;
+		private int pendingState;
+		private int pendingPattern;
+		private int pattern;
+		private int endIndex;
+
+		private Matches() { }
+
+		/**
+		 * Restarts this cursor on a new string.
+		 * @param text  The string to search.
+		 * @return  {@code this}
+		 * @throws NullPointerException  If {@code text} is null.
+		 */
+		public Matches reset(final ByteString text) throws NullPointerException {
+			if (text == null) {
+				throw new NullPointerException("text is null");
+			}
+			this.text = text;
+			if (text instanceof ArrayByteString) {
+				final ArrayByteString array = (ArrayByteString) text;
+				chunk = array.array();
+				position = array.arrayOffset();
+				chunkBase = -position;
+				chunkEnd = position + text.length();
+				filled = text.length();
+			} else {
+				if (buffer == null) {
+					buffer = new byte[Utils.CHUNK_SIZE];
+				}
+				chunk = buffer;
+				chunkBase = 0;
+				chunkEnd = 0;
+				position = 0;
+				filled = 0;
+			}
+			state = ROOT;
+			pendingState = NONE;
+			pendingPattern = NONE;
+			pattern = NONE;
+			endIndex = 0;
+			return this;
+		}
+
+		/**
+		 * Advances to the next match.
+		 * @return  True if there is another match, or false if the end of
+		 *   the string has been reached.
+		 */
+		public boolean next() {
+			while (true) {
+				if (pendingPattern != NONE) {
+					pattern = pendingPattern;
+					pendingPattern = duplicate[pendingPattern];
+					if (pendingPattern == NONE) {
+						pendingState = suffixReport[pendingState];
+						if (pendingState != NONE) {
+							pendingPattern = output[pendingState];
+						}
+					}
+					return true;
+				}
+				if (position == chunkEnd) {
+					final int remaining = text.length() - filled;
+					if (remaining == 0) {
+						pattern = NONE;
+						return false;
+					}
+					chunkBase = filled;
+					chunkEnd = Math.min(chunk.length, remaining);
+					position = 0;
+					Utils.copyRange(text, filled, chunk, 0, chunkEnd);
+					filled += chunkEnd;
+				}
+				state = table[state * width + columns[chunk[position++] & 0xFF]];
+				if (report[state] != NONE) {
+					endIndex = chunkBase + position;
+					pendingState = report[state];
+					pendingPattern = output[pendingState];
+				}
+			}
+		}
+
+		/**
+		 * The pattern of the current match.
+		 * @return  The index of the matched pattern.
+		 * @throws IllegalStateException  If there is no current match.
+		 */
+		public int pattern() throws IllegalStateException {
+			checkMatch();
+			return pattern;
+		}
+
+		/**
+		 * The first index of the current match.
+		 * @return  The index of the first byte of the match.
+		 * @throws IllegalStateException  If there is no current match.
+		 */
+		public int beginIndex() throws IllegalStateException {
+			checkMatch();
+			return endIndex - lengths[pattern];
+		}
+
+		/**
+		 * The end index of the current match.
+		 * @return  The index after the last byte of the match.
+		 * @throws IllegalStateException  If there is no current match.
+		 */
+		public int endIndex() throws IllegalStateException {
+			checkMatch();
+			return endIndex;
+		}
+
+		private void checkMatch() {
+			if (pattern == NONE) {
+				throw new IllegalStateException("no current match");
+			}
+		}
+	}
+
+	/**
+	 * Copies patterns into an array.
+	 * @param patterns  The patterns.
+	 * @return  A new array holding the patterns.
+	 */
+	static ByteString[] toArray(final Collection<ByteString> patterns) {
+		final ByteString[] array = new ByteString[patterns.size()];
+		final Iterator<ByteString> iterator = patterns.iterator();
+		for (int i = 0; iterator.hasNext(); i++) {
+			final ByteString pattern = iterator.next();
+			if (pattern == null) {
+				throw new NullPointerException(String.format("element %d of patterns is null", i));
+			} else if (pattern.isEmpty()) {
+				throw new IllegalArgumentException(String.format("element %d of patterns is empty", i));
+			}
+			array[i] = pattern;
+		}
+		return array;
+	}
+}
@@ -0,0 +1,186 @@
+package com.kbolino.libraries.bytestring;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An {@link OutputStream} which collects its output into a
+ * {@link ByteString}.
+ * Unlike {@link java.io.ByteArrayOutputStream}, the output is kept in a
+ * sequence of chunks which are never copied to grow the stream, and
+ * {@link #toByteString()} returns those chunks as the pieces of a
+ * {@linkplain ByteStrings#rope(java.util.Collection) rope} instead of flattening
+ * them into a new array.
+ * <p>The stream need not be closed, and closing it has no effect.
+ */
+public final class ByteStringOutputStream extends OutputStream {
+	/** The maximum length of a chunk allocated to grow the stream. */
+	private static final int MAX_CHUNK_SIZE = 64 * 1024;
+
+	private final int initialCapacity;
+	/** The full chunks, in order. */
+	private final List<ByteString> chunks = new ArrayList<ByteString>();
+	/** The chunk being written. */
+	private byte[] current;
+	/** The number of bytes written to {@link #current}. */
+	private int count;
+	/** Whether a string returned by {@link #toByteString()} shares {@link #current}. */
+	private boolean shared;
+	/** The number of bytes written to the full chunks. */
+	private int chunksLength;
+
+	/**
+	 * Creates a new {@link ByteStringOutputStream}.  Constructor
+	 * preconditions:
+	 * <ol>
+	 *   <li>{@code initialCapacity >= 0}</li>
+	 * </ol>
+	 * @param initialCapacity  The length of the first chunk.
+	 */
+	ByteStringOutputStream(final int initialCapacity) {
+		super();
+		this.initialCapacity = initialCapacity;
+		current = new byte[initialCapacity];
+	}
+
+	/**
+	 * The number of bytes written to this stream.
+	 * @return  The length of the string {@link #toByteString()} would
+	 *   return.
+	 */
+	public int size() {
+		return chunksLength + count;
+	}
+
+	/**
+	 * Writes a byte to this stream.
+	 * @param value  The byte to write, in the low 8 bits.
+	 * @throws IOException  If the stream already holds
+	 *   {@link Integer#MAX_VALUE} bytes.
+	 */
+	@Override
+	public void write(final int value) throws IOException {
+		if (count == current.length) {
+			nextChunk(1);
+		}
+		current[count++] = (byte) value;
+	}
+
+	/**
+	 * Writes bytes from an array to this stream.
+	 * @param bytes  The array holding the bytes to write.
+	 * @param offset  The index of the first byte to write.
+	 * @param length  The number of bytes to write.
+	 * @throws NullPointerException  If {@code bytes} is null.
+	 * @throws IndexOutOfBoundsException  If {@code offset < 0},
+	 *   {@code length < 0}, or {@code offset + length > bytes.length}.
+	 * @throws IOException  If the stream would hold more than
+	 *   {@link Integer#MAX_VALUE} bytes.
+	 */
+	@Override
+	public void write(final byte[] bytes, int offset, int length)
+			throws NullPointerException, IndexOutOfBoundsException, IOException {
+		if (bytes == null) {
+			throw new NullPointerException("bytes is null");
+		} else if (offset < 0 || length < 0 || length > bytes.length - offset) {
+			throw new IndexOutOfBoundsException(String.format(
+					"offset (%d) and length (%d) do not fit bytes.length (%d)",
+					offset, length, bytes.length));
+		}
+		while (length > 0) {
+			if (count == current.length) {
+				nextChunk(length);
+			}
+			final int n = Math.min(length, current.length - count);
+			System.arraycopy(bytes, offset, current, count, n);
+			count += n;
+			offset += n;
+			length -= n;
+		}
+	}
+
+	/**
+	 * Writes a string to this stream.
+	 * @param string  The string to write.
+	 * @throws NullPointerException  If {@code string} is null.
+	 * @throws IOException  If the stream would hold more than
+	 *   {@link Integer#MAX_VALUE} bytes.
+	 */
+	public void write(final ByteString string) throws NullPointerException, IOException {
+		if (string == null) {
+			throw new NullPointerException("string is null");
+		}
+		string.writeTo(this);
+	}
+
+	/**
+	 * Moves {@link #current} to the full chunks and starts a new chunk.
+	 * @param needed  The number of bytes about to be written.
+	 * @throws IOException  If the stream would hold more than
+	 *   {@link Integer#MAX_VALUE} bytes.
+	 */
+	private void nextChunk(final int needed) throws IOException {
+		final long size = (long) size() + needed;
+		if (size > Integer.MAX_VALUE) {
+			throw new IOException(String.format("size (%d) > %d", size, Integer.MAX_VALUE));
+		}
+		if (count > 0) {
+			chunks.add(new ArrayByteString(current));
+			chunksLength += count;
+		}
+		// chunks double the size of the stream until they reach the maximum
+		final int length = Math.max(needed, Math.min(MAX_CHUNK_SIZE, Math.max(
+				RopeByteString.LEAF_THRESHOLD, Math.max(initialCapacity, chunksLength))));
+		current = new byte[Math.min(length, Integer.MAX_VALUE - chunksLength)];
+		count = 0;
+		shared = false;
+	}
+
+	/**
+	 * Creates a string of the bytes written to this stream.
+	 * The string shares the chunks of this stream, which continues to
+	 * accept writes without affecting the string.  The partially-filled
+	 * last chunk is shared or copied according to
+	 * {@link ByteStrings#subStringPolicy()}.
+	 * @return  A {@link ByteString} of the bytes written since this stream
+	 *   was created or last {@linkplain #reset() reset}.
+	 */
+	public ByteString toByteString() {
+		final List<ByteString> pieces = new ArrayList<ByteString>(chunks.size() + 1);
+		pieces.addAll(chunks);
+		if (count > 0) {
+			if (ByteStrings.subStringPolicy().share(count, current.length)) {
+				// later writes go past count, so the shared bytes never change
+				pieces.add(count == current.length
+						? new ArrayByteString(current)
+						: new ArrayByteString(current, 0, count));
+				shared = true;
+			} else {
+				pieces.add(ByteStrings.copyFrom(current, 0, count));
+			}
+		}
+		if (pieces.isEmpty()) {
+			return Utils.EMPTY_STRING;
+		} else if (pieces.size() == 1) {
+			return pieces.get(0);
+		}
+		return RopeByteString.concat(pieces);
+	}
+
+	/**
+	 * Discards the bytes written to this stream, so that it can be reused.
+	 * Strings previously returned by {@link #toByteString()} are not
+	 * affected.
+	 */
+	public void reset() {
+		chunks.clear();
+		chunksLength = 0;
+		count = 0;
+		if (shared) {
+			current = new byte[initialCapacity];
+			shared = false;
+		}
+	}
+}
@@ -0,0 +1,467 @@
+package com.kbolino.libraries.bytestring;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A compiled substring pattern.
+ * A pattern is preprocessed once and may then be searched for in any
+ * number of {@link ByteString}s, so frequently used patterns pay their
+ * preprocessing cost only once.  Patterns are immutable and may be shared
+ * between threads.
+ * <p>The search algorithm is chosen by the length of the pattern:
+ * <ul>
+ *   <li>short patterns are found by scanning for their first byte,</li>
+ *   <li>medium patterns use the Boyer-Moore-Horspool algorithm, and</li>
+ *   <li>long patterns use the Two-Way algorithm, which runs in linear
+ *     time and constant space regardless of the content.</li>
+ * </ul>
+ * @see ByteStrings#compile(ByteString)
+ */
+public final class ByteStringPattern {
+	/** Patterns shorter than this are found by scanning for their first byte. */
+	static final int MIN_HORSPOOL_LENGTH = 4;
+
+	/** Patterns at least this long use the Two-Way algorithm. */
+	static final int MIN_TWO_WAY_LENGTH = 256;
+
+	private final ByteString string;
+	private final byte[] pattern;
+	private final Searcher searcher;
+
+	/**
+	 * Creates a new {@link ByteStringPattern}.  Constructor preconditions:
+	 * <ol>
+	 *   <li>{@code string != null}</li>
+	 * </ol>
+	 * @param string  The string to search for.
+	 */
+	ByteStringPattern(final ByteString string) {
+		this.string = string;
+		this.pattern = string.toByteArray();
+		final int length = pattern.length;
+		if (length < MIN_HORSPOOL_LENGTH) {
+			searcher = new ScanSearcher(pattern);
+		} else if (length < MIN_TWO_WAY_LENGTH) {
+			searcher = new HorspoolSearcher(pattern);
+		} else {
+			searcher = new TwoWaySearcher(pattern);
+		}
+	}
+
+	/**
+	 * The string this pattern searches for.
+	 * @return  The {@link ByteString} this pattern was compiled from.
+	 */
+	public ByteString string() {
+		return string;
+	}
+
+	/**
+	 * The length of this pattern.
+	 * @return  The number of bytes in the string this pattern searches for.
+	 */
+	public int length() {
+		return pattern.length;
+	}
+
+	/**
+	 * Finds this pattern within a string.
+	 * @param text  The string to search.
+	 * @return  The index of the first substring of {@code text} equal to
+	 *   this pattern, or {@code -1} if there is none.
+	 * @throws NullPointerException  If {@code text} is null.
+	 * @see ByteString#indexOf(ByteString)
+	 */
+	public int indexIn(final ByteString text) throws NullPointerException {
+		return indexIn(text, 0);
+	}
+
+	/**
+	 * Finds this pattern within a string.
+	 * @param text  The string to search.
+	 * @param fromIndex  The first index to check.
+	 * @return  The index of the first substring of {@code text} equal to
+	 *   this pattern at or after {@code fromIndex}, or {@code -1} if there
+	 *   is none.
+	 * @throws NullPointerException  If {@code text} is null.
+	 * @throws IllegalArgumentException  If {@code fromIndex < 0}.
+	 * @throws IndexOutOfBoundsException  If <code>fromIndex &gt;=
+	 *   text.{@link ByteString#length() length()}</code>.
+	 * @see ByteString#indexOf(ByteString, int)
+	 */
+	public int indexIn(final ByteString text, final int fromIndex)
+			throws NullPointerException, IllegalArgumentException, IndexOutOfBoundsException {
+		checkIndexIn(text, fromIndex);
+		if (pattern.length == 0) {
+			return fromIndex;
+		}
+		return scan(text, fromIndex, null);
+	}
+
+	/**
+	 * Finds all occurrences of this pattern within a string.
+	 * Overlapping occurrences are all reported.
+	 * @param text  The string to search.
+	 * @return  The indices of all substrings of {@code text} equal to this
+	 *   pattern, in ascending order.  An empty pattern occurs at every index
+	 *   from 0 to <code>text.{@link ByteString#length() length()}</code>.
+	 * @throws NullPointerException  If {@code text} is null.
+	 */
+	public List<Integer> findAll(final ByteString text) throws NullPointerException {
+		if (text == null) {
+			throw new NullPointerException("text is null");
+		}
+		final List<Integer> matches = new ArrayList<Integer>();
+		if (pattern.length == 0) {
+			for (int i = 0; i <= text.length(); i++) {
+				matches.add(i);
+			}
+		} else {
+			scan(text, 0, matches);
+		}
+		return matches;
+	}
+
+	/**
+	 * Checks parameters to {@link #indexIn(ByteString, int)}.
+	 * @param text  The string to search.
+	 * @param fromIndex  The first index.
+	 */
+	private static void checkIndexIn(final ByteString text, final int fromIndex) {
+		if (text == null) {
+			throw new NullPointerException("text is null");
+		} else if (fromIndex < 0) {
+			throw new IllegalArgumentException(
+					String.format("fromIndex (%d) < 0", fromIndex));
+		} else if (text.length() > 0 && fromIndex >= text.length()) {
+			throw new IndexOutOfBoundsException(
+					String.format("fromIndex (%d) >= length (%d)", fromIndex, text.length()));
+		}
+	}
+
+	/**
+	 * Searches a string for this pattern.  Preconditions:
+	 * <ol>
+	 *   <li>{@code text != null}</li>
+	 *   <li>{@code fromIndex >= 0}</li>
+	 *   <li>{@code pattern.length > 0}</li>
+	 * </ol>
+	 * @param text  The string to search.
+	 * @param fromIndex  The first index to check.
+	 * @param matches  If null, the search stops at the first match;
+	 *   otherwise, receives the indices of all matches.
+	 * @return  The index of the first match if {@code matches} is null and
+	 *   there is a match, or {@code -1} otherwise.
+	 */
+	private int scan(final ByteString text, final int fromIndex, final List<Integer> matches) {
+		final int m = pattern.length;
+		final int length = text.length();
+		if (m > length - fromIndex) {
+			return -1;
+		} else if (text instanceof ArrayByteString) {
+			final ArrayByteString array = (ArrayByteString) text;
+			final int offset = array.arrayOffset();
+			return scan(array.array(), offset + fromIndex, offset + length, -offset, matches);
+		} else if (m < MIN_TWO_WAY_LENGTH) {
+			final SegmentScanner scanner = new SegmentScanner(text, fromIndex, matches);
+			Utils.visitArrays(text, fromIndex, length, scanner);
+			return scanner.result;
+		}
+		// a long pattern may span many segments, so the string is instead
+		// copied into windows at least as long as the pattern;
+		// consecutive windows overlap by m - 1 bytes so that no match
+		// straddling two windows is missed; each window advances by at least
+		// m bytes so that restarting the search costs amortized O(1) per byte
+		final byte[] window = new byte[Math.min(Math.max(Utils.CHUNK_SIZE, m) + m - 1,
+				length - fromIndex)];
+		for (int i = fromIndex; i + m <= length; ) {
+			final int n = Math.min(window.length, length - i);
+			Utils.copyRange(text, i, window, 0, n);
+			final int index = scan(window, 0, n, i, matches);
+			if (index >= 0) {
+				return index;
+			}
+			i += n - m + 1;
+		}
+		return -1;
+	}
+
+	/**
+	 * Searches a range of an array for this pattern.
+	 * @param text  The array to search.
+	 * @param fromIndex  The first index to check, inclusive.
+	 * @param toIndex  The last index to check, exclusive.
+	 * @param base  The index of the string corresponding to index 0 of
+	 *   {@code text}.
+	 * @param matches  If null, the search stops at the first match;
+	 *   otherwise, receives the indices of all matches.
+	 * @return  The index of the first match plus {@code base} if
+	 *   {@code matches} is null and there is a match, or {@code -1}
+	 *   otherwise.
+	 */
+	private int scan(final byte[] text, final int fromIndex, final int toIndex, final int base,
+			final List<Integer> matches) {
+		int i = searcher.indexOf(text, fromIndex, toIndex);
+		if (matches == null) {
+			return i < 0 ? -1 : i + base;
+		}
+		while (i >= 0) {
+			matches.add(i + base);
+			i = searcher.indexOf(text, i + 1, toIndex);
+		}
+		return -1;
+	}
+
+	/**
+	 * Searches a string segment by segment.
+	 * Matches lying within a segment are found in place; matches starting
+	 * in a segment and ending in a later one are found in a window of at
+	 * most {@code 2m - 2} bytes copied from around the end of the segment.
+	 */
+	private final class SegmentScanner implements ArraySegmentVisitor {
+		private final ByteString text;
+		private final List<Integer> matches;
+		private final byte[] window;
+		/** The string index of the next segment. */
+		private int position;
+		/** The first match, if {@link #matches} is null. */
+		int result = -1;
+
+		/**
+		 * Creates a new {@link SegmentScanner}.
+		 * @param text  The string to search.
+		 * @param fromIndex  The index of the first segment.
+		 * @param matches  If null, the search stops at the first match;
+		 *   otherwise, receives the indices of all matches.
+		 */
+		SegmentScanner(final ByteString text, final int fromIndex, final List<Integer> matches) {
+			this.text = text;
+			position = fromIndex;
+			this.matches = matches;
+			window = new byte[2 * pattern.length - 2];
+		}
+
+		/**
+		 * Reports a match.
+		 * @param index  The index of the match.
+		 * @return  True to continue searching.
+		 */
+		private boolean found(final int index) {
+			if (matches == null) {
+				result = index;
+				return false;
+			}
+			matches.add(index);
+			return true;
+		}
+
+		public boolean visit(final byte[] array, final int offset, final int length) {
+			final int m = pattern.length;
+			final int begin = position;
+			final int end = begin + length;
+			position = end;
+			for (int i = searcher.indexOf(array, offset, offset + length); i >= 0;
+					i = searcher.indexOf(array, i + 1, offset + length)) {
+				if (!found(begin + i - offset)) {
+					return false;
+				}
+			}
+			// a window ending m - 1 bytes past the segment holds every
+			// match starting in the segment that does not lie within it
+			final int windowBegin = Math.max(end - m + 1, begin);
+			final int windowLength = Math.min(end + m - 1, text.length()) - windowBegin;
+			if (windowLength >= m) {
+				Utils.copyRange(text, windowBegin, window, 0, windowLength);
+				for (int i = searcher.indexOf(window, 0, windowLength); i >= 0;
+						i = searcher.indexOf(window, i + 1, windowLength)) {
+					if (!found(windowBegin + i)) {
+						return false;
+					}
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * An algorithm for finding a pattern within an array.
+	 */
+	private static abstract class Searcher {
+		/**
+		 * Finds the pattern within a range of an array.
+		 * Only matches lying entirely within the range are found.
+		 * @param text  The array to search.
+		 * @param fromIndex  The first index to check, inclusive.
+		 * @param toIndex  The last index to check, exclusive.
+		 * @return  The first index of the pattern in the range, or
+		 *   {@code -1}.
+		 */
+		abstract int indexOf(byte[] text, int fromIndex, int toIndex);
+	}
+
+	/**
+	 * Scans for the first byte of the pattern and verifies each candidate.
+	 */
+	private static final class ScanSearcher extends Searcher {
+		private final byte[] pattern;
+
+		ScanSearcher(final byte[] pattern) {
+			this.pattern = pattern;
+		}
+
+		@Override
+		int indexOf(final byte[] text, final int fromIndex, final int toIndex) {
+			return Utils.indexOf(text, fromIndex, toIndex, pattern);
+		}
+	}
+
+	/**
+	 * The Boyer-Moore-Horspool algorithm.
+	 */
+	private static final class HorspoolSearcher extends Searcher {
+		private final byte[] pattern;
+		private final int[] shifts;
+
+		HorspoolSearcher(final byte[] pattern) {
+			this.pattern = pattern;
+			final int m = pattern.length;
+			shifts = new int[Utils.UNSIGNED_MAX + 1];
+			for (int c = 0; c < shifts.length; c++) {
+				shifts[c] = m;
+			}
+			for (int i = 0; i < m - 1; i++) {
+				shifts[pattern[i] & 0xFF] = m - 1 - i;
+			}
+		}
+
+		@Override
+		int indexOf(final byte[] text, final int fromIndex, final int toIndex) {
+			final int m = pattern.length;
+			final byte last = pattern[m - 1];
+			for (int j = fromIndex; j <= toIndex - m; ) {
+				final byte c = text[j + m - 1];
+				if (c == last && Utils.equalRange(text, j, pattern, 0, m - 1)) {
+					return j;
+				}
+				j += shifts[c & 0xFF];
+			}
+			return -1;
+		}
+	}
+
+	/**
+	 * The Two-Way algorithm of Crochemore and Perrin.
+	 */
+	private static final class TwoWaySearcher extends Searcher {
+		private final byte[] pattern;
+		/** The critical position: the pattern is split after this index. */
+		private final int critical;
+		/** The shift applied after a full match. */
+		private final int period;
+		/** Whether the right half's period is a period of the whole pattern. */
+		private final boolean periodic;
+
+		TwoWaySearcher(final byte[] pattern) {
+			this.pattern = pattern;
+			final int m = pattern.length;
+			final int[] p = new int[1];
+			final int[] q = new int[1];
+			final int i = maximalSuffix(pattern, false, p);
+			final int j = maximalSuffix(pattern, true, q);
+			final int ell = i > j ? i : j;
+			final int per = i > j ? p[0] : q[0];
+			critical = ell;
+			periodic = ell + 1 + per <= m && Utils.equalRange(pattern, 0, pattern, per, ell + 1);
+			period = periodic ? per : Math.max(ell + 1, m - ell - 1) + 1;
+		}
+
+		/**
+		 * Computes the maximal suffix of a pattern.
+		 * @param x  The pattern.
+		 * @param reversed  Whether to use the reversed byte ordering.
+		 * @param period  Receives the period of the maximal suffix.
+		 * @return  The index immediately before the maximal suffix.
+		 */
+		private static int maximalSuffix(final byte[] x, final boolean reversed, final int[] period) {
+			final int m = x.length;
+			int ms = -1;
+			int j = 0;
+			int k = 1;
+			int p = 1;
+			while (j + k < m) {
+				final int a = x[j + k] & 0xFF;
+				final int b = x[ms + k] & 0xFF;
+				if (reversed ? a > b : a < b) {
+					j += k;
+					k = 1;
+					p = j - ms;
+				} else if (a == b) {
+					if (k != p) {
+						k++;
+					} else {
+						j += p;
+						k = 1;
+					}
+				} else {
+					ms = j;
+					j = ms + 1;
+					k = 1;
+					p = 1;
+				}
+			}
+			period[0] = p;
+			return ms;
+		}
+
+		@Override
+		int indexOf(final byte[] text, final int fromIndex, final int toIndex) {
+			final byte[] x = pattern;
+			final int m = x.length;
+			final int ell = critical;
+			if (periodic) {
+				int memory = -1;
+				for (int j = fromIndex; j <= toIndex - m; ) {
+					int i = Math.max(ell, memory) + 1;
+					while (i < m && x[i] == text[i + j]) {
+						i++;
+					}
+					if (i >= m) {
+						i = ell;
+						while (i > memory && x[i] == text[i + j]) {
+							i--;
+						}
+						if (i <= memory) {
+							return j;
+						}
+						j += period;
+						memory = m - period - 1;
+					} else {
+						j += i - ell;
+						memory = -1;
+					}
+				}
+			} else {
+				for (int j = fromIndex; j <= toIndex - m; ) {
+					int i = ell + 1;
+					while (i < m && x[i] == text[i + j]) {
+						i++;
+					}
+					if (i >= m) {
+						i = ell;
+						while (i >= 0 && x[i] == text[i + j]) {
+							i--;
+						}
+						if (i < 0) {
+							return j;
+						}
+						j += period;
+					} else {
+						j += i - ell;
+					}
+				}
+			}
+			return -1;
+		}
+	}
+}
@@ -1,11 +1,25 @@
 package com.kbolino.libraries.bytestring;
 
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.IllegalBlockingModeException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.ScatteringByteChannel;
+import java.nio.channels.SelectableChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
+import java.util.zip.Deflater;
 
 /**
  * Methods for obtaining {@code ByteString}s.
@@ -16,6 +30,29 @@ public final class ByteStrings {
 	 */
 	public static final int UNSIGNED_MAX = Utils.UNSIGNED_MAX;
 	
+	/** Orders strings in unsigned lexicographic order. */
+	private static final Comparator<ByteString> COMPARATOR = new Comparator<ByteString>() {
+		public int compare(final ByteString a, final ByteString b) {
+			if (a == null) {
+				throw new NullPointerException("a is null");
+			} else if (b == null) {
+				throw new NullPointerException("b is null");
+			}
+			return Utils.compare(a, b);
+		}
+	};
+
+	private static volatile SubStringPolicy subStringPolicy = SubStringPolicy.DEFAULT;
+
+	/** The length of the chunks that channels are read into. */
+	static final int READ_CHUNK_SIZE = 8192;
+
+	/** The maximum number of chunks filled by a single scattering read. */
+	private static final int MAX_READ_BATCH = 16;
+
+	/** The interner used by {@link #intern(ByteString)}. */
+	private static final ByteStringInterner INTERNER = new ByteStringInterner(64, 0);
+
 	/**
 	 * Creates a new string builder.
 	 * @return  A {@link ByteStringBuilder} with an initial capacity of 10.
@@ -38,6 +75,253 @@ public final class ByteStrings {
 		return new ByteStringBuilder(initialCapacity);
 	}
 	
+	/**
+	 * Creates a new output stream which collects its output into a string.
+	 * @return  A {@link ByteStringOutputStream} whose first chunk holds 256
+	 *   bytes.
+	 */
+	public static ByteStringOutputStream newOutputStream() {
+		return newOutputStream(256);
+	}
+	
+	/**
+	 * Creates a new output stream which collects its output into a string.
+	 * @param initialCapacity  The length of the first chunk of the stream.
+	 * @return  A {@link ByteStringOutputStream} whose first chunk holds
+	 *   {@code initialCapacity} bytes.
+	 * @throws IllegalArgumentException  If {@code initialCapacity < 0}.
+	 */
+	public static ByteStringOutputStream newOutputStream(final int initialCapacity)
+			throws IllegalArgumentException {
+		if (initialCapacity < 0) {
+			throw new IllegalArgumentException(String.format("initialCapacity (%d) < 0", initialCapacity));
+		}
+		return new ByteStringOutputStream(initialCapacity);
+	}
+	
+	/**
+	 * Creates a new editing string builder.
+	 * @return  A {@link ByteStringBuilder} with an initial capacity of 10
+	 *   which is optimized for insertions and deletions.
+	 * @see #editingBuilder(int)
+	 */
+	public static ByteStringBuilder editingBuilder() {
+		return editingBuilder(10);
+	}
+	
+	/**
+	 * Creates a new editing string builder.
+	 * An editing builder keeps an unused gap in its internal array at the
+	 * position of the latest insertion or deletion.  Further edits at that
+	 * position only resize the gap, and edits elsewhere move the gap only
+	 * as far as the distance between the positions, so a run of edits near
+	 * the same position takes amortized constant time per edit instead of
+	 * moving every following byte.  Random access is as fast as with an
+	 * ordinary builder.
+	 * @param initialCapacity  The initial capacity of the builder.
+	 * @return  A {@link ByteStringBuilder} with the given initial capacity
+	 *   which is optimized for insertions and deletions.
+	 * @throws IllegalArgumentException  If {@code initialCapacity < 0}.
+	 */
+	public static ByteStringBuilder editingBuilder(final int initialCapacity)
+			throws IllegalArgumentException {
+		if (initialCapacity < 0) {
+			throw new IllegalArgumentException(String.format("initialCapacity (%d) < 0", initialCapacity));
+		}
+		return new ByteStringBuilder(new GapBuilderStorage(initialCapacity));
+	}
+	
+	/**
+	 * Creates a new chunked string builder.
+	 * @return  A {@link ByteStringBuilder} which stores its content in
+	 *   blocks of 8192 bytes.
+	 * @see #chunkedBuilder(int)
+	 */
+	public static ByteStringBuilder chunkedBuilder() {
+		return chunkedBuilder(8192);
+	}
+	
+	/**
+	 * Creates a new chunked string builder.
+	 * A chunked builder stores its content in a sequence of fixed-size
+	 * blocks instead of a single array.  It grows by adding blocks, so
+	 * content is never copied to make room, and
+	 * {@link ByteStringBuilder#toByteString()} returns a rope whose leaves
+	 * are the blocks themselves; a block is only copied if the builder
+	 * later modifies it.  This suits building large strings by appending.
+	 * Inserting or deleting anywhere but the end moves every following
+	 * byte, as with an ordinary builder.
+	 * @param blockSize  The length of each block, which is rounded up to
+	 *   a power of two.
+	 * @return  A {@link ByteStringBuilder} which stores its content in
+	 *   blocks of at least {@code blockSize} bytes.
+	 * @throws IllegalArgumentException  If {@code blockSize <= 0} or
+	 *   {@code blockSize > 1 << 30}.
+	 */
+	public static ByteStringBuilder chunkedBuilder(final int blockSize)
+			throws IllegalArgumentException {
+		if (blockSize <= 0) {
+			throw new IllegalArgumentException(String.format("blockSize (%d) <= 0", blockSize));
+		} else if (blockSize > 1 << 30) {
+			throw new IllegalArgumentException(String.format("blockSize (%d) > %d", blockSize, 1 << 30));
+		}
+		final int blockShift = 32 - Integer.numberOfLeadingZeros(blockSize - 1);
+		return new ByteStringBuilder(new ChunkedBuilderStorage(blockShift));
+	}
+	
+	/**
+	 * Creates a new pool of string builders.
+	 * @return  A {@link ByteStringBuilderPool} which holds up to 4
+	 *   builders for each thread and 64 shared builders, and discards
+	 *   builders whose capacity exceeds 1 MiB.
+	 * @see #builderPool(int, int, int)
+	 */
+	public static ByteStringBuilderPool builderPool() {
+		return builderPool(4, 64, 1 << 20);
+	}
+	
+	/**
+	 * Creates a new pool of string builders.
+	 * @param threadLocalSize  The maximum number of builders held for each
+	 *   thread, which may be 0 to share all builders.
+	 * @param sharedSize  The maximum number of builders held for all
+	 *   threads.
+	 * @param maxRetainedCapacity  The maximum capacity of a builder which
+	 *   is kept when it is released; larger builders are discarded.
+	 * @return  A new {@link ByteStringBuilderPool}.
+	 * @throws IllegalArgumentException  If {@code threadLocalSize < 0},
+	 *   {@code sharedSize <= 0}, or {@code maxRetainedCapacity < 0}.
+	 */
+	public static ByteStringBuilderPool builderPool(final int threadLocalSize, final int sharedSize,
+			final int maxRetainedCapacity) throws IllegalArgumentException {
+		if (threadLocalSize < 0) {
+			throw new IllegalArgumentException(String.format("threadLocalSize (%d) < 0", threadLocalSize));
+		} else if (sharedSize <= 0) {
+			throw new IllegalArgumentException(String.format("sharedSize (%d) <= 0", sharedSize));
+		} else if (maxRetainedCapacity < 0) {
+			throw new IllegalArgumentException(String.format("maxRetainedCapacity (%d) < 0",
+					maxRetainedCapacity));
+		}
+		return new ByteStringBuilderPool(threadLocalSize, sharedSize, maxRetainedCapacity);
+	}
+	
+	/**
+	 * Creates a new arena of pooled strings.
+	 * @return  A {@link ByteStringArena} which allocates from 1 MiB heap
+	 *   slabs and keeps up to 16 empty slabs for reuse.
+	 * @see #arena(int, boolean, int)
+	 */
+	public static ByteStringArena arena() {
+		return arena(1 << 20, false, 16);
+	}
+	
+	/**
+	 * Creates a new arena of pooled strings.
+	 * @param slabSize  The length of each slab; strings longer than a
+	 *   quarter of it are allocated on their own.
+	 * @param direct  Whether slabs are direct buffers rather than arrays.
+	 * @param maxFreeSlabs  The maximum number of empty slabs kept for
+	 *   reuse; further slabs are left to the garbage collector.
+	 * @return  A new {@link ByteStringArena}.
+	 * @throws IllegalArgumentException  If {@code slabSize <= 0} or
+	 *   {@code maxFreeSlabs < 0}.
+	 */
+	public static ByteStringArena arena(final int slabSize, final boolean direct,
+			final int maxFreeSlabs) throws IllegalArgumentException {
+		if (slabSize <= 0) {
+			throw new IllegalArgumentException(String.format("slabSize (%d) <= 0", slabSize));
+		} else if (maxFreeSlabs < 0) {
+			throw new IllegalArgumentException(String.format("maxFreeSlabs (%d) < 0", maxFreeSlabs));
+		}
+		return new ByteStringArena(slabSize, direct, maxFreeSlabs);
+	}
+	
+	/**
+	 * Obtains the canonical instance of a string's content from a shared,
+	 * weak {@link ByteStringInterner}.
+	 * @param string  The string to intern.
+	 * @return  A compact array-backed string equal to {@code string},
+	 *   which is the same instance for all equal strings interned while it
+	 *   remains reachable.
+	 * @throws NullPointerException  If {@code string} is null.
+	 * @see #globalInterner()
+	 */
+	public static ByteString intern(final ByteString string) throws NullPointerException {
+		return INTERNER.intern(string);
+	}
+	
+	/**
+	 * The interner used by {@link #intern(ByteString)}, whose statistics
+	 * describe all strings interned through it.
+	 * @return  The shared {@link ByteStringInterner}.
+	 */
+	public static ByteStringInterner globalInterner() {
+		return INTERNER;
+	}
+	
+	/**
+	 * Creates a new weak interner.
+	 * @return  A {@link ByteStringInterner} with 16 stripes, which holds
+	 *   its strings weakly.
+	 * @see #interner(int)
+	 */
+	public static ByteStringInterner interner() {
+		return interner(16);
+	}
+	
+	/**
+	 * Creates a new weak interner, which holds each canonical string only
+	 * for as long as it is reachable from elsewhere.
+	 * @param concurrencyLevel  The number of stripes of the table, which
+	 *   is rounded up to a power of two; more stripes reduce contention
+	 *   between threads.
+	 * @return  A new {@link ByteStringInterner}.
+	 * @throws IllegalArgumentException  If {@code concurrencyLevel <= 0}
+	 *   or {@code concurrencyLevel > 1 << 16}.
+	 */
+	public static ByteStringInterner interner(final int concurrencyLevel)
+			throws IllegalArgumentException {
+		return new ByteStringInterner(stripeCount(concurrencyLevel), 0);
+	}
+	
+	/**
+	 * Creates a new bounded interner, which holds up to a fixed number of
+	 * canonical strings and drops the least recently interned to make
+	 * room.  Each stripe holds an equal share of the strings.
+	 * @param concurrencyLevel  The number of stripes of the table, which
+	 *   is rounded up to a power of two.
+	 * @param maxSize  The maximum number of strings held.
+	 * @return  A new {@link ByteStringInterner}.
+	 * @throws IllegalArgumentException  If {@code concurrencyLevel <= 0},
+	 *   {@code concurrencyLevel > 1 << 16}, or {@code maxSize <= 0}.
+	 */
+	public static ByteStringInterner boundedInterner(final int concurrencyLevel, final int maxSize)
+			throws IllegalArgumentException {
+		final int stripeCount = stripeCount(concurrencyLevel);
+		if (maxSize <= 0) {
+			throw new IllegalArgumentException(String.format("maxSize (%d) <= 0", maxSize));
+		}
+		return new ByteStringInterner(stripeCount, maxSize);
+	}
+	
+	/**
+	 * Computes the number of stripes of an interner.
+	 * @param concurrencyLevel  The requested number of stripes.
+	 * @return  {@code concurrencyLevel} rounded up to a power of two.
+	 * @throws IllegalArgumentException  If {@code concurrencyLevel <= 0}
+	 *   or {@code concurrencyLevel > 1 << 16}.
+	 */
+	private static int stripeCount(final int concurrencyLevel) throws IllegalArgumentException {
+		if (concurrencyLevel <= 0) {
+			throw new IllegalArgumentException(String.format("concurrencyLevel (%d) <= 0",
+					concurrencyLevel));
+		} else if (concurrencyLevel > 1 << 16) {
+			throw new IllegalArgumentException(String.format("concurrencyLevel (%d) > %d",
+					concurrencyLevel, 1 << 16));
+		}
+		return 1 << (32 - Integer.numberOfLeadingZeros(concurrencyLevel - 1));
+	}
+	
 	/**
 	 * Creates a new string builder from an existing string.
 	 * @param string  The string to copy into the builder.
@@ -130,6 +414,270 @@ public final class ByteStrings {
 		return new ArrayByteString(bytes);
 	}
 	
+	/**
+	 * Creates a new string which shares the content of a byte buffer.
+	 * The string consists of the buffer's remaining bytes, which are not
+	 * copied, so a direct buffer stays off the heap.  The buffer's
+	 * position, limit, and mark are not changed.
+	 *
+	 * <p>Since {@link ByteString}s are immutable, the caller must not
+	 * modify the wrapped bytes for as long as the string is in use.
+	 * @param buffer  The buffer to wrap.
+	 * @return  A {@link ByteString} {@code b} such that
+	 *   <code>b.{@link ByteString#at(int) at}(i) ==
+	 *   buffer.{@link ByteBuffer#get(int) get}(buffer.position() + i)</code>
+	 *   for all {@code i} from 0 to {@code buffer.remaining() - 1}.
+	 * @throws NullPointerException  If {@code buffer} is null.
+	 */
+	public static ByteString wrap(final ByteBuffer buffer) throws NullPointerException {
+		if (buffer == null) {
+			throw new NullPointerException("buffer is null");
+		}
+		final int length = buffer.remaining();
+		if (length == 0) {
+			return empty();
+		} else if (buffer.hasArray()) {
+			// an accessible array supports the faster array algorithms
+			return new ArrayByteString(buffer.array(), buffer.arrayOffset() + buffer.position(), length);
+		}
+		final ByteBuffer view = buffer.slice().asReadOnlyBuffer();
+		return new BufferByteString(view, length != buffer.capacity());
+	}
+
+	/**
+	 * Creates a new string backed by a memory-mapped file.
+	 * The file is mapped read-only and its content is read from the page
+	 * cache on demand, without being copied onto the heap.  The mapping
+	 * remains valid after the file is closed.
+	 *
+	 * <p>Since {@link ByteString}s are immutable, the file must not be
+	 * modified for as long as the string is in use.
+	 * @param file  The file to map.
+	 * @return  A {@link ByteString} equal to the content of {@code file}.
+	 * @throws NullPointerException  If {@code file} is null.
+	 * @throws IllegalArgumentException  If {@code file} is longer than
+	 *   {@link Integer#MAX_VALUE} bytes.
+	 * @throws IOException  If the file cannot be opened or mapped.
+	 * @see #mapRegions(File, int)
+	 */
+	public static ByteString map(final File file) throws NullPointerException,
+			IllegalArgumentException, IOException {
+		if (file == null) {
+			throw new NullPointerException("file is null");
+		}
+		final RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			final FileChannel channel = raf.getChannel();
+			final long size = channel.size();
+			if (size > Integer.MAX_VALUE) {
+				throw new IllegalArgumentException(String.format("file length (%d) > %d",
+						size, Integer.MAX_VALUE));
+			}
+			return map(channel, 0, (int) size);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Creates a new string backed by a memory-mapped region of a file.
+	 * The region is mapped read-only and remains valid after the channel
+	 * is closed.
+	 *
+	 * <p>Since {@link ByteString}s are immutable, the region must not be
+	 * modified for as long as the string is in use.
+	 * @param channel  The channel of the file to map.
+	 * @param position  The position in the file of the first byte.
+	 * @param length  The number of bytes to map.
+	 * @return  A {@link ByteString} equal to the {@code length} bytes of
+	 *   the file starting at {@code position}.
+	 * @throws NullPointerException  If {@code channel} is null.
+	 * @throws IllegalArgumentException  If {@code position < 0} or
+	 *   {@code length < 0}.
+	 * @throws IOException  If the region cannot be mapped, including when
+	 *   the channel was not opened for reading.
+	 */
+	public static ByteString map(final FileChannel channel, final long position, final int length)
+			throws NullPointerException, IllegalArgumentException, IOException {
+		if (channel == null) {
+			throw new NullPointerException("channel is null");
+		} else if (position < 0) {
+			throw new IllegalArgumentException(String.format("position (%d) < 0", position));
+		} else if (length < 0) {
+			throw new IllegalArgumentException(String.format("length (%d) < 0", length));
+		} else if (length == 0) {
+			return empty();
+		}
+		return wrap(channel.map(FileChannel.MapMode.READ_ONLY, position, length));
+	}
+
+	/**
+	 * Maps a file of any size as a sequence of strings.
+	 * Since the length of a {@link ByteString} is an {@code int}, files
+	 * longer than {@link Integer#MAX_VALUE} bytes cannot be mapped as a
+	 * single string; they are instead split into consecutive regions, each
+	 * of which is mapped as in {@link #map(FileChannel, long, int)}.
+	 * @param file  The file to map.
+	 * @param regionLength  The maximum length of each region.
+	 * @return  A list of nonempty strings whose concatenation is equal to
+	 *   the content of {@code file}, all of which are
+	 *   {@code regionLength} bytes long except possibly the last.
+	 * @throws NullPointerException  If {@code file} is null.
+	 * @throws IllegalArgumentException  If {@code regionLength <= 0}.
+	 * @throws IOException  If the file cannot be opened or mapped.
+	 */
+	public static List<ByteString> mapRegions(final File file, final int regionLength)
+			throws NullPointerException, IllegalArgumentException, IOException {
+		if (file == null) {
+			throw new NullPointerException("file is null");
+		} else if (regionLength <= 0) {
+			throw new IllegalArgumentException(String.format("regionLength (%d) <= 0", regionLength));
+		}
+		final RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			final FileChannel channel = raf.getChannel();
+			final long size = channel.size();
+			final List<ByteString> regions = new ArrayList<ByteString>((int) Math.min(
+					(size + regionLength - 1) / regionLength, Integer.MAX_VALUE));
+			for (long position = 0; position < size; position += regionLength) {
+				regions.add(map(channel, position, (int) Math.min(regionLength, size - position)));
+			}
+			return Collections.unmodifiableList(regions);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Reads from a channel until the end of the stream, until
+	 * {@code maxBytes} bytes have been read, or until the channel has no
+	 * more bytes immediately available, whichever comes first.
+	 * The bytes are read into fixed-size chunks, using scattering reads
+	 * when the channel supports them, and the chunks become the leaves of a
+	 * {@linkplain #rope(Collection) rope} without being copied again.
+	 *
+	 * <p>A channel in non-blocking mode may have fewer bytes available
+	 * than requested, in which case the returned string is shorter than
+	 * {@code maxBytes} even though the end of the stream has not been
+	 * reached.
+	 * @param channel  The channel to read from.
+	 * @param maxBytes  The maximum number of bytes to read.
+	 * @return  A {@link ByteString} of the bytes read, which is empty if
+	 *   none were available.
+	 * @throws NullPointerException  If {@code channel} is null.
+	 * @throws IllegalArgumentException  If {@code maxBytes < 0}.
+	 * @throws IOException  If reading from the channel fails.
+	 * @see #readFully(ReadableByteChannel, int)
+	 */
+	public static ByteString readFrom(final ReadableByteChannel channel, final int maxBytes)
+			throws NullPointerException, IllegalArgumentException, IOException {
+		if (channel == null) {
+			throw new NullPointerException("channel is null");
+		} else if (maxBytes < 0) {
+			throw new IllegalArgumentException(String.format("maxBytes (%d) < 0", maxBytes));
+		}
+		return read(channel, maxBytes, false);
+	}
+
+	/**
+	 * Reads exactly {@code length} bytes from a channel, blocking as
+	 * necessary.  The bytes are read as in
+	 * {@link #readFrom(ReadableByteChannel, int)}.
+	 * @param channel  The channel to read from.
+	 * @param length  The number of bytes to read.
+	 * @return  A {@link ByteString} of the {@code length} bytes read.
+	 * @throws NullPointerException  If {@code channel} is null.
+	 * @throws IllegalArgumentException  If {@code length < 0}.
+	 * @throws IllegalBlockingModeException  If {@code channel} is a
+	 *   {@link SelectableChannel} in non-blocking mode.
+	 * @throws EOFException  If the stream ends before {@code length} bytes
+	 *   have been read.
+	 * @throws IOException  If reading from the channel fails.
+	 */
+	public static ByteString readFully(final ReadableByteChannel channel, final int length)
+			throws NullPointerException, IllegalArgumentException,
+			IllegalBlockingModeException, EOFException, IOException {
+		if (channel == null) {
+			throw new NullPointerException("channel is null");
+		} else if (length < 0) {
+			throw new IllegalArgumentException(String.format("length (%d) < 0", length));
+		} else if (channel instanceof SelectableChannel && !((SelectableChannel) channel).isBlocking()) {
+			throw new IllegalBlockingModeException();
+		}
+		return read(channel, length, true);
+	}
+
+	/**
+	 * Reads from a channel into a rope of chunks, without checking
+	 * parameters.
+	 * @param channel  The channel to read from.
+	 * @param limit  The maximum number of bytes to read.
+	 * @param fully  Whether to keep reading until {@code limit} bytes have
+	 *   been read, rather than stopping when a read returns no bytes.
+	 * @return  A {@link ByteString} of the bytes read.
+	 * @throws EOFException  If {@code fully} and the stream ends early.
+	 * @throws IOException  If reading from the channel fails.
+	 */
+	private static ByteString read(final ReadableByteChannel channel, final int limit,
+			final boolean fully) throws EOFException, IOException {
+		final ScatteringByteChannel scattering = channel instanceof ScatteringByteChannel
+				? (ScatteringByteChannel) channel : null;
+		final List<ByteString> chunks = new ArrayList<ByteString>();
+		// buffers[0, count) are allocated but not yet full
+		final ByteBuffer[] buffers = new ByteBuffer[MAX_READ_BATCH];
+		int count = 0;
+		// the number of buffers to offer to the next scattering read, which
+		// grows while reads keep filling every buffer offered
+		int batch = 1;
+		long reserved = 0;
+		int total = 0;
+		while (total < limit) {
+			while (count < batch && reserved < limit) {
+				final int size = (int) Math.min(READ_CHUNK_SIZE, limit - reserved);
+				buffers[count++] = ByteBuffer.wrap(new byte[size]);
+				reserved += size;
+			}
+			final long read = scattering != null
+					? scattering.read(buffers, 0, count)
+					: channel.read(buffers[0]);
+			if (read < 0) {
+				if (fully) {
+					throw new EOFException(String.format("end of stream after %d of %d bytes",
+							total, limit));
+				}
+				break;
+			} else if (read == 0 && !fully) {
+				break;
+			}
+			total += read;
+			int full = 0;
+			while (full < count && !buffers[full].hasRemaining()) {
+				chunks.add(new ArrayByteString(buffers[full].array()));
+				full++;
+			}
+			if (full == count && scattering != null) {
+				batch = Math.min(2 * batch, MAX_READ_BATCH);
+			}
+			System.arraycopy(buffers, full, buffers, 0, count - full);
+			count -= full;
+		}
+		if (count > 0 && buffers[0].position() > 0) {
+			final ByteBuffer partial = buffers[0];
+			final int length = partial.position();
+			if (subStringPolicy.share(length, partial.capacity())) {
+				chunks.add(new ArrayByteString(partial.array(), 0, length));
+			} else {
+				chunks.add(copyFrom(partial.array(), 0, length));
+			}
+		}
+		if (chunks.isEmpty()) {
+			return empty();
+		} else if (chunks.size() == 1) {
+			return chunks.get(0);
+		}
+		return RopeByteString.concat(chunks);
+	}
+
 	/**
 	 * The empty string.
 	 * @return  A singleton {@link ByteString} {@code b} where
@@ -327,13 +875,38 @@ public final class ByteStrings {
 			throw new NullPointerException("string is null");
 		} else if (times < 0) {
 			throw new IllegalArgumentException(String.format("times (%d) < 0", times));
-		} else if (times == 0) {
+		} else if (times == 0 || string.isEmpty()) {
 			return empty();
 		} else {
 			return new RepeatedByteString(string, times);
 		}
 	}
 	
+	/**
+	 * Creates a view of a string in reverse order.
+	 * The view copies nothing; its bytes are read from {@code string} as
+	 * needed, and it searches {@code string} backwards, so that reversed
+	 * content can serve suffix lookups and reverse scans without first
+	 * being copied.  Reversing a reversed view returns the original string.
+	 * @param string  The string to reverse.
+	 * @return  A {@link ByteString} {@code b} such that
+	 *   <code>b.{@link ByteString#at(int) at}(i) ==
+	 *   string.at(string.length() - 1 - i)</code> for all {@code i} from 0
+	 *   to {@code string.length() - 1}.
+	 * @throws NullPointerException  If {@code string == null}.
+	 */
+	public static ByteString reverse(final ByteString string) throws NullPointerException {
+		if (string == null) {
+			throw new NullPointerException("string is null");
+		} else if (string instanceof ReversedByteString) {
+			return ((ReversedByteString) string).delegate();
+		} else if (string.length() <= 1 || string instanceof ConstantByteString) {
+			// the string is its own reverse
+			return string;
+		}
+		return new ReversedByteString(string);
+	}
+	
 	/**
 	 * Concatenates multiple strings as a rope.
 	 * A rope is more efficient than {@linkplain ByteString#concat(ByteString)
@@ -344,9 +917,12 @@ public final class ByteStrings {
 	 *   elements of {@code strings} in order.
 	 * @throws NullPointerException  If {@code strings} or any of its
 	 *   elements are null.
+	 * @throws IllegalArgumentException  If the combined length of
+	 *   {@code strings} exceeds {@link Integer#MAX_VALUE}.
 	 * @see #concat(ByteString[])
 	 */
-	public static ByteString rope(final ByteString... strings) throws NullPointerException{
+	public static ByteString rope(final ByteString... strings)
+			throws NullPointerException, IllegalArgumentException {
 		if (strings == null) {
 			throw new NullPointerException("strings is null");
 		} else {
@@ -358,20 +934,33 @@ public final class ByteStrings {
 	 * Concatenates multiple strings as a rope.
 	 * A rope is more efficient than ordinary concatenation for large
 	 * strings, since it does not involve copying the contents of the strings.
+	 * Ropes are balanced trees, so roping a string onto an existing rope
+	 * takes O(log n) time, and short strings are copied together rather
+	 * than kept as separate pieces.
 	 * @param strings  The strings to rope together.
 	 * @return  A {@link ByteString} equal to the concatenation of the
 	 *   elements of {@code strings} in order.
 	 * @throws NullPointerException  If {@code strings} or any of its
 	 *   elements are null.
+	 * @throws IllegalArgumentException  If the combined length of
+	 *   {@code strings} exceeds {@link Integer#MAX_VALUE}.
 	 * @see #concat(Collection)
 	 */
-	public static ByteString rope(final Collection<ByteString> strings) throws NullPointerException {
+	public static ByteString rope(final Collection<ByteString> strings)
+			throws NullPointerException, IllegalArgumentException {
 		if (strings == null) {
 			throw new NullPointerException("strings is null");
-		} else if (strings.isEmpty()) {
-			return empty();
-		} else if (strings.size() == 1) {
-			return strings.iterator().next();
+		}
+		if (strings.size() == 2) {
+			final Iterator<ByteString> iterator = strings.iterator();
+			final ByteString first = iterator.next();
+			final ByteString second = iterator.next();
+			if (first == null) {
+				throw new NullPointerException("element 0 of strings is null");
+			} else if (second == null) {
+				throw new NullPointerException("element 1 of strings is null");
+			}
+			return RopeByteString.concat(first, second);
 		}
 		final List<ByteString> ropeStrings = new ArrayList<ByteString>(strings.size());
 		final Iterator<ByteString> iterator = strings.iterator();
@@ -379,21 +968,130 @@ public final class ByteStrings {
 			final ByteString string = iterator.next();
 			if (string == null) {
 				throw new NullPointerException(String.format("element %d of strings is null", i));
-			} else if (string.isEmpty()) {
-				continue;
-			} else if (string instanceof RopeByteString) {
-				// don't rope ropes
-				final RopeByteString rope = (RopeByteString) string;
-				strings.addAll(rope.strings());
-			} else {
-				strings.add(string);
 			}
+			ropeStrings.add(string);
 		}
-		if (ropeStrings.isEmpty()) {
+		return RopeByteString.concat(ropeStrings);
+	}
+	
+	/**
+	 * Compresses a string, caching decompressed blocks.
+	 * @param string  The string to compress.
+	 * @param level  The compression level, from 0 to 9, or -1 for the
+	 *   default level.
+	 * @return  A compressed {@link ByteString} equal to {@code string}.
+	 * @throws NullPointerException  If {@code string} is null.
+	 * @throws IllegalArgumentException  If {@code level} is not a valid
+	 *   level.
+	 * @see #compress(ByteString, int, boolean)
+	 */
+	public static ByteString compress(final ByteString string, final int level)
+			throws NullPointerException, IllegalArgumentException {
+		return compress(string, level, true);
+	}
+	
+	/**
+	 * Compresses a string.  The string is held as a sequence of 64 KiB
+	 * blocks compressed independently with Deflate, and keeps nothing else
+	 * but its length.  Reading the string decompresses only the blocks it
+	 * reads, and if {@code cacheBlocks} is true, decompressed blocks are
+	 * kept through soft references, to be discarded by the garbage
+	 * collector when memory is short; otherwise each read decompresses its
+	 * blocks anew.  Substrings are decompressed copies.
+	 * @param string  The string to compress.
+	 * @param level  The compression level, from 0 to 9, or -1 for the
+	 *   default level.
+	 * @param cacheBlocks  Whether to cache decompressed blocks.
+	 * @return  A compressed {@link ByteString} equal to {@code string}.
+	 * @throws NullPointerException  If {@code string} is null.
+	 * @throws IllegalArgumentException  If {@code level} is not a valid
+	 *   level.
+	 * @see Deflater
+	 */
+	public static ByteString compress(final ByteString string, final int level,
+			final boolean cacheBlocks) throws NullPointerException, IllegalArgumentException {
+		if (string == null) {
+			throw new NullPointerException("string is null");
+		} else if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+			throw new IllegalArgumentException(String.format("level (%d) not in [%d, %d]", level,
+					Deflater.DEFAULT_COMPRESSION, Deflater.BEST_COMPRESSION));
+		} else if (string.isEmpty()) {
 			return empty();
 		}
-		final ByteString[] ropeArray = new ByteString[strings.size()];
-		return new RopeByteString(ropeStrings.toArray(ropeArray));
+		return CompressedByteString.compress(string, level, cacheBlocks);
+	}
+	
+	/**
+	 * Compresses a string with a fast LZ4-style codec.  The string is
+	 * divided into 64 KiB blocks, each compressed in a single greedy pass
+	 * and framed with its lengths; blocks which do not shrink are stored
+	 * as they are.  Compression trades ratio for speed compared to
+	 * {@link #compress(ByteString, int)}, and the result is an ordinary
+	 * string of compressed bytes, suited to being stored or sent.
+	 * @param string  The string to compress.
+	 * @return  The framed blocks, as a rope with one leaf per block.
+	 * @throws NullPointerException  If {@code string} is null.
+	 * @see #lz4Decompress(ByteString)
+	 * @see #newLz4OutputStream(OutputStream)
+	 */
+	public static ByteString lz4Compress(final ByteString string) throws NullPointerException {
+		if (string == null) {
+			throw new NullPointerException("string is null");
+		}
+		return Lz4.compress(string);
+	}
+	
+	/**
+	 * Decompresses a string compressed with {@link #lz4Compress(ByteString)}
+	 * or written to a {@linkplain #newLz4OutputStream(OutputStream) LZ4
+	 * output stream}.
+	 * @param string  The compressed string.
+	 * @return  The decompressed content, as a rope with one leaf per block.
+	 * @throws NullPointerException  If {@code string} is null.
+	 * @throws IllegalArgumentException  If {@code string} is not valid
+	 *   compressed content.
+	 */
+	public static ByteString lz4Decompress(final ByteString string)
+			throws NullPointerException, IllegalArgumentException {
+		if (string == null) {
+			throw new NullPointerException("string is null");
+		}
+		return Lz4.decompress(string);
+	}
+	
+	/**
+	 * Creates an output stream which compresses its output with the codec
+	 * of {@link #lz4Compress(ByteString)}.  Blocks are written to
+	 * {@code out} as they fill, and when the stream is flushed; closing the
+	 * stream completes the output and closes {@code out}.  Writing to a
+	 * {@link ByteStringOutputStream} collects output which
+	 * {@link #lz4Decompress(ByteString)} accepts.
+	 * @param out  The stream to receive the compressed output.
+	 * @return  A new {@link OutputStream}.
+	 * @throws NullPointerException  If {@code out} is null.
+	 */
+	public static OutputStream newLz4OutputStream(final OutputStream out) throws NullPointerException {
+		if (out == null) {
+			throw new NullPointerException("out is null");
+		}
+		return new Lz4OutputStream(out);
+	}
+	
+	/**
+	 * Creates an input stream which decompresses output of
+	 * {@link #lz4Compress(ByteString)} or
+	 * {@link #newLz4OutputStream(OutputStream)}.  The stream ends where the
+	 * compressed output ends, and reading malformed or truncated input
+	 * throws {@link IOException}.
+	 * @param in  The stream holding the compressed input.
+	 * @return  A new {@link InputStream}.
+	 * @throws NullPointerException  If {@code in} is null.
+	 */
+	public static InputStream newLz4InputStream(final InputStream in) throws NullPointerException {
+		if (in == null) {
+			throw new NullPointerException("in is null");
+		}
+		return new Lz4InputStream(in);
 	}
 	
 	/**
@@ -476,6 +1174,109 @@ public final class ByteStrings {
 		return new SingleByteString(b);
 	}
 	
+	/**
+	 * Compiles a string into a reusable search pattern.
+	 * @param string  The string to search for.
+	 * @return  A {@link ByteStringPattern} which finds {@code string}.
+	 * @throws NullPointerException  If {@code string == null}.
+	 * @see ByteString#indexOf(ByteString, int)
+	 */
+	public static ByteStringPattern compile(final ByteString string) throws NullPointerException {
+		if (string == null) {
+			throw new NullPointerException("string is null");
+		}
+		return new ByteStringPattern(string);
+	}
+	
+	/**
+	 * Compiles strings into a matcher which finds all of them at once.
+	 * @param patterns  The strings to search for.
+	 * @return  A {@link ByteStringMatcher} which finds {@code patterns},
+	 *   identifying each by its index in the array.
+	 * @throws NullPointerException  If {@code patterns} or any of its
+	 *   elements are null.
+	 * @throws IllegalArgumentException  If any of {@code patterns} is empty.
+	 * @see #matcher(Collection)
+	 */
+	public static ByteStringMatcher matcher(final ByteString... patterns)
+			throws NullPointerException, IllegalArgumentException {
+		if (patterns == null) {
+			throw new NullPointerException("patterns is null");
+		}
+		return matcher(Arrays.asList(patterns));
+	}
+	
+	/**
+	 * Compiles strings into a matcher which finds all of them at once.
+	 * @param patterns  The strings to search for.
+	 * @return  A {@link ByteStringMatcher} which finds {@code patterns},
+	 *   identifying each by its position in the iteration order of the
+	 *   collection.
+	 * @throws NullPointerException  If {@code patterns} or any of its
+	 *   elements are null.
+	 * @throws IllegalArgumentException  If any of {@code patterns} is empty.
+	 */
+	public static ByteStringMatcher matcher(final Collection<ByteString> patterns)
+			throws NullPointerException, IllegalArgumentException {
+		if (patterns == null) {
+			throw new NullPointerException("patterns is null");
+		}
+		return new ByteStringMatcher(ByteStringMatcher.toArray(patterns));
+	}
+	
+	/**
+	 * A comparator for strings.
+	 * Strings are ordered lexicographically by the unsigned values of
+	 * their bytes, consistently with {@link ByteString#compareTo(ByteString)}
+	 * but independently of how any implementation defines it.
+	 * @return  A {@link Comparator} which does not permit null strings.
+	 */
+	public static Comparator<ByteString> comparator() {
+		return COMPARATOR;
+	}
+	
+	/**
+	 * Computes a 64-bit keyed hash of a string.
+	 * The hash function is SipHash-2-4, a pseudorandom function keyed by
+	 * the seed.  Unlike {@link ByteString#hashCode()}, whose collisions
+	 * can be computed in advance, it resists hash flooding as long as the
+	 * seed is chosen at random and kept secret.
+	 * @param string  The string to hash.
+	 * @param seed  The key of the hash function.
+	 * @return  A hash of the content of {@code string} which is the same
+	 *   for equal strings and equal seeds.
+	 * @throws NullPointerException  If {@code string == null}.
+	 */
+	public static long hash64(final ByteString string, final long seed) throws NullPointerException {
+		if (string == null) {
+			throw new NullPointerException("string is null");
+		}
+		return Hashing.sipHash(string, seed);
+	}
+	
+	/**
+	 * The policy deciding whether substrings of array-backed strings share
+	 * the array of their parent.
+	 * @return  The {@link SubStringPolicy} in effect.
+	 */
+	public static SubStringPolicy subStringPolicy() {
+		return subStringPolicy;
+	}
+
+	/**
+	 * Sets the policy deciding whether substrings of array-backed strings
+	 * share the array of their parent.  The policy applies to substrings
+	 * taken after it is set.
+	 * @param policy  The new {@link SubStringPolicy}.
+	 * @throws NullPointerException  If {@code policy} is null.
+	 */
+	public static void setSubStringPolicy(final SubStringPolicy policy) throws NullPointerException {
+		if (policy == null) {
+			throw new NullPointerException("policy is null");
+		}
+		subStringPolicy = policy;
+	}
+
 	private ByteStrings() { }
 
 }
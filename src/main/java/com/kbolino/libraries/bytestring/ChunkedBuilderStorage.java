@@ -0,0 +1,232 @@
+package com.kbolino.libraries.bytestring;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A {@link BuilderStorage} holding its bytes in a sequence of fixed-size
+ * blocks.  Growing the storage only adds blocks, so bytes are never
+ * copied to make room, and {@link #toByteString()} adopts the blocks as
+ * the leaves of a rope instead of copying them.
+ *
+ * <p>Blocks adopted by a string are marked shared; a shared block is
+ * copied before it is next modified, so the string is not affected by
+ * later changes to the storage.
+ */
+final class ChunkedBuilderStorage extends BuilderStorage {
+	/** The base-2 logarithm of the block size. */
+	private final int blockShift;
+	/** The block size minus one. */
+	private final int blockMask;
+	private byte[][] blocks;
+	/** Whether each block is shared with a string. */
+	private boolean[] shared;
+	private int blockCount;
+	private int length;
+
+	/**
+	 * Creates a new {@link ChunkedBuilderStorage}.  Constructor
+	 * preconditions:
+	 * <ol>
+	 *   <li>{@code blockShift >= 0} and {@code blockShift < 31}</li>
+	 * </ol>
+	 * @param blockShift  The base-2 logarithm of the block size.
+	 */
+	ChunkedBuilderStorage(final int blockShift) {
+		super();
+		this.blockShift = blockShift;
+		this.blockMask = (1 << blockShift) - 1;
+		blocks = new byte[4][];
+		shared = new boolean[4];
+	}
+
+	/**
+	 * The length of the blocks.
+	 * @return  The number of bytes in each block.
+	 */
+	int blockSize() {
+		return 1 << blockShift;
+	}
+
+	/** {@inheritDoc} */
+	int length() {
+		return length;
+	}
+
+	/** {@inheritDoc} */
+	int capacity() {
+		return (int) Math.min(Integer.MAX_VALUE, (long) blockCount << blockShift);
+	}
+
+	/** {@inheritDoc} */
+	void ensureCapacity(final int capacity) {
+		final int needed = (int) (((long) capacity + blockMask) >>> blockShift);
+		if (needed > blocks.length) {
+			final int newLength = Math.max(2 * blocks.length, needed);
+			final byte[][] newBlocks = new byte[newLength][];
+			System.arraycopy(blocks, 0, newBlocks, 0, blockCount);
+			blocks = newBlocks;
+			final boolean[] newShared = new boolean[newLength];
+			System.arraycopy(shared, 0, newShared, 0, blockCount);
+			shared = newShared;
+		}
+		while (blockCount < needed) {
+			blocks[blockCount++] = new byte[blockSize()];
+		}
+	}
+
+	/** {@inheritDoc} */
+	byte get(final int index) {
+		return blocks[index >>> blockShift][index & blockMask];
+	}
+
+	/** {@inheritDoc} */
+	void get(int index, final byte[] bytes, int offset, int length) {
+		while (length > 0) {
+			final int start = index & blockMask;
+			final int n = Math.min(length, blockSize() - start);
+			System.arraycopy(blocks[index >>> blockShift], start, bytes, offset, n);
+			index += n;
+			offset += n;
+			length -= n;
+		}
+	}
+
+	/** {@inheritDoc} */
+	void set(final int index, final byte value) {
+		writable(index >>> blockShift)[index & blockMask] = value;
+	}
+
+	/** {@inheritDoc} */
+	void set(int index, final byte[] bytes, int offset, int length) {
+		while (length > 0) {
+			final int start = index & blockMask;
+			final int n = Math.min(length, blockSize() - start);
+			System.arraycopy(bytes, offset, writable(index >>> blockShift), start, n);
+			index += n;
+			offset += n;
+			length -= n;
+		}
+	}
+
+	/** {@inheritDoc} */
+	void open(final int index, final int length) {
+		ensureCapacity(this.length + length);
+		move(index, index + length, this.length - index);
+		this.length += length;
+	}
+
+	/** {@inheritDoc} */
+	void remove(final int beginIndex, final int endIndex) {
+		move(endIndex, beginIndex, length - endIndex);
+		length -= endIndex - beginIndex;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>Shared blocks stay marked shared, so they are still copied
+	 * before being overwritten.
+	 */
+	void clear() {
+		length = 0;
+	}
+
+	/**
+	 * Moves bytes within the storage, across blocks as necessary.
+	 * Preconditions:
+	 * <ol>
+	 *   <li>{@code from >= 0}, {@code to >= 0}, and {@code count >= 0}</li>
+	 *   <li>{@code from + count} and {@code to + count} are at most
+	 *     {@link #capacity()}</li>
+	 * </ol>
+	 * @param from  The index of the first byte to move.
+	 * @param to  The new index of the first byte.
+	 * @param count  The number of bytes to move.
+	 */
+	private void move(final int from, final int to, final int count) {
+		if (from == to || count == 0) {
+			return;
+		} else if (to < from) {
+			// forwards, so that no byte is overwritten before it is moved
+			for (int done = 0; done < count; ) {
+				final int src = from + done;
+				final int dst = to + done;
+				final int n = Math.min(count - done, Math.min(
+						blockSize() - (src & blockMask), blockSize() - (dst & blockMask)));
+				System.arraycopy(blocks[src >>> blockShift], src & blockMask,
+						writable(dst >>> blockShift), dst & blockMask, n);
+				done += n;
+			}
+		} else {
+			// backwards, from the end of each range
+			for (int left = count; left > 0; ) {
+				final int srcEnd = from + left;
+				final int dstEnd = to + left;
+				final int n = Math.min(left, Math.min(
+						((srcEnd - 1) & blockMask) + 1, ((dstEnd - 1) & blockMask) + 1));
+				System.arraycopy(blocks[(srcEnd - 1) >>> blockShift], ((srcEnd - 1) & blockMask) + 1 - n,
+						writable((dstEnd - 1) >>> blockShift), ((dstEnd - 1) & blockMask) + 1 - n, n);
+				left -= n;
+			}
+		}
+	}
+
+	/**
+	 * Obtains a block for modification, first replacing it with a copy if
+	 * it is shared.
+	 * @param block  The index of the block.
+	 * @return  The block, which is not shared.
+	 */
+	private byte[] writable(final int block) {
+		if (shared[block]) {
+			blocks[block] = blocks[block].clone();
+			shared[block] = false;
+		}
+		return blocks[block];
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>The blocks become the leaves of the string and are marked shared.
+	 * A partially-filled last block is shared or copied according to
+	 * {@link ByteStrings#subStringPolicy()}.
+	 */
+	ByteString toByteString() {
+		if (length == 0) {
+			return Utils.EMPTY_STRING;
+		}
+		final int full = length >>> blockShift;
+		final List<ByteString> pieces = new ArrayList<ByteString>(full + 1);
+		for (int i = 0; i < full; i++) {
+			pieces.add(new ArrayByteString(blocks[i]));
+			shared[i] = true;
+		}
+		final int rest = length & blockMask;
+		if (rest > 0) {
+			if (ByteStrings.subStringPolicy().share(rest, blockSize())) {
+				pieces.add(new ArrayByteString(blocks[full], 0, rest));
+				shared[full] = true;
+			} else {
+				pieces.add(ByteStrings.copyFrom(blocks[full], 0, rest));
+			}
+		}
+		if (pieces.size() == 1) {
+			return pieces.get(0);
+		}
+		return RopeByteString.concat(pieces);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>The blocks are adopted as in {@link #toByteString()}, after which
+	 * the storage releases them instead of copying them on write.
+	 */
+	ByteString detach() {
+		final ByteString string = toByteString();
+		blocks = new byte[4][];
+		shared = new boolean[4];
+		blockCount = 0;
+		length = 0;
+		return string;
+	}
+}
@@ -0,0 +1,254 @@
+package com.kbolino.libraries.bytestring;
+
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A {@link ByteString} held in compressed form.
+ * The content is divided into blocks of {@link #BLOCK_SIZE} bytes, each
+ * compressed independently with raw Deflate, so that reading any range
+ * decompresses only the blocks which overlap it.  Decompressed blocks
+ * may be cached through soft references, which the garbage collector
+ * clears when memory is short, so that repeated random access does not
+ * decompress the same block again.
+ */
+final class CompressedByteString extends AbstractByteString {
+	/** The number of bytes of content in each block, except the last. */
+	static final int BLOCK_SIZE = 1 << 16;
+
+	private final int length;
+	/** The compressed blocks, one after another. */
+	private final byte[] data;
+	/**
+	 * The index in {@link #data} of the start of each block, followed by
+	 * the length of {@link #data}.
+	 */
+	private final int[] offsets;
+	/** The decompressed blocks, or null if they are not cached. */
+	private final AtomicReferenceArray<SoftReference<byte[]>> cache;
+
+	/**
+	 * Creates a new {@link CompressedByteString}.  Constructor
+	 * preconditions:
+	 * <ol>
+	 *   <li>{@code length > 0}</li>
+	 *   <li>{@code data} holds {@code ceil(length / BLOCK_SIZE)} blocks,
+	 *     each of which decompresses to {@code BLOCK_SIZE} bytes except
+	 *     the last, and is not modified</li>
+	 *   <li>{@code offsets} holds the start of each block followed by
+	 *     {@code data.length}</li>
+	 * </ol>
+	 * @param length  The length of the decompressed content.
+	 * @param data  The compressed blocks.
+	 * @param offsets  The boundaries of the blocks in {@code data}.
+	 * @param cached  Whether to cache decompressed blocks.
+	 */
+	private CompressedByteString(final int length, final byte[] data, final int[] offsets,
+			final boolean cached) {
+		super();
+		this.length = length;
+		this.data = data;
+		this.offsets = offsets;
+		this.cache = cached ? new AtomicReferenceArray<SoftReference<byte[]>>(offsets.length - 1) : null;
+	}
+
+	/**
+	 * Compresses a string.  Preconditions:
+	 * <ol>
+	 *   <li>{@code string != null} and is not empty</li>
+	 *   <li>{@code level} is a valid {@link Deflater} level</li>
+	 * </ol>
+	 * @param string  The string to compress.
+	 * @param level  The compression level.
+	 * @param cached  Whether to cache decompressed blocks.
+	 * @return  A {@link CompressedByteString} equal to {@code string}.
+	 */
+	static CompressedByteString compress(final ByteString string, final int level,
+			final boolean cached) {
+		final int length = string.length();
+		final int blockCount = (int) (((long) length + BLOCK_SIZE - 1) / BLOCK_SIZE);
+		final int[] offsets = new int[blockCount + 1];
+		final byte[] block = new byte[Math.min(length, BLOCK_SIZE)];
+		byte[] data = new byte[Math.max(64, length / 4)];
+		int size = 0;
+		final Deflater deflater = new Deflater(level, true);
+		try {
+			for (int i = 0; i < blockCount; i++) {
+				final int begin = i * BLOCK_SIZE;
+				final int n = Math.min(BLOCK_SIZE, length - begin);
+				Utils.copyRange(string, begin, block, 0, n);
+				deflater.reset();
+				deflater.setInput(block, 0, n);
+				deflater.finish();
+				offsets[i] = size;
+				while (!deflater.finished()) {
+					if (size == data.length) {
+						final byte[] copy = new byte[(int) Math.min(Integer.MAX_VALUE, 2L * data.length)];
+						System.arraycopy(data, 0, copy, 0, size);
+						data = copy;
+					}
+					size += deflater.deflate(data, size, data.length - size);
+				}
+			}
+		} finally {
+			deflater.end();
+		}
+		offsets[blockCount] = size;
+		final byte[] trimmed = new byte[size];
+		System.arraycopy(data, 0, trimmed, 0, size);
+		return new CompressedByteString(length, trimmed, offsets, cached);
+	}
+
+	/**
+	 * The number of bytes held in compressed form.
+	 * @return  The total length of the compressed blocks.
+	 */
+	int compressedLength() {
+		return data.length;
+	}
+
+	/**
+	 * Obtains a decompressed block, from the cache if possible.
+	 * @param block  The index of the block.
+	 * @return  The content of the block, which must not be modified.
+	 */
+	private byte[] block(final int block) {
+		if (cache != null) {
+			final SoftReference<byte[]> ref = cache.get(block);
+			final byte[] cached = ref == null ? null : ref.get();
+			if (cached != null) {
+				return cached;
+			}
+		}
+		final byte[] bytes = new byte[Math.min(BLOCK_SIZE, length - block * BLOCK_SIZE)];
+		inflate(block, bytes, 0, bytes.length);
+		if (cache != null) {
+			cache.set(block, new SoftReference<byte[]>(bytes));
+		}
+		return bytes;
+	}
+
+	/**
+	 * Decompresses the beginning of a block.
+	 * @param block  The index of the block.
+	 * @param bytes  The array to receive the bytes.
+	 * @param offset  The index in {@code bytes} of the first byte.
+	 * @param n  The number of bytes to decompress, which is at most the
+	 *   length of the block.
+	 */
+	private void inflate(final int block, final byte[] bytes, final int offset, final int n) {
+		final Inflater inflater = new Inflater(true);
+		try {
+			inflater.setInput(data, offsets[block], offsets[block + 1] - offsets[block]);
+			int done = 0;
+			while (done < n) {
+				final int count = inflater.inflate(bytes, offset + done, n - done);
+				if (count == 0 && (inflater.finished() || inflater.needsInput())) {
+					throw new IllegalStateException(String.format("block %d is truncated", block));
+				}
+				done += count;
+			}
+		} catch (final DataFormatException ex) {
+			throw new IllegalStateException(String.format("block %d is corrupt", block), ex);
+		} finally {
+			inflater.end();
+		}
+	}
+
+	/**
+	 * Copies a range of a block.  Without a cache, only the block up to
+	 * the end of the range is decompressed.
+	 * @param block  The index of the block.
+	 * @param beginIndex  The index within the block of the first byte.
+	 * @param bytes  The array to receive the bytes.
+	 * @param offset  The index in {@code bytes} of the first byte.
+	 * @param n  The number of bytes to copy.
+	 */
+	private void read(final int block, final int beginIndex, final byte[] bytes, final int offset,
+			final int n) {
+		if (cache != null) {
+			System.arraycopy(block(block), beginIndex, bytes, offset, n);
+		} else if (beginIndex == 0) {
+			inflate(block, bytes, offset, n);
+		} else {
+			final byte[] prefix = new byte[beginIndex + n];
+			inflate(block, prefix, 0, prefix.length);
+			System.arraycopy(prefix, beginIndex, bytes, offset, n);
+		}
+	}
+
+	/** {@inheritDoc} */
+	public int length() {
+		return length;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>Unless its block is cached, reading a single byte decompresses
+	 * its block up to the byte.
+	 */
+	public byte at(final int index) throws IllegalArgumentException, IndexOutOfBoundsException {
+		checkAt(index);
+		if (cache != null) {
+			return block(index / BLOCK_SIZE)[index % BLOCK_SIZE];
+		}
+		final byte[] value = new byte[1];
+		read(index / BLOCK_SIZE, index % BLOCK_SIZE, value, 0, 1);
+		return value[0];
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	protected void copyRange(final int beginIndex, final byte[] bytes, final int offset,
+			final int length) {
+		int copied = 0;
+		while (copied < length) {
+			final int index = beginIndex + copied;
+			final int n = Math.min(BLOCK_SIZE - index % BLOCK_SIZE, length - copied);
+			read(index / BLOCK_SIZE, index % BLOCK_SIZE, bytes, offset + copied, n);
+			copied += n;
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	boolean visitArrays(final int beginIndex, final int endIndex, final ArraySegmentVisitor visitor) {
+		// without a cache, each block is decompressed into the same scratch array
+		final byte[] scratch = cache == null ? new byte[Math.min(BLOCK_SIZE, endIndex)] : null;
+		int index = beginIndex;
+		while (index < endIndex) {
+			final int begin = index % BLOCK_SIZE;
+			final int n = Math.min(BLOCK_SIZE - begin, endIndex - index);
+			final byte[] block;
+			if (scratch == null) {
+				block = block(index / BLOCK_SIZE);
+			} else {
+				block = scratch;
+				inflate(index / BLOCK_SIZE, scratch, 0, begin + n);
+			}
+			if (!visitor.visit(block, begin, n)) {
+				return false;
+			}
+			index += n;
+		}
+		return true;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	void addBuffers(final int beginIndex, final int endIndex, final List<ByteBuffer> buffers) {
+		// decompressed blocks are never modified, so they may be shared
+		int index = beginIndex;
+		while (index < endIndex) {
+			final int begin = index % BLOCK_SIZE;
+			final int n = Math.min(BLOCK_SIZE - begin, endIndex - index);
+			buffers.add(ByteBuffer.wrap(block(index / BLOCK_SIZE), begin, n).slice().asReadOnlyBuffer());
+			index += n;
+		}
+	}
+}
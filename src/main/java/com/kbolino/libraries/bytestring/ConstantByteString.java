@@ -3,6 +3,8 @@ package com.kbolino.libraries.bytestring;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.ReadOnlyBufferException;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * A {@link ByteString} that contains repetitions of a single byte value.
@@ -37,19 +39,71 @@ final class ConstantByteString extends AbstractByteString {
 		return value;
 	}
 	
+	/** {@inheritDoc} */
+	@Override
+	protected void copyRange(final int beginIndex, final byte[] bytes, final int offset,
+			final int length) {
+		Arrays.fill(bytes, offset, offset + length, value);
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	boolean visitArrays(final int beginIndex, final int endIndex, final ArraySegmentVisitor visitor) {
+		// every chunk is identical, so one is synthesized and reused
+		final byte[] chunk = Utils.newChunk(endIndex - beginIndex);
+		Arrays.fill(chunk, value);
+		for (int i = beginIndex; i < endIndex; i += chunk.length) {
+			if (!visitor.visit(chunk, 0, Math.min(chunk.length, endIndex - i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * <p>Every buffer shares one synthesized chunk, so the buffers occupy
+	 * at most one chunk of memory regardless of the length of the range.
+	 */
+	@Override
+	void addBuffers(final int beginIndex, final int endIndex, final List<ByteBuffer> buffers) {
+		final byte[] chunk = Utils.newChunk(endIndex - beginIndex);
+		Arrays.fill(chunk, value);
+		final ByteBuffer shared = ByteBuffer.wrap(chunk).asReadOnlyBuffer();
+		for (int i = beginIndex; i < endIndex; i += chunk.length) {
+			final ByteBuffer buffer = shared.duplicate();
+			buffer.limit(Math.min(chunk.length, endIndex - i));
+			buffers.add(buffer);
+		}
+	}
+	
 	/** {@inheritDoc} */
 	@Override
 	public int indexOf(int value, int fromIndex)
 			throws IllegalArgumentException, IndexOutOfBoundsException {
 		checkIndexOf(fromIndex);
 		final byte val = Utils.toByteValue(value);
-		if (val == this.value) {
+		if (val == this.value && length > 0) {
 			return fromIndex;
 		} else {
 			return -1;
 		}
 	}
 
+	/** {@inheritDoc} */
+	@Override
+	public int lastIndexOf(int value, int fromIndex)
+			throws IllegalArgumentException, IndexOutOfBoundsException {
+		checkIndexOf(value, fromIndex);
+		return (byte)value == this.value && length > 0 ? fromIndex : -1;
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	public int count(int value) throws IllegalArgumentException {
+		return Utils.toByteValue(value) == this.value ? length : 0;
+	}
+
 	/** {@inheritDoc} */
 	public ByteString subString(int beginIndex, int endIndex)
 			throws IllegalArgumentException, IndexOutOfBoundsException {
@@ -27,6 +27,13 @@ final class EmptyByteString extends AbstractByteString {
 		throw new Error("unreachable code");
 	}
 
+	/** {@inheritDoc} */
+	@Override
+	protected void copyRange(final int beginIndex, final byte[] bytes, final int offset,
+			final int length) {
+		// nothing to copy
+	}
+
 	/** {@inheritDoc} */
 	public ByteString subString(final int beginIndex, final int endIndex)
 			throws IllegalArgumentException, IndexOutOfBoundsException {
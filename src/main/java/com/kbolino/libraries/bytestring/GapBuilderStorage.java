@@ -0,0 +1,170 @@
+package com.kbolino.libraries.bytestring;
+
+/**
+ * A {@link BuilderStorage} holding its bytes in a gap buffer: a single
+ * array with an unused gap at the position of the most recent edit.
+ * Inserting or deleting at the gap only moves its boundaries, and moving
+ * the gap costs only the distance moved, so a run of edits near the same
+ * position takes amortized constant time per edit.
+ */
+final class GapBuilderStorage extends BuilderStorage {
+	private final int initialCapacity;
+	private byte[] bytes;
+	/** The index in {@link #bytes} of the first byte of the gap. */
+	private int gapStart;
+	/** The index in {@link #bytes} following the last byte of the gap. */
+	private int gapEnd;
+
+	/**
+	 * Creates a new {@link GapBuilderStorage}.  Constructor
+	 * preconditions:
+	 * <ol>
+	 *   <li>{@code initialCapacity >= 0}</li>
+	 * </ol>
+	 * @param initialCapacity  The initial capacity.
+	 */
+	GapBuilderStorage(final int initialCapacity) {
+		super();
+		this.initialCapacity = initialCapacity;
+		bytes = new byte[initialCapacity];
+		gapEnd = initialCapacity;
+	}
+
+	/** {@inheritDoc} */
+	int length() {
+		return bytes.length - (gapEnd - gapStart);
+	}
+
+	/** {@inheritDoc} */
+	int capacity() {
+		return bytes.length;
+	}
+
+	/** {@inheritDoc} */
+	void ensureCapacity(final int capacity) {
+		if (capacity > bytes.length) {
+			final int newSize = (int) Math.min(Integer.MAX_VALUE,
+					Math.max(2L * bytes.length + 1, Math.max(capacity, initialCapacity)));
+			final byte[] copy = new byte[newSize];
+			final int tail = bytes.length - gapEnd;
+			System.arraycopy(bytes, 0, copy, 0, gapStart);
+			System.arraycopy(bytes, gapEnd, copy, newSize - tail, tail);
+			bytes = copy;
+			gapEnd = newSize - tail;
+		}
+	}
+
+	/**
+	 * Moves the gap so that it starts at an index.  Preconditions:
+	 * <ol>
+	 *   <li>{@code index >= 0} and {@code index <= length()}</li>
+	 * </ol>
+	 * @param index  The logical index at which the gap is to start.
+	 */
+	private void moveGap(final int index) {
+		if (index < gapStart) {
+			final int n = gapStart - index;
+			System.arraycopy(bytes, index, bytes, gapEnd - n, n);
+			gapStart -= n;
+			gapEnd -= n;
+		} else if (index > gapStart) {
+			final int n = index - gapStart;
+			System.arraycopy(bytes, gapEnd, bytes, gapStart, n);
+			gapStart += n;
+			gapEnd += n;
+		}
+	}
+
+	/** {@inheritDoc} */
+	byte get(final int index) {
+		return index < gapStart ? bytes[index] : bytes[index + gapEnd - gapStart];
+	}
+
+	/** {@inheritDoc} */
+	void get(final int index, final byte[] bytes, final int offset, final int length) {
+		final int before = Math.max(0, Math.min(length, gapStart - index));
+		System.arraycopy(this.bytes, index, bytes, offset, before);
+		System.arraycopy(this.bytes, index + before + gapEnd - gapStart,
+				bytes, offset + before, length - before);
+	}
+
+	/** {@inheritDoc} */
+	void set(final int index, final byte value) {
+		if (index < gapStart) {
+			bytes[index] = value;
+		} else {
+			bytes[index + gapEnd - gapStart] = value;
+		}
+	}
+
+	/** {@inheritDoc} */
+	void set(final int index, final byte[] bytes, final int offset, final int length) {
+		final int before = Math.max(0, Math.min(length, gapStart - index));
+		System.arraycopy(bytes, offset, this.bytes, index, before);
+		System.arraycopy(bytes, offset + before, this.bytes,
+				index + before + gapEnd - gapStart, length - before);
+	}
+
+	/** {@inheritDoc} */
+	void open(final int index, final int length) {
+		ensureCapacity(length() + length);
+		moveGap(index);
+		// the new bytes are taken from the front of the gap
+		gapStart += length;
+	}
+
+	/** {@inheritDoc} */
+	void remove(final int beginIndex, final int endIndex) {
+		// the removed bytes join the gap from whichever side is nearer
+		if (Math.abs(gapStart - endIndex) < Math.abs(gapStart - beginIndex)) {
+			moveGap(endIndex);
+			gapStart = beginIndex;
+		} else {
+			moveGap(beginIndex);
+			gapEnd += endIndex - beginIndex;
+		}
+	}
+
+	/** {@inheritDoc} */
+	void clear() {
+		gapStart = 0;
+		gapEnd = bytes.length;
+	}
+
+	/** {@inheritDoc} */
+	ByteString toByteString() {
+		final int length = length();
+		if (length == 0) {
+			return Utils.EMPTY_STRING;
+		}
+		final byte[] copy = new byte[length];
+		get(0, copy, 0, length);
+		return new ArrayByteString(copy);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>The gap is first moved to the end, after which the array is
+	 * adopted as in {@link ArrayBuilderStorage#detach()}.
+	 */
+	ByteString detach() {
+		final int length = length();
+		final ByteString string;
+		if (length == 0) {
+			string = Utils.EMPTY_STRING;
+		} else {
+			moveGap(length);
+			if (length == bytes.length) {
+				string = new ArrayByteString(bytes);
+			} else if (ByteStrings.subStringPolicy().share(length, bytes.length)) {
+				string = new ArrayByteString(bytes, 0, length);
+			} else {
+				string = toByteString();
+			}
+		}
+		bytes = Utils.EMPTY_BYTE_ARRAY;
+		gapStart = 0;
+		gapEnd = 0;
+		return string;
+	}
+}
@@ -0,0 +1,300 @@
+package com.kbolino.libraries.bytestring;
+
+/**
+ * Hash functions for {@link ByteString}s.
+ * Both hashes consume their input in 8-byte little-endian words, and
+ * depend only on the content of a string, not on how that content is
+ * stored.
+ * <ul>
+ *   <li>The fast hash, behind {@link ByteString#hashCode()}, is a 64-bit
+ *     variant of MurmurHash3.  Its seed only sets the initial state, so
+ *     colliding strings can be built which collide for every seed.</li>
+ *   <li>The keyed hash is SipHash-2-4, a pseudorandom function: without
+ *     the key, collisions cannot be predicted, so it resists hash
+ *     flooding.</li>
+ * </ul>
+ */
+final class Hashing {
+	private static final long C1 = 0x87c37b91114253d5L;
+	private static final long C2 = 0x4cf5ad432745937fL;
+
+	/**
+	 * Computes the 64-bit hash of a string.  Preconditions:
+	 * <ol>
+	 *   <li>{@code string != null}</li>
+	 * </ol>
+	 * @param string  The string to hash.
+	 * @param seed  The seed of the hash function.
+	 * @return  The hash of {@code string}.
+	 */
+	static long hash64(final ByteString string, final long seed) {
+		final Hasher hasher = new Hasher(seed);
+		Utils.visitArrays(string, 0, string.length(), hasher);
+		return hasher.finish();
+	}
+
+	/**
+	 * Computes the keyed hash of a string.  Preconditions:
+	 * <ol>
+	 *   <li>{@code string != null}</li>
+	 * </ol>
+	 * @param string  The string to hash.
+	 * @param k0  The first half of the key, as a little-endian word.
+	 * @param k1  The second half of the key, as a little-endian word.
+	 * @return  The SipHash-2-4 of {@code string}.
+	 */
+	static long sipHash(final ByteString string, final long k0, final long k1) {
+		final SipHasher hasher = new SipHasher(k0, k1);
+		Utils.visitArrays(string, 0, string.length(), hasher);
+		return hasher.finish();
+	}
+
+	/**
+	 * Computes the keyed hash of a string with a 64-bit key.
+	 * Preconditions:
+	 * <ol>
+	 *   <li>{@code string != null}</li>
+	 * </ol>
+	 * @param string  The string to hash.
+	 * @param seed  The key, which is expanded to the 128 bits SipHash
+	 *   takes.
+	 * @return  The SipHash-2-4 of {@code string}.
+	 */
+	static long sipHash(final ByteString string, final long seed) {
+		return sipHash(string, seed, fmix64(seed ^ C1));
+	}
+
+	/**
+	 * Computes the 32-bit hash of a string.  Preconditions:
+	 * <ol>
+	 *   <li>{@code string != null}</li>
+	 * </ol>
+	 * @param string  The string to hash.
+	 * @return  The hash of {@code string} with a seed of 0, folded to 32
+	 *   bits.  Never 0, so that 0 can mark a hash that has not been computed.
+	 */
+	static int hash32(final ByteString string) {
+		final long hash = hash64(string, 0);
+		final int folded = (int)(hash ^ (hash >>> 32));
+		return folded == 0 ? 1 : folded;
+	}
+
+	/**
+	 * Incremental state of the hash function.
+	 * Content may be supplied in arbitrarily sized pieces.
+	 */
+	static final class Hasher implements ArraySegmentVisitor {
+		private long hash;
+		private long carry;
+		private int carried;
+		private long length;
+
+		/**
+		 * Creates a new {@link Hasher}.
+		 * @param seed  The seed of the hash function.
+		 */
+		Hasher(final long seed) {
+			hash = seed;
+		}
+
+		/**
+		 * Adds bytes to the hashed content.  Preconditions:
+		 * <ol>
+		 *   <li>{@code bytes != null}</li>
+		 *   <li>{@code offset >= 0} and
+		 *     {@code offset + length <= bytes.length}</li>
+		 * </ol>
+		 * @param bytes  The array holding the bytes.
+		 * @param offset  The index of the first byte.
+		 * @param length  The number of bytes.
+		 */
+		void update(final byte[] bytes, final int offset, final int length) {
+			this.length += length;
+			int i = offset;
+			final int end = offset + length;
+			// complete a word left over from the previous piece
+			while (carried != 0 && i < end) {
+				carry |= (bytes[i++] & 0xFFL) << (8 * carried);
+				carried = (carried + 1) & 7;
+				if (carried == 0) {
+					mix(carry);
+					carry = 0;
+				}
+			}
+			for (; i <= end - 8; i += 8) {
+				mix(getLongLE(bytes, i));
+			}
+			for (; i < end; i++) {
+				carry |= (bytes[i] & 0xFFL) << (8 * carried);
+				carried++;
+			}
+		}
+
+		/**
+		 * Adds a segment to the hashed content.
+		 * @param array  The array holding the segment.
+		 * @param offset  The index of the first byte of the segment.
+		 * @param length  The number of bytes in the segment.
+		 * @return  True.
+		 */
+		public boolean visit(final byte[] array, final int offset, final int length) {
+			update(array, offset, length);
+			return true;
+		}
+
+		/**
+		 * Completes the hash.
+		 * @return  The hash of all bytes supplied so far.
+		 */
+		long finish() {
+			long h = hash;
+			if (carried != 0) {
+				h ^= scramble(carry);
+			}
+			h ^= length;
+			return fmix64(h);
+		}
+
+		private void mix(final long word) {
+			hash ^= scramble(word);
+			hash = Long.rotateLeft(hash, 27) * 5 + 0x52dce729;
+		}
+	}
+
+	/**
+	 * Incremental state of SipHash-2-4.
+	 * Content may be supplied in arbitrarily sized pieces.
+	 */
+	static final class SipHasher implements ArraySegmentVisitor {
+		private long v0;
+		private long v1;
+		private long v2;
+		private long v3;
+		private long carry;
+		private int carried;
+		private long length;
+
+		/**
+		 * Creates a new {@link SipHasher}.
+		 * @param k0  The first half of the key.
+		 * @param k1  The second half of the key.
+		 */
+		SipHasher(final long k0, final long k1) {
+			v0 = k0 ^ 0x736f6d6570736575L;
+			v1 = k1 ^ 0x646f72616e646f6dL;
+			v2 = k0 ^ 0x6c7967656e657261L;
+			v3 = k1 ^ 0x7465646279746573L;
+		}
+
+		/**
+		 * Adds bytes to the hashed content.  Preconditions:
+		 * <ol>
+		 *   <li>{@code bytes != null}</li>
+		 *   <li>{@code offset >= 0} and
+		 *     {@code offset + length <= bytes.length}</li>
+		 * </ol>
+		 * @param bytes  The array holding the bytes.
+		 * @param offset  The index of the first byte.
+		 * @param length  The number of bytes.
+		 */
+		void update(final byte[] bytes, final int offset, final int length) {
+			this.length += length;
+			int i = offset;
+			final int end = offset + length;
+			// complete a word left over from the previous piece
+			while (carried != 0 && i < end) {
+				carry |= (bytes[i++] & 0xFFL) << (8 * carried);
+				carried = (carried + 1) & 7;
+				if (carried == 0) {
+					compress(carry);
+					carry = 0;
+				}
+			}
+			for (; i <= end - 8; i += 8) {
+				compress(getLongLE(bytes, i));
+			}
+			for (; i < end; i++) {
+				carry |= (bytes[i] & 0xFFL) << (8 * carried);
+				carried++;
+			}
+		}
+
+		/**
+		 * Adds a segment to the hashed content.
+		 * @param array  The array holding the segment.
+		 * @param offset  The index of the first byte of the segment.
+		 * @param length  The number of bytes in the segment.
+		 * @return  True.
+		 */
+		public boolean visit(final byte[] array, final int offset, final int length) {
+			update(array, offset, length);
+			return true;
+		}
+
+		/**
+		 * Completes the hash.  The hasher must not be used afterwards.
+		 * @return  The hash of all bytes supplied so far.
+		 */
+		long finish() {
+			// the last word holds the remaining bytes and the length mod 256
+			compress(carry | length << 56);
+			v2 ^= 0xFF;
+			for (int i = 0; i < 4; i++) {
+				round();
+			}
+			return v0 ^ v1 ^ v2 ^ v3;
+		}
+
+		private void compress(final long word) {
+			v3 ^= word;
+			round();
+			round();
+			v0 ^= word;
+		}
+
+		private void round() {
+			v0 += v1;
+			v1 = Long.rotateLeft(v1, 13);
+			v1 ^= v0;
+			v0 = Long.rotateLeft(v0, 32);
+			v2 += v3;
+			v3 = Long.rotateLeft(v3, 16);
+			v3 ^= v2;
+			v0 += v3;
+			v3 = Long.rotateLeft(v3, 21);
+			v3 ^= v0;
+			v2 += v1;
+			v1 = Long.rotateLeft(v1, 17);
+			v1 ^= v2;
+			v2 = Long.rotateLeft(v2, 32);
+		}
+	}
+
+	private static long scramble(long k) {
+		k *= C1;
+		k = Long.rotateLeft(k, 31);
+		return k * C2;
+	}
+
+	private static long fmix64(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	private static long getLongLE(final byte[] bytes, final int index) {
+		return (bytes[index] & 0xFFL)
+				| (bytes[index + 1] & 0xFFL) << 8
+				| (bytes[index + 2] & 0xFFL) << 16
+				| (bytes[index + 3] & 0xFFL) << 24
+				| (bytes[index + 4] & 0xFFL) << 32
+				| (bytes[index + 5] & 0xFFL) << 40
+				| (bytes[index + 6] & 0xFFL) << 48
+				| (bytes[index + 7] & 0xFFL) << 56;
+	}
+
+	private Hashing() { }
+}
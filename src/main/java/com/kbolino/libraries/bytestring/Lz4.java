@@ -0,0 +1,483 @@
+package com.kbolino.libraries.bytestring;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A fast compressor in the LZ4 family.
+ *
+ * <p>Blocks use the LZ4 block format: a sequence of tokens, each holding
+ * a run of literal bytes followed by a match, which repeats earlier
+ * bytes of the block given their distance back (at most 65535) and their
+ * length (at least {@link #MIN_MATCH}).  Matches are found through a
+ * table of the most recent position of each hashed 4-byte sequence, so
+ * compression is a single greedy pass, and decompression is little more
+ * than copying.
+ *
+ * <p>Content is divided into blocks of at most {@link #BLOCK_SIZE} bytes,
+ * each compressed independently and framed as follows, with integers in
+ * big-endian order:
+ * <ol>
+ *   <li>the length of the decompressed block, which is positive;</li>
+ *   <li>the length of the block data, with the high bit set if the data
+ *     is stored uncompressed, because compression did not make it
+ *     smaller;</li>
+ *   <li>the block data.</li>
+ * </ol>
+ * The last block is followed by an end mark, which is a length of 0.
+ */
+final class Lz4 {
+	/** The maximum number of bytes of content in a block. */
+	static final int BLOCK_SIZE = 1 << 16;
+	/** The length of the header of a framed block. */
+	static final int HEADER_SIZE = 8;
+	/** The length of the end mark. */
+	static final int END_MARK_SIZE = 4;
+	/** The flag marking the block data as stored uncompressed. */
+	static final int STORED = 0x80000000;
+
+	/** The minimum length of a match. */
+	private static final int MIN_MATCH = 4;
+	/** The number of bytes at the end of a block which are always literal. */
+	private static final int LAST_LITERALS = 5;
+	/** The number of bytes at the end of a block in which no match starts. */
+	private static final int MF_LIMIT = 12;
+	/** The maximum distance of a match. */
+	private static final int MAX_DISTANCE = 65535;
+	private static final int HASH_LOG = 14;
+	/** The number of entries in the hash table used by compression. */
+	static final int TABLE_SIZE = 1 << HASH_LOG;
+	/**
+	 * The number of failed match attempts after which the search step
+	 * grows, skipping faster through incompressible data.
+	 */
+	private static final int SKIP_TRIGGER = 6;
+
+	private Lz4() { }
+
+	/**
+	 * The maximum length of a compressed block.
+	 * @param length  The length of the content of the block.
+	 * @return  The length of the longest block data which compressing
+	 *   {@code length} bytes can produce.
+	 */
+	static int maxCompressedLength(final int length) {
+		return length + length / 255 + 16;
+	}
+
+	/**
+	 * Reads a little-endian integer.
+	 * @param bytes  The array.
+	 * @param index  The index of the first byte.
+	 * @return  The integer.
+	 */
+	private static int readIntLE(final byte[] bytes, final int index) {
+		return (bytes[index] & 0xFF) | (bytes[index + 1] & 0xFF) << 8
+				| (bytes[index + 2] & 0xFF) << 16 | (bytes[index + 3] & 0xFF) << 24;
+	}
+
+	/**
+	 * Hashes the 4-byte sequence at an index.
+	 * @param bytes  The array.
+	 * @param index  The index of the sequence.
+	 * @return  An index into a table of {@link #TABLE_SIZE} entries.
+	 */
+	private static int hash(final byte[] bytes, final int index) {
+		return readIntLE(bytes, index) * -1640531535 >>> (32 - HASH_LOG);
+	}
+
+	/**
+	 * Writes a length beyond what fits in a token, as a run of 255s ended
+	 * by a smaller byte.
+	 * @param length  The remaining length, which is at least 0.
+	 * @param dest  The array to receive the bytes.
+	 * @param index  The index of the first byte.
+	 * @return  The index following the last byte written.
+	 */
+	private static int writeLength(int length, final byte[] dest, int index) {
+		while (length >= 255) {
+			dest[index++] = (byte) 255;
+			length -= 255;
+		}
+		dest[index++] = (byte) length;
+		return index;
+	}
+
+	/**
+	 * Writes a sequence of literals, optionally followed by a match.
+	 * @param src  The array holding the literals.
+	 * @param anchor  The index of the first literal.
+	 * @param literals  The number of literals.
+	 * @param distance  The distance of the match, if any.
+	 * @param matchLength  The length of the match, or 0 for none.
+	 * @param dest  The array to receive the sequence.
+	 * @param index  The index of the first byte of the sequence.
+	 * @return  The index following the last byte written.
+	 */
+	private static int writeSequence(final byte[] src, final int anchor, final int literals,
+			final int distance, final int matchLength, final byte[] dest, int index) {
+		final int token = index++;
+		int bits;
+		if (literals >= 15) {
+			bits = 15 << 4;
+			index = writeLength(literals - 15, dest, index);
+		} else {
+			bits = literals << 4;
+		}
+		System.arraycopy(src, anchor, dest, index, literals);
+		index += literals;
+		if (matchLength > 0) {
+			dest[index++] = (byte) distance;
+			dest[index++] = (byte) (distance >>> 8);
+			final int extra = matchLength - MIN_MATCH;
+			if (extra >= 15) {
+				bits |= 15;
+				index = writeLength(extra - 15, dest, index);
+			} else {
+				bits |= extra;
+			}
+		}
+		dest[token] = (byte) bits;
+		return index;
+	}
+
+	/**
+	 * Compresses a block.  Preconditions:
+	 * <ol>
+	 *   <li>{@code length <= BLOCK_SIZE}</li>
+	 *   <li>{@code dest} has room for {@link #maxCompressedLength(int)}
+	 *     bytes at {@code destIndex}</li>
+	 *   <li>{@code table.length == TABLE_SIZE}</li>
+	 * </ol>
+	 * @param src  The array holding the content.
+	 * @param offset  The index of the first byte of the content.
+	 * @param length  The length of the content.
+	 * @param dest  The array to receive the block data.
+	 * @param destIndex  The index of the first byte of the block data.
+	 * @param table  A scratch hash table, which is overwritten.
+	 * @return  The length of the block data.
+	 */
+	static int compress(final byte[] src, final int offset, final int length,
+			final byte[] dest, final int destIndex, final int[] table) {
+		final int end = offset + length;
+		int index = destIndex;
+		int anchor = offset;
+		if (length >= MF_LIMIT + 1) {
+			// positions are stored plus one, so that 0 means none
+			Arrays.fill(table, 0);
+			final int matchLimit = end - LAST_LITERALS;
+			final int searchLimit = end - MF_LIMIT;
+			int i = offset + 1;
+			int attempts = 1 << SKIP_TRIGGER;
+			while (i < searchLimit) {
+				final int h = hash(src, i);
+				final int candidate = table[h] - 1 + offset;
+				table[h] = i - offset + 1;
+				if (candidate < offset || i - candidate > MAX_DISTANCE
+						|| readIntLE(src, candidate) != readIntLE(src, i)) {
+					i += attempts++ >>> SKIP_TRIGGER;
+					continue;
+				}
+				attempts = 1 << SKIP_TRIGGER;
+				int start = i;
+				int ref = candidate;
+				// extend the match backwards over pending literals
+				while (start > anchor && ref > offset && src[start - 1] == src[ref - 1]) {
+					start--;
+					ref--;
+				}
+				int matchEnd = i + MIN_MATCH;
+				int refEnd = candidate + MIN_MATCH;
+				while (matchEnd < matchLimit && src[matchEnd] == src[refEnd]) {
+					matchEnd++;
+					refEnd++;
+				}
+				index = writeSequence(src, anchor, start - anchor, start - ref, matchEnd - start,
+						dest, index);
+				anchor = matchEnd;
+				i = matchEnd;
+				if (i < searchLimit) {
+					// index a position inside the match, as LZ4 does
+					table[hash(src, i - 2)] = i - 2 - offset + 1;
+				}
+			}
+		}
+		return writeSequence(src, anchor, end - anchor, 0, 0, dest, index) - destIndex;
+	}
+
+	/**
+	 * Decompresses a block.
+	 * @param src  The array holding the block data.
+	 * @param offset  The index of the first byte of the block data.
+	 * @param length  The length of the block data.
+	 * @param dest  The array to receive the content.
+	 * @param destIndex  The index of the first byte of the content.
+	 * @param rawLength  The length of the content.
+	 * @throws IllegalArgumentException  If the block data is malformed or
+	 *   does not decompress to exactly {@code rawLength} bytes.
+	 */
+	static void decompress(final byte[] src, final int offset, final int length,
+			final byte[] dest, final int destIndex, final int rawLength)
+			throws IllegalArgumentException {
+		final int srcEnd = offset + length;
+		final int destEnd = destIndex + rawLength;
+		int i = offset;
+		int o = destIndex;
+		while (true) {
+			if (i == srcEnd) {
+				throw malformed();
+			}
+			final int token = src[i++] & 0xFF;
+			int literals = token >>> 4;
+			if (literals == 15) {
+				int b;
+				do {
+					if (i == srcEnd) {
+						throw malformed();
+					}
+					b = src[i++] & 0xFF;
+					literals += b;
+				} while (b == 255);
+			}
+			if (literals > srcEnd - i || literals > destEnd - o) {
+				throw malformed();
+			}
+			System.arraycopy(src, i, dest, o, literals);
+			i += literals;
+			o += literals;
+			if (i == srcEnd) {
+				break;
+			} else if (srcEnd - i < 2) {
+				throw malformed();
+			}
+			final int distance = (src[i] & 0xFF) | (src[i + 1] & 0xFF) << 8;
+			i += 2;
+			int matchLength = token & 0x0F;
+			if (matchLength == 15) {
+				int b;
+				do {
+					if (i == srcEnd) {
+						throw malformed();
+					}
+					b = src[i++] & 0xFF;
+					matchLength += b;
+				} while (b == 255);
+			}
+			matchLength += MIN_MATCH;
+			if (distance == 0 || distance > o - destIndex || matchLength > destEnd - o) {
+				throw malformed();
+			}
+			if (distance >= matchLength) {
+				System.arraycopy(dest, o - distance, dest, o, matchLength);
+				o += matchLength;
+			} else {
+				// the match overlaps the bytes it produces
+				for (int k = 0; k < matchLength; k++, o++) {
+					dest[o] = dest[o - distance];
+				}
+			}
+		}
+		if (o != destEnd) {
+			throw malformed();
+		}
+	}
+
+	private static IllegalArgumentException malformed() {
+		return new IllegalArgumentException("malformed LZ4 block");
+	}
+
+	/**
+	 * Frames a block, compressing it if that makes it smaller.
+	 * @param src  The array holding the content.
+	 * @param offset  The index of the first byte of the content.
+	 * @param length  The length of the content, from 1 to
+	 *   {@link #BLOCK_SIZE}.
+	 * @param scratch  An array of at least
+	 *   {@code HEADER_SIZE + maxCompressedLength(BLOCK_SIZE)} bytes.
+	 * @param table  A scratch hash table.
+	 * @return  The length of the framed block, which is in
+	 *   {@code scratch} unless stored; a stored block consists of its
+	 *   header in {@code scratch} followed by the content itself.
+	 */
+	static int frame(final byte[] src, final int offset, final int length, final byte[] scratch,
+			final int[] table) {
+		final int compressed = compress(src, offset, length, scratch, HEADER_SIZE, table);
+		writeIntBE(length, scratch, 0);
+		if (compressed < length) {
+			writeIntBE(compressed, scratch, 4);
+			return HEADER_SIZE + compressed;
+		}
+		writeIntBE(STORED | length, scratch, 4);
+		return HEADER_SIZE + length;
+	}
+
+	/**
+	 * Writes a big-endian integer.
+	 * @param value  The integer.
+	 * @param bytes  The array.
+	 * @param index  The index of the first byte.
+	 */
+	static void writeIntBE(final int value, final byte[] bytes, final int index) {
+		bytes[index] = (byte) (value >>> 24);
+		bytes[index + 1] = (byte) (value >>> 16);
+		bytes[index + 2] = (byte) (value >>> 8);
+		bytes[index + 3] = (byte) value;
+	}
+
+	/**
+	 * Reads a big-endian integer.
+	 * @param bytes  The array.
+	 * @param index  The index of the first byte.
+	 * @return  The integer.
+	 */
+	static int readIntBE(final byte[] bytes, final int index) {
+		return (bytes[index] & 0xFF) << 24 | (bytes[index + 1] & 0xFF) << 16
+				| (bytes[index + 2] & 0xFF) << 8 | (bytes[index + 3] & 0xFF);
+	}
+
+	/**
+	 * Checks the header of a framed block.
+	 * @param rawLength  The length of the content.
+	 * @param dataLength  The length of the block data, with the
+	 *   {@link #STORED} flag.
+	 * @throws IllegalArgumentException  If the lengths are invalid.
+	 */
+	static void checkHeader(final int rawLength, final int dataLength)
+			throws IllegalArgumentException {
+		final int n = dataLength & ~STORED;
+		if (rawLength <= 0 || rawLength > BLOCK_SIZE
+				|| ((dataLength & STORED) != 0 ? n != rawLength : n == 0 || n > maxCompressedLength(rawLength))) {
+			throw new IllegalArgumentException(String.format(
+					"malformed LZ4 block header (%d, %d)", rawLength, dataLength));
+		}
+	}
+
+	/**
+	 * Compresses a string into framed blocks.
+	 * @param string  The string to compress.
+	 * @return  The framed blocks and end mark, as a rope of one leaf per
+	 *   block.
+	 */
+	static ByteString compress(final ByteString string) {
+		final int length = string.length();
+		final List<ByteString> frames = new ArrayList<ByteString>(length / BLOCK_SIZE + 2);
+		final byte[] scratch = new byte[HEADER_SIZE + maxCompressedLength(BLOCK_SIZE)];
+		final byte[] block = new byte[Math.min(length, BLOCK_SIZE)];
+		final int[] table = new int[TABLE_SIZE];
+		for (int begin = 0; begin < length; begin += BLOCK_SIZE) {
+			final int n = Math.min(BLOCK_SIZE, length - begin);
+			final BlockVisitor visitor = new BlockVisitor(block, scratch, table);
+			Utils.visitArrays(string, begin, begin + n, visitor);
+			frames.add(visitor.frame(n));
+		}
+		frames.add(new ArrayByteString(new byte[END_MARK_SIZE]));
+		return RopeByteString.concat(frames);
+	}
+
+	/**
+	 * Collects the content of a block from the segments of a string,
+	 * compressing it straight from the string's own array when the block
+	 * lies in a single segment.
+	 */
+	private static final class BlockVisitor implements ArraySegmentVisitor {
+		private final byte[] block;
+		private final byte[] scratch;
+		private final int[] table;
+		private int filled;
+		/** The framed block, if compressed directly from a segment. */
+		private ByteString frame;
+
+		BlockVisitor(final byte[] block, final byte[] scratch, final int[] table) {
+			this.block = block;
+			this.scratch = scratch;
+			this.table = table;
+		}
+
+		/** {@inheritDoc} */
+		public boolean visit(final byte[] array, final int offset, final int length) {
+			if (filled == 0 && frame == null && length == block.length) {
+				// the segment is only valid during this call
+				frame = copyFrame(array, offset, length);
+				return true;
+			}
+			System.arraycopy(array, offset, block, filled, length);
+			filled += length;
+			return true;
+		}
+
+		/**
+		 * Frames the block visited.
+		 * @param length  The length of the block.
+		 * @return  The framed block.
+		 */
+		ByteString frame(final int length) {
+			return frame != null ? frame : copyFrame(block, 0, length);
+		}
+
+		private ByteString copyFrame(final byte[] array, final int offset, final int length) {
+			final int n = Lz4.frame(array, offset, length, scratch, table);
+			final byte[] bytes = new byte[n];
+			if (n == HEADER_SIZE + length && (readIntBE(scratch, 4) & STORED) != 0) {
+				System.arraycopy(scratch, 0, bytes, 0, HEADER_SIZE);
+				System.arraycopy(array, offset, bytes, HEADER_SIZE, length);
+			} else {
+				System.arraycopy(scratch, 0, bytes, 0, n);
+			}
+			return new ArrayByteString(bytes);
+		}
+	}
+
+	/**
+	 * Decompresses framed blocks.
+	 * @param frames  The framed blocks and end mark.
+	 * @return  The content, as a rope of one leaf per block.
+	 * @throws IllegalArgumentException  If {@code frames} is malformed or
+	 *   has content after the end mark.
+	 */
+	static ByteString decompress(final ByteString frames) throws IllegalArgumentException {
+		final int length = frames.length();
+		final List<ByteString> blocks = new ArrayList<ByteString>();
+		final byte[] header = new byte[HEADER_SIZE];
+		byte[] data = null;
+		int position = 0;
+		while (true) {
+			if (length - position < END_MARK_SIZE) {
+				throw new IllegalArgumentException("LZ4 frames are truncated");
+			}
+			Utils.copyRange(frames, position, header, 0, END_MARK_SIZE);
+			final int rawLength = readIntBE(header, 0);
+			if (rawLength == 0) {
+				position += END_MARK_SIZE;
+				break;
+			} else if (length - position < HEADER_SIZE) {
+				throw new IllegalArgumentException("LZ4 frames are truncated");
+			}
+			Utils.copyRange(frames, position + 4, header, 4, 4);
+			final int dataLength = readIntBE(header, 4);
+			checkHeader(rawLength, dataLength);
+			final int n = dataLength & ~STORED;
+			position += HEADER_SIZE;
+			if (length - position < n) {
+				throw new IllegalArgumentException("LZ4 frames are truncated");
+			}
+			final byte[] bytes = new byte[rawLength];
+			if ((dataLength & STORED) != 0) {
+				Utils.copyRange(frames, position, bytes, 0, n);
+			} else {
+				if (data == null) {
+					data = new byte[maxCompressedLength(BLOCK_SIZE)];
+				}
+				Utils.copyRange(frames, position, data, 0, n);
+				decompress(data, 0, n, bytes, 0, rawLength);
+			}
+			blocks.add(new ArrayByteString(bytes));
+			position += n;
+		}
+		if (position != length) {
+			throw new IllegalArgumentException(String.format(
+					"%d bytes follow the LZ4 end mark", length - position));
+		}
+		return blocks.isEmpty() ? Utils.EMPTY_STRING : RopeByteString.concat(blocks);
+	}
+}
@@ -0,0 +1,141 @@
+package com.kbolino.libraries.bytestring;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An {@link InputStream} which decompresses {@linkplain Lz4 LZ4 frames}
+ * read from another stream, one block at a time.  The stream ends at the
+ * end mark, after which nothing more is read from the underlying stream.
+ * @see ByteStrings#newLz4InputStream(InputStream)
+ */
+final class Lz4InputStream extends InputStream {
+	private final InputStream in;
+	private final byte[] header = new byte[Lz4.HEADER_SIZE];
+	private final byte[] data = new byte[Lz4.maxCompressedLength(Lz4.BLOCK_SIZE)];
+	private final byte[] block = new byte[Lz4.BLOCK_SIZE];
+	/** The index in {@link #block} of the next byte to read. */
+	private int position;
+	/** The number of bytes in {@link #block}. */
+	private int filled;
+	/** Whether the end mark has been read. */
+	private boolean finished;
+	private boolean closed;
+
+	/**
+	 * Creates a new {@link Lz4InputStream}.  Constructor preconditions:
+	 * <ol>
+	 *   <li>{@code in != null}</li>
+	 * </ol>
+	 * @param in  The stream holding the frames.
+	 */
+	Lz4InputStream(final InputStream in) {
+		super();
+		this.in = in;
+	}
+
+	/**
+	 * Reads exactly as many bytes as requested from the underlying stream.
+	 * @param bytes  The array to receive the bytes.
+	 * @param offset  The index of the first byte.
+	 * @param length  The number of bytes to read.
+	 * @throws EOFException  If the underlying stream ends first.
+	 * @throws IOException  If the underlying stream fails.
+	 */
+	private void readFully(final byte[] bytes, final int offset, final int length) throws IOException {
+		int done = 0;
+		while (done < length) {
+			final int n = in.read(bytes, offset + done, length - done);
+			if (n < 0) {
+				throw new EOFException("LZ4 frames are truncated");
+			}
+			done += n;
+		}
+	}
+
+	/**
+	 * Reads and decompresses the next block, unless the end mark has been
+	 * reached.
+	 * @return  False if the end mark has been reached, or true otherwise.
+	 * @throws IOException  If the frames are malformed or truncated, or if
+	 *   the underlying stream fails.
+	 */
+	private boolean nextBlock() throws IOException {
+		if (closed) {
+			throw new IOException("stream is closed");
+		}
+		while (position == filled) {
+			if (finished) {
+				return false;
+			}
+			readFully(header, 0, Lz4.END_MARK_SIZE);
+			final int rawLength = Lz4.readIntBE(header, 0);
+			if (rawLength == 0) {
+				finished = true;
+				return false;
+			}
+			readFully(header, 4, 4);
+			final int dataLength = Lz4.readIntBE(header, 4);
+			try {
+				Lz4.checkHeader(rawLength, dataLength);
+				if ((dataLength & Lz4.STORED) != 0) {
+					readFully(block, 0, rawLength);
+				} else {
+					readFully(data, 0, dataLength);
+					Lz4.decompress(data, 0, dataLength, block, 0, rawLength);
+				}
+			} catch (final IllegalArgumentException ex) {
+				throw (IOException) new IOException(ex.getMessage()).initCause(ex);
+			}
+			position = 0;
+			filled = rawLength;
+		}
+		return true;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int read() throws IOException {
+		return nextBlock() ? block[position++] & Utils.UNSIGNED_MAX : -1;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int read(final byte[] bytes, final int offset, final int length)
+			throws NullPointerException, IndexOutOfBoundsException, IOException {
+		if (bytes == null) {
+			throw new NullPointerException("bytes is null");
+		} else if (offset < 0 || length < 0 || length > bytes.length - offset) {
+			throw new IndexOutOfBoundsException(String.format(
+					"offset (%d) and length (%d) do not fit bytes.length (%d)",
+					offset, length, bytes.length));
+		} else if (length == 0) {
+			return 0;
+		} else if (!nextBlock()) {
+			return -1;
+		}
+		final int n = Math.min(length, filled - position);
+		System.arraycopy(block, position, bytes, offset, n);
+		position += n;
+		return n;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>This is the number of bytes left in the current block.
+	 */
+	@Override
+	public int available() {
+		return filled - position;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void close() throws IOException {
+		if (!closed) {
+			closed = true;
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,145 @@
+package com.kbolino.libraries.bytestring;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An {@link OutputStream} which compresses its output into
+ * {@linkplain Lz4 LZ4 frames} written to another stream.  Output is
+ * collected into blocks of {@link Lz4#BLOCK_SIZE} bytes, each written as
+ * soon as it is full; {@link #flush()} also writes a partial block, so
+ * flushing often reduces the compression ratio.  {@link #close()} writes
+ * the end mark.
+ * @see ByteStrings#newLz4OutputStream(OutputStream)
+ */
+final class Lz4OutputStream extends OutputStream {
+	private final OutputStream out;
+	private final byte[] block = new byte[Lz4.BLOCK_SIZE];
+	private final byte[] scratch = new byte[Lz4.HEADER_SIZE + Lz4.maxCompressedLength(Lz4.BLOCK_SIZE)];
+	private final int[] table = new int[Lz4.TABLE_SIZE];
+	/** The number of bytes in {@link #block}. */
+	private int filled;
+	private boolean closed;
+
+	/**
+	 * Creates a new {@link Lz4OutputStream}.  Constructor preconditions:
+	 * <ol>
+	 *   <li>{@code out != null}</li>
+	 * </ol>
+	 * @param out  The stream to receive the frames.
+	 */
+	Lz4OutputStream(final OutputStream out) {
+		super();
+		this.out = out;
+	}
+
+	/**
+	 * Checks that this stream is open.
+	 * @throws IOException  If this stream has been closed.
+	 */
+	private void checkOpen() throws IOException {
+		if (closed) {
+			throw new IOException("stream is closed");
+		}
+	}
+
+	/**
+	 * Compresses a block and writes it to the underlying stream.
+	 * @param src  The array holding the content.
+	 * @param offset  The index of the first byte.
+	 * @param length  The length of the block, from 1 to
+	 *   {@link Lz4#BLOCK_SIZE}.
+	 * @throws IOException  If the underlying stream fails.
+	 */
+	private void writeBlock(final byte[] src, final int offset, final int length) throws IOException {
+		final int n = Lz4.frame(src, offset, length, scratch, table);
+		if ((Lz4.readIntBE(scratch, 4) & Lz4.STORED) != 0) {
+			out.write(scratch, 0, Lz4.HEADER_SIZE);
+			out.write(src, offset, length);
+		} else {
+			out.write(scratch, 0, n);
+		}
+	}
+
+	/**
+	 * Writes the pending partial block, if any.
+	 * @throws IOException  If the underlying stream fails.
+	 */
+	private void writePending() throws IOException {
+		if (filled > 0) {
+			writeBlock(block, 0, filled);
+			filled = 0;
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void write(final int value) throws IOException {
+		checkOpen();
+		block[filled++] = (byte) value;
+		if (filled == block.length) {
+			writePending();
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void write(final byte[] bytes, int offset, int length)
+			throws NullPointerException, IndexOutOfBoundsException, IOException {
+		if (bytes == null) {
+			throw new NullPointerException("bytes is null");
+		} else if (offset < 0 || length < 0 || length > bytes.length - offset) {
+			throw new IndexOutOfBoundsException(String.format(
+					"offset (%d) and length (%d) do not fit bytes.length (%d)",
+					offset, length, bytes.length));
+		}
+		checkOpen();
+		while (length > 0) {
+			if (filled == 0 && length >= block.length) {
+				// compress whole blocks straight from the caller's array
+				writeBlock(bytes, offset, block.length);
+				offset += block.length;
+				length -= block.length;
+				continue;
+			}
+			final int n = Math.min(length, block.length - filled);
+			System.arraycopy(bytes, offset, block, filled, n);
+			filled += n;
+			offset += n;
+			length -= n;
+			if (filled == block.length) {
+				writePending();
+			}
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>The pending partial block is written first.
+	 */
+	@Override
+	public void flush() throws IOException {
+		checkOpen();
+		writePending();
+		out.flush();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>The pending partial block and the end mark are written before the
+	 * underlying stream is closed.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			writePending();
+			out.write(new byte[Lz4.END_MARK_SIZE]);
+		} finally {
+			out.close();
+		}
+	}
+}
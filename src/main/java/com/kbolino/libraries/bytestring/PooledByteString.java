@@ -0,0 +1,53 @@
+package com.kbolino.libraries.bytestring;
+
+/**
+ * A {@link ByteString} whose memory is borrowed from a
+ * {@link ByteStringArena} and returned to it when the string is no
+ * longer used.
+ *
+ * <p>A pooled string is reference-counted.  It is created with a count
+ * of 1; each holder which needs the string beyond the lifetime of the
+ * holder that gave it to them calls {@link #retain()}, and every holder
+ * calls {@link #release()} exactly once when done.  When the count
+ * reaches 0, the memory of the string is returned to the arena and may be
+ * reused for another string.  Any method which reads the content of a
+ * released string, including {@link #hashCode()}, throws
+ * {@link IllegalStateException}.
+ *
+ * <p>Until it is released, a pooled string is immutable like any other
+ * {@link ByteString}.  Its own substrings and {@linkplain #compact()
+ * compacted} copy are ordinary strings which do not borrow pooled memory
+ * and remain valid after it is released.  Strings which are built on it
+ * rather than copied from it, such as {@linkplain ByteStrings#rope(ByteString...)
+ * ropes}, {@linkplain ByteStrings#slice(ByteString, int) slices}, and
+ * {@linkplain ByteStrings#reverse(ByteString) reversed views}, borrow it:
+ * whoever holds such a string must {@link #retain()} the pooled string for
+ * as long as they use it, or else compact the composite string first.
+ * Buffers and arrays which expose its memory, such as
+ * {@link #toReadOnlyByteBuffer()}, are valid only until it is released.
+ * @see ByteStringArena
+ */
+public interface PooledByteString extends ByteString {
+	/**
+	 * Increments the reference count of this string.
+	 * @return  {@code this}
+	 * @throws IllegalStateException  If this string has been released.
+	 */
+	public PooledByteString retain() throws IllegalStateException;
+
+	/**
+	 * Decrements the reference count of this string, and returns its
+	 * memory to its arena if the count reaches 0.
+	 * @return  True if the count reached 0, or false otherwise.
+	 * @throws IllegalStateException  If this string has already been
+	 *   released.
+	 */
+	public boolean release() throws IllegalStateException;
+
+	/**
+	 * The reference count of this string.
+	 * @return  The number of holders which have yet to release this
+	 *   string, or 0 if it has been released.
+	 */
+	public int refCount();
+}
@@ -36,6 +36,16 @@ class RangeByteString extends AbstractByteString {
 		return (byte)(lower + index);
 	}
 	
+	/** {@inheritDoc} */
+	@Override
+	protected void copyRange(final int beginIndex, final byte[] bytes, final int offset,
+			final int length) {
+		final int first = lower + beginIndex;
+		for (int i = 0; i < length; i++) {
+			bytes[offset + i] = (byte)(first + i);
+		}
+	}
+	
 	/** {@inheritDoc} */
 	@Override
 	public int indexOf(int value, int fromIndex)
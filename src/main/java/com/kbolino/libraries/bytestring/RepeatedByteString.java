@@ -1,5 +1,8 @@
 package com.kbolino.libraries.bytestring;
 
+import java.nio.ByteBuffer;
+import java.util.List;
+
 /**
  * A {@link ByteString} formed by repeating another string.
  */
@@ -34,14 +37,114 @@ class RepeatedByteString extends AbstractByteString {
 		return string.at(index % string.length());
 	}
 	
+	/** {@inheritDoc} */
+	@Override
+	public ByteString compact() {
+		final ByteString compacted = string.compact();
+		return compacted == string ? this : new RepeatedByteString(compacted, times);
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	protected void copyRange(final int beginIndex, final byte[] bytes, final int offset,
+			final int length) {
+		if (length == 0) {
+			// an empty repeated string has no index to reduce
+			return;
+		}
+		final int strLen = string.length();
+		int copied = 0;
+		int index = beginIndex % strLen;
+		while (copied < length) {
+			final int n = Math.min(strLen - index, length - copied);
+			Utils.copyRange(string, index, bytes, offset + copied, n);
+			copied += n;
+			index = 0;
+		}
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	boolean visitArrays(final int beginIndex, final int endIndex, final ArraySegmentVisitor visitor) {
+		if (beginIndex == endIndex) {
+			return true;
+		}
+		final int strLen = string.length();
+		int index = beginIndex % strLen;
+		for (int i = beginIndex; i < endIndex; ) {
+			final int n = Math.min(strLen - index, endIndex - i);
+			if (!Utils.visitArrays(string, index, index + n, visitor)) {
+				return false;
+			}
+			i += n;
+			index = 0;
+		}
+		return true;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * <p>The buffers of a repeated string long enough to be worth sharing
+	 * are shared by every repetition.  A shorter string is copied once
+	 * into a tile of whole repetitions at least {@link Utils#CHUNK_SIZE}
+	 * bytes long, which is then shared instead, so that the buffers never
+	 * hold more than one tile of copied bytes.
+	 */
+	@Override
+	void addBuffers(final int beginIndex, final int endIndex, final List<ByteBuffer> buffers) {
+		final int strLen = string.length();
+		if (beginIndex == endIndex) {
+			return;
+		} else if (strLen >= Utils.CHUNK_SIZE) {
+			int index = beginIndex % strLen;
+			for (int i = beginIndex; i < endIndex; ) {
+				final int n = Math.min(strLen - index, endIndex - i);
+				Utils.addBuffers(string, index, index + n, buffers);
+				i += n;
+				index = 0;
+			}
+			return;
+		} else if (endIndex - beginIndex <= Utils.CHUNK_SIZE) {
+			super.addBuffers(beginIndex, endIndex, buffers);
+			return;
+		}
+		final int repeats = (Utils.CHUNK_SIZE + strLen - 1) / strLen;
+		final byte[] tile = new byte[repeats * strLen];
+		copyRange(0, tile, 0, tile.length);
+		final ByteBuffer tileBuffer = ByteBuffer.wrap(tile).asReadOnlyBuffer();
+		int index = beginIndex % tile.length;
+		for (int i = beginIndex; i < endIndex; ) {
+			final int n = Math.min(tile.length - index, endIndex - i);
+			final ByteBuffer buffer = tileBuffer.duplicate();
+			buffer.limit(index + n).position(index);
+			buffers.add(buffer.slice());
+			i += n;
+			index = 0;
+		}
+	}
+	
 	/** {@inheritDoc} */
 	@Override
 	public int indexOf(int value, int fromIndex)
 			throws IllegalArgumentException, IndexOutOfBoundsException {
 		checkIndexOf(value, fromIndex);
-		final int shifts = fromIndex / string.length();
-		final int shifted = fromIndex % string.length();
-		return string.indexOf(value, shifted) + shifts * string.length();
+		final int strLen = string.length();
+		if (strLen == 0) {
+			return -1;
+		}
+		final int shifts = fromIndex / strLen;
+		final int shifted = fromIndex % strLen;
+		int index = string.indexOf(value, shifted);
+		if (index >= 0) {
+			return index + shifts * strLen;
+		} else if (shifts + 1 < times) {
+			// every later repetition is the same, so only the next one is searched
+			index = string.indexOf(value);
+			if (index >= 0) {
+				return index + (shifts + 1) * strLen;
+			}
+		}
+		return -1;
 	}
 
 }
@@ -2,7 +2,156 @@ package com.kbolino.libraries.bytestring;
 
 /**
  * A wrapper around a {@link ByteString} in reverse order.
+ * The wrapper is a view, which copies nothing until its bytes are read;
+ * bulk reads reverse the segments of the underlying string one at a time,
+ * and searches run backwards over the underlying string.
+ * @see ByteStrings#reverse(ByteString)
  */
-class ReversedByteString {
-	// TODO
+final class ReversedByteString extends AbstractByteString {
+	private final ByteString delegate;
+	private final int length;
+
+	/**
+	 * Creates a new {@link ReversedByteString}.  Constructor
+	 * preconditions:
+	 * <ol>
+	 *   <li>{@code delegate != null}</li>
+	 * </ol>
+	 * @param delegate  The string to reverse.
+	 */
+	ReversedByteString(final ByteString delegate) {
+		super();
+		this.delegate = delegate;
+		this.length = delegate.length();
+	}
+
+	/**
+	 * The string which this string reverses.
+	 * @return  The underlying string.
+	 */
+	ByteString delegate() {
+		return delegate;
+	}
+
+	/** {@inheritDoc} */
+	public int length() {
+		return length;
+	}
+
+	/** {@inheritDoc} */
+	public byte at(final int index) throws IllegalArgumentException, IndexOutOfBoundsException {
+		checkAt(index);
+		return delegate.at(length - 1 - index);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	protected void copyRange(final int beginIndex, final byte[] bytes, final int offset,
+			final int length) {
+		// the segments of the underlying range are written from the end backwards
+		Utils.visitArrays(delegate, this.length - beginIndex - length, this.length - beginIndex,
+				new ArraySegmentVisitor() {
+					private int position = offset + length;
+
+					public boolean visit(final byte[] array, final int from, final int n) {
+						int j = position - 1;
+						for (int i = from, end = from + n; i < end; i++, j--) {
+							bytes[j] = array[i];
+						}
+						position -= n;
+						return true;
+					}
+				});
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>The substring reverses the corresponding substring of the
+	 * underlying string.
+	 */
+	@Override
+	public ByteString subString(final int beginIndex, final int endIndex)
+			throws IllegalArgumentException, IndexOutOfBoundsException {
+		checkSubString(beginIndex, endIndex);
+		if (beginIndex == endIndex) {
+			return Utils.EMPTY_STRING;
+		} else if (endIndex - beginIndex == length) {
+			return this;
+		}
+		return new ReversedByteString(delegate.subString(length - endIndex, length - beginIndex));
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public ByteString compact() {
+		final ByteString compacted = delegate.compact();
+		return compacted == delegate ? this : new ReversedByteString(compacted);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int indexOf(final int value, final int fromIndex)
+			throws IllegalArgumentException, IndexOutOfBoundsException {
+		checkIndexOf(value, fromIndex);
+		if (length == 0) {
+			return -1;
+		}
+		final int index = delegate.lastIndexOf(value, length - 1 - fromIndex);
+		return index < 0 ? -1 : length - 1 - index;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int lastIndexOf(final int value, final int fromIndex)
+			throws IllegalArgumentException, IndexOutOfBoundsException {
+		checkIndexOf(value, fromIndex);
+		if (length == 0) {
+			return -1;
+		}
+		final int index = delegate.indexOf(value, length - 1 - fromIndex);
+		return index < 0 ? -1 : length - 1 - index;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int indexOf(final ByteString string, final int fromIndex) {
+		if (string == null) {
+			throw new NullPointerException("string is null");
+		}
+		checkIndexOf(fromIndex);
+		final int m = string.length();
+		final int start = length - fromIndex - m;
+		if (m == 0) {
+			return fromIndex;
+		} else if (start < 0) {
+			return -1;
+		}
+		// an occurrence at i is one of the reversed string at length - i - m below
+		final int index = delegate.lastIndexOf(ByteStrings.reverse(string), start);
+		return index < 0 ? -1 : length - index - m;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int lastIndexOf(final ByteString string, final int fromIndex) {
+		if (string == null) {
+			throw new NullPointerException("string is null");
+		}
+		checkIndexOf(fromIndex);
+		final int m = string.length();
+		final int start = Math.min(fromIndex, length - m);
+		if (m == 0) {
+			return fromIndex;
+		} else if (start < 0) {
+			return -1;
+		}
+		final int index = delegate.indexOf(ByteStrings.reverse(string), length - start - m);
+		return index < 0 ? -1 : length - index - m;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int count(final int value) throws IllegalArgumentException {
+		return delegate.count(value);
+	}
 }
@@ -3,67 +3,371 @@ package com.kbolino.libraries.bytestring;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.ReadOnlyBufferException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
 /**
  * A rope is a {@link ByteString} made of other strings.
+ * The strings are the leaves of a binary concatenation tree, which is kept
+ * balanced in the manner of Boehm, Atkinson, and Plass: a tree of depth
+ * {@code d} must be at least as long as the {@code (d+1)}th Fibonacci
+ * number, and a tree which would violate this is rebuilt.  The depth of a
+ * rope is thus logarithmic in its length, so concatenation, indexing, and
+ * substrings all take O(log n) time.
  */
 final class RopeByteString extends AbstractByteString {
 	// TODO serialization?
-	private final ByteString[] strings;
-	private final transient int[] offsets;
+	/**
+	 * Strings shorter than this are copied together rather than roped,
+	 * so that building a rope a few bytes at a time does not create a
+	 * leaf per piece.
+	 */
+	static final int LEAF_THRESHOLD = 128;
+
+	/**
+	 * The minimum length of a balanced tree of each depth: the Fibonacci
+	 * numbers, ending with {@link Integer#MAX_VALUE} since no longer string
+	 * exists.
+	 */
+	private static final int[] MIN_LENGTH_BY_DEPTH;
+	static {
+		final List<Integer> lengths = new ArrayList<Integer>();
+		int f1 = 1;
+		int f2 = 1;
+		while (f2 > 0) {
+			lengths.add(f1);
+			final int f3 = f1 + f2;
+			f1 = f2;
+			f2 = f3;
+		}
+		lengths.add(Integer.MAX_VALUE);
+		MIN_LENGTH_BY_DEPTH = new int[lengths.size()];
+		for (int i = 0; i < MIN_LENGTH_BY_DEPTH.length; i++) {
+			MIN_LENGTH_BY_DEPTH[i] = lengths.get(i);
+		}
+	}
+
+	private final ByteString left;
+	private final ByteString right;
+	private final transient int leftLength;
 	private final transient int length;
-	
+	private final transient int depth;
+	/**
+	 * The leaf holding the most recently accessed byte, so that sequential
+	 * and nearby accesses need not walk the tree.  The field is neither
+	 * final nor volatile; since {@link Finger} is immutable, a thread sees
+	 * either null or a valid finger, and at worst walks the tree again.
+	 */
+	private transient Finger finger;
 	/**
-	 * Creates a new {@code RopeByteString}.  Constructor preconditions:
+	 * The first index of the leaf found by the last walk of the tree, or
+	 * {@code -1}.  A finger is only created when two walks in a row find
+	 * the same leaf, so that random access does not allocate.
+	 */
+	private transient int lastWalk = -1;
+
+	/**
+	 * Concatenates two strings into a rope, rebalancing if necessary.
+	 * Preconditions:
+	 * <ol>
+	 *   <li>{@code left != null}</li>
+	 *   <li>{@code right != null}</li>
+	 * </ol>
+	 * @param left  The first string.
+	 * @param right  The second string.
+	 * @return  A {@link ByteString} equal to {@code left + right}, which is
+	 *   not necessarily a rope.
+	 * @throws IllegalArgumentException  If the combined length exceeds
+	 *   {@link Integer#MAX_VALUE}.
+	 */
+	static ByteString concat(final ByteString left, final ByteString right)
+			throws IllegalArgumentException {
+		if (left.isEmpty()) {
+			return right;
+		} else if (right.isEmpty()) {
+			return left;
+		}
+		final long combined = (long) left.length() + right.length();
+		if (combined > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException(String.format("combined length (%d) > %d",
+					combined, Integer.MAX_VALUE));
+		} else if (combined < LEAF_THRESHOLD) {
+			return ArrayByteString.concat(left, right);
+		}
+		if (right.length() < LEAF_THRESHOLD && lastLeaf(left).length() + right.length() < LEAF_THRESHOLD) {
+			return appendToLastLeaf(left, right);
+		} else if (left.length() < LEAF_THRESHOLD && firstLeaf(right).length() + left.length() < LEAF_THRESHOLD) {
+			return prependToFirstLeaf(left, right);
+		}
+		if (left instanceof RopeByteString) {
+			final RopeByteString rope = (RopeByteString) left;
+			if (depth(rope.left) > depth(rope.right) && rope.depth > depth(right)) {
+				// appending to a left-heavy tree: rotate rather than deepen it
+				return join(rope.left, concat(rope.right, right));
+			}
+		}
+		if (right instanceof RopeByteString) {
+			final RopeByteString rope = (RopeByteString) right;
+			if (depth(rope.right) > depth(rope.left) && rope.depth > depth(left)) {
+				// prepending to a right-heavy tree
+				return join(concat(left, rope.left), rope.right);
+			}
+		}
+		return join(left, right);
+	}
+
+	/**
+	 * Concatenates two strings into a rope, rebalancing it if it is too
+	 * deep for its length.
+	 * @param left  The first string.
+	 * @param right  The second string.
+	 * @return  A balanced tree equal to {@code left + right}.
+	 */
+	private static ByteString join(final ByteString left, final ByteString right) {
+		final int newDepth = Math.max(depth(left), depth(right)) + 1;
+		if (isBalanced(left.length() + right.length(), newDepth)) {
+			return new RopeByteString(left, right);
+		}
+		return new Balancer().balance(left, right);
+	}
+
+	/**
+	 * Concatenates several strings into a rope balanced by the number of
+	 * strings.  Adjacent short strings are copied together.
+	 * Preconditions:
 	 * <ol>
 	 *   <li>{@code strings != null}</li>
-	 *   <li>{@code strings.length > 0}</li>
-	 *   <li>No element of {@code strings} is null or itself a {@link 
-	 *     RopeByteString}</li>
-	 *   <li>{@code strings} is not accessible to other classes</li>
+	 *   <li>No element of {@code strings} is null</li>
 	 * </ol>
-	 * @param strings  The strings.
+	 * @param strings  The strings, in order.
+	 * @return  A {@link ByteString} equal to the concatenation of
+	 *   {@code strings}, which is not necessarily a rope.
+	 * @throws IllegalArgumentException  If the combined length exceeds
+	 *   {@link Integer#MAX_VALUE}.
 	 */
-	RopeByteString(final ByteString[] strings) {
-		this.strings = strings;
-		int length = 0;
-		offsets = new int[strings.length];
-		for (int i = 0; i < strings.length; i++) {
-			offsets[i] = length;
-			length += strings[i].length();
+	static ByteString concat(final List<ByteString> strings) throws IllegalArgumentException {
+		final List<ByteString> pieces = new ArrayList<ByteString>(strings.size());
+		long combined = 0;
+		for (final ByteString string : strings) {
+			if (string.isEmpty()) {
+				continue;
+			}
+			combined += string.length();
+			final int last = pieces.size() - 1;
+			if (last >= 0 && pieces.get(last).length() + string.length() < LEAF_THRESHOLD) {
+				pieces.set(last, ArrayByteString.concat(pieces.get(last), string));
+			} else {
+				pieces.add(string);
+			}
+		}
+		if (combined > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException(String.format("combined length (%d) > %d",
+					combined, Integer.MAX_VALUE));
+		} else if (pieces.isEmpty()) {
+			return Utils.EMPTY_STRING;
+		} else if (pieces.size() == 1) {
+			return pieces.get(0);
 		}
-		this.length = length;
+		final RopeByteString rope = new RopeByteString(pieces.toArray(new ByteString[pieces.size()]));
+		return isBalanced(rope.length, rope.depth) ? rope : new Balancer().balance(rope);
 	}
-	
+
 	/**
-	 * Which string is holding a byte?
-	 * @param index  The index of the byte.
-	 * @return  The index of the string in {@code this.strings}.
+	 * The last leaf of a tree.
+	 * @param string  The tree.
+	 * @return  The rightmost string which is not a rope.
 	 */
-	private int whichString(final int index) {
-		final int i = Arrays.binarySearch(offsets, index);
-		if (i < 0) {
-			return -i - 2;
-		} else {
-			return i;
+	private static ByteString lastLeaf(ByteString string) {
+		while (string instanceof RopeByteString) {
+			string = ((RopeByteString) string).right;
 		}
+		return string;
+	}
+
+	/**
+	 * The first leaf of a tree.
+	 * @param string  The tree.
+	 * @return  The leftmost string which is not a rope.
+	 */
+	private static ByteString firstLeaf(ByteString string) {
+		while (string instanceof RopeByteString) {
+			string = ((RopeByteString) string).left;
+		}
+		return string;
+	}
+
+	/**
+	 * Copies a short string onto the end of the last leaf of a tree,
+	 * keeping the shape of the tree.
+	 * @param tree  The tree.
+	 * @param suffix  The string to append.
+	 * @return  A tree equal to {@code tree + suffix}.
+	 */
+	private static ByteString appendToLastLeaf(final ByteString tree, final ByteString suffix) {
+		if (tree instanceof RopeByteString) {
+			final RopeByteString rope = (RopeByteString) tree;
+			return new RopeByteString(rope.left, appendToLastLeaf(rope.right, suffix));
+		}
+		return ArrayByteString.concat(tree, suffix);
+	}
+
+	/**
+	 * Copies a short string onto the start of the first leaf of a tree,
+	 * keeping the shape of the tree.
+	 * @param prefix  The string to prepend.
+	 * @param tree  The tree.
+	 * @return  A tree equal to {@code prefix + tree}.
+	 */
+	private static ByteString prependToFirstLeaf(final ByteString prefix, final ByteString tree) {
+		if (tree instanceof RopeByteString) {
+			final RopeByteString rope = (RopeByteString) tree;
+			return new RopeByteString(prependToFirstLeaf(prefix, rope.left), rope.right);
+		}
+		return ArrayByteString.concat(prefix, tree);
+	}
+
+	/**
+	 * Is a tree balanced?
+	 * @param length  The length of the tree.
+	 * @param depth  The depth of the tree.
+	 * @return  True if the tree is long enough for its depth.
+	 */
+	private static boolean isBalanced(final int length, final int depth) {
+		return depth < MIN_LENGTH_BY_DEPTH.length && length >= MIN_LENGTH_BY_DEPTH[depth];
+	}
+
+	/**
+	 * The depth of a string's concatenation tree.
+	 * @param string  The string.
+	 * @return  The depth of {@code string} if it is a rope, or 0 if it is
+	 *   a leaf.
+	 */
+	private static int depth(final ByteString string) {
+		return string instanceof RopeByteString ? ((RopeByteString) string).depth : 0;
+	}
+
+	/**
+	 * Builds a balanced tree over a range of strings.
+	 * @param strings  The strings.
+	 * @param from  The first index, inclusive.
+	 * @param to  The last index, exclusive; greater than {@code from}.
+	 * @return  The only string if the range has one, or else a rope of
+	 *   the strings in the range.
+	 */
+	private static ByteString balanced(final ByteString[] strings, final int from, final int to) {
+		if (to - from == 1) {
+			return strings[from];
+		}
+		final int mid = (from + to) >>> 1;
+		return new RopeByteString(balanced(strings, from, mid), balanced(strings, mid, to));
+	}
+
+	/**
+	 * Creates a new {@code RopeByteString} of several strings.
+	 * Constructor preconditions:
+	 * <ol>
+	 *   <li>{@code strings != null}</li>
+	 *   <li>{@code strings.length >= 2}</li>
+	 *   <li>No element of {@code strings} is null</li>
+	 *   <li>Preferably, no element of {@code strings} is empty</li>
+	 * </ol>
+	 * @param strings  The strings, in order.
+	 */
+	RopeByteString(final ByteString[] strings) {
+		this(balanced(strings, 0, strings.length >>> 1),
+				balanced(strings, strings.length >>> 1, strings.length));
+	}
+
+	/**
+	 * Creates a new {@code RopeByteString} of two strings.
+	 * Constructor preconditions:
+	 * <ol>
+	 *   <li>{@code left != null}</li>
+	 *   <li>{@code right != null}</li>
+	 *   <li>{@code left.length() + right.length() <= Integer.MAX_VALUE}</li>
+	 * </ol>
+	 * @param left  The first string.
+	 * @param right  The second string.
+	 */
+	private RopeByteString(final ByteString left, final ByteString right) {
+		this.left = left;
+		this.right = right;
+		leftLength = left.length();
+		length = leftLength + right.length();
+		depth = Math.max(depth(left), depth(right)) + 1;
 	}
 
 	/** {@inheritDoc} */
 	public int length() {
 		return length;
 	}
-	
+
 	/** {@inheritDoc} */
-	public byte at(int index) throws IllegalArgumentException, IndexOutOfBoundsException {
+	public byte at(final int index) throws IllegalArgumentException, IndexOutOfBoundsException {
 		checkAt(index);
-		int s = whichString(index);
-		return strings[s].at(index - offsets[s]);
+		final Finger finger = this.finger;
+		if (finger != null && index >= finger.beginIndex && index < finger.endIndex) {
+			return finger.leaf.at(index - finger.beginIndex);
+		}
+		int beginIndex = 0;
+		ByteString string = this;
+		while (string instanceof RopeByteString) {
+			final RopeByteString rope = (RopeByteString) string;
+			if (index - beginIndex < rope.leftLength) {
+				string = rope.left;
+			} else {
+				string = rope.right;
+				beginIndex += rope.leftLength;
+			}
+		}
+		if (lastWalk == beginIndex) {
+			this.finger = new Finger(string, beginIndex);
+		} else {
+			lastWalk = beginIndex;
+		}
+		return string.at(index - beginIndex);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	protected void copyRange(final int beginIndex, final byte[] bytes, final int offset,
+			final int length) {
+		final int endIndex = beginIndex + length;
+		if (beginIndex < leftLength) {
+			final int n = Math.min(endIndex, leftLength) - beginIndex;
+			Utils.copyRange(left, beginIndex, bytes, offset, n);
+			if (n < length) {
+				Utils.copyRange(right, 0, bytes, offset + n, length - n);
+			}
+		} else {
+			Utils.copyRange(right, beginIndex - leftLength, bytes, offset, length);
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	boolean visitArrays(final int beginIndex, final int endIndex, final ArraySegmentVisitor visitor) {
+		if (beginIndex < leftLength
+				&& !Utils.visitArrays(left, beginIndex, Math.min(endIndex, leftLength), visitor)) {
+			return false;
+		}
+		return endIndex <= leftLength || Utils.visitArrays(right,
+				Math.max(beginIndex - leftLength, 0), endIndex - leftLength, visitor);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	void addBuffers(final int beginIndex, final int endIndex, final List<ByteBuffer> buffers) {
+		if (beginIndex < leftLength) {
+			Utils.addBuffers(left, beginIndex, Math.min(endIndex, leftLength), buffers);
+		}
+		if (endIndex > leftLength) {
+			Utils.addBuffers(right, Math.max(beginIndex - leftLength, 0), endIndex - leftLength, buffers);
+		}
 	}
-	
+
 	/** {@inheritDoc} */
 	@Override
 	public ByteString subString(int beginIndex, int endIndex)
@@ -71,24 +375,29 @@ final class RopeByteString extends AbstractByteString {
 		checkSubString(beginIndex, endIndex);
 		if (endIndex == beginIndex) {
 			return Utils.EMPTY_STRING;
+		} else if (endIndex - beginIndex == length) {
+			return this;
+		} else if (endIndex <= leftLength) {
+			return left.subString(beginIndex, endIndex);
+		} else if (beginIndex >= leftLength) {
+			return right.subString(beginIndex - leftLength, endIndex - leftLength);
 		}
-		final int first = whichString(beginIndex);
-		final int last = whichString(endIndex - 1);
-		if (first == last) {
-			final int offset = offsets[first];
-			return strings[first].subString(beginIndex - offset, endIndex - offset);
-		} else {
-			final ByteString newFirst = strings[first].subString(beginIndex - offsets[first]);
-			final ByteString newLast = strings[last].subString(0, endIndex - offsets[last]);
-			final int numStrings = last - first + 1;
-			final ByteString[] newStrings = new ByteString[numStrings];
-			newStrings[0] = newFirst;
-			newStrings[numStrings - 1] = newLast;
-			for (int i = 1; i < numStrings - 1; i++) {
-				newStrings[i] = strings[i + first];
-			}
-			return new RopeByteString(newStrings);
-		}
+		// each side is no deeper than the corresponding side of this rope,
+		// but the substring may be too short for that depth
+		final ByteString newLeft = left.subString(beginIndex);
+		final ByteString newRight = right.subString(0, endIndex - leftLength);
+		return join(newLeft, newRight);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>A rope is compacted by compacting each of its strings.
+	 */
+	@Override
+	public ByteString compact() {
+		final ByteString newLeft = left.compact();
+		final ByteString newRight = right.compact();
+		return newLeft == left && newRight == right ? this : join(newLeft, newRight);
 	}
 
 	/** {@inheritDoc} */
@@ -97,37 +406,169 @@ final class RopeByteString extends AbstractByteString {
 			IndexOutOfBoundsException, BufferUnderflowException,
 			ReadOnlyBufferException {
 		checkCopyTo(buffer, length);
-		int lengthRemaining = length;
-		for (final ByteString string : strings) {
-			final int copyLen = Math.min(string.length(), lengthRemaining);
-			lengthRemaining -= string.copyTo(buffer, copyLen);
+		left.copyTo(buffer, Math.min(leftLength, length));
+		if (length > leftLength) {
+			right.copyTo(buffer, length - leftLength);
 		}
 		return length;
 	}
-	
+
 	/** {@inheritDoc} */
 	@Override
 	public int indexOf(int value, int fromIndex)
 			throws IllegalArgumentException, IndexOutOfBoundsException {
 		checkIndexOf(value, fromIndex);
-		final int s = whichString(fromIndex);
-		for (int i = s; i < strings.length; i++) {
-			final ByteString string = strings[i];
-			final int f = Math.max(fromIndex - offsets[i], 0);
-			final int index = string.indexOf(value, f);
+		if (fromIndex < leftLength) {
+			final int index = left.indexOf(value, fromIndex);
 			if (index >= 0) {
-				return index + offsets[i];
+				return index;
 			}
 		}
-		return -1;
+		final int index = right.indexOf(value, Math.max(fromIndex - leftLength, 0));
+		return index < 0 ? index : index + leftLength;
+	}
+
+	/**
+	 * The depth of this rope's concatenation tree.
+	 * @return  A positive integer, which is 1 if both children are leaves.
+	 */
+	int depth() {
+		return depth;
 	}
-	
+
 	/**
 	 * The strings in this rope.
-	 * @return  An immutable list of {@link ByteString}s composing this rope.
+	 * @return  An immutable list of the leaves of this rope, none of which
+	 *   is a {@link RopeByteString}, in order.
 	 */
 	public List<ByteString> strings() {
-		return Collections.unmodifiableList(Arrays.asList(strings));
+		final List<ByteString> strings = new ArrayList<ByteString>();
+		addLeaves(this, strings);
+		return Collections.unmodifiableList(strings);
+	}
+
+	private static void addLeaves(final ByteString string, final List<ByteString> leaves) {
+		if (string instanceof RopeByteString) {
+			final RopeByteString rope = (RopeByteString) string;
+			addLeaves(rope.left, leaves);
+			addLeaves(rope.right, leaves);
+		} else {
+			leaves.add(string);
+		}
+	}
+
+	/**
+	 * A leaf of a rope together with its position in the rope.
+	 */
+	private static final class Finger {
+		final ByteString leaf;
+		final int beginIndex;
+		final int endIndex;
+
+		Finger(final ByteString leaf, final int beginIndex) {
+			this.leaf = leaf;
+			this.beginIndex = beginIndex;
+			endIndex = beginIndex + leaf.length();
+		}
+	}
+
+	/**
+	 * Rebuilds unbalanced trees.
+	 * Balanced subtrees are kept intact and pushed onto a stack, ordered by
+	 * length, which is merged whenever a new subtree falls into the same
+	 * Fibonacci length bin as the one beneath it.
+	 */
+	private static final class Balancer {
+		private final List<ByteString> stack = new ArrayList<ByteString>();
+
+		ByteString balance(final ByteString left, final ByteString right) {
+			add(left);
+			add(right);
+			return merge();
+		}
+
+		ByteString balance(final ByteString tree) {
+			add(tree);
+			return merge();
+		}
+
+		private ByteString merge() {
+			ByteString result = pop();
+			while (!stack.isEmpty()) {
+				result = new RopeByteString(pop(), result);
+			}
+			if (result instanceof RopeByteString) {
+				final RopeByteString rope = (RopeByteString) result;
+				if (!isBalanced(rope.length, rope.depth)) {
+					// the subtrees kept intact were too deep to combine, so
+					// rebuild from the leaves; a tree balanced by count is
+					// always long enough for its depth
+					final List<ByteString> leaves = new ArrayList<ByteString>();
+					addLeaves(rope, leaves);
+					return new RopeByteString(leaves.toArray(new ByteString[leaves.size()]));
+				}
+			}
+			return result;
+		}
+
+		private void add(final ByteString string) {
+			if (string instanceof RopeByteString) {
+				final RopeByteString rope = (RopeByteString) string;
+				if (!isBalanced(rope.length, rope.depth)) {
+					add(rope.left);
+					add(rope.right);
+					return;
+				}
+			}
+			insert(string);
+		}
+
+		private void insert(final ByteString string) {
+			int bin = bin(string.length());
+			if (stack.isEmpty() || peek().length() >= MIN_LENGTH_BY_DEPTH[bin + 1]) {
+				stack.add(string);
+				return;
+			}
+			// merge everything shorter than this string's bin beneath it
+			final int binStart = MIN_LENGTH_BY_DEPTH[bin];
+			ByteString tree = pop();
+			while (!stack.isEmpty() && peek().length() < binStart) {
+				tree = new RopeByteString(pop(), tree);
+			}
+			tree = new RopeByteString(tree, string);
+			while (!stack.isEmpty()) {
+				bin = bin(tree.length());
+				if (peek().length() < MIN_LENGTH_BY_DEPTH[bin + 1]) {
+					tree = new RopeByteString(pop(), tree);
+				} else {
+					break;
+				}
+			}
+			stack.add(tree);
+		}
+
+		private ByteString peek() {
+			return stack.get(stack.size() - 1);
+		}
+
+		private ByteString pop() {
+			return stack.remove(stack.size() - 1);
+		}
+
+		/**
+		 * The Fibonacci bin holding a length.
+		 * @param length  A positive length.
+		 * @return  The greatest {@code d} with
+		 *   {@code MIN_LENGTH_BY_DEPTH[d] <= length}.
+		 */
+		private static int bin(final int length) {
+			int bin = Arrays.binarySearch(MIN_LENGTH_BY_DEPTH, length);
+			if (bin < 0) {
+				bin = -(bin + 1) - 1;
+			}
+			// the last bin has no upper bound
+			return Math.min(bin, MIN_LENGTH_BY_DEPTH.length - 2);
+		}
 	}
 
 }
@@ -0,0 +1,22 @@
+package com.kbolino.libraries.bytestring;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Receives the segments of a {@link ByteString}.
+ * A segment is a contiguous run of bytes as the string actually stores
+ * it: the children of a rope, a window of the string underlying a slice,
+ * and so on.  Strings which do not store their bytes (such as strings of a
+ * repeated constant) synthesize segments instead.
+ * @see ByteString#forEachSegment(SegmentVisitor)
+ */
+public interface SegmentVisitor {
+	/**
+	 * Visits a segment.
+	 * @param segment  A read-only buffer whose remaining bytes are the bytes
+	 *   of the segment.  The buffer may share storage with the string, or be
+	 *   reused for the next segment, so it is only valid during this call.
+	 * @return  True to continue with the next segment, or false to stop.
+	 */
+	public boolean visitSegment(ByteBuffer segment);
+}
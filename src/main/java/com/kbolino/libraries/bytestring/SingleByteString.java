@@ -26,6 +26,15 @@ final class SingleByteString extends AbstractByteString {
 		return value;
 	}
 
+	/** {@inheritDoc} */
+	@Override
+	protected void copyRange(final int beginIndex, final byte[] bytes, final int offset,
+			final int length) {
+		if (length != 0) {
+			bytes[offset] = value;
+		}
+	}
+
 	/** {@inheritDoc} */
 	public ByteString subString(int beginIndex, int endIndex)
 			throws IllegalArgumentException, IndexOutOfBoundsException {
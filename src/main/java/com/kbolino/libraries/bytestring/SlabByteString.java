@@ -0,0 +1,168 @@
+package com.kbolino.libraries.bytestring;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@link PooledByteString} occupying a region of a slab of a
+ * {@link ByteStringArena}.  The region is read through an ordinary string
+ * over the slab's memory, which is never handed out except through
+ * buffers documented as valid only until the string is released.
+ */
+final class SlabByteString extends AbstractByteString implements PooledByteString {
+	private final ByteStringArena arena;
+	/** The slab holding the region, or null if the string is not pooled. */
+	private final ByteStringArena.Slab slab;
+	/** A string over the region. */
+	private final ByteString content;
+	private final AtomicInteger refCount = new AtomicInteger(1);
+	/** The leak detector's reference to this string, or null if it is not sampled. */
+	volatile ByteStringArena.LeakReference leak;
+
+	/**
+	 * Creates a new {@link SlabByteString}.  Constructor preconditions:
+	 * <ol>
+	 *   <li>{@code arena != null}</li>
+	 *   <li>{@code content != null}</li>
+	 *   <li>If {@code slab != null}, {@code content} is a region of it for
+	 *     which the slab counts one live string</li>
+	 * </ol>
+	 * @param arena  The arena which allocated the string.
+	 * @param slab  The slab holding {@code content}, or null if it is not
+	 *   pooled.
+	 * @param content  A string over the memory of the region.
+	 */
+	SlabByteString(final ByteStringArena arena, final ByteStringArena.Slab slab,
+			final ByteString content) {
+		super();
+		this.arena = arena;
+		this.slab = slab;
+		this.content = content;
+	}
+
+	/**
+	 * Obtains the content of this string, checking that it is still valid.
+	 * @return  {@link #content}
+	 * @throws IllegalStateException  If this string has been released.
+	 */
+	private ByteString content() throws IllegalStateException {
+		if (refCount.get() <= 0) {
+			throw new IllegalStateException("string has been released");
+		}
+		return content;
+	}
+
+	/** {@inheritDoc} */
+	public PooledByteString retain() throws IllegalStateException {
+		while (true) {
+			final int count = refCount.get();
+			if (count <= 0) {
+				throw new IllegalStateException("string has been released");
+			} else if (refCount.compareAndSet(count, count + 1)) {
+				return this;
+			}
+		}
+	}
+
+	/** {@inheritDoc} */
+	public boolean release() throws IllegalStateException {
+		while (true) {
+			final int count = refCount.get();
+			if (count <= 0) {
+				throw new IllegalStateException("string has already been released");
+			} else if (refCount.compareAndSet(count, count - 1)) {
+				if (count > 1) {
+					return false;
+				}
+				final ByteStringArena.LeakReference leak = this.leak;
+				if (leak != null) {
+					arena.untrack(leak);
+				}
+				if (slab != null) {
+					arena.free(slab);
+				}
+				return true;
+			}
+		}
+	}
+
+	/** {@inheritDoc} */
+	public int refCount() {
+		return Math.max(0, refCount.get());
+	}
+
+	/** {@inheritDoc} */
+	public int length() {
+		return content.length();
+	}
+
+	/** {@inheritDoc} */
+	public byte at(final int index) throws IllegalArgumentException,
+			IndexOutOfBoundsException, IllegalStateException {
+		return content().at(index);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	protected void copyRange(final int beginIndex, final byte[] bytes, final int offset,
+			final int length) {
+		Utils.copyRange(content(), beginIndex, bytes, offset, length);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	boolean visitArrays(final int beginIndex, final int endIndex, final ArraySegmentVisitor visitor) {
+		return Utils.visitArrays(content(), beginIndex, endIndex, visitor);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	void addBuffers(final int beginIndex, final int endIndex, final List<ByteBuffer> buffers) {
+		Utils.addBuffers(content(), beginIndex, endIndex, buffers);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>The cached hash is returned only while this string is valid.
+	 */
+	@Override
+	public int hashCode() throws IllegalStateException {
+		content();
+		return super.hashCode();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>The buffer shares the pooled memory of this string, so it is
+	 * valid only until this string is released.
+	 */
+	@Override
+	public ByteBuffer toReadOnlyByteBuffer() {
+		return content().toReadOnlyByteBuffer();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>The substring is copied out of pooled memory, even if it is the
+	 * whole string.
+	 */
+	@Override
+	public ByteString subString(final int beginIndex, final int endIndex)
+			throws IllegalArgumentException, IndexOutOfBoundsException, IllegalStateException {
+		checkSubString(beginIndex, endIndex);
+		if (beginIndex == endIndex) {
+			return Utils.EMPTY_STRING;
+		}
+		return new ArrayByteString(content().subString(beginIndex, endIndex).toByteArray());
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>A pooled string is compacted by copying it out of pooled memory.
+	 */
+	@Override
+	public ByteString compact() throws IllegalStateException {
+		return length() == 0 ? Utils.EMPTY_STRING : new ArrayByteString(content().toByteArray());
+	}
+}
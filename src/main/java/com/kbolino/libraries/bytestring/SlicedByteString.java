@@ -1,5 +1,8 @@
 package com.kbolino.libraries.bytestring;
 
+import java.nio.ByteBuffer;
+import java.util.List;
+
 
 /**
  * A slice of a {@link ByteString}.
@@ -47,10 +50,21 @@ final class SlicedByteString extends AbstractByteString {
 	
 	/** {@inheritDoc} */
 	@Override
-	public int indexOf(int value, int fromIndex)
-			throws IllegalArgumentException, IndexOutOfBoundsException {
-		checkIndexOf(value, fromIndex);
-		return delegate.indexOf(value, fromIndex + offset);
+	protected void copyRange(final int beginIndex, final byte[] bytes, final int offset,
+			final int length) {
+		Utils.copyRange(delegate, beginIndex + this.offset, bytes, offset, length);
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	boolean visitArrays(final int beginIndex, final int endIndex, final ArraySegmentVisitor visitor) {
+		return Utils.visitArrays(delegate, beginIndex + offset, endIndex + offset, visitor);
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	void addBuffers(final int beginIndex, final int endIndex, final List<ByteBuffer> buffers) {
+		Utils.addBuffers(delegate, beginIndex + offset, endIndex + offset, buffers);
 	}
 	
 	/** {@inheritDoc} */
@@ -60,6 +74,16 @@ final class SlicedByteString extends AbstractByteString {
 		return delegate.subString(beginIndex + offset, endIndex + offset);
 	}
 	
+	/**
+	 * {@inheritDoc}
+	 * <p>A slice is compacted by copying its content, since the whole of
+	 * its delegate is otherwise retained.
+	 */
+	@Override
+	public ByteString compact() {
+		return length == 0 ? Utils.EMPTY_STRING : new ArrayByteString(toByteArray());
+	}
+	
 	/**
 	 * The string underlying this slice.
 	 * @return  An unsliced {@link ByteString}.
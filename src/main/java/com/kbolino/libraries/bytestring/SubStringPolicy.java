@@ -0,0 +1,109 @@
+package com.kbolino.libraries.bytestring;
+
+/**
+ * Decides whether a substring of an array-backed {@link ByteString} shares
+ * the array of its parent or copies its content into a new array.
+ *
+ * <p>Sharing makes taking a substring a constant-time operation, but a
+ * shared array stays reachable as long as any substring of it does.  A
+ * policy therefore copies substrings which are short enough that copying
+ * is cheap, as well as those so much smaller than the array they would
+ * share that keeping the array alive would waste memory.  Callers holding
+ * on to a substring can also drop its parent explicitly with
+ * {@link ByteString#compact()}.
+ *
+ * <p>The policy in effect is set with
+ * {@link ByteStrings#setSubStringPolicy(SubStringPolicy)}.
+ */
+public final class SubStringPolicy {
+	/** The policy in effect unless another is set. */
+	static final SubStringPolicy DEFAULT = new SubStringPolicy(64, 8);
+
+	private static final SubStringPolicy ALWAYS_SHARE = new SubStringPolicy(0, 0);
+	private static final SubStringPolicy ALWAYS_COPY = new SubStringPolicy(Integer.MAX_VALUE, 0);
+
+	private final int minShareLength;
+	private final int maxWasteRatio;
+
+	/**
+	 * Obtains a policy which always shares arrays.
+	 * @return  A {@link SubStringPolicy} which never copies.
+	 */
+	public static SubStringPolicy alwaysShare() {
+		return ALWAYS_SHARE;
+	}
+
+	/**
+	 * Obtains a policy which never shares arrays.
+	 * @return  A {@link SubStringPolicy} which always copies.
+	 */
+	public static SubStringPolicy alwaysCopy() {
+		return ALWAYS_COPY;
+	}
+
+	/**
+	 * Obtains a policy which copies short and relatively small substrings.
+	 * @param minShareLength  The length below which substrings are copied.
+	 * @param maxWasteRatio  Substrings shorter than {@code 1/maxWasteRatio}
+	 *   of the array they would share are copied.  A ratio of 0 disables
+	 *   this rule.
+	 * @return  A {@link SubStringPolicy} which shares an array only if the
+	 *   substring is at least {@code minShareLength} bytes long and, if
+	 *   {@code maxWasteRatio > 0}, at least {@code 1/maxWasteRatio} of the
+	 *   array's length.
+	 * @throws IllegalArgumentException  If {@code minShareLength < 0} or
+	 *   {@code maxWasteRatio < 0}.
+	 */
+	public static SubStringPolicy copyBelow(final int minShareLength, final int maxWasteRatio)
+			throws IllegalArgumentException {
+		if (minShareLength < 0) {
+			throw new IllegalArgumentException(String.format("minShareLength (%d) < 0", minShareLength));
+		} else if (maxWasteRatio < 0) {
+			throw new IllegalArgumentException(String.format("maxWasteRatio (%d) < 0", maxWasteRatio));
+		}
+		return new SubStringPolicy(minShareLength, maxWasteRatio);
+	}
+
+	private SubStringPolicy(final int minShareLength, final int maxWasteRatio) {
+		this.minShareLength = minShareLength;
+		this.maxWasteRatio = maxWasteRatio;
+	}
+
+	/**
+	 * The length below which substrings are copied.
+	 * @return  A nonnegative integer.
+	 */
+	public int minShareLength() {
+		return minShareLength;
+	}
+
+	/**
+	 * The ratio of array length to substring length above which substrings
+	 * are copied.
+	 * @return  A nonnegative integer, or 0 if the ratio is not considered.
+	 */
+	public int maxWasteRatio() {
+		return maxWasteRatio;
+	}
+
+	/**
+	 * Decides whether a substring should share an array.  Preconditions:
+	 * <ol>
+	 *   <li>{@code 0 <= length <= arrayLength}</li>
+	 * </ol>
+	 * @param length  The length of the substring.
+	 * @param arrayLength  The length of the array it would share.
+	 * @return  True to share the array, or false to copy.
+	 */
+	boolean share(final int length, final int arrayLength) {
+		return length >= minShareLength
+				&& (maxWasteRatio == 0 || (long) length * maxWasteRatio >= arrayLength);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String toString() {
+		return String.format("SubStringPolicy[minShareLength=%d, maxWasteRatio=%d]",
+				minShareLength, maxWasteRatio);
+	}
+}
@@ -1,6 +1,8 @@
 package com.kbolino.libraries.bytestring;
 
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
 
 /**
  * Core utility methods for {@link ByteString}s.
@@ -18,6 +20,21 @@ final class Utils {
 	/** Empty byte array */
 	static final byte[] EMPTY_BYTE_ARRAY = new byte[0];
 	
+	/**
+	 * Size of the chunks processed at once by bulk algorithms.
+	 * Always a multiple of 8.
+	 */
+	static final int CHUNK_SIZE = 4096;
+	
+	/** Ranges shorter than this are scanned a byte at a time. */
+	private static final int MIN_WORD_SCAN = 16;
+	
+	/** A word with every byte equal to 0x01. */
+	private static final long ONES = 0x0101010101010101L;
+	
+	/** A word with every byte equal to 0x7F. */
+	private static final long LOW_BITS = 0x7F7F7F7F7F7F7F7FL;
+	
 	/**
 	 * Checks the given value as a signed or unsigned 8-bit integer.
 	 * @param value  The value to check.
@@ -125,5 +142,413 @@ final class Utils {
 		}
 	}
 	
+	/**
+	 * Creates a scratch array for processing a string in chunks.
+	 * @param length  The number of bytes to be processed.
+	 * @return  An array of {@code min(length, CHUNK_SIZE)} bytes.
+	 */
+	static byte[] newChunk(final int length) {
+		return new byte[Math.min(length, CHUNK_SIZE)];
+	}
+	
+	/**
+	 * Copies a range of bytes from a string into an array, without
+	 * checking parameters.  Preconditions:
+	 * <ol>
+	 *   <li>{@code string != null}</li>
+	 *   <li>{@code bytes != null}</li>
+	 *   <li>{@code beginIndex >= 0} and
+	 *     {@code beginIndex + length <= string.length()}</li>
+	 *   <li>{@code offset >= 0} and
+	 *     {@code offset + length <= bytes.length}</li>
+	 * </ol>
+	 * @param string  The string to copy from.
+	 * @param beginIndex  The index of the first byte to copy.
+	 * @param bytes  The array to receive the bytes.
+	 * @param offset  The first index of the array to receive a byte.
+	 * @param length  The number of bytes to copy.
+	 */
+	static void copyRange(final ByteString string, final int beginIndex,
+			final byte[] bytes, final int offset, final int length) {
+		if (length == 0) {
+			return;
+		} else if (string instanceof AbstractByteString) {
+			((AbstractByteString) string).copyRange(beginIndex, bytes, offset, length);
+		} else if (beginIndex == 0) {
+			string.copyTo(bytes, offset, length);
+		} else {
+			string.subString(beginIndex, beginIndex + length).copyTo(bytes, offset, length);
+		}
+	}
+	
+	/**
+	 * Visits the segments in a range of a string as ranges of arrays,
+	 * without checking parameters.  Preconditions:
+	 * <ol>
+	 *   <li>{@code string != null}</li>
+	 *   <li>{@code visitor != null}</li>
+	 *   <li>{@code 0 <= beginIndex <= endIndex <= string.length()}</li>
+	 * </ol>
+	 * @param string  The string to visit.
+	 * @param beginIndex  The index of the first byte to visit, inclusive.
+	 * @param endIndex  The index of the last byte to visit, exclusive.
+	 * @param visitor  The visitor to receive the segments.
+	 * @return  False if {@code visitor} stopped the traversal, or true
+	 *   otherwise.
+	 */
+	static boolean visitArrays(final ByteString string, final int beginIndex, final int endIndex,
+			final ArraySegmentVisitor visitor) {
+		if (string instanceof AbstractByteString) {
+			return ((AbstractByteString) string).visitArrays(beginIndex, endIndex, visitor);
+		} else {
+			return visitChunks(string, beginIndex, endIndex, visitor);
+		}
+	}
+	
+	/**
+	 * Adds read-only buffers holding a range of a string to a list,
+	 * without checking parameters.  Preconditions:
+	 * <ol>
+	 *   <li>{@code string != null}</li>
+	 *   <li>{@code buffers != null}</li>
+	 *   <li>{@code 0 <= beginIndex < endIndex <= string.length()}</li>
+	 * </ol>
+	 * @param string  The string.
+	 * @param beginIndex  The index of the first byte, inclusive.
+	 * @param endIndex  The index of the last byte, exclusive.
+	 * @param buffers  The list to receive the buffers.
+	 */
+	static void addBuffers(final ByteString string, final int beginIndex, final int endIndex,
+			final List<ByteBuffer> buffers) {
+		if (string instanceof AbstractByteString) {
+			((AbstractByteString) string).addBuffers(beginIndex, endIndex, buffers);
+		} else {
+			final ByteBuffer buffer = string.toReadOnlyByteBuffer();
+			buffer.limit(endIndex).position(beginIndex);
+			buffers.add(buffer.slice());
+		}
+	}
+	
+	/**
+	 * Visits a range of a string by copying it a chunk at a time into a
+	 * scratch array.  Preconditions are the same as for
+	 * {@link #visitArrays(ByteString, int, int, ArraySegmentVisitor)}.
+	 * @param string  The string to visit.
+	 * @param beginIndex  The index of the first byte to visit, inclusive.
+	 * @param endIndex  The index of the last byte to visit, exclusive.
+	 * @param visitor  The visitor to receive the chunks.
+	 * @return  False if {@code visitor} stopped the traversal, or true
+	 *   otherwise.
+	 */
+	static boolean visitChunks(final ByteString string, final int beginIndex, final int endIndex,
+			final ArraySegmentVisitor visitor) {
+		final byte[] chunk = newChunk(endIndex - beginIndex);
+		for (int i = beginIndex; i < endIndex; i += chunk.length) {
+			final int n = Math.min(chunk.length, endIndex - i);
+			copyRange(string, i, chunk, 0, n);
+			if (!visitor.visit(chunk, 0, n)) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Marks the zero bytes of a word.
+	 * Unlike the common {@code (x - ONES) & ~x} trick, this has no false
+	 * positives, so it may be used to find the last match or count matches.
+	 * @param word  The word.
+	 * @return  A word in which each byte is 0x80 if the corresponding byte
+	 *   of {@code word} is zero, or 0x00 otherwise.
+	 */
+	static long zeroBytes(final long word) {
+		final long low = (word & LOW_BITS) + LOW_BITS;
+		return ~(low | word | LOW_BITS);
+	}
+	
+	/**
+	 * Views an array as little-endian words.
+	 * @param bytes  The array.
+	 * @return  A buffer over {@code bytes} for reading words.
+	 */
+	private static ByteBuffer words(final byte[] bytes) {
+		return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+	}
+	
+	/**
+	 * Finds a byte value within a range of an array.
+	 * Long ranges are scanned 8 bytes at a time.
+	 * @param bytes  The array.
+	 * @param fromIndex  The first index to check, inclusive.
+	 * @param toIndex  The last index to check, exclusive.
+	 * @param value  The value to find.
+	 * @return  The first index of {@code value} in the range, or {@code -1}.
+	 */
+	static int indexOf(final byte[] bytes, final int fromIndex, final int toIndex, final byte value) {
+		int i = fromIndex;
+		if (toIndex - fromIndex >= MIN_WORD_SCAN) {
+			final ByteBuffer words = words(bytes);
+			final long pattern = (value & 0xFFL) * ONES;
+			for (; i <= toIndex - 8; i += 8) {
+				final long matches = zeroBytes(words.getLong(i) ^ pattern);
+				if (matches != 0) {
+					return i + (Long.numberOfTrailingZeros(matches) >>> 3);
+				}
+			}
+		}
+		for (; i < toIndex; i++) {
+			if (bytes[i] == value) {
+				return i;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * Finds the last occurrence of a byte value within a range of an array.
+	 * Long ranges are scanned 8 bytes at a time.
+	 * @param bytes  The array.
+	 * @param fromIndex  The first index to check, inclusive.
+	 * @param toIndex  The last index to check, exclusive.
+	 * @param value  The value to find.
+	 * @return  The last index of {@code value} in the range, or {@code -1}.
+	 */
+	static int lastIndexOf(final byte[] bytes, final int fromIndex, final int toIndex, final byte value) {
+		int i = toIndex;
+		if (toIndex - fromIndex >= MIN_WORD_SCAN) {
+			final ByteBuffer words = words(bytes);
+			final long pattern = (value & 0xFFL) * ONES;
+			for (; i - 8 >= fromIndex; i -= 8) {
+				final long matches = zeroBytes(words.getLong(i - 8) ^ pattern);
+				if (matches != 0) {
+					return i - 1 - (Long.numberOfLeadingZeros(matches) >>> 3);
+				}
+			}
+		}
+		for (i--; i >= fromIndex; i--) {
+			if (bytes[i] == value) {
+				return i;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * Counts the occurrences of a byte value within a range of an array.
+	 * Long ranges are scanned 8 bytes at a time.
+	 * @param bytes  The array.
+	 * @param fromIndex  The first index to check, inclusive.
+	 * @param toIndex  The last index to check, exclusive.
+	 * @param value  The value to count.
+	 * @return  The number of bytes equal to {@code value} in the range.
+	 */
+	static int count(final byte[] bytes, final int fromIndex, final int toIndex, final byte value) {
+		int count = 0;
+		int i = fromIndex;
+		if (toIndex - fromIndex >= MIN_WORD_SCAN) {
+			final ByteBuffer words = words(bytes);
+			final long pattern = (value & 0xFFL) * ONES;
+			for (; i <= toIndex - 8; i += 8) {
+				count += Long.bitCount(zeroBytes(words.getLong(i) ^ pattern));
+			}
+		}
+		for (; i < toIndex; i++) {
+			if (bytes[i] == value) {
+				count++;
+			}
+		}
+		return count;
+	}
+	
+	/**
+	 * Finds a pattern within a range of an array.
+	 * Only matches lying entirely within the range are found.
+	 * @param bytes  The array to search.
+	 * @param fromIndex  The first index to check, inclusive.
+	 * @param toIndex  The last index to check, exclusive.
+	 * @param pattern  The non-empty pattern to find.
+	 * @return  The first index of {@code pattern} in the range, or
+	 *   {@code -1}.
+	 */
+	static int indexOf(final byte[] bytes, final int fromIndex, final int toIndex, final byte[] pattern) {
+		final byte first = pattern[0];
+		final int last = toIndex - pattern.length;
+		for (int i = fromIndex; i <= last; i++) {
+			i = indexOf(bytes, i, last + 1, first);
+			if (i < 0) {
+				return -1;
+			} else if (equalRange(bytes, i + 1, pattern, 1, pattern.length - 1)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * Compares ranges of two arrays.
+	 * @param a  The first array.
+	 * @param aOffset  The first index of the range in {@code a}.
+	 * @param b  The second array.
+	 * @param bOffset  The first index of the range in {@code b}.
+	 * @param length  The number of bytes to compare.
+	 * @return  True if and only if the ranges are equal.
+	 */
+	static boolean equalRange(final byte[] a, final int aOffset, final byte[] b, final int bOffset,
+			final int length) {
+		return mismatch(a, aOffset, b, bOffset, length) < 0;
+	}
+	
+	/**
+	 * Finds the first difference between ranges of two arrays.
+	 * Long ranges are compared 8 bytes at a time.
+	 * @param a  The first array.
+	 * @param aOffset  The first index of the range in {@code a}.
+	 * @param b  The second array.
+	 * @param bOffset  The first index of the range in {@code b}.
+	 * @param length  The number of bytes to compare.
+	 * @return  The offset of the first differing byte within the ranges,
+	 *   or {@code -1} if they are equal.
+	 */
+	static int mismatch(final byte[] a, final int aOffset, final byte[] b, final int bOffset,
+			final int length) {
+		int i = 0;
+		if (length >= MIN_WORD_SCAN) {
+			// big-endian words put the first byte in the most significant bits
+			final ByteBuffer aWords = ByteBuffer.wrap(a);
+			final ByteBuffer bWords = ByteBuffer.wrap(b);
+			for (; i <= length - 8; i += 8) {
+				final long diff = aWords.getLong(aOffset + i) ^ bWords.getLong(bOffset + i);
+				if (diff != 0) {
+					return i + (Long.numberOfLeadingZeros(diff) >>> 3);
+				}
+			}
+		}
+		for (; i < length; i++) {
+			if (a[aOffset + i] != b[bOffset + i]) {
+				return i;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * Finds the first difference between two strings.  Preconditions:
+	 * <ol>
+	 *   <li>{@code a != null}</li>
+	 *   <li>{@code b != null}</li>
+	 * </ol>
+	 * @param a  The first string.
+	 * @param b  The second string.
+	 * @return  The index of the first differing byte, the length of the
+	 *   shorter string if one is a proper prefix of the other, or {@code -1}
+	 *   if the strings are equal.
+	 * @see ByteString#mismatch(ByteString)
+	 */
+	static int mismatch(final ByteString a, final ByteString b) {
+		final int length = Math.min(a.length(), b.length());
+		final int index = mismatch(a, 0, b, 0, length);
+		if (index >= 0) {
+			return index;
+		}
+		return a.length() == b.length() ? -1 : length;
+	}
+	
+	/**
+	 * Finds the first difference between ranges of two strings.
+	 * Preconditions:
+	 * <ol>
+	 *   <li>{@code a != null}</li>
+	 *   <li>{@code b != null}</li>
+	 *   <li>{@code aOffset >= 0} and {@code aOffset + length <= a.length()}</li>
+	 *   <li>{@code bOffset >= 0} and {@code bOffset + length <= b.length()}</li>
+	 * </ol>
+	 * @param a  The first string.
+	 * @param aOffset  The first index of the range of {@code a}.
+	 * @param b  The second string.
+	 * @param bOffset  The first index of the range of {@code b}.
+	 * @param length  The length of the ranges.
+	 * @return  The index relative to the start of the ranges of the first
+	 *   differing byte, or {@code -1} if the ranges are equal.
+	 */
+	static int mismatch(final ByteString a, final int aOffset, final ByteString b, final int bOffset,
+			final int length) {
+		if (a instanceof ArrayByteString && b instanceof ArrayByteString) {
+			final ArrayByteString x = (ArrayByteString) a;
+			final ArrayByteString y = (ArrayByteString) b;
+			return mismatch(x.array(), x.arrayOffset() + aOffset, y.array(), y.arrayOffset() + bOffset,
+					length);
+		}
+		final Zipper zipper = new Zipper(b, bOffset);
+		visitArrays(a, aOffset, aOffset + length, zipper);
+		return zipper.mismatch;
+	}
+	
+	/**
+	 * Compares two strings segment by segment, where the segments of the
+	 * two strings need not line up.  Each segment of the first string is
+	 * compared in place against the segments of the second string covering
+	 * the same range.
+	 */
+	private static final class Zipper implements ArraySegmentVisitor {
+		private final ByteString b;
+		private final int bOffset;
+		/** The number of bytes compared so far. */
+		private int position;
+		/** The index of the first difference, or {@code -1}. */
+		int mismatch = -1;
+		/** The segment of the first string being compared. */
+		private byte[] aArray;
+		private int aOffset;
+		private final ArraySegmentVisitor inner = new ArraySegmentVisitor() {
+			public boolean visit(final byte[] array, final int offset, final int length) {
+				final int index = Utils.mismatch(aArray, aOffset, array, offset, length);
+				if (index >= 0) {
+					mismatch = position + index;
+					return false;
+				}
+				aOffset += length;
+				position += length;
+				return true;
+			}
+		};
+
+		Zipper(final ByteString b, final int bOffset) {
+			this.b = b;
+			this.bOffset = bOffset;
+		}
+
+		public boolean visit(final byte[] array, final int offset, final int length) {
+			aArray = array;
+			aOffset = offset;
+			final int begin = bOffset + position;
+			return visitArrays(b, begin, begin + length, inner);
+		}
+	}
+	
+	/**
+	 * Compares two strings in unsigned lexicographic order.  Preconditions:
+	 * <ol>
+	 *   <li>{@code a != null}</li>
+	 *   <li>{@code b != null}</li>
+	 * </ol>
+	 * @param a  The first string.
+	 * @param b  The second string.
+	 * @return  A negative number, zero, or a positive number if {@code a}
+	 *   is ordered before, equal to, or after {@code b}.
+	 * @see ByteString#compareTo(ByteString)
+	 */
+	static int compare(final ByteString a, final ByteString b) {
+		final int index = mismatch(a, b);
+		if (index < 0) {
+			return 0;
+		} else if (index == a.length()) {
+			return -1;
+		} else if (index == b.length()) {
+			return 1;
+		} else {
+			return a.unsignedAt(index) - b.unsignedAt(index);
+		}
+	}
+	
 	private Utils() { }
 }
@@ -0,0 +1,270 @@
+package com.kbolino.libraries.bytestring;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class AbstractByteStringTest {
+	static final int LENGTH = 3 * Utils.CHUNK_SIZE + 17;
+
+	/** A minimal string implementing only the required methods. */
+	static class MinimalByteString extends AbstractByteString {
+		private final byte[] bytes;
+
+		MinimalByteString(byte[] bytes) {
+			this.bytes = bytes;
+		}
+
+		public int length() {
+			return bytes.length;
+		}
+
+		public byte at(int index) {
+			checkAt(index);
+			return bytes[index];
+		}
+	}
+
+	/** A channel accepting at most a few bytes per write, like a full socket. */
+	static class TrickleChannel implements WritableByteChannel {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		int budget;
+
+		public int write(ByteBuffer src) {
+			final int n = Math.min(budget, src.remaining());
+			for (int i = 0; i < n; i++) {
+				out.write(src.get());
+			}
+			budget -= n;
+			return n;
+		}
+
+		public boolean isOpen() {
+			return true;
+		}
+
+		public void close() {
+		}
+	}
+
+	byte[] bytes;
+	MinimalByteString minimal;
+	ArrayByteString array;
+
+	@Before
+	public void before() {
+		bytes = new byte[LENGTH];
+		for (int i = 0; i < LENGTH; i++) {
+			bytes[i] = (byte)(i % 251);
+		}
+		minimal = new MinimalByteString(bytes);
+		array = new ArrayByteString(bytes.clone());
+	}
+
+	@Test
+	public void testEquals() {
+		assertTrue(minimal.equals(array));
+		assertTrue(array.equals(minimal));
+		bytes[LENGTH - 1] = -1;
+		assertFalse(minimal.equals(array));
+		assertFalse(array.equals(minimal));
+	}
+
+	@Test
+	public void testHashCode() {
+		assertEquals(array.hashCode(), minimal.hashCode());
+		assertEquals(minimal.hashCode(), minimal.hashCode());
+		assertFalse(ByteStrings.of(1, 2).hashCode() == ByteStrings.of(2, 1).hashCode());
+		assertFalse(ByteStrings.of(0).hashCode() == ByteStrings.of(0, 0).hashCode());
+	}
+
+	@Test
+	public void testCopyToByteBuffer() {
+		ByteBuffer heap = ByteBuffer.allocate(LENGTH + 1);
+		heap.position(1);
+		assertEquals(LENGTH, minimal.copyTo(heap));
+		assertEquals(LENGTH + 1, heap.position());
+		assertEquals(bytes[LENGTH - 1], heap.get(LENGTH));
+		ByteBuffer direct = ByteBuffer.allocateDirect(LENGTH);
+		assertEquals(LENGTH, minimal.copyTo(direct));
+		direct.flip();
+		assertEquals(array, ByteStrings.copyFrom(direct));
+	}
+
+	@Test
+	public void testIndexOfValue() {
+		bytes[2 * Utils.CHUNK_SIZE + 3] = -1;
+		assertEquals(2 * Utils.CHUNK_SIZE + 3, minimal.indexOf(-1));
+		assertEquals(2 * Utils.CHUNK_SIZE + 3, minimal.indexOf(255, 100));
+		assertEquals(250, minimal.indexOf(250));
+		assertEquals(-1, minimal.indexOf(251));
+		final MinimalByteString empty = new MinimalByteString(new byte[0]);
+		assertEquals(-1, empty.indexOf(0, 0));
+		assertEquals(-1, empty.lastIndexOf(0, 0));
+		assertEquals(-1, empty.lastIndexOf(0));
+	}
+
+	@Test
+	public void testIndexOfString() {
+		// the match straddles the boundary between two windows
+		final int index = Utils.CHUNK_SIZE - 2;
+		for (int i = 0; i < 5; i++) {
+			bytes[index + i] = (byte)(-1 - i);
+		}
+		ByteString pattern = ByteStrings.of(-1, -2, -3, -4, -5);
+		assertEquals(index, minimal.indexOf(pattern));
+		assertEquals(index, minimal.indexOf(pattern, index));
+		assertEquals(-1, minimal.indexOf(pattern, index + 1));
+		// the content repeats with a period of 251 bytes
+		assertEquals((LENGTH - 3) % 251, minimal.indexOf(array.subString(LENGTH - 3)));
+	}
+
+	@Test
+	public void testLastIndexOfString() {
+		// the match straddles the boundary between two windows
+		final int index = LENGTH - Utils.CHUNK_SIZE - 2;
+		for (int i = 0; i < 5; i++) {
+			bytes[index + i] = (byte)(-1 - i);
+		}
+		ByteString pattern = ByteStrings.of(-1, -2, -3, -4, -5);
+		assertEquals(index, minimal.lastIndexOf(pattern));
+		assertEquals(index, minimal.lastIndexOf(pattern, index));
+		assertEquals(-1, minimal.lastIndexOf(pattern, index - 1));
+		// the content repeats with a period of 251 bytes
+		assertEquals((LENGTH - 252) / 251 * 251, array.lastIndexOf(array.subString(0, 3), LENGTH - 252));
+		assertEquals(LENGTH - 3, array.lastIndexOf(array.subString(LENGTH - 3)));
+		assertEquals(LENGTH, array.lastIndexOf(ByteStrings.empty()));
+		assertEquals(-1, ByteStrings.empty().lastIndexOf(pattern));
+	}
+
+	@Test
+	public void testIndexOfShortString() {
+		final Random random = new Random(3);
+		for (int i = 0; i < LENGTH; i++) {
+			bytes[i] = (byte) random.nextInt(3);
+		}
+		final ArrayByteString copy = new ArrayByteString(bytes.clone());
+		for (int k = 0; k < 200; k++) {
+			final int m = 1 + random.nextInt(ByteStringPattern.MIN_HORSPOOL_LENGTH - 1);
+			final byte[] pattern = new byte[m];
+			for (int j = 0; j < m; j++) {
+				pattern[j] = (byte) random.nextInt(4);
+			}
+			final ByteString p = ByteStrings.copyFrom(pattern);
+			final int from = random.nextInt(LENGTH);
+			int first = -1;
+			for (int i = from; i <= LENGTH - m && first < 0; i++) {
+				if (Utils.equalRange(bytes, i, pattern, 0, m)) {
+					first = i;
+				}
+			}
+			int last = -1;
+			for (int i = Math.min(from, LENGTH - m); i >= 0 && last < 0; i--) {
+				if (Utils.equalRange(bytes, i, pattern, 0, m)) {
+					last = i;
+				}
+			}
+			assertEquals(first, minimal.indexOf(p, from));
+			assertEquals(first, copy.indexOf(p, from));
+			assertEquals(last, minimal.lastIndexOf(p, from));
+			assertEquals(last, copy.lastIndexOf(p, from));
+		}
+		assertEquals(-1, ByteStrings.empty().indexOf(ByteStrings.of(1)));
+		assertEquals(LENGTH - 2, minimal.indexOf(minimal.subString(LENGTH - 2), LENGTH - 2));
+	}
+
+	@Test
+	public void testIndexOfShortStringDense() {
+		// every byte is a candidate, and each match straddles two windows
+		Arrays.fill(bytes, (byte) 0);
+		final int first = 2 * Utils.CHUNK_SIZE - 1;
+		final int last = LENGTH - Utils.CHUNK_SIZE - 1;
+		bytes[first + 2] = 1;
+		bytes[last + 2] = 1;
+		final ByteString pattern = ByteStrings.of(0, 0, 1);
+		assertEquals(first, minimal.indexOf(pattern));
+		assertEquals(last, minimal.indexOf(pattern, first + 1));
+		assertEquals(-1, minimal.indexOf(pattern, last + 1));
+		assertEquals(last, minimal.lastIndexOf(pattern));
+		assertEquals(first, minimal.lastIndexOf(pattern, last - 1));
+		assertEquals(-1, minimal.lastIndexOf(pattern, first - 1));
+		assertEquals(last + 1, minimal.lastIndexOf(ByteStrings.of(0, 1)));
+		assertEquals(LENGTH - 2, minimal.lastIndexOf(ByteStrings.of(0, 0)));
+	}
+
+	@Test
+	public void testStartsWithEndsWith() {
+		assertTrue(minimal.startsWith(array.subString(0, Utils.CHUNK_SIZE + 1)));
+		assertTrue(minimal.endsWith(array.subString(5)));
+		assertFalse(minimal.startsWith(array.subString(1, 10)));
+		assertFalse(minimal.endsWith(array.subString(1, 10)));
+	}
+
+	@Test
+	public void testToReadOnlyByteBuffers() {
+		final ByteBuffer[] buffers = minimal.toReadOnlyByteBuffers();
+		assertEquals(1, buffers.length);
+		assertTrue(buffers[0].isReadOnly());
+		assertEquals(array, ByteStrings.copyFrom(buffers[0]));
+		assertEquals(0, ByteStrings.empty().toReadOnlyByteBuffers().length);
+	}
+
+	@Test
+	public void testWriteTo() throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		assertEquals(LENGTH, minimal.writeTo(Channels.newChannel(out)));
+		assertEquals(array, ByteStrings.copyFrom(out.toByteArray()));
+		assertEquals(0, minimal.writeTo(Channels.newChannel(out), LENGTH));
+	}
+
+	@Test
+	public void testWriteToResumes() throws IOException {
+		final TrickleChannel channel = new TrickleChannel();
+		int written = 0;
+		while (written < LENGTH) {
+			channel.budget = 1000;
+			final int n = minimal.writeTo(channel, written);
+			assertEquals(Math.min(1000, LENGTH - written), n);
+			written += n;
+		}
+		assertEquals(array, ByteStrings.copyFrom(channel.out.toByteArray()));
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testWriteToOutOfBounds() throws IOException {
+		minimal.writeTo(new TrickleChannel(), LENGTH + 1);
+	}
+
+	@Test
+	public void testWriteToStream() throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		minimal.writeTo(out);
+		assertEquals(array, ByteStrings.copyFrom(out.toByteArray()));
+	}
+
+	@Test(expected = IOException.class)
+	public void testWriteToStreamFails() throws IOException {
+		minimal.writeTo(new OutputStream() {
+			@Override
+			public void write(int b) throws IOException {
+				throw new IOException();
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				throw new IOException();
+			}
+		});
+	}
+
+}
@@ -4,6 +4,7 @@ import static org.junit.Assert.*;
 
 import java.nio.ByteBuffer;
 
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -21,6 +22,11 @@ public class ArrayByteStringTest {
 		highBytes = new ArrayByteString(new byte[]{-128, -1});
 	}
 	
+	@After
+	public void after() {
+		ByteStrings.setSubStringPolicy(SubStringPolicy.DEFAULT);
+	}
+	
 	@Test
 	public void testLength() {
 		assertEquals(1, a.length());
@@ -143,4 +149,118 @@ public class ArrayByteStringTest {
 		assertEquals(-1, abc.indexOf(a, 1));
 	}
 	
+	@Test
+	public void testMismatch() {
+		assertEquals(-1, abc.mismatch(abc));
+		assertEquals(1, abc.mismatch(aab));
+		assertEquals(2, ab.mismatch(abc));
+		assertEquals(2, abc.mismatch(ab));
+		assertEquals(0, abc.mismatch(highBytes));
+		byte[] bytes = new byte[40];
+		byte[] other = new byte[40];
+		other[37] = 1;
+		assertEquals(37, new ArrayByteString(bytes).mismatch(new ArrayByteString(other)));
+		assertEquals(37, new ArrayByteString(bytes).commonPrefixLength(new ArrayByteString(other)));
+		assertEquals(3, abc.commonPrefixLength(abc));
+	}
+	
+	@Test
+	public void testCompareTo() {
+		assertEquals(0, abc.compareTo(abc));
+		assertTrue(ab.compareTo(abc) < 0);
+		assertTrue(abc.compareTo(ab) > 0);
+		assertTrue(aab.compareTo(ab) < 0);
+		// bytes are unsigned
+		assertTrue(abc.compareTo(highBytes) < 0);
+		assertTrue(highBytes.compareTo(abc) > 0);
+		assertTrue(Utils.EMPTY_STRING.compareTo(a) < 0);
+	}
+	
+	@Test
+	public void testIndexOfValue() {
+		byte[] bytes = new byte[100];
+		bytes[3] = '\n';
+		bytes[50] = '\n';
+		bytes[97] = '\n';
+		ArrayByteString lines = new ArrayByteString(bytes);
+		assertEquals(3, lines.indexOf('\n'));
+		assertEquals(50, lines.indexOf('\n', 4));
+		assertEquals(-1, lines.indexOf('\n', 98));
+		assertEquals(97, lines.lastIndexOf('\n'));
+		assertEquals(50, lines.lastIndexOf('\n', 96));
+		assertEquals(-1, lines.lastIndexOf('\n', 2));
+		assertEquals(3, lines.count('\n'));
+		assertEquals(97, lines.count(0));
+		assertEquals(1, highBytes.count(255));
+		assertEquals(0, highBytes.lastIndexOf(0x80));
+		ArrayByteString empty = new ArrayByteString(new byte[0]);
+		assertEquals(-1, empty.indexOf(0, 0));
+		assertEquals(-1, empty.lastIndexOf(0, 0));
+		assertEquals(-1, ByteStrings.copyFrom(new byte[0]).lastIndexOf(0, 0));
+	}
+	
+@Test
+	public void testSharedSubString() {
+		ByteStrings.setSubStringPolicy(SubStringPolicy.alwaysShare());
+		byte[] bytes = new byte[100];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte) i;
+		}
+		ArrayByteString whole = new ArrayByteString(bytes);
+		ArrayByteString view = (ArrayByteString) whole.subString(10, 90);
+		assertSame(bytes, view.array());
+		assertEquals(10, view.arrayOffset());
+		assertEquals(80, view.length());
+		assertEquals(10, view.at(0));
+		assertEquals(ByteStrings.range(10, 90), view);
+		assertEquals(ByteStrings.range(10, 90).hashCode(), view.hashCode());
+		assertEquals(ByteStrings.range(10, 90), new ArrayByteString(view.toByteArray()));
+		assertEquals(5, view.indexOf(15));
+		assertEquals(-1, view.indexOf(5));
+		assertEquals(-1, view.indexOf(95));
+		assertEquals(79, view.lastIndexOf(89));
+		assertEquals(-1, view.lastIndexOf(90));
+		assertEquals(1, view.count(50));
+		assertEquals(0, view.count(95));
+		assertEquals(5, view.indexOf(ByteStrings.of(15, 16)));
+		assertEquals(3, view.mismatch(ByteStrings.of(10, 11, 12, 0)));
+		ByteBuffer buffer = view.toReadOnlyByteBuffer();
+		assertEquals(0, buffer.position());
+		assertEquals(80, buffer.capacity());
+		assertEquals(10, buffer.get(0));
+		byte[] copy = new byte[80];
+		view.copyTo(copy);
+		assertEquals(10, copy[0]);
+		ArrayByteString nested = (ArrayByteString) view.subString(20, 30);
+		assertSame(bytes, nested.array());
+		assertEquals(30, nested.arrayOffset());
+		assertEquals(30, nested.at(0));
+		assertSame(view, view.subString(0, 80));
+	}
+	
+	@Test
+	public void testCopiedSubString() {
+		ByteStrings.setSubStringPolicy(SubStringPolicy.copyBelow(16, 4));
+		byte[] bytes = new byte[100];
+		ArrayByteString whole = new ArrayByteString(bytes);
+		assertNotSame(bytes, ((ArrayByteString) whole.subString(0, 15)).array());
+		assertNotSame(bytes, ((ArrayByteString) whole.subString(0, 24)).array());
+		assertSame(bytes, ((ArrayByteString) whole.subString(0, 25)).array());
+		ByteStrings.setSubStringPolicy(SubStringPolicy.alwaysCopy());
+		assertNotSame(bytes, ((ArrayByteString) whole.subString(0, 99)).array());
+	}
+	
+	@Test
+	public void testCompact() {
+		ByteStrings.setSubStringPolicy(SubStringPolicy.alwaysShare());
+		assertSame(abc, abc.compact());
+		ArrayByteString bc = (ArrayByteString) abc.subString(1);
+		ArrayByteString compacted = (ArrayByteString) bc.compact();
+		assertNotSame(abc.array(), compacted.array());
+		assertEquals(0, compacted.arrayOffset());
+		assertEquals(2, compacted.array().length);
+		assertEquals(bc, compacted);
+		assertSame(compacted, compacted.compact());
+	}
+	
 }
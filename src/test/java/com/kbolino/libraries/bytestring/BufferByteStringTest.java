@@ -0,0 +1,130 @@
+package com.kbolino.libraries.bytestring;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class BufferByteStringTest {
+	static final int LENGTH = 2 * Utils.CHUNK_SIZE + 5;
+	ByteBuffer direct;
+	ByteString string;
+	ByteString expected;
+
+	@Before
+	public void before() {
+		direct = ByteBuffer.allocateDirect(LENGTH + 2);
+		final byte[] bytes = new byte[LENGTH];
+		for (int i = 0; i < LENGTH + 2; i++) {
+			direct.put((byte)(i * 7));
+			if (i > 0 && i <= LENGTH) {
+				bytes[i - 1] = (byte)(i * 7);
+			}
+		}
+		direct.position(1).limit(LENGTH + 1);
+		string = ByteStrings.wrap(direct);
+		expected = ByteStrings.copyFrom(bytes);
+	}
+
+	@Test
+	public void testWrap() {
+		assertTrue(string instanceof BufferByteString);
+		assertEquals(1, direct.position());
+		assertEquals(LENGTH + 1, direct.limit());
+		assertEquals(LENGTH, string.length());
+		assertEquals(7, string.at(0));
+		assertEquals(expected, string);
+		assertEquals(string, expected);
+		assertEquals(expected.hashCode(), string.hashCode());
+		assertSame(ByteStrings.empty(), ByteStrings.wrap(ByteBuffer.allocateDirect(0)));
+	}
+
+	@Test
+	public void testWrapHeap() {
+		final ByteBuffer heap = ByteBuffer.wrap(new byte[]{1, 2, 3, 4});
+		heap.position(1);
+		final ByteString wrapped = ByteStrings.wrap(heap);
+		assertTrue(wrapped instanceof ArrayByteString);
+		assertSame(heap.array(), ((ArrayByteString) wrapped).array());
+		assertEquals(ByteStrings.of(2, 3, 4), wrapped);
+		final ByteString readOnly = ByteStrings.wrap(heap.asReadOnlyBuffer());
+		assertTrue(readOnly instanceof BufferByteString);
+		assertEquals(ByteStrings.of(2, 3, 4), readOnly);
+	}
+
+	@Test
+	public void testSubString() {
+		final ByteString sub = string.subString(10, Utils.CHUNK_SIZE + 20);
+		assertTrue(sub instanceof BufferByteString);
+		assertEquals(expected.subString(10, Utils.CHUNK_SIZE + 20), sub);
+		assertEquals(expected.at(12), sub.at(2));
+		assertSame(string, string.subString(0));
+	}
+
+	@Test
+	public void testToReadOnlyByteBuffer() {
+		final ByteBuffer buffer = string.toReadOnlyByteBuffer();
+		assertTrue(buffer.isReadOnly());
+		assertTrue(buffer.isDirect());
+		assertEquals(0, buffer.position());
+		assertEquals(LENGTH, buffer.capacity());
+		assertEquals(LENGTH, buffer.limit());
+		assertEquals(7, buffer.get(0));
+	}
+
+	@Test(expected = ReadOnlyBufferException.class)
+	public void testReadOnly() {
+		string.toReadOnlyByteBuffer().put(0, (byte) 0);
+	}
+
+	@Test
+	public void testCopyTo() {
+		final byte[] bytes = new byte[LENGTH + 1];
+		assertEquals(LENGTH, string.copyTo(bytes, 1));
+		assertEquals(expected, ByteStrings.copyFrom(bytes, 1, LENGTH));
+		final ByteBuffer target = ByteBuffer.allocateDirect(LENGTH);
+		assertEquals(LENGTH, string.copyTo(target));
+		assertEquals(LENGTH, target.position());
+		target.flip();
+		assertEquals(expected, ByteStrings.copyFrom(target));
+	}
+
+	@Test
+	public void testIndexOf() {
+		assertEquals(expected.indexOf(expected.at(LENGTH - 1), 1), string.indexOf(string.at(LENGTH - 1), 1));
+		final ByteString tail = expected.subString(LENGTH - 3);
+		assertEquals(expected.indexOf(tail, 100), string.indexOf(tail, 100));
+		assertEquals(LENGTH - 3, string.indexOf(tail, LENGTH - 100));
+	}
+
+	@Test
+	public void testForEachSegment() {
+		final int[] visits = new int[1];
+		assertTrue(string.forEachSegment(new SegmentVisitor() {
+			public boolean visitSegment(ByteBuffer segment) {
+				visits[0]++;
+				assertTrue(segment.isDirect());
+				assertEquals(LENGTH, segment.remaining());
+				return true;
+			}
+		}));
+		assertEquals(1, visits[0]);
+	}
+
+	@Test
+	public void testCompact() {
+		final ByteString whole = ByteStrings.wrap(ByteBuffer.allocateDirect(8));
+		assertSame(whole, whole.compact());
+		final ByteString sub = string.subString(1, 3);
+		final ByteString compacted = sub.compact();
+		assertNotSame(sub, compacted);
+		assertEquals(sub, compacted);
+		assertEquals(2, compacted.toReadOnlyByteBuffer().capacity());
+		assertTrue(compacted.toReadOnlyByteBuffer().isDirect());
+		assertSame(compacted, compacted.compact());
+	}
+
+}
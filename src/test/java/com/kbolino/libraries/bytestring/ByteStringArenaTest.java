@@ -0,0 +1,268 @@
+package com.kbolino.libraries.bytestring;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.Test;
+
+public class ByteStringArenaTest {
+
+	private static ByteString bytes(final int length, final int seed) {
+		final byte[] bytes = new byte[length];
+		for (int i = 0; i < length; i++) {
+			bytes[i] = (byte) (i * 31 + seed);
+		}
+		return ByteStrings.copyFrom(bytes);
+	}
+
+	private static void checkArena(final ByteStringArena arena) {
+		for (final int length : new int[] { 0, 1, 100, 255, 256, 1000 }) {
+			final ByteString expected = bytes(length, length);
+			final PooledByteString string = arena.copyOf(expected);
+			assertEquals(expected, string);
+			assertEquals(string, expected);
+			assertEquals(expected.hashCode(), string.hashCode());
+			if (length > 0) {
+				assertEquals(expected.subString(length / 3), string.subString(length / 3));
+			}
+			assertArrayEquals(expected.toByteArray(), string.toByteArray());
+			assertEquals(length, string.toReadOnlyByteBuffer().remaining());
+			assertTrue(string.release());
+		}
+	}
+
+	@Test
+	public void testHeapArena() {
+		checkArena(ByteStrings.arena(1024, false, 4));
+	}
+
+	@Test
+	public void testDirectArena() {
+		checkArena(ByteStrings.arena(1024, true, 4));
+	}
+
+	@Test
+	public void testCopyOfArray() {
+		final ByteStringArena arena = ByteStrings.arena();
+		final byte[] bytes = bytes(100, 7).toByteArray();
+		final PooledByteString string = arena.copyOf(bytes, 10, 50);
+		bytes[10]++;
+		assertEquals(bytes(100, 7).subString(10, 60), string);
+		assertEquals(0, arena.copyOf(bytes, 0, 0).length());
+	}
+
+	@Test
+	public void testReferenceCounting() {
+		final PooledByteString string = ByteStrings.arena().copyOf(bytes(10, 0));
+		assertEquals(1, string.refCount());
+		assertSame(string, string.retain());
+		assertEquals(2, string.refCount());
+		assertFalse(string.release());
+		assertEquals(bytes(10, 0), string);
+		assertTrue(string.release());
+		assertEquals(0, string.refCount());
+		assertEquals(10, string.length());
+		try {
+			string.at(0);
+			fail("expected IllegalStateException");
+		} catch (final IllegalStateException ex) {
+			// expected
+		}
+		try {
+			string.toByteArray();
+			fail("expected IllegalStateException");
+		} catch (final IllegalStateException ex) {
+			// expected
+		}
+		try {
+			string.hashCode();
+			fail("expected IllegalStateException");
+		} catch (final IllegalStateException ex) {
+			// expected
+		}
+		try {
+			string.retain();
+			fail("expected IllegalStateException");
+		} catch (final IllegalStateException ex) {
+			// expected
+		}
+		try {
+			string.release();
+			fail("expected IllegalStateException");
+		} catch (final IllegalStateException ex) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testDerivedStringsSurviveRelease() {
+		final ByteStringArena arena = ByteStrings.arena(1024, false, 4);
+		final ByteString expected = bytes(200, 3);
+		final PooledByteString string = arena.copyOf(expected);
+		final ByteString whole = string.subString(0);
+		final ByteString part = string.subString(50, 150);
+		final ByteString compact = string.compact();
+		assertFalse(whole instanceof PooledByteString);
+		string.release();
+		// overwrite the released region
+		for (int i = 0; i < 8; i++) {
+			arena.copyOf(bytes(200, 99)).release();
+		}
+		assertEquals(expected, whole);
+		assertEquals(expected.subString(50, 150), part);
+		assertEquals(expected, compact);
+	}
+
+	@Test
+	public void testCompositeStringsBorrow() {
+		final ByteString expected = bytes(200, 5);
+		final PooledByteString string = ByteStrings.arena(1024, false, 4).copyOf(expected);
+		final ByteString suffix = bytes(300, 6);
+		final ByteString[] composites = {
+				ByteStrings.rope(string, suffix),
+				ByteStrings.rope(suffix, string, suffix),
+				ByteStrings.slice(string, 10, 190),
+				ByteStrings.reverse(string),
+		};
+		// a holder of a composite string retains the pooled string
+		string.retain();
+		final ByteString compacted = composites[0].compact();
+		string.release();
+		assertEquals(ByteStrings.concat(expected, suffix), composites[0]);
+		assertEquals(expected.subString(10, 190), composites[2]);
+		assertEquals(expected.at(0), composites[3].at(199));
+		string.release();
+		assertEquals(ByteStrings.concat(expected, suffix), compacted);
+		for (final ByteString composite : composites) {
+			try {
+				composite.toByteArray();
+				fail("expected IllegalStateException");
+			} catch (final IllegalStateException ex) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void testConcurrentAllocation() throws InterruptedException {
+		final ByteStringArena arena = ByteStrings.arena(4096, false, 8);
+		final int threadCount = 8;
+		final List<String> failures = new CopyOnWriteArrayList<String>();
+		final Thread[] threads = new Thread[threadCount];
+		for (int t = 0; t < threadCount; t++) {
+			final int seed = t;
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					for (int round = 0; round < 200; round++) {
+						final List<PooledByteString> strings = new ArrayList<PooledByteString>();
+						for (int i = 0; i < 50; i++) {
+							strings.add(arena.copyOf(bytes(1 + (i * 7 + round) % 300, seed * 1000 + i)));
+						}
+						for (int i = 0; i < strings.size(); i++) {
+							final ByteString expected = bytes(1 + (i * 7 + round) % 300, seed * 1000 + i);
+							if (!expected.equals(strings.get(i))) {
+								failures.add(String.format("thread %d, round %d, string %d", seed, round, i));
+							}
+							strings.get(i).release();
+						}
+					}
+				}
+			};
+		}
+		for (final Thread thread : threads) {
+			thread.start();
+		}
+		for (final Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(new ArrayList<String>(), failures);
+	}
+
+	@Test
+	public void testSlabRecycling() {
+		final ByteStringArena arena = ByteStrings.arena(1024, false, 4);
+		for (int round = 0; round < 100; round++) {
+			final List<PooledByteString> strings = new ArrayList<PooledByteString>();
+			for (int i = 0; i < 20; i++) {
+				strings.add(arena.copyOf(bytes(200, i)));
+			}
+			for (int i = 0; i < strings.size(); i++) {
+				assertEquals(bytes(200, i), strings.get(i));
+				strings.get(i).release();
+			}
+		}
+		// each round fills 4 slabs and part of a fifth
+		assertTrue(arena.toString(), arena.slabsAllocated() <= 10);
+	}
+
+	@Test
+	public void testUnpooled() {
+		final ByteStringArena arena = ByteStrings.arena(1024, true, 4);
+		final ByteString expected = bytes(1000, 5);
+		final PooledByteString string = arena.copyOf(expected);
+		assertEquals(0, arena.slabsAllocated());
+		assertEquals(expected, string);
+		assertTrue(string.toReadOnlyByteBuffer().isDirect());
+		assertTrue(string.release());
+	}
+
+	@Test
+	public void testReadOnlyBuffer() {
+		final PooledByteString string = ByteStrings.arena(1024, false, 4).copyOf(bytes(100, 0));
+		final ByteBuffer buffer = string.toReadOnlyByteBuffer();
+		assertTrue(buffer.isReadOnly());
+		assertEquals(100, buffer.remaining());
+		assertEquals(bytes(100, 0), ByteStrings.copyFrom(buffer));
+	}
+
+	private static void leak(final ByteStringArena arena) {
+		arena.copyOf(bytes(100, 0));
+	}
+
+	@Test
+	public void testLeakDetection() throws InterruptedException {
+		final ByteStringArena arena = ByteStrings.arena(1024, false, 4);
+		final List<Integer> lengths = new ArrayList<Integer>();
+		arena.detectLeaks(1, new ByteStringArena.LeakListener() {
+			public void leaked(final int length, final Throwable allocation) {
+				lengths.add(length);
+				assertTrue(allocation.getStackTrace().length > 0);
+			}
+		});
+		arena.copyOf(bytes(50, 0)).release();
+		leak(arena);
+		for (int i = 0; i < 100 && arena.leaks() == 0; i++) {
+			System.gc();
+			Thread.sleep(10);
+			arena.checkLeaks();
+		}
+		assertEquals(1, arena.leaks());
+		assertEquals(1, lengths.size());
+		assertEquals(100, lengths.get(0).intValue());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testDetectLeaksNegative() {
+		ByteStrings.arena().detectLeaks(-1, null);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testArenaSlabSize() {
+		ByteStrings.arena(0, false, 4);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testArenaMaxFreeSlabs() {
+		ByteStrings.arena(1024, false, -1);
+	}
+
+	@Test(expected = NullPointerException.class)
+	public void testCopyOfNull() {
+		ByteStrings.arena().copyOf((ByteString) null);
+	}
+}
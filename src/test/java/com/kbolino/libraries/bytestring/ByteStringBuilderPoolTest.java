@@ -0,0 +1,141 @@
+package com.kbolino.libraries.bytestring;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class ByteStringBuilderPoolTest {
+
+	@Test
+	public void testReuse() {
+		final ByteStringBuilderPool pool = ByteStrings.builderPool();
+		final ByteStringBuilder builder = pool.acquire(1000);
+		assertEquals(1, pool.misses());
+		assertTrue(builder.capacity() >= 1000);
+		builder.append(new byte[5000]);
+		final int capacity = builder.capacity();
+		final ByteString string = builder.toByteString();
+		pool.release(builder);
+		assertSame(builder, pool.acquire(10));
+		assertEquals(1, pool.hits());
+		assertEquals(0, builder.length());
+		assertEquals(capacity, builder.capacity());
+		builder.append(1);
+		assertEquals(5000, string.length());
+		assertEquals(0, string.at(0));
+	}
+
+	@Test
+	public void testDiscardOversized() {
+		final ByteStringBuilderPool pool = ByteStrings.builderPool(4, 4, 1000);
+		final ByteStringBuilder builder = pool.acquire(2000);
+		pool.release(builder);
+		assertEquals(1, pool.discards());
+		assertNotSame(builder, pool.acquire(0));
+		assertEquals(2, pool.misses());
+	}
+
+	@Test
+	public void testSharedTier() throws InterruptedException {
+		final ByteStringBuilderPool pool = ByteStrings.builderPool(1, 1, 1 << 20);
+		final ByteStringBuilder first = pool.acquire(0);
+		final ByteStringBuilder second = pool.acquire(0);
+		final ByteStringBuilder third = pool.acquire(0);
+		// the first fills this thread's stack, the second the shared queue
+		pool.release(first);
+		pool.release(second);
+		pool.release(third);
+		assertEquals(1, pool.discards());
+		final ByteStringBuilder[] acquired = new ByteStringBuilder[1];
+		final Thread thread = new Thread() {
+			@Override
+			public void run() {
+				acquired[0] = pool.acquire(0);
+			}
+		};
+		thread.start();
+		thread.join();
+		assertSame(second, acquired[0]);
+		assertSame(first, pool.acquire(0));
+		assertEquals(2, pool.hits());
+	}
+
+	@Test
+	public void testNoThreadLocalTier() {
+		final ByteStringBuilderPool pool = ByteStrings.builderPool(0, 2, 1 << 20);
+		final ByteStringBuilder builder = pool.acquire(0);
+		pool.release(builder);
+		assertSame(builder, pool.acquire(0));
+		assertEquals("ByteStringBuilderPool[hits=1, misses=1, discards=0]", pool.toString());
+	}
+
+	@Test
+	public void testReset() {
+		final ByteStringBuilder builder = ByteStrings.editingBuilder(0).append(new byte[]{1, 2, 3});
+		builder.insert(1, 9).reset();
+		assertEquals(0, builder.length());
+		builder.append(4);
+		assertEquals(ByteStrings.of(4), builder.toByteString());
+	}
+
+	@Test
+	public void testDoubleRelease() {
+		final ByteStringBuilderPool pool = ByteStrings.builderPool(0, 4, 1 << 20);
+		final ByteStringBuilder builder = pool.acquire(0);
+		pool.release(builder);
+		try {
+			pool.release(builder);
+			fail("expected IllegalStateException");
+		} catch (final IllegalStateException ex) {
+			// expected
+		}
+		assertSame(builder, pool.acquire(0));
+		assertNotSame(builder, pool.acquire(0));
+		// once acquired again, the builder can be released again
+		pool.release(builder);
+	}
+
+	@Test
+	public void testConcurrentDoubleRelease() throws InterruptedException {
+		final ByteStringBuilderPool pool = ByteStrings.builderPool(0, 4, 1 << 20);
+		for (int round = 0; round < 200; round++) {
+			final ByteStringBuilder builder = pool.acquire(0);
+			final CountDownLatch start = new CountDownLatch(1);
+			final AtomicInteger released = new AtomicInteger();
+			final Thread[] threads = new Thread[2];
+			for (int t = 0; t < threads.length; t++) {
+				threads[t] = new Thread() {
+					@Override
+					public void run() {
+						try {
+							start.await();
+							pool.release(builder);
+							released.incrementAndGet();
+						} catch (final InterruptedException ex) {
+							// the round fails on the count below
+						} catch (final IllegalStateException ex) {
+							// the other thread released it first
+						}
+					}
+				};
+				threads[t].start();
+			}
+			start.countDown();
+			for (final Thread thread : threads) {
+				thread.join();
+			}
+			assertEquals(1, released.get());
+			// pooled only once, so the next acquisition creates a builder
+			assertSame(builder, pool.acquire(0));
+			assertNotSame(builder, pool.acquire(0));
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNegativeSizeHint() {
+		ByteStrings.builderPool().acquire(-1);
+	}
+}
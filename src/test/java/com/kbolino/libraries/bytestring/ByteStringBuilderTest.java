@@ -1,5 +1,215 @@
 package com.kbolino.libraries.bytestring;
 
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Test;
+
 public class ByteStringBuilderTest {
-	// TODO
+
+	@After
+	public void after() {
+		ByteStrings.setSubStringPolicy(SubStringPolicy.DEFAULT);
+	}
+
+	/**
+	 * Applies the same random edits to a builder and to a reference byte
+	 * array, checking that they agree after each edit.
+	 */
+	static void checkRandomEdits(ByteStringBuilder builder, long seed) {
+		final Random random = new Random(seed);
+		byte[] expected = new byte[0];
+		for (int step = 0; step < 400; step++) {
+			final int length = expected.length;
+			final int index = random.nextInt(length + 1);
+			final byte[] bytes = new byte[random.nextInt(50)];
+			random.nextBytes(bytes);
+			switch (random.nextInt(6)) {
+			case 0:
+				builder.append(bytes);
+				expected = splice(expected, length, length, bytes);
+				break;
+			case 1:
+				builder.insert(index, ByteStrings.copyFrom(bytes));
+				expected = splice(expected, index, index, bytes);
+				break;
+			case 2:
+				builder.insert(index, ByteBuffer.wrap(bytes));
+				expected = splice(expected, index, index, bytes);
+				break;
+			case 3:
+				final int end = index + random.nextInt(length - index + 1);
+				if (index < length) {
+					builder.delete(index, end);
+					expected = splice(expected, index, end, new byte[0]);
+				}
+				break;
+			case 4:
+				final int n = Math.min(bytes.length, length - index);
+				builder.replace(index, bytes, 0, n);
+				System.arraycopy(bytes, 0, expected, index, n);
+				break;
+			default:
+				if (index < length) {
+					builder.deleteByte(index);
+					expected = splice(expected, index, index + 1, new byte[0]);
+				}
+				builder.append(bytes.length);
+				expected = splice(expected, expected.length, expected.length, new byte[]{(byte) bytes.length});
+				break;
+			}
+			assertEquals(expected.length, builder.length());
+			if (expected.length > 0) {
+				assertEquals(expected[expected.length / 2], builder.at(expected.length / 2));
+			}
+		}
+		assertEquals(ByteStrings.copyFrom(expected), builder.toByteString());
+		assertEquals(ByteStrings.copyFrom(expected), ByteStrings.copyFrom(builder.toByteArray()));
+	}
+
+	static byte[] splice(byte[] bytes, int beginIndex, int endIndex, byte[] replacement) {
+		final byte[] result = new byte[bytes.length - (endIndex - beginIndex) + replacement.length];
+		System.arraycopy(bytes, 0, result, 0, beginIndex);
+		System.arraycopy(replacement, 0, result, beginIndex, replacement.length);
+		System.arraycopy(bytes, endIndex, result, beginIndex + replacement.length, bytes.length - endIndex);
+		return result;
+	}
+
+	@Test
+	public void testArrayEdits() {
+		checkRandomEdits(ByteStrings.builder(), 17);
+	}
+
+	@Test
+	public void testChunkedEdits() {
+		checkRandomEdits(ByteStrings.chunkedBuilder(16), 17);
+		checkRandomEdits(ByteStrings.chunkedBuilder(1), 18);
+	}
+
+	@Test
+	public void testEditingEdits() {
+		checkRandomEdits(ByteStrings.editingBuilder(), 17);
+		checkRandomEdits(ByteStrings.editingBuilder(0), 22);
+	}
+
+	@Test
+	public void testEditingLocalized() {
+		final ByteStringBuilder builder = ByteStrings.editingBuilder(0);
+		builder.append(ByteStrings.range(0, 100));
+		// typing and backspacing at a cursor which moves forward
+		for (int i = 10; i < 60; i++) {
+			builder.insert(i, -1).insert(i + 1, -2).deleteByte(i + 1).deleteByte(i);
+			builder.replace(i, i + 100);
+		}
+		final ByteStringBuilder expected = ByteStrings.builder().append(ByteStrings.range(0, 100));
+		for (int i = 10; i < 60; i++) {
+			expected.replace(i, i + 100);
+		}
+		assertEquals(expected.toByteString(), builder.toByteString());
+		builder.delete(0, 10).insert(0, new byte[]{1, 2});
+		assertEquals(92, builder.length());
+		assertEquals(110, builder.at(2));
+		final ByteString detached = builder.toByteStringAndReset();
+		assertEquals(92, detached.length());
+		assertEquals(0, builder.length());
+		assertEquals(ByteStrings.of(1, 2), detached.subString(0, 2));
+	}
+
+	@Test
+	public void testAppend() {
+		final ByteStringBuilder builder = ByteStrings.builder(0);
+		builder.append(1).append(new byte[]{2, 3}).append(ByteStrings.of(4, 5));
+		builder.append(ByteBuffer.wrap(new byte[]{6, 7}).asReadOnlyBuffer());
+		assertEquals(ByteStrings.of(1, 2, 3, 4, 5, 6, 7), builder.toByteString());
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testInsertOutOfBounds() {
+		ByteStrings.builder().append(1).insert(2, new byte[]{1});
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testReplaceOutOfBounds() {
+		ByteStrings.builder().append(1).replace(0, new byte[]{1, 2});
+	}
+
+	@Test
+	public void testChunkedBlocks() {
+		final ByteStringBuilder builder = ByteStrings.chunkedBuilder(1000);
+		assertEquals(0, builder.capacity());
+		builder.append(1);
+		// the block size is rounded up to a power of two
+		assertEquals(1024, builder.capacity());
+		final byte[] bytes = new byte[5000];
+		new Random(19).nextBytes(bytes);
+		builder.truncate(0).append(bytes);
+		assertEquals(5120, builder.capacity());
+		final ByteString string = builder.toByteString();
+		assertTrue(string instanceof RopeByteString);
+		assertEquals(5, ((RopeByteString) string).strings().size());
+		assertEquals(ByteStrings.copyFrom(bytes), string);
+	}
+
+	@Test
+	public void testChunkedCopyOnWrite() {
+		ByteStrings.setSubStringPolicy(SubStringPolicy.alwaysShare());
+		final ByteStringBuilder builder = ByteStrings.chunkedBuilder(16);
+		final byte[] bytes = new byte[40];
+		new Random(20).nextBytes(bytes);
+		builder.append(bytes);
+		final ByteString first = builder.toByteString();
+		builder.replace(3, 0).insert(20, ByteStrings.fill(9, 5)).append(7).truncate(10).append(8);
+		assertEquals(ByteStrings.copyFrom(bytes), first);
+		final ByteString second = builder.toByteString();
+		builder.delete(0, 5);
+		assertEquals(11, second.length());
+		assertEquals(8, second.at(10));
+		assertEquals(0, second.at(3));
+		assertEquals(6, builder.length());
+	}
+
+	@Test
+	public void testToByteStringAndReset() {
+		final ByteStringBuilder builder = ByteStrings.builder(4);
+		final byte[] bytes = new byte[]{1, 2, 3, 4};
+		builder.append(bytes);
+		final ByteString full = builder.toByteStringAndReset();
+		assertEquals(0, builder.length());
+		builder.append(new byte[]{5, 6, 7, 8});
+		assertEquals(4, builder.capacity());
+		assertEquals(ByteStrings.copyFrom(bytes), full);
+		assertEquals(ByteStrings.of(5, 6, 7, 8), builder.toByteStringAndReset());
+		assertSame(ByteStrings.empty(), builder.toByteStringAndReset());
+	}
+
+	@Test
+	public void testToByteStringAndResetSlack() {
+		// mostly full, so the array is shared through a view
+		ByteStringBuilder builder = ByteStrings.builder(100);
+		builder.append(new byte[90]);
+		ArrayByteString string = (ArrayByteString) builder.toByteStringAndReset();
+		assertEquals(90, string.length());
+		assertEquals(100, string.array().length);
+		// mostly empty, so the array is trimmed
+		builder = ByteStrings.builder(1000);
+		builder.append(new byte[90]);
+		string = (ArrayByteString) builder.toByteStringAndReset();
+		assertEquals(90, string.array().length);
+	}
+
+	@Test
+	public void testChunkedToByteStringAndReset() {
+		final ByteStringBuilder builder = ByteStrings.chunkedBuilder(16);
+		final byte[] bytes = new byte[40];
+		new Random(21).nextBytes(bytes);
+		builder.append(bytes);
+		final ByteString string = builder.toByteStringAndReset();
+		assertEquals(0, builder.length());
+		assertEquals(0, builder.capacity());
+		builder.append(new byte[40]);
+		assertEquals(ByteStrings.copyFrom(bytes), string);
+	}
 }
@@ -0,0 +1,84 @@
+package com.kbolino.libraries.bytestring;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ByteStringInputStreamTest {
+	static final int LENGTH = 3 * Utils.CHUNK_SIZE + 11;
+	byte[] bytes;
+	ByteString string;
+	InputStream in;
+
+	@Before
+	public void before() {
+		bytes = new byte[LENGTH];
+		new Random(16).nextBytes(bytes);
+		// a rope, so that bulk reads cross leaves
+		string = ByteStrings.rope(ByteStrings.copyFrom(bytes, 0, 1000),
+				ByteStrings.copyFrom(bytes, 1000, LENGTH - 1000));
+		in = string.newInputStream();
+	}
+
+	@Test
+	public void testRead() throws IOException {
+		for (int i = 0; i < LENGTH; i++) {
+			assertEquals(bytes[i] & 0xFF, in.read());
+		}
+		assertEquals(-1, in.read());
+	}
+
+	@Test
+	public void testReadArray() throws IOException {
+		final byte[] read = new byte[LENGTH + 2];
+		assertEquals(0, in.read(read, 0, 0));
+		assertEquals(990, in.read(read, 1, 990));
+		assertEquals(LENGTH - 990, in.read(read, 991, LENGTH + 2 - 991));
+		assertEquals(-1, in.read(read, 0, 1));
+		assertEquals(ByteStrings.copyFrom(bytes), ByteStrings.copyFrom(read, 1, LENGTH));
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testReadArrayOutOfBounds() throws IOException {
+		in.read(new byte[10], 5, 6);
+	}
+
+	@Test
+	public void testSkipAndAvailable() throws IOException {
+		assertEquals(LENGTH, in.available());
+		assertEquals(0, in.skip(-1));
+		assertEquals(100, in.skip(100));
+		assertEquals(LENGTH - 100, in.available());
+		assertEquals(bytes[100] & 0xFF, in.read());
+		assertEquals(LENGTH - 101, in.skip(Long.MAX_VALUE));
+		assertEquals(0, in.available());
+		assertEquals(-1, in.read());
+	}
+
+	@Test
+	public void testMarkReset() throws IOException {
+		assertTrue(in.markSupported());
+		in.skip(995);
+		in.mark(0);
+		final byte[] first = new byte[10];
+		assertEquals(10, in.read(first));
+		in.reset();
+		final byte[] second = new byte[10];
+		assertEquals(10, in.read(second));
+		assertEquals(ByteStrings.copyFrom(first), ByteStrings.copyFrom(second));
+		assertEquals(string.subString(995, 1005), ByteStrings.copyFrom(first));
+	}
+
+	@Test
+	public void testEmpty() throws IOException {
+		final InputStream empty = ByteStrings.empty().newInputStream();
+		assertEquals(0, empty.available());
+		assertEquals(-1, empty.read());
+		assertEquals(-1, empty.read(new byte[1], 0, 1));
+	}
+}
@@ -0,0 +1,151 @@
+package com.kbolino.libraries.bytestring;
+
+import static org.junit.Assert.*;
+
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.junit.Test;
+
+public class ByteStringInternerTest {
+
+	private static ByteString key(final int i) {
+		return ByteStrings.copyFrom(("tenant-" + i).getBytes());
+	}
+
+	@Test
+	public void testCanonical() {
+		final ByteStringInterner interner = ByteStrings.interner();
+		final byte[] bytes = "xx tenant-1 xx".getBytes();
+		final ByteString view = ByteStrings.copyFrom(bytes).subString(3, 11);
+		final ByteString canonical = interner.intern(view);
+		assertEquals(key(1), canonical);
+		assertTrue(canonical instanceof ArrayByteString);
+		assertSame(canonical, canonical.compact());
+		final ByteString rope = ByteStrings.rope(ByteStrings.copyFrom("tena".getBytes()),
+				ByteStrings.copyFrom("nt-1".getBytes()));
+		assertSame(canonical, interner.intern(rope));
+		assertSame(canonical, interner.intern(ByteStrings.slice(key(1), 0)));
+		assertSame(canonical, interner.intern(ByteStrings.wrap(ByteBuffer.wrap("tenant-1".getBytes()))));
+		assertSame(canonical, interner.intern(canonical));
+		assertNotSame(canonical, interner.intern(key(2)));
+		assertEquals(2, interner.size());
+	}
+
+	@Test
+	public void testStatistics() {
+		final ByteStringInterner interner = ByteStrings.interner(4);
+		assertEquals(0, interner.hitRate(), 0);
+		final ByteString canonical = interner.intern(key(1));
+		interner.intern(key(1));
+		interner.intern(key(1));
+		interner.intern(canonical);
+		interner.intern(key(2));
+		assertSame(Utils.EMPTY_STRING, interner.intern(ByteStrings.empty()));
+		assertEquals(5, interner.lookups());
+		assertEquals(3, interner.hits());
+		assertEquals(0.6, interner.hitRate(), 1e-9);
+		// interning the canonical instance itself saves nothing
+		assertEquals(2 * key(1).length(), interner.bytesSaved());
+	}
+
+	@Test
+	public void testPooledCopied() {
+		final PooledByteString pooled = ByteStrings.arena().copyOf(key(3));
+		final ByteString canonical = ByteStrings.interner().intern(pooled);
+		assertNotSame(pooled, canonical);
+		pooled.release();
+		assertEquals(key(3), canonical);
+	}
+
+	@Test
+	public void testWrappedArrayCopied() {
+		final byte[] bytes = "tenant-5".getBytes();
+		final ByteString wrapped = ByteStrings.wrap(ByteBuffer.wrap(bytes));
+		final ByteString canonical = ByteStrings.interner().intern(wrapped);
+		assertNotSame(wrapped, canonical);
+		bytes[0] = 'T';
+		assertEquals(key(5), canonical);
+	}
+
+	private static WeakReference<ByteString> internUnreachable(final ByteStringInterner interner) {
+		return new WeakReference<ByteString>(interner.intern(key(4)));
+	}
+
+	@Test
+	public void testWeak() throws InterruptedException {
+		final ByteStringInterner interner = ByteStrings.interner();
+		final WeakReference<ByteString> ref = internUnreachable(interner);
+		for (int i = 0; i < 100 && ref.get() != null; i++) {
+			System.gc();
+			Thread.sleep(10);
+		}
+		assertNull(ref.get());
+		assertEquals(0, interner.size());
+	}
+
+	@Test
+	public void testBounded() {
+		final ByteStringInterner interner = ByteStrings.boundedInterner(1, 2);
+		final ByteString first = interner.intern(key(1));
+		final ByteString second = interner.intern(key(2));
+		assertSame(first, interner.intern(key(1)));
+		interner.intern(key(3));
+		assertEquals(2, interner.size());
+		// key 2 was the least recently interned
+		assertSame(first, interner.intern(key(1)));
+		assertNotSame(second, interner.intern(key(2)));
+	}
+
+	@Test
+	public void testConcurrent() throws InterruptedException {
+		final ByteStringInterner interner = ByteStrings.interner(8);
+		final int keys = 1000;
+		final AtomicReferenceArray<ByteString> canonical = new AtomicReferenceArray<ByteString>(keys);
+		final Thread[] threads = new Thread[4];
+		final boolean[] failed = new boolean[1];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < keys; i++) {
+						final ByteString string = interner.intern(key(i));
+						if (!canonical.compareAndSet(i, null, string) && canonical.get(i) != string) {
+							failed[0] = true;
+						}
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (final Thread thread : threads) {
+			thread.join();
+		}
+		assertFalse(failed[0]);
+		assertEquals(keys, interner.size());
+		assertEquals(keys * (threads.length - 1), interner.hits());
+	}
+
+	@Test
+	public void testGlobal() {
+		final ByteString canonical = ByteStrings.intern(key(5));
+		assertSame(canonical, ByteStrings.intern(key(5)));
+		assertTrue(ByteStrings.globalInterner().hits() >= 1);
+	}
+
+	@Test(expected = NullPointerException.class)
+	public void testInternNull() {
+		ByteStrings.intern(null);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testConcurrencyLevel() {
+		ByteStrings.interner(0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testMaxSize() {
+		ByteStrings.boundedInterner(4, 0);
+	}
+}
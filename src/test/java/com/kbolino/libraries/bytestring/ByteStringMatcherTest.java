@@ -0,0 +1,130 @@
+package com.kbolino.libraries.bytestring;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ByteStringMatcherTest {
+	
+	static ByteString string(String s) {
+		return ByteStrings.copyFrom(s.getBytes());
+	}
+	
+	/** Collects matches as "pattern@begin-end" strings. */
+	static class Collector implements ByteStringMatcher.Handler {
+		final List<String> matches = new ArrayList<String>();
+		
+		public boolean onMatch(int pattern, int beginIndex, int endIndex) {
+			matches.add(pattern + "@" + beginIndex + "-" + endIndex);
+			return true;
+		}
+	}
+	
+	static List<String> cursorMatches(ByteStringMatcher matcher, ByteString text) {
+		List<String> matches = new ArrayList<String>();
+		ByteStringMatcher.Matches cursor = matcher.matches(text);
+		while (cursor.next()) {
+			matches.add(cursor.pattern() + "@" + cursor.beginIndex() + "-" + cursor.endIndex());
+		}
+		return matches;
+	}
+	
+	@Test
+	public void testClassicExample() {
+		ByteStringMatcher matcher = ByteStrings.matcher(
+				string("he"), string("she"), string("his"), string("hers"));
+		ByteString text = string("ushers");
+		Collector collector = new Collector();
+		assertTrue(matcher.match(text, collector));
+		List<String> expected = Arrays.asList("1@1-4", "0@2-4", "3@2-6");
+		assertEquals(expected, collector.matches);
+		assertEquals(expected, cursorMatches(matcher, text));
+	}
+	
+	@Test
+	public void testArrayView() {
+		ByteStringMatcher matcher = ByteStrings.matcher(string("he"), string("ers"));
+		ByteString text = new ArrayByteString("xxushersxx".getBytes(), 2, 6);
+		Collector collector = new Collector();
+		assertTrue(matcher.match(text, collector));
+		List<String> expected = Arrays.asList("0@2-4", "1@3-6");
+		assertEquals(expected, collector.matches);
+		assertEquals(expected, cursorMatches(matcher, text));
+		assertEquals(Arrays.asList(3), ByteStrings.compile(string("ers")).findAll(text));
+	}
+	
+	@Test
+	public void testDuplicatesAndNesting() {
+		ByteStringMatcher matcher = ByteStrings.matcher(string("a"), string("aa"), string("a"));
+		assertEquals(3, matcher.size());
+		assertEquals(Arrays.asList("0@0-1", "2@0-1", "1@0-2", "0@1-2", "2@1-2"),
+				cursorMatches(matcher, string("aa")));
+	}
+	
+	@Test
+	public void testStop() {
+		ByteStringMatcher matcher = ByteStrings.matcher(string("x"));
+		final int[] count = new int[1];
+		assertFalse(matcher.match(string("xxx"), new ByteStringMatcher.Handler() {
+			public boolean onMatch(int pattern, int beginIndex, int endIndex) {
+				count[0]++;
+				return false;
+			}
+		}));
+		assertEquals(1, count[0]);
+	}
+	
+	@Test
+	public void testAgainstIndexOf() {
+		Random random = new Random(5);
+		byte[] text = new byte[3 * Utils.CHUNK_SIZE];
+		for (int i = 0; i < text.length; i++) {
+			text[i] = (byte)random.nextInt(3);
+		}
+		List<ByteString> patterns = new ArrayList<ByteString>();
+		for (int p = 0; p < 20; p++) {
+			byte[] pattern = new byte[1 + random.nextInt(6)];
+			for (int i = 0; i < pattern.length; i++) {
+				pattern[i] = (byte)random.nextInt(3);
+			}
+			patterns.add(new ArrayByteString(pattern));
+		}
+		List<String> expected = new ArrayList<String>();
+		ByteString array = new ArrayByteString(text);
+		for (int p = 0; p < patterns.size(); p++) {
+			for (int i : ByteStrings.compile(patterns.get(p)).findAll(array)) {
+				expected.add(p + "@" + i + "-" + (i + patterns.get(p).length()));
+			}
+		}
+		Collections.sort(expected);
+		ByteStringMatcher matcher = ByteStrings.matcher(patterns);
+		ByteString rope = new RopeByteString(new ByteString[]{
+				array.subString(0, 1000), array.subString(1000, 5000), array.subString(5000)});
+		for (ByteString t : Arrays.asList(array, rope)) {
+			Collector collector = new Collector();
+			matcher.match(t, collector);
+			Collections.sort(collector.matches);
+			assertEquals(expected, collector.matches);
+			List<String> cursor = cursorMatches(matcher, t);
+			Collections.sort(cursor);
+			assertEquals(expected, cursor);
+		}
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testEmptyPattern() {
+		ByteStrings.matcher(string("a"), ByteStrings.empty());
+	}
+	
+	@Test(expected = IllegalStateException.class)
+	public void testNoCurrentMatch() {
+		ByteStrings.matcher(string("a")).matches(string("b")).pattern();
+	}
+	
+}
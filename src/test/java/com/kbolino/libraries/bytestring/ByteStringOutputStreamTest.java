@@ -0,0 +1,86 @@
+package com.kbolino.libraries.bytestring;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ByteStringOutputStreamTest {
+	byte[] bytes;
+	ByteStringOutputStream out;
+
+	@Before
+	public void before() {
+		bytes = new byte[200 * 1000];
+		new Random(16).nextBytes(bytes);
+		out = ByteStrings.newOutputStream(16);
+	}
+
+	@After
+	public void after() {
+		ByteStrings.setSubStringPolicy(SubStringPolicy.DEFAULT);
+	}
+
+	@Test
+	public void testWrite() throws IOException {
+		assertSame(ByteStrings.empty(), out.toByteString());
+		out.write(bytes[0]);
+		out.write(bytes, 1, 999);
+		out.write(bytes, 1000, bytes.length - 1000);
+		assertEquals(bytes.length, out.size());
+		final ByteString string = out.toByteString();
+		assertEquals(ByteStrings.copyFrom(bytes), string);
+		// the chunks become the leaves of a rope
+		assertTrue(string instanceof RopeByteString);
+	}
+
+	@Test
+	public void testWriteString() throws IOException {
+		final ByteString string = ByteStrings.rope(ByteStrings.copyFrom(bytes, 0, 500),
+				ByteStrings.fill(7, 10000));
+		out.write(string);
+		assertEquals(string, out.toByteString());
+	}
+
+	@Test
+	public void testToByteStringThenWrite() throws IOException {
+		ByteStrings.setSubStringPolicy(SubStringPolicy.alwaysShare());
+		out.write(bytes, 0, 10);
+		final ByteString first = out.toByteString();
+		out.write(bytes, 10, 100);
+		final ByteString second = out.toByteString();
+		assertEquals(ByteStrings.copyFrom(bytes, 0, 10), first);
+		assertEquals(ByteStrings.copyFrom(bytes, 0, 110), second);
+	}
+
+	@Test
+	public void testReset() throws IOException {
+		ByteStrings.setSubStringPolicy(SubStringPolicy.alwaysShare());
+		out.write(bytes, 0, 10);
+		final ByteString first = out.toByteString();
+		out.reset();
+		assertEquals(0, out.size());
+		out.write(bytes, 10, 10);
+		assertEquals(ByteStrings.copyFrom(bytes, 0, 10), first);
+		assertEquals(ByteStrings.copyFrom(bytes, 10, 10), out.toByteString());
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testWriteOutOfBounds() throws IOException {
+		out.write(bytes, bytes.length, 1);
+	}
+
+	@Test
+	public void testWriteTo() throws IOException {
+		final ByteString rope = ByteStrings.rope(ByteStrings.copyFrom(bytes, 0, 5000),
+				ByteStrings.copyFrom(bytes, 5000, 5000));
+		rope.writeTo(out);
+		ByteStrings.fill(1, 3 * Utils.CHUNK_SIZE).writeTo(out);
+		assertEquals(ByteStrings.concat(rope, ByteStrings.fill(1, 3 * Utils.CHUNK_SIZE)),
+				out.toByteString());
+	}
+}
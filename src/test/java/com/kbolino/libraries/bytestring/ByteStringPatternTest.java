@@ -0,0 +1,92 @@
+package com.kbolino.libraries.bytestring;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ByteStringPatternTest {
+	
+	static List<Integer> naiveFindAll(byte[] text, byte[] pattern) {
+		List<Integer> matches = new ArrayList<Integer>();
+		for (int i = 0; i + pattern.length <= text.length; i++) {
+			if (Utils.equalRange(text, i, pattern, 0, pattern.length)) {
+				matches.add(i);
+			}
+		}
+		return matches;
+	}
+	
+	static byte[] random(Random random, int length, int alphabet) {
+		byte[] bytes = new byte[length];
+		for (int i = 0; i < length; i++) {
+			bytes[i] = (byte)random.nextInt(alphabet);
+		}
+		return bytes;
+	}
+	
+	@Test
+	public void testAgainstNaiveSearch() {
+		Random random = new Random(1);
+		int[] patternLengths = {1, 2, 3, 4, 7, 16, 255, 256, 300, 1000};
+		for (int patternLength : patternLengths) {
+			for (int alphabet = 1; alphabet <= 4; alphabet++) {
+				byte[] text = random(random, 3 * Utils.CHUNK_SIZE, alphabet);
+				byte[] pattern = random(random, patternLength, alphabet);
+				// plant the pattern across a window boundary
+				System.arraycopy(pattern, 0, text, Utils.CHUNK_SIZE - patternLength / 2, patternLength);
+				List<Integer> expected = naiveFindAll(text, pattern);
+				ByteStringPattern compiled = ByteStrings.compile(new ArrayByteString(pattern));
+				ByteString array = new ArrayByteString(text);
+				int half = text.length / 2 + 1;
+				ByteString rope = new RopeByteString(new ByteString[]{
+						array.subString(0, half), array.subString(half)});
+				String message = "length " + patternLength + ", alphabet " + alphabet;
+				assertEquals(message, expected, compiled.findAll(array));
+				assertEquals(message, expected, compiled.findAll(rope));
+				int first = expected.isEmpty() ? -1 : expected.get(0);
+				assertEquals(message, first, compiled.indexIn(array));
+				assertEquals(message, first, rope.indexOf(new ArrayByteString(pattern)));
+			}
+		}
+	}
+	
+	@Test
+	public void testPeriodicPattern() {
+		byte[] pattern = new byte[400];
+		Arrays.fill(pattern, (byte)1);
+		pattern[399] = 2;
+		byte[] text = new byte[2000];
+		Arrays.fill(text, (byte)1);
+		text[1500] = 2;
+		ByteStringPattern compiled = ByteStrings.compile(new ArrayByteString(pattern));
+		assertEquals(1101, compiled.indexIn(new ArrayByteString(text)));
+		assertEquals(-1, compiled.indexIn(new ArrayByteString(text), 1102));
+	}
+	
+	@Test
+	public void testEmptyPattern() {
+		ByteStringPattern empty = ByteStrings.compile(ByteStrings.empty());
+		assertEquals(0, empty.length());
+		assertEquals(1, empty.indexIn(ByteStrings.of(1, 2), 1));
+		assertEquals(Arrays.asList(0, 1, 2), empty.findAll(ByteStrings.of(1, 2)));
+	}
+	
+	@Test
+	public void testCrlf() {
+		ByteString request = ByteStrings.copyFrom("GET / HTTP/1.1\r\nHost: a\r\n\r\nbody".getBytes());
+		ByteStringPattern headerEnd = ByteStrings.compile(ByteStrings.of('\r', '\n', '\r', '\n'));
+		assertEquals(23, headerEnd.indexIn(request));
+		assertEquals(Arrays.asList(23), headerEnd.findAll(request));
+	}
+	
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testIndexInOutOfBounds() {
+		ByteStrings.compile(ByteStrings.of(1)).indexIn(ByteStrings.of(1, 2), 2);
+	}
+	
+}
@@ -2,6 +2,8 @@ package com.kbolino.libraries.bytestring;
 
 import static org.junit.Assert.*;
 
+import java.nio.ByteBuffer;
+
 import org.junit.Before;
 import org.junit.Test;
 
@@ -41,6 +43,23 @@ public class ByteStringSliceTest {
 	@Test
 	public void testIndexOf() {
 		assertEquals(2, s2.indexOf(s1));
+		assertEquals(1, s2.indexOf(16));
+		assertEquals(-1, s2.indexOf(10));
+		assertEquals(-1, s2.indexOf(22));
+	}
+	
+	@Test
+	public void testForEachSegment() {
+		final int[] visits = new int[1];
+		assertTrue(s2.forEachSegment(new SegmentVisitor() {
+			public boolean visitSegment(ByteBuffer segment) {
+				visits[0]++;
+				assertEquals(4, segment.remaining());
+				assertEquals(14, segment.get(segment.position()));
+				return true;
+			}
+		}));
+		assertEquals(1, visits[0]);
 	}
 	
 	@Test
@@ -53,4 +72,12 @@ public class ByteStringSliceTest {
 		assertEquals(20, bytes[3]);
 	}
 	
+	@Test
+	public void testCompact() {
+		ByteString compacted = s2.compact();
+		assertTrue(compacted instanceof ArrayByteString);
+		assertEquals(s2, compacted);
+		assertEquals(4, ((ArrayByteString) compacted).array().length);
+	}
+	
 }
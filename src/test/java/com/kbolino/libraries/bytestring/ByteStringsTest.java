@@ -2,7 +2,20 @@ package com.kbolino.libraries.bytestring;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -103,6 +116,52 @@ public class ByteStringsTest {
 		assertEquals(Utils.EMPTY_STRING, ByteStrings.concat());
 	}
 	
+	@Test
+	public void testHash64() {
+		ByteString string = ByteStrings.of(0, 10, 20);
+		assertEquals(ByteStrings.hash64(string, 1), ByteStrings.hash64(ByteStrings.copyFrom(bytes), 1));
+		assertFalse(ByteStrings.hash64(string, 1) == ByteStrings.hash64(string, 2));
+		assertFalse(ByteStrings.hash64(string, 1) == ByteStrings.hash64(ByteStrings.of(20, 10, 0), 1));
+	}
+	
+	@Test
+	public void testComparator() {
+		List<ByteString> sorted = Arrays.asList(
+				ByteStrings.empty(),
+				ByteStrings.of(0),
+				ByteStrings.of(0, 0),
+				ByteStrings.fill(0, 20),
+				new RopeByteString(new ByteString[]{ByteStrings.fill(0, 19), ByteStrings.of(1)}),
+				ByteStrings.of(1),
+				ByteStrings.of(127),
+				ByteStrings.single(128),
+				ByteStrings.of(255, 0));
+		List<ByteString> shuffled = new ArrayList<ByteString>(sorted);
+		Collections.shuffle(shuffled, new Random(3));
+		Collections.sort(shuffled, ByteStrings.comparator());
+		assertEquals(sorted, shuffled);
+		Collections.shuffle(shuffled, new Random(4));
+		Collections.sort(shuffled);
+		assertEquals(sorted, shuffled);
+	}
+	
+	@Test
+	public void testRope() {
+		ByteString big = ByteStrings.fill(1, RopeByteString.LEAF_THRESHOLD);
+		List<ByteString> strings = Arrays.asList(big, ByteStrings.empty(), ByteStrings.of(2),
+				ByteStrings.rope(big, big));
+		ByteString rope = ByteStrings.rope(strings);
+		assertEquals(ByteStrings.concat(strings), rope);
+		assertEquals(4, strings.size());
+		assertSame(big, ByteStrings.rope(Collections.singletonList(big)));
+		assertSame(ByteStrings.empty(), ByteStrings.rope(new ArrayList<ByteString>()));
+	}
+	
+	@Test(expected = NullPointerException.class)
+	public void testRopeNullElement() {
+		ByteStrings.rope(ByteStrings.of(1), null);
+	}
+	
 	@Test
 	public void testConcat() {
 		ByteString string = ByteStrings.concat(ByteStrings.of(0), ByteStrings.of(10, 20), ByteStrings.of(20));
@@ -112,4 +171,134 @@ public class ByteStringsTest {
 		assertEquals(20, string.at(2));
 		assertEquals(20, string.at(3));
 	}
+	
+	static File tempFile(byte[] content) throws IOException {
+		File file = File.createTempFile("bytestring", ".bin");
+		file.deleteOnExit();
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(content);
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+	
+	@Test
+	public void testMap() throws IOException {
+		byte[] content = new byte[3 * Utils.CHUNK_SIZE + 1];
+		new Random(5).nextBytes(content);
+		ByteString expected = ByteStrings.copyFrom(content);
+		ByteString mapped = ByteStrings.map(tempFile(content));
+		assertEquals(expected, mapped);
+		assertTrue(mapped.toReadOnlyByteBuffer().isDirect());
+		ByteString sub = mapped.subString(100, 2 * Utils.CHUNK_SIZE);
+		assertEquals(expected.subString(100, 2 * Utils.CHUNK_SIZE), sub);
+		assertEquals(expected.indexOf(sub), mapped.indexOf(sub));
+		assertSame(ByteStrings.empty(), ByteStrings.map(tempFile(new byte[0])));
+	}
+	
+	@Test
+	public void testMapChannel() throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(tempFile(new byte[]{0, 1, 2, 3, 4}), "r");
+		ByteString mapped;
+		try {
+			mapped = ByteStrings.map(raf.getChannel(), 1, 3);
+		} finally {
+			raf.close();
+		}
+		assertEquals(ByteStrings.of(1, 2, 3), mapped);
+	}
+	
+	static byte[] randomBytes(int length, long seed) {
+		byte[] content = new byte[length];
+		new Random(seed).nextBytes(content);
+		return content;
+	}
+	
+	@Test
+	public void testReadFrom() throws IOException {
+		final int length = 5 * ByteStrings.READ_CHUNK_SIZE + 100;
+		byte[] content = randomBytes(length, 15);
+		ReadableByteChannel channel = Channels.newChannel(new ByteArrayInputStream(content));
+		ByteString head = ByteStrings.readFrom(channel, 2 * ByteStrings.READ_CHUNK_SIZE);
+		assertTrue(head instanceof RopeByteString);
+		assertEquals(ByteStrings.copyFrom(content, 0, 2 * ByteStrings.READ_CHUNK_SIZE), head);
+		ByteString tail = ByteStrings.readFrom(channel, Integer.MAX_VALUE);
+		assertEquals(ByteStrings.copyFrom(content, 2 * ByteStrings.READ_CHUNK_SIZE,
+				length - 2 * ByteStrings.READ_CHUNK_SIZE), tail);
+		assertSame(ByteStrings.empty(), ByteStrings.readFrom(channel, 10));
+	}
+	
+	@Test
+	public void testReadFromScattering() throws IOException {
+		final int length = 40 * ByteStrings.READ_CHUNK_SIZE + 7;
+		byte[] content = randomBytes(length, 16);
+		RandomAccessFile raf = new RandomAccessFile(tempFile(content), "r");
+		ByteString read;
+		try {
+			read = ByteStrings.readFully(raf.getChannel(), length);
+		} finally {
+			raf.close();
+		}
+		assertEquals(ByteStrings.copyFrom(content), read);
+		// the chunks are the leaves of the rope
+		assertEquals(41, ((RopeByteString) read).strings().size());
+	}
+	
+	@Test
+	public void testReadFromNonBlocking() throws IOException {
+		final byte[] content = randomBytes(100, 17);
+		// delivers 30 bytes, then nothing, as a non-blocking socket might
+		ReadableByteChannel channel = new ReadableByteChannel() {
+			int position;
+			
+			public int read(ByteBuffer dst) {
+				int n = Math.min(dst.remaining(), 30 - position);
+				dst.put(content, position, n);
+				position += n;
+				return n;
+			}
+			
+			public boolean isOpen() {
+				return true;
+			}
+			
+			public void close() {
+			}
+		};
+		ByteString read = ByteStrings.readFrom(channel, 100);
+		assertEquals(ByteStrings.copyFrom(content, 0, 30), read);
+		// the partial chunk is copied rather than pinned
+		assertEquals(30, read.compact().length());
+		assertSame(read, read.compact());
+	}
+	
+	@Test(expected = EOFException.class)
+	public void testReadFullyEOF() throws IOException {
+		ByteStrings.readFully(Channels.newChannel(new ByteArrayInputStream(new byte[10])), 11);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testReadFromNegative() throws IOException {
+		ByteStrings.readFrom(Channels.newChannel(new ByteArrayInputStream(new byte[10])), -1);
+	}
+	
+	@Test
+	public void testMapRegions() throws IOException {
+		byte[] content = new byte[10];
+		for (int i = 0; i < content.length; i++) {
+			content[i] = (byte) i;
+		}
+		List<ByteString> regions = ByteStrings.mapRegions(tempFile(content), 4);
+		assertEquals(Arrays.asList(ByteStrings.of(0, 1, 2, 3), ByteStrings.of(4, 5, 6, 7),
+				ByteStrings.of(8, 9)), regions);
+		assertTrue(ByteStrings.mapRegions(tempFile(new byte[0]), 4).isEmpty());
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testMapRegionsZeroLength() throws IOException {
+		ByteStrings.mapRegions(tempFile(new byte[1]), 0);
+	}
+	
 }
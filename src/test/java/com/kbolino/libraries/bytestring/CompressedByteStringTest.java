@@ -0,0 +1,123 @@
+package com.kbolino.libraries.bytestring;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class CompressedByteStringTest {
+	private static final int BLOCK = CompressedByteString.BLOCK_SIZE;
+
+	/** Text-like content, which compresses well. */
+	private static ByteString text(final int length) {
+		final byte[] words = "tenant metric header value blob cache ".getBytes();
+		final Random random = new Random(length);
+		final byte[] bytes = new byte[length];
+		for (int i = 0; i < length; i++) {
+			bytes[i] = words[(i + random.nextInt(3)) % words.length];
+		}
+		return ByteStrings.copyFrom(bytes);
+	}
+
+	private static ByteString random(final int length) {
+		final byte[] bytes = new byte[length];
+		new Random(length).nextBytes(bytes);
+		return ByteStrings.copyFrom(bytes);
+	}
+
+	private static void checkEqual(final ByteString expected, final ByteString compressed) {
+		final int length = expected.length();
+		assertEquals(length, compressed.length());
+		assertEquals(expected, compressed);
+		assertEquals(compressed, expected);
+		assertEquals(expected.hashCode(), compressed.hashCode());
+		assertArrayEquals(expected.toByteArray(), compressed.toByteArray());
+		final Random random = new Random(length);
+		for (int i = 0; i < 100; i++) {
+			final int index = random.nextInt(length);
+			assertEquals(expected.at(index), compressed.at(index));
+		}
+		assertEquals(expected.at(length - 1), compressed.at(length - 1));
+		for (int i = 0; i < 20; i++) {
+			final int begin = random.nextInt(length);
+			final int end = begin + 1 + random.nextInt(length - begin);
+			assertEquals(expected.subString(begin, end), compressed.subString(begin, end));
+			final ByteBuffer buffer = ByteBuffer.allocate(end - begin);
+			compressed.subString(begin).copyTo(buffer, end - begin);
+			buffer.flip();
+			assertEquals(expected.subString(begin, end), ByteStrings.copyFrom(buffer));
+		}
+		int total = 0;
+		final ByteBuffer all = ByteBuffer.allocate(length);
+		for (final ByteBuffer buffer : compressed.toReadOnlyByteBuffers()) {
+			total += buffer.remaining();
+			all.put(buffer);
+		}
+		assertEquals(length, total);
+		all.flip();
+		assertEquals(expected, ByteStrings.copyFrom(all));
+	}
+
+	@Test
+	public void testRoundTrip() {
+		for (final int length : new int[] { 1, 1000, BLOCK - 1, BLOCK, BLOCK + 1, 3 * BLOCK + 17 }) {
+			for (final boolean cached : new boolean[] { true, false }) {
+				checkEqual(text(length), ByteStrings.compress(text(length), 6, cached));
+				checkEqual(random(length), ByteStrings.compress(random(length), 1, cached));
+			}
+		}
+	}
+
+	@Test
+	public void testCompressedSource() {
+		final ByteString rope = ByteStrings.rope(text(BLOCK + 5), random(100), text(BLOCK / 2));
+		checkEqual(rope, ByteStrings.compress(rope, -1));
+		final ByteString twice = ByteStrings.compress(ByteStrings.compress(rope, 9), 0, false);
+		checkEqual(rope, twice);
+	}
+
+	@Test
+	public void testKeepsOnlyCompressedBytes() {
+		final ByteString expected = text(4 * BLOCK);
+		final CompressedByteString compressed = (CompressedByteString) ByteStrings.compress(expected, 9);
+		assertTrue(compressed.compressedLength() < expected.length() / 2);
+		assertSame(compressed, compressed.compact());
+	}
+
+	@Test
+	public void testWriteTo() throws IOException {
+		final ByteString expected = text(2 * BLOCK + 3);
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ByteStrings.compress(expected, 6, false).writeTo(out);
+		assertEquals(expected, ByteStrings.copyFrom(out.toByteArray()));
+	}
+
+	@Test
+	public void testEmpty() {
+		assertSame(ByteStrings.empty(), ByteStrings.compress(ByteStrings.empty(), 6));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testLevelTooLow() {
+		ByteStrings.compress(text(10), -2);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testLevelTooHigh() {
+		ByteStrings.compress(text(10), 10);
+	}
+
+	@Test(expected = NullPointerException.class)
+	public void testNull() {
+		ByteStrings.compress(null, 6);
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testAtOutOfBounds() {
+		ByteStrings.compress(text(10), 6).at(10);
+	}
+}
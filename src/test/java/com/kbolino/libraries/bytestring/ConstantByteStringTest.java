@@ -86,6 +86,27 @@ public class ConstantByteStringTest {
 		assertEquals(-1, a3.indexOf(b, 1));
 		assertEquals(-1, a.indexOf(a3));
 		assertEquals(-1, a.indexOf(a3, 0));
+		ConstantByteString empty = new ConstantByteString(A, 0);
+		assertEquals(-1, empty.indexOf(A, 0));
+		assertEquals(-1, empty.lastIndexOf(A, 0));
+		assertEquals(-1, empty.lastIndexOf(A));
+	}
+	
+	@Test
+	public void testForEachSegment() {
+		ConstantByteString big = new ConstantByteString(B, 2 * Utils.CHUNK_SIZE + 1);
+		final int[] total = new int[1];
+		assertTrue(big.forEachSegment(new SegmentVisitor() {
+			public boolean visitSegment(ByteBuffer segment) {
+				while (segment.hasRemaining()) {
+					assertEquals(B, segment.get());
+					total[0]++;
+				}
+				return true;
+			}
+		}));
+		assertEquals(big.length(), total[0]);
+		assertEquals(big.length(), big.count(B));
 	}
 	
 	@Test
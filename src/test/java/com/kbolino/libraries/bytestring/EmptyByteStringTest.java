@@ -69,6 +69,14 @@ public class EmptyByteStringTest {
 		e.copyTo(ByteBuffer.allocate(0).asReadOnlyBuffer()); // should not throw exceptions
 	}
 	
+	@Test
+	public void testIndexOfValue() {
+		assertEquals(-1, e.indexOf(0));
+		assertEquals(-1, e.indexOf(0, 0));
+		assertEquals(-1, e.lastIndexOf(0));
+		assertEquals(-1, e.lastIndexOf(0, 0));
+	}
+	
 	@Test
 	public void testContains() {
 		assertTrue(e.contains(e));
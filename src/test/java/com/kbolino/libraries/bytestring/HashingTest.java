@@ -0,0 +1,65 @@
+package com.kbolino.libraries.bytestring;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class HashingTest {
+
+	@Test
+	public void testIncrementalUpdate() {
+		byte[] bytes = new byte[37];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte)(i * 7);
+		}
+		Hashing.Hasher whole = new Hashing.Hasher(42);
+		whole.update(bytes, 0, bytes.length);
+		for (int split = 0; split <= bytes.length; split++) {
+			Hashing.Hasher pieces = new Hashing.Hasher(42);
+			pieces.update(bytes, 0, split);
+			pieces.update(bytes, split, bytes.length - split);
+			assertEquals(whole.finish(), pieces.finish());
+		}
+	}
+
+	@Test
+	public void testRepresentationIndependent() {
+		ByteString array = ByteStrings.of(1, 2, 3, 1, 2, 3, 1, 2, 3);
+		ByteString repeated = ByteStrings.repeat(ByteStrings.of(1, 2, 3), 3);
+		assertEquals(Hashing.hash64(array, 0), Hashing.hash64(repeated, 0));
+		assertEquals(array.hashCode(), repeated.hashCode());
+		assertEquals(Hashing.sipHash(array, 7), Hashing.sipHash(repeated, 7));
+	}
+
+	@Test
+	public void testSipHashVectors() {
+		// the reference vectors, keyed with the bytes 0 to 15
+		final long k0 = 0x0706050403020100L;
+		final long k1 = 0x0f0e0d0c0b0a0908L;
+		byte[] bytes = new byte[15];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte) i;
+		}
+		assertEquals(0x726fdb47dd0e0e31L, Hashing.sipHash(ByteStrings.empty(), k0, k1));
+		assertEquals(0x93f5f5799a932462L, Hashing.sipHash(ByteStrings.copyFrom(bytes, 0, 8), k0, k1));
+		assertEquals(0xa129ca6149be45e5L, Hashing.sipHash(ByteStrings.copyFrom(bytes), k0, k1));
+	}
+
+	@Test
+	public void testSipHashIncrementalUpdate() {
+		byte[] bytes = new byte[37];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte)(i * 7);
+		}
+		Hashing.SipHasher whole = new Hashing.SipHasher(42, 43);
+		whole.update(bytes, 0, bytes.length);
+		final long expected = whole.finish();
+		for (int split = 0; split <= bytes.length; split++) {
+			Hashing.SipHasher pieces = new Hashing.SipHasher(42, 43);
+			pieces.update(bytes, 0, split);
+			pieces.update(bytes, split, bytes.length - split);
+			assertEquals(expected, pieces.finish());
+		}
+	}
+
+}
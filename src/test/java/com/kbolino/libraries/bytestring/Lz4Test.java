@@ -0,0 +1,188 @@
+package com.kbolino.libraries.bytestring;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class Lz4Test {
+	private static final int BLOCK = Lz4.BLOCK_SIZE;
+	private static final int[] LENGTHS = { 1, 12, 13, 100, 4096, BLOCK - 1, BLOCK, BLOCK + 1, 3 * BLOCK + 5 };
+
+	/** Record-like content, which compresses well. */
+	private static ByteString text(final int length) {
+		final Random random = new Random(length);
+		final StringBuilder builder = new StringBuilder(length + 100);
+		while (builder.length() < length) {
+			builder.append("tenant=t-").append(random.nextInt(100)).append(" metric=latency value=")
+					.append(random.nextInt(10000)).append('\n');
+		}
+		return ByteStrings.copyFrom(builder.substring(0, length).getBytes());
+	}
+
+	private static ByteString random(final int length) {
+		final byte[] bytes = new byte[length];
+		new Random(length).nextBytes(bytes);
+		return ByteStrings.copyFrom(bytes);
+	}
+
+	private static void checkRoundTrip(final ByteString expected) throws IOException {
+		final ByteString compressed = ByteStrings.lz4Compress(expected);
+		assertEquals(expected, ByteStrings.lz4Decompress(compressed));
+		final InputStream in = ByteStrings.newLz4InputStream(compressed.newInputStream());
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final byte[] buffer = new byte[1000];
+		int n;
+		while ((n = in.read(buffer)) >= 0) {
+			out.write(buffer, 0, n);
+		}
+		assertEquals(-1, in.read());
+		assertEquals(expected, ByteStrings.copyFrom(out.toByteArray()));
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		checkRoundTrip(ByteStrings.empty());
+		for (final int length : LENGTHS) {
+			checkRoundTrip(text(length));
+			checkRoundTrip(random(length));
+			checkRoundTrip(ByteStrings.zeros(length));
+			checkRoundTrip(ByteStrings.repeat(ByteStrings.of(1, 2, 3), length));
+		}
+	}
+
+	@Test
+	public void testSegmentedSource() throws IOException {
+		final ByteString rope = ByteStrings.rope(text(BLOCK - 7), random(300), text(2 * BLOCK));
+		checkRoundTrip(rope);
+		checkRoundTrip(ByteStrings.slice(rope, 5, 2 * BLOCK));
+	}
+
+	@Test
+	public void testRatio() {
+		final ByteString text = text(4 * BLOCK);
+		final ByteString compressed = ByteStrings.lz4Compress(text);
+		assertTrue(compressed.length() < text.length() / 2);
+		assertTrue(ByteStrings.lz4Compress(ByteStrings.zeros(BLOCK)).length() < 300);
+		// incompressible blocks are stored, so only the headers are added
+		final ByteString random = random(2 * BLOCK + 1);
+		assertEquals(random.length() + 3 * Lz4.HEADER_SIZE + Lz4.END_MARK_SIZE,
+				ByteStrings.lz4Compress(random).length());
+	}
+
+	@Test
+	public void testBlockFormat() {
+		// one literal, an overlapping match of 19, and five final literals
+		final byte[] block = { 0x1F, 'a', 1, 0, 0, 0x50, 'a', 'a', 'a', 'a', 'a' };
+		final byte[] bytes = new byte[25];
+		Lz4.decompress(block, 0, block.length, bytes, 0, bytes.length);
+		assertEquals(ByteStrings.fill('a', 25), ByteStrings.copyFrom(bytes));
+	}
+
+	@Test
+	public void testMalformedBlocks() {
+		final byte[][] blocks = {
+				{ 0x1F, 'a', 2, 0, 0, 0x50, 'a', 'a', 'a', 'a', 'a' },
+				{ 0x1F, 'a', 0, 0, 0, 0x50, 'a', 'a', 'a', 'a', 'a' },
+				{ 0x1F, 'a', 1 },
+				{ (byte) 0xF0, (byte) 255 },
+				{ 0x60, 'a', 'a', 'a', 'a', 'a' },
+				{},
+		};
+		for (final byte[] block : blocks) {
+			try {
+				Lz4.decompress(block, 0, block.length, new byte[25], 0, 25);
+				fail("expected IllegalArgumentException");
+			} catch (final IllegalArgumentException ex) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void testMalformedFrames() {
+		final ByteString compressed = ByteStrings.lz4Compress(text(BLOCK + 100));
+		final ByteString[] frames = {
+				compressed.subString(0, compressed.length() - 1),
+				compressed.subString(0, compressed.length() - Lz4.END_MARK_SIZE),
+				ByteStrings.concat(compressed, ByteStrings.of(0)),
+				ByteStrings.of(0, 0, 0, 5, 0x80, 0, 0, 4, 1, 2, 3, 4, 0, 0, 0, 0),
+				ByteStrings.of(0, 2, 0, 1, 0, 0, 0, 1, 0, 0, 0, 0, 0),
+				ByteStrings.empty(),
+		};
+		for (final ByteString frame : frames) {
+			try {
+				ByteStrings.lz4Decompress(frame);
+				fail("expected IllegalArgumentException");
+			} catch (final IllegalArgumentException ex) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void testOutputStream() throws IOException {
+		final ByteString expected = text(3 * BLOCK + 1234);
+		final ByteStringOutputStream collector = ByteStrings.newOutputStream();
+		final OutputStream out = ByteStrings.newLz4OutputStream(collector);
+		final byte[] bytes = expected.toByteArray();
+		int position = 0;
+		final Random random = new Random(0);
+		while (position < bytes.length) {
+			final int n = Math.min(bytes.length - position, random.nextInt(2 * BLOCK));
+			if (n % 7 == 0) {
+				out.flush();
+			} else if (n % 5 == 0 && n > 0) {
+				out.write(bytes[position++]);
+				continue;
+			}
+			out.write(bytes, position, n);
+			position += n;
+		}
+		out.close();
+		out.close();
+		assertEquals(expected, ByteStrings.lz4Decompress(collector.toByteString()));
+		try {
+			out.write(1);
+			fail("expected IOException");
+		} catch (final IOException ex) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testOutputStreamWriteTo() throws IOException {
+		final ByteString expected = ByteStrings.rope(text(BLOCK + 3), random(BLOCK), text(17));
+		final ByteStringOutputStream collector = ByteStrings.newOutputStream();
+		final OutputStream out = ByteStrings.newLz4OutputStream(collector);
+		expected.writeTo(out);
+		out.close();
+		assertEquals(ByteStrings.lz4Compress(expected), collector.toByteString());
+	}
+
+	@Test(expected = EOFException.class)
+	public void testInputStreamTruncated() throws IOException {
+		final ByteString compressed = ByteStrings.lz4Compress(text(1000));
+		final InputStream in = ByteStrings.newLz4InputStream(
+				compressed.subString(0, compressed.length() - Lz4.END_MARK_SIZE).newInputStream());
+		while (in.read() >= 0) {
+			// drain
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void testInputStreamMalformed() throws IOException {
+		ByteStrings.newLz4InputStream(ByteStrings.of(0, 0, 0, 5, 0, 0, 0, 99).newInputStream()).read();
+	}
+
+	@Test(expected = NullPointerException.class)
+	public void testCompressNull() {
+		ByteStrings.lz4Compress(null);
+	}
+}
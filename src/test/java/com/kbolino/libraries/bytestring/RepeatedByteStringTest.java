@@ -2,6 +2,10 @@ package com.kbolino.libraries.bytestring;
 
 import static org.junit.Assert.*;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
 import org.junit.Before;
 import org.junit.Test;
 
@@ -46,6 +50,53 @@ public class RepeatedByteStringTest {
 		assertEquals(1, r2.indexOf(r3));
 		assertEquals(1, r3.indexOf(10));
 		assertEquals(2, r3.indexOf(11, 2));
+		assertEquals(-1, r3.indexOf(12));
+		assertEquals(3, r2.indexOf(11, 2));
+		assertEquals(4, new RepeatedByteString(ByteStrings.of(1, 2, 3), 2).indexOf(2, 2));
+	}
+	
+	@Test
+	public void testCount() {
+		assertEquals(4, r2.count(10));
+		assertEquals(0, r2.count(12));
+	}
+	
+	@Test
+	public void testEmptyString() {
+		RepeatedByteString empty = new RepeatedByteString(Utils.EMPTY_STRING, 3);
+		assertEquals(0, empty.length());
+		assertEquals(ByteStrings.empty().hashCode(), empty.hashCode());
+		assertEquals(ByteStrings.empty(), empty);
+		assertEquals(empty, ByteStrings.empty());
+		assertEquals(0, empty.compareTo(ByteStrings.empty()));
+		assertEquals(0, empty.count(0));
+		assertEquals(-1, empty.indexOf(0));
+		assertEquals(-1, empty.lastIndexOf(0));
+		assertEquals(0, empty.toByteArray().length);
+		assertEquals(0, empty.toReadOnlyByteBuffers().length);
+		assertSame(ByteStrings.empty(), ByteStrings.repeat(ByteStrings.empty(), 3));
+	}
+	
+	@Test
+	public void testBuffersShareTile() {
+		ByteString abc = ByteStrings.of(1, 2, 3);
+		RepeatedByteString repeated = new RepeatedByteString(abc, 100000);
+		List<ByteBuffer> buffers = new ArrayList<ByteBuffer>();
+		repeated.addBuffers(5, repeated.length() - 7, buffers);
+		ByteStringBuilder builder = ByteStrings.builder();
+		int tileLength = 0;
+		for (ByteBuffer buffer : buffers) {
+			assertTrue(buffer.isReadOnly());
+			tileLength = Math.max(tileLength, buffer.remaining());
+			builder.append(buffer);
+		}
+		// whole repetitions at least one chunk long, rather than one copy of the range
+		assertEquals(Utils.CHUNK_SIZE + 2, tileLength);
+		assertTrue(buffers.size() > repeated.length() / tileLength);
+		assertEquals(repeated.subString(5, repeated.length() - 7), builder.toByteString());
+		// a short range is copied
+		assertEquals(1, r2.toReadOnlyByteBuffers().length);
+		assertEquals(r2, ByteStrings.copyFrom(r2.toReadOnlyByteBuffers()[0]));
 	}
 	
 }
@@ -0,0 +1,154 @@
+package com.kbolino.libraries.bytestring;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ReversedByteStringTest {
+	private static final int LENGTH = 2 * Utils.CHUNK_SIZE + 31;
+
+	private static byte[] content(final int length) {
+		final Random random = new Random(length);
+		final byte[] bytes = new byte[length];
+		for (int i = 0; i < length; i++) {
+			// a small alphabet, so that searches find many matches
+			bytes[i] = (byte) random.nextInt(4);
+		}
+		return bytes;
+	}
+
+	private static byte[] reversed(final byte[] bytes) {
+		final byte[] reversed = new byte[bytes.length];
+		for (int i = 0; i < bytes.length; i++) {
+			reversed[i] = bytes[bytes.length - 1 - i];
+		}
+		return reversed;
+	}
+
+	/** The strings to reverse, all with the same content. */
+	private static ByteString[] sources(final byte[] bytes) {
+		final int third = bytes.length / 3;
+		return new ByteString[] {
+				ByteStrings.copyFrom(bytes),
+				ByteStrings.rope(ByteStrings.copyFrom(bytes, 0, third),
+						ByteStrings.copyFrom(bytes, third, third),
+						ByteStrings.copyFrom(bytes, 2 * third, bytes.length - 2 * third)),
+				ByteStrings.slice(ByteStrings.concat(ByteStrings.of(9), ByteStrings.copyFrom(bytes)), 1),
+				ByteStrings.wrap((ByteBuffer) ByteBuffer.allocateDirect(bytes.length).put(bytes).flip()),
+				new AbstractByteStringTest.MinimalByteString(bytes),
+		};
+	}
+
+	private static int naiveIndexOf(final byte[] text, final byte[] pattern, final int fromIndex) {
+		for (int i = fromIndex; i <= text.length - pattern.length; i++) {
+			if (Utils.equalRange(text, i, pattern, 0, pattern.length)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static int naiveLastIndexOf(final byte[] text, final byte[] pattern, final int fromIndex) {
+		for (int i = Math.min(fromIndex, text.length - pattern.length); i >= 0; i--) {
+			if (Utils.equalRange(text, i, pattern, 0, pattern.length)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	@Test
+	public void testContent() {
+		final byte[] bytes = content(LENGTH);
+		final ByteString expected = ByteStrings.copyFrom(reversed(bytes));
+		for (final ByteString source : sources(bytes)) {
+			final ByteString reversed = ByteStrings.reverse(source);
+			assertEquals(LENGTH, reversed.length());
+			assertEquals(bytes[LENGTH - 1], reversed.at(0));
+			assertEquals(bytes[0], reversed.at(LENGTH - 1));
+			assertEquals(expected, reversed);
+			assertEquals(reversed, expected);
+			assertEquals(expected.hashCode(), reversed.hashCode());
+			assertArrayEquals(reversed(bytes), reversed.toByteArray());
+			final byte[] part = new byte[Utils.CHUNK_SIZE + 7];
+			reversed.subString(LENGTH / 3, LENGTH / 3 + part.length).copyTo(part);
+			assertEquals(expected.subString(LENGTH / 3, LENGTH / 3 + part.length), ByteStrings.copyFrom(part));
+			assertEquals(expected.subString(5, LENGTH - 9), reversed.subString(5, LENGTH - 9));
+			assertEquals(expected, reversed.compact());
+			assertEquals(expected.count(2), reversed.count(2));
+		}
+	}
+
+	@Test
+	public void testReverseTwice() {
+		final ByteString source = ByteStrings.copyFrom(content(100));
+		final ByteString reversed = ByteStrings.reverse(source);
+		assertTrue(reversed instanceof ReversedByteString);
+		assertSame(source, ByteStrings.reverse(reversed));
+		assertEquals(source, ByteStrings.reverse(reversed.subString(0)));
+	}
+
+	@Test
+	public void testOwnReverse() {
+		final ByteString single = ByteStrings.of(7);
+		assertSame(single, ByteStrings.reverse(single));
+		assertSame(ByteStrings.empty(), ByteStrings.reverse(ByteStrings.empty()));
+		final ByteString constant = ByteStrings.fill(3, 1000);
+		assertSame(constant, ByteStrings.reverse(constant));
+	}
+
+	@Test
+	public void testIndexOfValue() {
+		final byte[] bytes = content(LENGTH);
+		bytes[10] = 9;
+		bytes[LENGTH - 20] = 9;
+		final ByteString reversed = ByteStrings.reverse(ByteStrings.copyFrom(bytes));
+		assertEquals(19, reversed.indexOf(9));
+		assertEquals(LENGTH - 11, reversed.indexOf(9, 20));
+		assertEquals(-1, reversed.indexOf(9, LENGTH - 10));
+		assertEquals(LENGTH - 11, reversed.lastIndexOf(9));
+		assertEquals(19, reversed.lastIndexOf(9, LENGTH - 12));
+		assertEquals(-1, reversed.lastIndexOf(9, 18));
+	}
+
+	@Test
+	public void testIndexOfString() {
+		final byte[] bytes = content(LENGTH);
+		final byte[] text = reversed(bytes);
+		final Random random = new Random(1);
+		for (final ByteString source : sources(bytes)) {
+			final ByteString reversed = ByteStrings.reverse(source);
+			for (int k = 0; k < 50; k++) {
+				final int m = 1 + random.nextInt(8);
+				final int at = random.nextInt(LENGTH - m);
+				final byte[] pattern = new byte[m];
+				System.arraycopy(text, at, pattern, 0, m);
+				final ByteString p = ByteStrings.copyFrom(pattern);
+				final int from = random.nextInt(LENGTH);
+				assertEquals(naiveIndexOf(text, pattern, from), reversed.indexOf(p, from));
+				assertEquals(naiveLastIndexOf(text, pattern, from), reversed.lastIndexOf(p, from));
+				assertEquals(naiveIndexOf(text, pattern, 0), reversed.indexOf(p));
+				assertEquals(naiveLastIndexOf(text, pattern, LENGTH), reversed.lastIndexOf(p));
+				// the reversed view searches like the underlying string, backwards
+				assertEquals(naiveLastIndexOf(bytes, pattern, from), source.lastIndexOf(p, from));
+			}
+			assertEquals(3, reversed.indexOf(ByteStrings.empty(), 3));
+			assertEquals(LENGTH, reversed.lastIndexOf(ByteStrings.empty()));
+			assertEquals(-1, reversed.indexOf(ByteStrings.of(9)));
+			assertEquals(-1, reversed.lastIndexOf(ByteStrings.copyFrom(new byte[LENGTH + 1])));
+		}
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testAtOutOfBounds() {
+		ByteStrings.reverse(ByteStrings.of(1, 2)).at(2);
+	}
+
+	@Test(expected = NullPointerException.class)
+	public void testReverseNull() {
+		ByteStrings.reverse(null);
+	}
+}
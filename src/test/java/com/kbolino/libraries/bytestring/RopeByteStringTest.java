@@ -2,6 +2,16 @@ package com.kbolino.libraries.bytestring;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
 import org.junit.Before;
 import org.junit.Test;
 
@@ -49,4 +59,318 @@ public class RopeByteStringTest {
 		assertEquals(-1, r.indexOf(11, 2));
 	}
 	
+	@Test
+	public void testForEachSegment() {
+		final List<ByteString> segments = new ArrayList<ByteString>();
+		SegmentVisitor collector = new SegmentVisitor() {
+			public boolean visitSegment(ByteBuffer segment) {
+				assertTrue(segment.isReadOnly());
+				segments.add(ByteStrings.copyFrom(segment));
+				return true;
+			}
+		};
+		assertTrue(r.forEachSegment(collector));
+		assertEquals(2, segments.size());
+		assertEquals(b1, segments.get(0));
+		assertEquals(b2, segments.get(1));
+		segments.clear();
+		assertTrue(r.forEachSegment(1, 4, collector));
+		assertEquals(2, segments.size());
+		assertEquals(b1.subString(1), segments.get(0));
+		assertEquals(b2.subString(0, 1), segments.get(1));
+		assertFalse(r.forEachSegment(new SegmentVisitor() {
+			public boolean visitSegment(ByteBuffer segment) {
+				return false;
+			}
+		}));
+	}
+	
+	static ByteString piece(Random random, int length) {
+		byte[] bytes = new byte[length];
+		random.nextBytes(bytes);
+		return new ArrayByteString(bytes);
+	}
+	
+	static int maxDepth(ByteString string) {
+		// a balanced rope of length n is no deeper than log_phi(n) + 2
+		return (int) Math.ceil(Math.log(string.length()) / Math.log((1 + Math.sqrt(5)) / 2)) + 2;
+	}
+	
+	static void checkRope(ByteString expected, ByteString rope) {
+		assertEquals(expected, rope);
+		Random random = new Random(7);
+		for (int i = 0; i < 100; i++) {
+			int index = random.nextInt(rope.length());
+			assertEquals(expected.at(index), rope.at(index));
+			int end = index + random.nextInt(rope.length() - index + 1);
+			assertEquals(expected.subString(index, end), rope.subString(index, end));
+		}
+		if (rope instanceof RopeByteString) {
+			assertTrue(((RopeByteString) rope).depth() <= maxDepth(rope));
+		}
+	}
+	
+	@Test
+	public void testAppend() {
+		Random random = new Random(1);
+		ByteStringBuilder builder = ByteStrings.builder();
+		ByteString rope = ByteStrings.empty();
+		for (int i = 0; i < 2000; i++) {
+			ByteString piece = piece(random, RopeByteString.LEAF_THRESHOLD + random.nextInt(100));
+			builder.append(piece);
+			rope = ByteStrings.rope(rope, piece);
+		}
+		assertTrue(rope instanceof RopeByteString);
+		checkRope(builder.toByteString(), rope);
+	}
+	
+	static void checkFibonacciDepth(ByteString rope) {
+		// a tree of depth d must be at least as long as the (d+1)th Fibonacci number
+		long f1 = 1, f2 = 1;
+		for (int d = ((RopeByteString) rope).depth(); d > 0; d--) {
+			long f3 = f1 + f2;
+			f1 = f2;
+			f2 = f3;
+		}
+		assertTrue(rope.length() >= f1);
+	}
+	
+	@Test
+	public void testAppendManyPieces() {
+		Random random = new Random(8);
+		ByteString rope = ByteStrings.empty();
+		ByteString reversed = ByteStrings.empty();
+		for (int i = 0; i < 10000; i++) {
+			ByteString piece = piece(random, 200);
+			rope = ByteStrings.rope(rope, piece);
+			reversed = ByteStrings.rope(piece, reversed);
+			if (i % 1000 == 999) {
+				checkFibonacciDepth(rope);
+				checkFibonacciDepth(reversed);
+			}
+		}
+		checkFibonacciDepth(rope.subString(1, rope.length() - 1));
+		checkFibonacciDepth(rope.subString(rope.length() / 3, rope.length() / 2));
+	}
+	
+	@Test
+	public void testPrepend() {
+		Random random = new Random(2);
+		ByteString expected = ByteStrings.empty();
+		ByteString rope = ByteStrings.empty();
+		for (int i = 0; i < 500; i++) {
+			ByteString piece = piece(random, RopeByteString.LEAF_THRESHOLD + random.nextInt(100));
+			expected = ByteStrings.concat(piece, expected);
+			rope = ByteStrings.rope(piece, rope);
+		}
+		checkRope(expected, rope);
+	}
+	
+	@Test
+	public void testRopeOfRopes() {
+		Random random = new Random(3);
+		List<ByteString> ropes = new ArrayList<ByteString>();
+		List<ByteString> pieces = new ArrayList<ByteString>();
+		for (int i = 0; i < 50; i++) {
+			List<ByteString> group = new ArrayList<ByteString>();
+			for (int j = 0; j <= i % 7; j++) {
+				group.add(piece(random, 1 + random.nextInt(3 * RopeByteString.LEAF_THRESHOLD)));
+			}
+			pieces.addAll(group);
+			ropes.add(ByteStrings.rope(group));
+		}
+		checkRope(ByteStrings.concat(pieces), ByteStrings.rope(ropes));
+	}
+	
+	@Test
+	public void testCoalesceSmallLeaves() {
+		Random random = new Random(4);
+		ByteStringBuilder builder = ByteStrings.builder();
+		ByteString rope = ByteStrings.empty();
+		for (int i = 0; i < 1000; i++) {
+			ByteString piece = piece(random, 1 + random.nextInt(4));
+			builder.append(piece);
+			rope = ByteStrings.rope(rope, piece);
+		}
+		checkRope(builder.toByteString(), rope);
+		List<ByteString> leaves = ((RopeByteString) rope).strings();
+		for (ByteString leaf : leaves.subList(0, leaves.size() - 1)) {
+			assertTrue(leaf.length() >= RopeByteString.LEAF_THRESHOLD - 4);
+		}
+	}
+	
+	@Test
+	public void testStrings() {
+		ByteString b3 = new ArrayByteString(new byte[]{15});
+		RopeByteString r3 = new RopeByteString(new ByteString[]{b1, b2, b3});
+		assertEquals(Arrays.asList(b1, b2, b3), r3.strings());
+		assertEquals(2, r3.depth());
+	}
+	
+	@Test
+	public void testAppendSeveral() {
+		Random random = new Random(5);
+		ByteStringBuilder builder = ByteStrings.builder();
+		ByteString rope = ByteStrings.empty();
+		for (int i = 0; i < 300; i++) {
+			ByteString p1 = piece(random, RopeByteString.LEAF_THRESHOLD + random.nextInt(100));
+			ByteString p2 = piece(random, 1 + random.nextInt(2 * RopeByteString.LEAF_THRESHOLD));
+			builder.append(p1).append(p2);
+			rope = ByteStrings.rope(rope, p1, p2);
+		}
+		checkRope(builder.toByteString(), rope);
+	}
+	
+	@Test
+	public void testFinger() {
+		Random random = new Random(6);
+		List<ByteString> pieces = new ArrayList<ByteString>();
+		for (int i = 0; i < 100; i++) {
+			pieces.add(piece(random, RopeByteString.LEAF_THRESHOLD + random.nextInt(100)));
+		}
+		ByteString expected = ByteStrings.concat(pieces);
+		ByteString rope = ByteStrings.rope(pieces);
+		// forward, backward, and jumping between leaves
+		for (int i = 0; i < rope.length(); i++) {
+			assertEquals(expected.at(i), rope.at(i));
+		}
+		for (int i = rope.length() - 1; i >= 0; i--) {
+			assertEquals(expected.at(i), rope.at(i));
+		}
+		for (int i = 0; i < 1000; i++) {
+			int index = random.nextInt(rope.length());
+			assertEquals(expected.at(index), rope.at(index));
+		}
+	}
+	
+	/** Splits a string into a rope at the given cut points, without coalescing. */
+	static ByteString split(ByteString string, int... cuts) {
+		ByteString[] pieces = new ByteString[cuts.length + 1];
+		int begin = 0;
+		for (int i = 0; i < cuts.length; i++) {
+			pieces[i] = string.subString(begin, cuts[i]);
+			begin = cuts[i];
+		}
+		pieces[cuts.length] = string.subString(begin);
+		return new RopeByteString(pieces);
+	}
+	
+	static int[] randomCuts(Random random, int length, int count) {
+		TreeSet<Integer> cuts = new TreeSet<Integer>();
+		while (cuts.size() < count) {
+			cuts.add(1 + random.nextInt(length - 1));
+		}
+		int[] result = new int[count];
+		int i = 0;
+		for (int cut : cuts) {
+			result[i++] = cut;
+		}
+		return result;
+	}
+	
+	@Test
+	public void testIndexOfAcrossLeaves() {
+		Random random = new Random(8);
+		byte[] bytes = new byte[5000];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte) random.nextInt(2);
+		}
+		ByteString flat = new ArrayByteString(bytes);
+		ByteString rope = split(flat, randomCuts(random, bytes.length, 1500));
+		for (int m : new int[]{1, 3, 5, 12, 40}) {
+			ByteString pattern = flat.subString(2500, 2500 + m);
+			ByteStringPattern compiled = ByteStrings.compile(pattern);
+			assertEquals(compiled.findAll(flat), compiled.findAll(rope));
+			assertEquals(flat.indexOf(pattern, 1000), rope.indexOf(pattern, 1000));
+		}
+	}
+	
+	@Test
+	public void testEqualsDifferentSegmentation() {
+		Random random = new Random(9);
+		ByteString flat = piece(random, 3000);
+		ByteString r1 = split(flat, randomCuts(random, 3000, 40));
+		ByteString r2 = split(flat, randomCuts(random, 3000, 70));
+		assertEquals(r1, r2);
+		assertEquals(r1.hashCode(), r2.hashCode());
+		assertEquals(0, r1.compareTo(r2));
+		assertTrue(r1.startsWith(r2.subString(0, 2000)));
+		assertTrue(r1.endsWith(r2.subString(1000)));
+		assertFalse(r1.startsWith(r2.subString(1, 2000)));
+		byte[] changed = flat.toByteArray();
+		changed[2345]++;
+		ByteString r3 = split(new ArrayByteString(changed), randomCuts(random, 3000, 55));
+		assertFalse(r1.equals(r3));
+		assertEquals(2345, r1.mismatch(r3));
+		assertEquals(2345, r3.mismatch(flat));
+		assertArrayEquals(flat.toByteArray(), r1.toByteArray());
+	}
+	
+	@Test
+	public void testToReadOnlyByteBuffers() {
+		final Random random = new Random(14);
+		final List<ByteString> pieces = new ArrayList<ByteString>();
+		for (int i = 0; i < 10; i++) {
+			pieces.add(piece(random, RopeByteString.LEAF_THRESHOLD + random.nextInt(100)));
+		}
+		final ByteString rope = ByteStrings.rope(pieces);
+		final ByteBuffer[] buffers = rope.subString(1, rope.length() - 1).toReadOnlyByteBuffers();
+		assertEquals(pieces.size(), buffers.length);
+		// the leaves are shared, not copied
+		assertEquals(pieces.get(0).length() - 1, buffers[0].remaining());
+		assertEquals(pieces.get(1).length(), buffers[1].remaining());
+		final ByteStringBuilder builder = ByteStrings.builder();
+		for (int i = 0; i < buffers.length; i++) {
+			assertTrue(buffers[i].isReadOnly());
+			assertEquals(0, buffers[i].position());
+			builder.append(ByteStrings.copyFrom(buffers[i]));
+		}
+		assertEquals(rope.subString(1, rope.length() - 1), builder.toByteString());
+	}
+
+	@Test
+	public void testWriteToGathering() throws IOException {
+		final Random random = new Random(15);
+		final List<ByteString> pieces = new ArrayList<ByteString>();
+		for (int i = 0; i < 5; i++) {
+			pieces.add(piece(random, RopeByteString.LEAF_THRESHOLD + random.nextInt(100)));
+		}
+		final ByteString rope = ByteStrings.rope(pieces);
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final int[] calls = new int[1];
+		final GatheringByteChannel channel = new GatheringByteChannel() {
+			public long write(ByteBuffer[] srcs, int offset, int length) {
+				calls[0]++;
+				// accept at most two buffers per call
+				long n = 0;
+				for (int i = offset; i < Math.min(offset + 2, offset + length); i++) {
+					n += write(srcs[i]);
+				}
+				return n;
+			}
+
+			public long write(ByteBuffer[] srcs) {
+				return write(srcs, 0, srcs.length);
+			}
+
+			public int write(ByteBuffer src) {
+				final int n = src.remaining();
+				while (src.hasRemaining()) {
+					out.write(src.get());
+				}
+				return n;
+			}
+
+			public boolean isOpen() {
+				return true;
+			}
+
+			public void close() {
+			}
+		};
+		assertEquals(rope.length(), rope.writeTo(channel));
+		assertEquals(3, calls[0]);
+		assertEquals(rope, ByteStrings.copyFrom(out.toByteArray()));
+	}
+
 }
@@ -0,0 +1,37 @@
+package com.kbolino.libraries.bytestring;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class SubStringPolicyTest {
+
+	@Test
+	public void testShare() {
+		assertTrue(SubStringPolicy.alwaysShare().share(0, 1000));
+		assertFalse(SubStringPolicy.alwaysCopy().share(1000, 1000));
+		SubStringPolicy policy = SubStringPolicy.copyBelow(64, 8);
+		assertFalse(policy.share(63, 64));
+		assertTrue(policy.share(64, 64));
+		assertTrue(policy.share(64, 512));
+		assertFalse(policy.share(64, 513));
+		assertTrue(SubStringPolicy.copyBelow(0, 0).share(1, Integer.MAX_VALUE));
+		assertTrue(SubStringPolicy.copyBelow(0, 8).share(Integer.MAX_VALUE / 2, Integer.MAX_VALUE));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNegativeLength() {
+		SubStringPolicy.copyBelow(-1, 0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNegativeRatio() {
+		SubStringPolicy.copyBelow(0, -1);
+	}
+
+	@Test(expected = NullPointerException.class)
+	public void testSetNull() {
+		ByteStrings.setSubStringPolicy(null);
+	}
+
+}
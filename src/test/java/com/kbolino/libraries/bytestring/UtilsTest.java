@@ -1,6 +1,35 @@
 package com.kbolino.libraries.bytestring;
 
+import static org.junit.Assert.*;
+
+import org.junit.Test;
 
 public class UtilsTest {
-	// TODO
+	
+	@Test
+	public void testZeroBytes() {
+		assertEquals(0x8080808080808080L, Utils.zeroBytes(0L));
+		assertEquals(0L, Utils.zeroBytes(-1L));
+		// no false positive above a zero byte, as with the borrowing trick
+		assertEquals(0x0000000000000080L, Utils.zeroBytes(0x0101010101010100L));
+		assertEquals(0x8000000000000000L, Utils.zeroBytes(0x0001010101010101L));
+	}
+	
+	@Test
+	public void testWordScans() {
+		final byte[] bytes = new byte[67];
+		for (int match = 0; match < bytes.length; match++) {
+			bytes[match] = -1;
+			for (int from = 0; from < bytes.length; from += 5) {
+				final int expectedFirst = match >= from ? match : -1;
+				assertEquals(expectedFirst, Utils.indexOf(bytes, from, bytes.length, (byte)-1));
+				final int expectedLast = match < bytes.length - from ? match : -1;
+				assertEquals(expectedLast, Utils.lastIndexOf(bytes, 0, bytes.length - from, (byte)-1));
+			}
+			assertEquals(1, Utils.count(bytes, 0, bytes.length, (byte)-1));
+			assertEquals(bytes.length - 1, Utils.count(bytes, 0, bytes.length, (byte)0));
+			bytes[match] = 0;
+		}
+	}
+	
 }